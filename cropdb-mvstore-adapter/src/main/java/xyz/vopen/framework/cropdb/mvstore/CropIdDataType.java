@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2019-2020. Crop author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.vopen.framework.cropdb.mvstore;
+
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.DataType;
+import org.h2.mvstore.type.ObjectDataType;
+import xyz.vopen.framework.cropdb.collection.CropId;
+import xyz.vopen.framework.cropdb.exceptions.CropIOException;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link DataType} for {@link CropId} keys, which writes the id as a fixed 8-byte big-endian
+ * long after a format tag.
+ *
+ * <p>Maps written by an older version store the keys through {@link ObjectDataType} as serialized
+ * objects. Such keys are recognized by their tag and read with the {@link ObjectDataType}.
+ *
+ * @since 4.0
+ * @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a>
+ */
+class CropIdDataType implements DataType {
+  // tag of a java serialized object in ObjectDataType
+  private static final byte LEGACY_FORMAT = 19;
+  private static final byte LONG_FORMAT = 1;
+
+  private final ObjectDataType legacyType = new ObjectDataType();
+
+  @Override
+  public int compare(Object a, Object b) {
+    return ((CropId) a).compareTo((CropId) b);
+  }
+
+  @Override
+  public int getMemory(Object obj) {
+    return 24;
+  }
+
+  @Override
+  public void write(WriteBuffer buff, Object obj) {
+    buff.put(LONG_FORMAT);
+    buff.putLong(((CropId) obj).getLongValue());
+  }
+
+  @Override
+  public void write(WriteBuffer buff, Object[] obj, int len, boolean key) {
+    for (int i = 0; i < len; i++) {
+      write(buff, obj[i]);
+    }
+  }
+
+  @Override
+  public Object read(ByteBuffer buff) {
+    byte format = buff.get();
+    if (format == LONG_FORMAT) {
+      return CropId.createId(buff.getLong());
+    } else if (format == LEGACY_FORMAT) {
+      // rewind and read the old serialized form
+      buff.position(buff.position() - 1);
+      return legacyType.read(buff);
+    }
+    throw new CropIOException("invalid crop id format " + format);
+  }
+
+  @Override
+  public void read(ByteBuffer buff, Object[] obj, int len, boolean key) {
+    for (int i = 0; i < len; i++) {
+      obj[i] = read(buff);
+    }
+  }
+}
@@ -36,6 +36,7 @@ class CropMVMap<Key, Value> implements CropMap<Key, Value> {
   private final MVMap<Key, Value> mvMap;
   private final CropStore<?> cropStore;
   private final MVStore mvStore;
+  private final CropObjectDataType dataType;
   private final AtomicBoolean droppedFlag;
   private final AtomicBoolean closedFlag;
 
@@ -43,6 +44,10 @@ class CropMVMap<Key, Value> implements CropMap<Key, Value> {
     this.mvMap = mvMap;
     this.cropStore = cropStore;
     this.mvStore = mvMap.getStore();
+    this.dataType =
+        mvMap.getValueType() instanceof CropObjectDataType
+            ? (CropObjectDataType) mvMap.getValueType()
+            : null;
     this.closedFlag = new AtomicBoolean(false);
     this.droppedFlag = new AtomicBoolean(false);
   }
@@ -105,6 +110,7 @@ class CropMVMap<Key, Value> implements CropMap<Key, Value> {
     ValidationUtils.notNull(value, "value cannot be null");
     MVStore.TxCounter txCounter = mvStore.registerVersionUsage();
     try {
+      registerFieldNames(value);
       mvMap.put(key, value);
       updateLastModifiedTime();
     } finally {
@@ -112,6 +118,21 @@ class CropMVMap<Key, Value> implements CropMap<Key, Value> {
     }
   }
 
+  @Override
+  public void putAll(Map<Key, Value> entries) {
+    MVStore.TxCounter txCounter = mvStore.registerVersionUsage();
+    try {
+      for (Map.Entry<Key, Value> entry : entries.entrySet()) {
+        ValidationUtils.notNull(entry.getValue(), "value cannot be null");
+        registerFieldNames(entry.getValue());
+        mvMap.put(entry.getKey(), entry.getValue());
+      }
+      updateLastModifiedTime();
+    } finally {
+      mvStore.deregisterVersionUsage(txCounter);
+    }
+  }
+
   @Override
   public long size() {
     return mvMap.sizeAsLong();
@@ -122,6 +143,7 @@ class CropMVMap<Key, Value> implements CropMap<Key, Value> {
     ValidationUtils.notNull(value, "value cannot be null");
     MVStore.TxCounter txCounter = mvStore.registerVersionUsage();
     try {
+      registerFieldNames(value);
       Value v = mvMap.putIfAbsent(key, value);
       updateLastModifiedTime();
       return v;
@@ -154,6 +176,12 @@ class CropMVMap<Key, Value> implements CropMap<Key, Value> {
     return () -> new ReverseIterator<>(mvMap);
   }
 
+  @Override
+  public RecordStream<Pair<Key, Value>> entries(
+      Key from, boolean fromInclusive, Key to, boolean toInclusive, boolean reverse) {
+    return () -> new RangeIterator<>(mvMap, from, fromInclusive, to, toInclusive, reverse);
+  }
+
   @Override
   public Key higherKey(Key key) {
     return mvMap.higherKey(key);
@@ -202,4 +230,10 @@ class CropMVMap<Key, Value> implements CropMap<Key, Value> {
       cropStore.closeMap(getName());
     }
   }
+
+  private void registerFieldNames(Value value) {
+    if (dataType != null) {
+      dataType.registerFieldNames(value);
+    }
+  }
 }
@@ -44,8 +44,8 @@ class CropMVRTreeMap<Key extends BoundingBox, Value> implements CropRTree<Key, V
 
   @Override
   public void add(Key key, CropId cropId) {
-    if (cropId != null && cropId.getIdValue() != null) {
-      SpatialKey spatialKey = getKey(key, Long.parseLong(cropId.getIdValue()));
+    if (cropId != null) {
+      SpatialKey spatialKey = getKey(key, cropId.getLongValue());
       MVStore.TxCounter txCounter = mvStore.registerVersionUsage();
       try {
         mvMap.add(spatialKey, key);
@@ -57,8 +57,8 @@ class CropMVRTreeMap<Key extends BoundingBox, Value> implements CropRTree<Key, V
 
   @Override
   public void remove(Key key, CropId cropId) {
-    if (cropId != null && cropId.getIdValue() != null) {
-      SpatialKey spatialKey = getKey(key, Long.parseLong(cropId.getIdValue()));
+    if (cropId != null) {
+      SpatialKey spatialKey = getKey(key, cropId.getLongValue());
       MVStore.TxCounter txCounter = mvStore.registerVersionUsage();
       try {
         mvMap.remove(spatialKey);
@@ -107,7 +107,7 @@ class CropMVRTreeMap<Key extends BoundingBox, Value> implements CropRTree<Key, V
               @Override
               public CropId next() {
                 SpatialKey next = treeCursor.next();
-                return CropId.createId(Long.toString(next.getId()));
+                return CropId.createId(next.getId());
               }
             });
   }
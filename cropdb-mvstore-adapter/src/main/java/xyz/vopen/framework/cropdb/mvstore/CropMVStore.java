@@ -17,6 +17,7 @@
 package xyz.vopen.framework.cropdb.mvstore;
 
 import lombok.extern.slf4j.Slf4j;
+import xyz.vopen.framework.cropdb.collection.CropId;
 import xyz.vopen.framework.cropdb.common.util.StringUtils;
 import xyz.vopen.framework.cropdb.index.BoundingBox;
 import xyz.vopen.framework.cropdb.store.AbstractCropStore;
@@ -38,6 +39,7 @@ import java.util.concurrent.ConcurrentHashMap;
 @Slf4j
 public class CropMVStore extends AbstractCropStore<MVStoreConfig> {
   private MVStore mvStore;
+  private CropObjectDataType dataType;
   private final Map<String, CropMap<?, ?>> cropMapRegistry;
   private final Map<String, CropRTree<?, ?>> cropRTreeMapRegistry;
 
@@ -50,6 +52,7 @@ public class CropMVStore extends AbstractCropStore<MVStoreConfig> {
   @Override
   public void openOrCreate() {
     this.mvStore = MVStoreUtils.openOrCreate(getStoreConfig());
+    this.dataType = new CropObjectDataType(new FieldNameDictionary(mvStore));
     initEventBus();
     alert(StoreEvents.Opened);
   }
@@ -71,6 +74,7 @@ public class CropMVStore extends AbstractCropStore<MVStoreConfig> {
 
   @Override
   public void commit() {
+    flushLastModifiedTimes();
     mvStore.commit();
     alert(StoreEvents.Commit);
   }
@@ -111,7 +115,14 @@ public class CropMVStore extends AbstractCropStore<MVStoreConfig> {
       return (CropMVMap<Key, Value>) cropMapRegistry.get(mapName);
     }
 
-    MVMap<Key, Value> mvMap = mvStore.openMap(mapName);
+    MVMap.Builder<Key, Value> builder = new MVMap.Builder<Key, Value>().valueType(dataType);
+    if (keyType == CropId.class) {
+      builder.keyType(new CropIdDataType());
+    } else {
+      builder.keyType(dataType);
+    }
+
+    MVMap<Key, Value> mvMap = mvStore.openMap(mapName, builder);
     CropMVMap<Key, Value> cropMVMap = new CropMVMap<>(mvMap, this);
     cropMapRegistry.put(mapName, cropMVMap);
     return cropMVMap;
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2019-2020. Crop author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.vopen.framework.cropdb.mvstore;
+
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.DataType;
+import org.h2.mvstore.type.ObjectDataType;
+import xyz.vopen.framework.cropdb.collection.CropId;
+import xyz.vopen.framework.cropdb.collection.Document;
+import xyz.vopen.framework.cropdb.common.DBNull;
+import xyz.vopen.framework.cropdb.common.tuples.Pair;
+import xyz.vopen.framework.cropdb.index.CompoundKey;
+import xyz.vopen.framework.cropdb.index.CropIdBitmap;
+import xyz.vopen.framework.cropdb.index.DBValue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@link DataType} of the keys and values of crop maps. Documents, index keys, compound index
+ * keys, id posting lists and ids are written in a compact binary form with their own tags. The
+ * fields of a document are written with the numbers of a {@link FieldNameDictionary} instead of
+ * their names.
+ *
+ * <p>All other objects, and everything written by an older version, are written and read by the
+ * {@link ObjectDataType}, whose tags are not used by this type.
+ *
+ * @since 4.0
+ * @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a>
+ */
+class CropObjectDataType implements DataType {
+  private static final byte DOCUMENT = 20;
+  private static final byte DB_VALUE = 21;
+  private static final byte DB_NULL = 22;
+  private static final byte ID_BITMAP = 23;
+  private static final byte CROP_ID = 24;
+  private static final byte LIST = 25;
+  private static final byte COMPOUND_KEY = 26;
+  // tag of a java serialized object in ObjectDataType
+  private static final byte SERIALIZED_OBJECT = 19;
+
+  private final FieldNameDictionary dictionary;
+  private final ObjectDataType legacyType;
+
+  CropObjectDataType(FieldNameDictionary dictionary) {
+    this.dictionary = dictionary;
+    this.legacyType = new ObjectDataType();
+  }
+
+  /**
+   * Numbers the field names of a value before it is put into a map, so that the names are stored
+   * in the same or an earlier version of the store than the value.
+   *
+   * @param value the value
+   */
+  void registerFieldNames(Object value) {
+    if (value instanceof Document) {
+      for (Pair<String, Object> field : (Document) value) {
+        dictionary.getId(field.getFirst());
+        registerFieldNames(field.getSecond());
+      }
+    } else if (isList(value)) {
+      for (Object item : (List<?>) value) {
+        registerFieldNames(item);
+      }
+    }
+  }
+
+  @Override
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public int compare(Object a, Object b) {
+    if (a instanceof DBValue && b instanceof DBValue) {
+      return ((DBValue) a).compareTo((DBValue) b);
+    }
+    if (a instanceof CompoundKey && b instanceof CompoundKey) {
+      return ((CompoundKey) a).compareTo((CompoundKey) b);
+    }
+    if (a instanceof CropId && b instanceof CropId) {
+      return ((CropId) a).compareTo((CropId) b);
+    }
+    return legacyType.compare(a, b);
+  }
+
+  @Override
+  public int getMemory(Object obj) {
+    if (obj instanceof Document) {
+      int memory = 64;
+      for (Pair<String, Object> field : (Document) obj) {
+        // the names are shared with the dictionary
+        memory += 48 + getMemory(field.getSecond());
+      }
+      return memory;
+    } else if (obj instanceof DBValue) {
+      DBValue dbValue = (DBValue) obj;
+      return dbValue.getValue() == null ? 0 : 24 + getMemory(dbValue.getValue());
+    } else if (obj instanceof CompoundKey) {
+      CompoundKey compoundKey = (CompoundKey) obj;
+      int memory = 64;
+      for (int i = 0; i < compoundKey.size(); i++) {
+        memory += 8 + getMemory(compoundKey.getValue(i));
+      }
+      return memory;
+    } else if (obj instanceof CropIdBitmap) {
+      return 64 + 2 * ((CropIdBitmap) obj).size();
+    } else if (obj instanceof CropId) {
+      return 24;
+    } else if (isList(obj)) {
+      int memory = 40;
+      for (Object item : (List<?>) obj) {
+        memory += 8 + getMemory(item);
+      }
+      return memory;
+    } else if (obj instanceof String) {
+      return 40 + 2 * ((String) obj).length();
+    } else if (obj == null) {
+      return 0;
+    }
+    return legacyType.getMemory(obj);
+  }
+
+  @Override
+  public void write(WriteBuffer buff, Object obj) {
+    if (obj instanceof Document) {
+      Document document = (Document) obj;
+      buff.put(DOCUMENT).putVarInt(document.size());
+      for (Pair<String, Object> field : document) {
+        buff.putVarInt(dictionary.getId(field.getFirst()));
+        write(buff, field.getSecond());
+      }
+    } else if (obj instanceof DBNull) {
+      buff.put(DB_NULL);
+    } else if (obj instanceof DBValue) {
+      buff.put(DB_VALUE);
+      write(buff, ((DBValue) obj).getValue());
+    } else if (obj instanceof CompoundKey) {
+      // only the entries of an index are stored, never the bounds of a scan
+      CompoundKey compoundKey = (CompoundKey) obj;
+      buff.put(COMPOUND_KEY).putVarInt(compoundKey.size());
+      for (int i = 0; i < compoundKey.size(); i++) {
+        write(buff, compoundKey.getValue(i));
+      }
+      buff.putLong(compoundKey.getCropId().getLongValue());
+    } else if (obj instanceof CropIdBitmap) {
+      byte[] bytes = ((CropIdBitmap) obj).toBytes();
+      buff.put(ID_BITMAP).putVarInt(bytes.length).put(bytes);
+    } else if (obj instanceof CropId) {
+      buff.put(CROP_ID).putLong(((CropId) obj).getLongValue());
+    } else if (isList(obj)) {
+      List<?> list = (List<?>) obj;
+      buff.put(LIST).putVarInt(list.size());
+      for (Object item : list) {
+        write(buff, item);
+      }
+    } else if (obj instanceof Date && obj.getClass() != Date.class) {
+      // the object data type would read back a subclass of date as a plain date
+      byte[] bytes = ObjectDataType.serialize(obj);
+      buff.put(SERIALIZED_OBJECT).putVarInt(bytes.length).put(bytes);
+    } else {
+      legacyType.write(buff, obj);
+    }
+  }
+
+  @Override
+  public void write(WriteBuffer buff, Object[] obj, int len, boolean key) {
+    for (int i = 0; i < len; i++) {
+      write(buff, obj[i]);
+    }
+  }
+
+  @Override
+  public Object read(ByteBuffer buff) {
+    int position = buff.position();
+    byte tag = buff.get();
+    switch (tag) {
+      case DOCUMENT:
+        int size = DataUtils.readVarInt(buff);
+        Map<String, Object> fields = new LinkedHashMap<>(Math.max(16, size * 4 / 3 + 1));
+        for (int i = 0; i < size; i++) {
+          String name = dictionary.getName(DataUtils.readVarInt(buff));
+          fields.put(name, read(buff));
+        }
+        return Document.createDocument(fields);
+      case DB_NULL:
+        return DBNull.getInstance();
+      case DB_VALUE:
+        return new DBValue((Comparable<?>) read(buff));
+      case COMPOUND_KEY:
+        DBValue[] values = new DBValue[DataUtils.readVarInt(buff)];
+        for (int i = 0; i < values.length; i++) {
+          values[i] = (DBValue) read(buff);
+        }
+        return new CompoundKey(values, CropId.createId(buff.getLong()));
+      case ID_BITMAP:
+        byte[] bytes = new byte[DataUtils.readVarInt(buff)];
+        buff.get(bytes);
+        return CropIdBitmap.fromBytes(bytes);
+      case CROP_ID:
+        return CropId.createId(buff.getLong());
+      case LIST:
+        int count = DataUtils.readVarInt(buff);
+        List<Object> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+          list.add(read(buff));
+        }
+        return list;
+      default:
+        // rewind and read the object data type form
+        buff.position(position);
+        return legacyType.read(buff);
+    }
+  }
+
+  @Override
+  public void read(ByteBuffer buff, Object[] obj, int len, boolean key) {
+    for (int i = 0; i < len; i++) {
+      obj[i] = read(buff);
+    }
+  }
+
+  private static boolean isList(Object obj) {
+    // other lists are serialized, so that they are read back with their own class
+    return obj != null && obj.getClass() == ArrayList.class;
+  }
+}
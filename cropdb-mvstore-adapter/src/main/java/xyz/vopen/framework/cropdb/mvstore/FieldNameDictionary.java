@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2019-2020. Crop author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.vopen.framework.cropdb.mvstore;
+
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import xyz.vopen.framework.cropdb.exceptions.CropIOException;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps the field names of the stored documents to small numbers, so that a document is written
+ * with the number of a field instead of its name. The names are kept in a map of the store and
+ * never change their number.
+ *
+ * @since 4.0
+ * @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a>
+ */
+class FieldNameDictionary {
+  static final String MAP_NAME = "$crop_field_names";
+
+  private final MVMap<Integer, String> nameMap;
+  private final Map<String, Integer> ids;
+  private volatile String[] names;
+
+  FieldNameDictionary(MVStore mvStore) {
+    this.nameMap = mvStore.openMap(MAP_NAME);
+    this.ids = new ConcurrentHashMap<>();
+
+    String[] loaded = new String[nameMap.size()];
+    for (Map.Entry<Integer, String> entry : nameMap.entrySet()) {
+      loaded[entry.getKey()] = entry.getValue();
+      ids.put(entry.getValue(), entry.getKey());
+    }
+    this.names = loaded;
+  }
+
+  /**
+   * Gets the number of a field name, a new name gets the next free number.
+   *
+   * @param name the field name
+   * @return the number
+   */
+  int getId(String name) {
+    Integer id = ids.get(name);
+    return id != null ? id : register(name);
+  }
+
+  /**
+   * Gets the field name of a number.
+   *
+   * @param id the number
+   * @return the field name
+   */
+  String getName(int id) {
+    String[] current = names;
+    if (id < 0 || id >= current.length) {
+      throw new CropIOException("unknown field name number " + id);
+    }
+    return current[id];
+  }
+
+  private synchronized int register(String name) {
+    Integer id = ids.get(name);
+    if (id != null) {
+      return id;
+    }
+
+    // the name is written before any document using it
+    int next = names.length;
+    nameMap.put(next, name);
+
+    String[] extended = Arrays.copyOf(names, next + 1);
+    extended[next] = name;
+    names = extended;
+    ids.put(name, next);
+    return next;
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2019-2020. Crop author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.vopen.framework.cropdb.mvstore;
+
+import org.h2.mvstore.Cursor;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.type.DataType;
+import xyz.vopen.framework.cropdb.common.tuples.Pair;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the entries of a {@link MVMap} whose keys lie within a range. Ascending scans walk
+ * a single {@link Cursor}, descending scans step through a snapshot of the map from the upper
+ * bound.
+ *
+ * @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a>
+ * @since 4.0
+ */
+class RangeIterator<Key, Value> implements Iterator<Pair<Key, Value>> {
+  private final MVMap<Key, Value> mvMap;
+  private final DataType keyType;
+  private final Key from;
+  private final boolean fromInclusive;
+  private final Key to;
+  private final boolean toInclusive;
+  private final boolean reverse;
+  private final Cursor<Key, Value> cursor;
+
+  private Pair<Key, Value> nextPair;
+  private boolean finished;
+
+  RangeIterator(
+      MVMap<Key, Value> mvMap,
+      Key from,
+      boolean fromInclusive,
+      Key to,
+      boolean toInclusive,
+      boolean reverse) {
+    // the map version may be older than the versions the store retains, e.g. after a reopen
+    this.mvMap = mvMap.openVersion(mvMap.getStore().getCurrentVersion());
+    this.keyType = mvMap.getKeyType();
+    this.from = from;
+    this.fromInclusive = fromInclusive;
+    this.to = to;
+    this.toInclusive = toInclusive;
+    this.reverse = reverse;
+    this.cursor = reverse ? null : this.mvMap.cursor(from);
+
+    if (reverse) {
+      Key key;
+      if (to == null) {
+        key = this.mvMap.lastKey();
+      } else {
+        key = toInclusive ? this.mvMap.floorKey(to) : this.mvMap.lowerKey(to);
+      }
+      setNextPair(key);
+    } else {
+      advance();
+    }
+  }
+
+  @Override
+  public boolean hasNext() {
+    return !finished;
+  }
+
+  @Override
+  public Pair<Key, Value> next() {
+    if (finished) {
+      throw new NoSuchElementException();
+    }
+
+    Pair<Key, Value> result = nextPair;
+    if (reverse) {
+      setNextPair(mvMap.lowerKey(result.getFirst()));
+    } else {
+      advance();
+    }
+    return result;
+  }
+
+  private void advance() {
+    while (cursor.hasNext()) {
+      Key key = cursor.next();
+      if (!fromInclusive && from != null && keyType.compare(key, from) == 0) {
+        continue;
+      }
+
+      if (isAfterUpperBound(key)) {
+        break;
+      }
+
+      nextPair = new Pair<>(key, cursor.getValue());
+      return;
+    }
+    nextPair = null;
+    finished = true;
+  }
+
+  private void setNextPair(Key key) {
+    if (key == null || isBeforeLowerBound(key)) {
+      nextPair = null;
+      finished = true;
+    } else {
+      nextPair = new Pair<>(key, mvMap.get(key));
+    }
+  }
+
+  private boolean isAfterUpperBound(Key key) {
+    if (to == null) {
+      return false;
+    }
+    int cmp = keyType.compare(key, to);
+    return toInclusive ? cmp > 0 : cmp >= 0;
+  }
+
+  private boolean isBeforeLowerBound(Key key) {
+    if (from == null) {
+      return false;
+    }
+    int cmp = keyType.compare(key, from);
+    return fromInclusive ? cmp < 0 : cmp <= 0;
+  }
+}
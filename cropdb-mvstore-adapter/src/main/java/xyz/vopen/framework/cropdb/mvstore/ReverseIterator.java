@@ -13,7 +13,7 @@ public class ReverseIterator<Key, Value> implements Iterator<Pair<Key, Value>> {
   private boolean started;
 
   public ReverseIterator(MVMap<Key, Value> mvMap) {
-    long version = mvMap.getVersion();
+    long version = mvMap.getStore().getCurrentVersion();
     this.mvMap = mvMap.openVersion(version);
     this.anchor = this.mvMap.lastKey();
     this.started = false;
@@ -23,6 +23,7 @@ import xyz.vopen.framework.cropdb.common.DBNull;
 import xyz.vopen.framework.cropdb.common.Fields;
 import xyz.vopen.framework.cropdb.exceptions.CropIOException;
 import xyz.vopen.framework.cropdb.exceptions.ValidationException;
+import xyz.vopen.framework.cropdb.index.CropIdBitmap;
 import xyz.vopen.framework.cropdb.index.DBValue;
 import xyz.vopen.framework.cropdb.index.IndexDescriptor;
 import xyz.vopen.framework.cropdb.index.IndexMeta;
@@ -79,15 +80,18 @@ public class MigrationUtil {
       for (Map.Entry entry : entrySet) {
         Object key = entry.getKey();
         Object newKey = entry.getKey();
+        Object newValue = migrateValue(entry.getValue());
 
         if (key instanceof Compat.CropId) {
           newKey = cropId((Compat.CropId) key);
         } else if (oldMap.getName().contains(Constants.INDEX_PREFIX)) {
-          // index map, wrap with DBValue
+          // index map, wrap with DBValue and store the crop ids as posting list
           newKey = newKey == null ? DBNull.getInstance() : new DBValue((Comparable<?>) newKey);
+          if (newValue instanceof Collection) {
+            newValue = CropIdBitmap.valueOf(newValue);
+          }
         }
 
-        Object newValue = migrateValue(entry.getValue());
         newMap.put(newKey, newValue);
       }
     }
@@ -207,7 +211,7 @@ public class MigrationUtil {
   }
 
   private static CropId cropId(Compat.CropId value) {
-    return CropId.createId(Long.toString(value.getIdValue()));
+    return CropId.createId(value.getIdValue());
   }
 
   private static UserCredential credential(Compat.UserCredential value) {
@@ -58,6 +58,7 @@ class ReplicaChangeListener implements CollectionEventListener {
               break;
             case IndexStart:
             case IndexEnd:
+            case IndexFailed:
               break;
           }
         }
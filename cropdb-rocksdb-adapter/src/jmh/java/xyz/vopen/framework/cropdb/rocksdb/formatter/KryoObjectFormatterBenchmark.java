@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2019-2020. Crop author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.vopen.framework.cropdb.rocksdb.formatter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import xyz.vopen.framework.cropdb.collection.CropId;
+import xyz.vopen.framework.cropdb.collection.Document;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of {@link KryoObjectFormatter} when one thread and when all the
+ * processors encode and decode documents through a single formatter, as the stores of a database
+ * share one. The multi threaded score divided by the single threaded one shows how the pooled
+ * kryo instances scale.
+ *
+ * <p>Run with <code>./gradlew :cropdb-rocksdb-adapter:jmh</code>.
+ *
+ * @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class KryoObjectFormatterBenchmark {
+  private KryoObjectFormatter formatter;
+  private Document document;
+  private byte[] documentBytes;
+  private CropId cropId;
+
+  @Setup
+  public void setup() {
+    formatter = new KryoObjectFormatter();
+
+    document =
+        Document.createDocument("firstName", "John")
+            .put("lastName", "Doe")
+            .put("age", 42)
+            .put("score", 87.5)
+            .put("active", true)
+            .put("tags", Arrays.asList("alpha", "beta", "gamma"))
+            .put("address", Document.createDocument("city", "Berlin").put("zip", "10115"));
+    documentBytes = formatter.encode(document);
+
+    cropId = CropId.newId();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public byte[] encodeDocumentSingleThread() {
+    return formatter.encode(document);
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public byte[] encodeDocumentAllThreads() {
+    return formatter.encode(document);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public Document decodeDocumentSingleThread() {
+    return formatter.decode(documentBytes, Document.class);
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public Document decodeDocumentAllThreads() {
+    return formatter.decode(documentBytes, Document.class);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public CropId encodeDecodeKeySingleThread() {
+    return formatter.decodeKey(formatter.encodeKey(cropId), CropId.class);
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public CropId encodeDecodeKeyAllThreads() {
+    return formatter.decodeKey(formatter.encodeKey(cropId), CropId.class);
+  }
+}
@@ -19,4 +19,6 @@ package xyz.vopen.framework.cropdb.rocksdb;
 /** @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a> */
 public class Constants {
   public static final byte[] DB_NULL = new byte[] {-1};
+  public static final String SIZE_MAP_NAME = "$crop_map_sizes";
+  public static final String ESTIMATE_NUM_KEYS = "rocksdb.estimate-num-keys";
 }
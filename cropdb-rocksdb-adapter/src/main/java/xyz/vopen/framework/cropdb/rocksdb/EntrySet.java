@@ -1,6 +1,7 @@
 package xyz.vopen.framework.cropdb.rocksdb;
 
 import xyz.vopen.framework.cropdb.common.tuples.Pair;
+import xyz.vopen.framework.cropdb.exceptions.CropIOException;
 import xyz.vopen.framework.cropdb.rocksdb.formatter.ObjectFormatter;
 import org.rocksdb.*;
 
@@ -8,21 +9,18 @@ import java.util.Iterator;
 
 class EntrySet<K, V> implements Iterable<Pair<K, V>> {
   private final ObjectFormatter objectFormatter;
-  private final RocksDB rocksDB;
-  private final ColumnFamilyHandle columnFamilyHandle;
+  private final RocksDBMap<?, ?> cropMap;
   private final Class<?> keyType;
   private final Class<?> valueType;
   private final boolean reverse;
 
   public EntrySet(
-      RocksDB rocksDB,
-      ColumnFamilyHandle columnFamilyHandle,
+      RocksDBMap<?, ?> cropMap,
       ObjectFormatter objectFormatter,
       Class<?> keyType,
       Class<?> valueType,
       boolean reverse) {
-    this.rocksDB = rocksDB;
-    this.columnFamilyHandle = columnFamilyHandle;
+    this.cropMap = cropMap;
     this.objectFormatter = objectFormatter;
     this.keyType = keyType;
     this.valueType = valueType;
@@ -35,10 +33,13 @@ class EntrySet<K, V> implements Iterable<Pair<K, V>> {
   }
 
   private class EntryIterator implements Iterator<Pair<K, V>> {
+    private final RocksDBBatch batch;
     private final RocksIterator rawEntryIterator;
+    private boolean closed;
 
     public EntryIterator() {
-      rawEntryIterator = rocksDB.newIterator(columnFamilyHandle);
+      batch = cropMap.getCurrentBatch();
+      rawEntryIterator = cropMap.newIterator(batch, null);
       if (reverse) {
         rawEntryIterator.seekToLast();
       } else {
@@ -48,10 +49,20 @@ class EntrySet<K, V> implements Iterable<Pair<K, V>> {
 
     @Override
     public boolean hasNext() {
+      // a closed iterator must not be used again
+      if (closed) {
+        return false;
+      }
+      if (batch != null && batch.isClosed()) {
+        // the iterator read the writes of the batch, which are gone
+        throw new CropIOException("iterator used after the end of its batch");
+      }
+
       try {
         boolean result = rawEntryIterator.isValid();
         if (!result) {
-          rawEntryIterator.close();
+          closed = true;
+          cropMap.closeIterator(batch, rawEntryIterator);
         }
         return result;
       } catch (AssertionError e) {
@@ -64,7 +75,7 @@ class EntrySet<K, V> implements Iterable<Pair<K, V>> {
     public Pair<K, V> next() {
       K key = (K) objectFormatter.decodeKey(rawEntryIterator.key(), keyType);
       try {
-        V value = (V) objectFormatter.decode(rawEntryIterator.value(), valueType);
+        V value = (V) objectFormatter.decodeLazily(rawEntryIterator.value(), valueType);
         if (reverse) {
           rawEntryIterator.prev();
         } else {
@@ -1,25 +1,21 @@
 package xyz.vopen.framework.cropdb.rocksdb;
 
+import xyz.vopen.framework.cropdb.exceptions.CropIOException;
 import xyz.vopen.framework.cropdb.rocksdb.formatter.ObjectFormatter;
-import org.rocksdb.ColumnFamilyHandle;
-import org.rocksdb.RocksDB;
 import org.rocksdb.RocksIterator;
 
 import java.util.Iterator;
 
 class KeySet<K> implements Iterable<K> {
   private final ObjectFormatter objectFormatter;
-  private final RocksDB rocksDB;
-  private final ColumnFamilyHandle columnFamilyHandle;
+  private final RocksDBMap<?, ?> cropMap;
   private final Class<?> keyType;
 
   public KeySet(
-      RocksDB rocksDB,
-      ColumnFamilyHandle columnFamilyHandle,
+      RocksDBMap<?, ?> cropMap,
       ObjectFormatter objectFormatter,
       Class<?> keyType) {
-    this.rocksDB = rocksDB;
-    this.columnFamilyHandle = columnFamilyHandle;
+    this.cropMap = cropMap;
     this.objectFormatter = objectFormatter;
     this.keyType = keyType;
   }
@@ -30,19 +26,32 @@ class KeySet<K> implements Iterable<K> {
   }
 
   private class KeyIterator implements Iterator<K> {
+    private final RocksDBBatch batch;
     private final RocksIterator rawEntryIterator;
+    private boolean closed;
 
     public KeyIterator() {
-      rawEntryIterator = rocksDB.newIterator(columnFamilyHandle);
+      batch = cropMap.getCurrentBatch();
+      rawEntryIterator = cropMap.newIterator(batch, null);
       rawEntryIterator.seekToFirst();
     }
 
     @Override
     public boolean hasNext() {
+      // a closed iterator must not be used again
+      if (closed) {
+        return false;
+      }
+      if (batch != null && batch.isClosed()) {
+        // the iterator read the writes of the batch, which are gone
+        throw new CropIOException("iterator used after the end of its batch");
+      }
+
       try {
         boolean result = rawEntryIterator.isValid();
         if (!result) {
-          rawEntryIterator.close();
+          closed = true;
+          cropMap.closeIterator(batch, rawEntryIterator);
         }
         return result;
       } catch (AssertionError e) {
@@ -0,0 +1,181 @@
+package xyz.vopen.framework.cropdb.rocksdb;
+
+import xyz.vopen.framework.cropdb.common.tuples.Pair;
+import xyz.vopen.framework.cropdb.exceptions.CropIOException;
+import xyz.vopen.framework.cropdb.rocksdb.formatter.ObjectFormatter;
+import org.rocksdb.*;
+import org.rocksdb.util.BytewiseComparator;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+class RangeEntrySet<K, V> implements Iterable<Pair<K, V>> {
+  private final RocksDBMap<?, ?> cropMap;
+  private final ObjectFormatter objectFormatter;
+  private final BytewiseComparator comparator;
+  private final Class<?> keyType;
+  private final Class<?> valueType;
+  private final byte[] fromKey;
+  private final boolean fromInclusive;
+  private final byte[] toKey;
+  private final boolean toInclusive;
+  private final boolean reverse;
+
+  public RangeEntrySet(
+      RocksDBMap<?, ?> cropMap,
+      ObjectFormatter objectFormatter,
+      BytewiseComparator comparator,
+      Class<?> keyType,
+      Class<?> valueType,
+      byte[] fromKey,
+      boolean fromInclusive,
+      byte[] toKey,
+      boolean toInclusive,
+      boolean reverse) {
+    this.cropMap = cropMap;
+    this.objectFormatter = objectFormatter;
+    this.comparator = comparator;
+    this.keyType = keyType;
+    this.valueType = valueType;
+    this.fromKey = fromKey;
+    this.fromInclusive = fromInclusive;
+    this.toKey = toKey;
+    this.toInclusive = toInclusive;
+    this.reverse = reverse;
+  }
+
+  @Override
+  public Iterator<Pair<K, V>> iterator() {
+    return new RangeEntryIterator();
+  }
+
+  private int compare(byte[] key, byte[] bound) {
+    return comparator.compare(ByteBuffer.wrap(key), ByteBuffer.wrap(bound));
+  }
+
+  // the smallest key sorting after the given one
+  private static byte[] successor(byte[] key) {
+    return Arrays.copyOf(key, key.length + 1);
+  }
+
+  private class RangeEntryIterator implements Iterator<Pair<K, V>> {
+    private final byte[] lower;
+    private final byte[] upper;
+    private final ReadOptions readOptions;
+    private final Slice lowerBound;
+    private final Slice upperBound;
+    private final RocksDBBatch batch;
+    private final RocksIterator rawEntryIterator;
+    private boolean valid;
+
+    public RangeEntryIterator() {
+      // the keys sort like their values, so rocksdb stops at the bounds of the range itself
+      lower = fromKey == null || fromInclusive ? fromKey : successor(fromKey);
+      upper = toKey == null || !toInclusive ? toKey : successor(toKey);
+
+      readOptions = new ReadOptions();
+      lowerBound = lower == null ? null : new Slice(lower);
+      upperBound = upper == null ? null : new Slice(upper);
+      if (lowerBound != null) {
+        readOptions.setIterateLowerBound(lowerBound);
+      }
+      if (upperBound != null) {
+        readOptions.setIterateUpperBound(upperBound);
+      }
+      batch = cropMap.getCurrentBatch();
+      rawEntryIterator = cropMap.newIterator(batch, readOptions);
+
+      if (lower != null && upper != null && compare(lower, upper) >= 0) {
+        // empty range
+        close();
+        return;
+      }
+
+      // the writes of a running batch are not limited by the read options, so the
+      // iteration seeks to the bounds and checks them
+      if (reverse) {
+        if (upper == null) {
+          rawEntryIterator.seekToLast();
+        } else {
+          rawEntryIterator.seekForPrev(upper);
+          if (rawEntryIterator.isValid() && compare(rawEntryIterator.key(), upper) >= 0) {
+            rawEntryIterator.prev();
+          }
+        }
+      } else {
+        if (lower == null) {
+          rawEntryIterator.seekToFirst();
+        } else {
+          rawEntryIterator.seek(lower);
+        }
+      }
+      checkBound();
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (valid && batch != null && batch.isClosed()) {
+        // the iterator read the writes of the batch, which are gone
+        throw new CropIOException("iterator used after the end of its batch");
+      }
+      return valid;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Pair<K, V> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+
+      K key = (K) objectFormatter.decodeKey(rawEntryIterator.key(), keyType);
+      V value = (V) objectFormatter.decodeLazily(rawEntryIterator.value(), valueType);
+      if (reverse) {
+        rawEntryIterator.prev();
+      } else {
+        rawEntryIterator.next();
+      }
+      checkBound();
+      return new Pair<>(key, value);
+    }
+
+    private void checkBound() {
+      valid = rawEntryIterator.isValid() && isInRange(rawEntryIterator.key());
+      if (!valid) {
+        close();
+      }
+    }
+
+    private boolean isInRange(byte[] key) {
+      return reverse
+          ? lower == null || compare(key, lower) >= 0
+          : upper == null || compare(key, upper) < 0;
+    }
+
+    private void close() {
+      valid = false;
+      cropMap.closeIterator(batch, rawEntryIterator);
+      closeOptions();
+    }
+
+    private void closeOptions() {
+      readOptions.close();
+      if (lowerBound != null) {
+        lowerBound.close();
+      }
+      if (upperBound != null) {
+        upperBound.close();
+      }
+    }
+
+    @Override
+    protected void finalize() throws Throwable {
+      // closing is idempotent, the batch may still close the iterator as well
+      rawEntryIterator.close();
+      closeOptions();
+      super.finalize();
+    }
+  }
+}
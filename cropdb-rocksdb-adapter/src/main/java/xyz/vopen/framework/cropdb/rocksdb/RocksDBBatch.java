@@ -0,0 +1,114 @@
+package xyz.vopen.framework.cropdb.rocksdb;
+
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.WriteBatchWithIndex;
+import org.rocksdb.WriteOptions;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+class RocksDBBatch implements AutoCloseable {
+  private final WriteBatchWithIndex writeBatch;
+  private final ReadOptions readOptions;
+  private final Map<RocksDBMap<?, ?>, Long> sizeChanges;
+  private final Set<RocksIterator> iterators;
+  private volatile boolean closed;
+
+  RocksDBBatch() {
+    // overwrite keys, so that a read finds the last write of a key in the batch
+    this.writeBatch = new WriteBatchWithIndex(true);
+    this.readOptions = new ReadOptions();
+    this.sizeChanges = new IdentityHashMap<>();
+    this.iterators = Collections.newSetFromMap(new IdentityHashMap<>());
+  }
+
+  /**
+   * Creates an iterator over the entries of the database with the writes of this batch applied
+   * over them. The iterator is closed with the batch at the latest, as it reads the batch.
+   *
+   * @param rocksDB the database
+   * @param columnFamilyHandle the column family to iterate
+   * @param readOptions the read options of the database iterator, or <code>null</code>
+   * @return the iterator
+   */
+  RocksIterator newIterator(
+      RocksDB rocksDB, ColumnFamilyHandle columnFamilyHandle, ReadOptions readOptions) {
+    RocksIterator baseIterator =
+        readOptions == null
+            ? rocksDB.newIterator(columnFamilyHandle)
+            : rocksDB.newIterator(columnFamilyHandle, readOptions);
+    // the batch iterator owns the database iterator
+    RocksIterator iterator = writeBatch.newIteratorWithBase(columnFamilyHandle, baseIterator);
+    iterators.add(iterator);
+    return iterator;
+  }
+
+  void closeIterator(RocksIterator iterator) {
+    iterators.remove(iterator);
+    iterator.close();
+  }
+
+  boolean isClosed() {
+    return closed;
+  }
+
+  byte[] get(RocksDB rocksDB, ColumnFamilyHandle columnFamilyHandle, byte[] key)
+      throws RocksDBException {
+    return writeBatch.getFromBatchAndDB(rocksDB, columnFamilyHandle, readOptions, key);
+  }
+
+  void put(ColumnFamilyHandle columnFamilyHandle, byte[] key, byte[] value)
+      throws RocksDBException {
+    writeBatch.put(columnFamilyHandle, key, value);
+  }
+
+  void delete(ColumnFamilyHandle columnFamilyHandle, byte[] key) throws RocksDBException {
+    writeBatch.delete(columnFamilyHandle, key);
+  }
+
+  void changeSize(RocksDBMap<?, ?> cropMap, long delta) {
+    sizeChanges.merge(cropMap, delta, Long::sum);
+  }
+
+  long getSizeChange(RocksDBMap<?, ?> cropMap) {
+    return sizeChanges.getOrDefault(cropMap, 0L);
+  }
+
+  void write(RocksDBReference reference) throws RocksDBException {
+    // the size changes are merged along with the entries, the writer holds the locks of
+    // the keys so no other batch decides meanwhile whether the same keys are new
+    for (Map.Entry<RocksDBMap<?, ?>, Long> entry : sizeChanges.entrySet()) {
+      if (entry.getValue() != 0) {
+        reference.changeSize(writeBatch, entry.getKey().getName(), entry.getValue());
+      }
+    }
+
+    if (writeBatch.count() > 0) {
+      try (WriteOptions writeOptions = new WriteOptions()) {
+        reference.getRocksDB().write(writeOptions, writeBatch);
+      }
+    }
+
+    // the size counters change only once the batch is written
+    for (Map.Entry<RocksDBMap<?, ?>, Long> entry : sizeChanges.entrySet()) {
+      entry.getKey().getSizeCounter().addAndGet(entry.getValue());
+    }
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    for (RocksIterator iterator : iterators) {
+      iterator.close();
+    }
+    iterators.clear();
+    writeBatch.close();
+    readOptions.close();
+  }
+}
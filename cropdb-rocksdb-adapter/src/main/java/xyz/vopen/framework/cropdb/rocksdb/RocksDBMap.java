@@ -10,17 +10,38 @@ import xyz.vopen.framework.cropdb.rocksdb.formatter.ObjectFormatter;
 import xyz.vopen.framework.cropdb.store.CropMap;
 import xyz.vopen.framework.cropdb.store.CropStore;
 import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ReadOptions;
 import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
 import org.rocksdb.RocksIterator;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
 import org.rocksdb.util.BytewiseComparator;
+import xyz.vopen.framework.cropdb.common.concurrent.StripedLock;
 import xyz.vopen.framework.cropdb.common.util.ValidationUtils;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
-
+import java.util.function.Function;
+
+/**
+ * A {@link CropMap} stored in a RocksDB column family.
+ *
+ * <p>The size of the map is kept in memory and its changes are merged into a persisted counter
+ * along with the writes. A write outside of a batch locks the stripes of its keys while it checks
+ * whether a key is new and writes it, so concurrent writes of a key count it once. The writes of a
+ * batch are counted when the batch is written, so its callers lock the keys they write, like the
+ * collections do.
+ */
 @Slf4j
 public class RocksDBMap<K, V> implements CropMap<K, V> {
+  private static final int MIGRATION_BATCH_SIZE = 10000;
+  private static final int KEY_LOCK_STRIPES = 64;
+
   private final String mapName;
   private final RocksDBReference reference;
   private final RocksDBStore store;
@@ -33,6 +54,7 @@ public class RocksDBMap<K, V> implements CropMap<K, V> {
   private ObjectFormatter objectFormatter;
   private ColumnFamilyHandle columnFamilyHandle;
   private BytewiseComparator bytewiseComparator;
+  private StripedLock keyLock;
 
   @Getter @Setter private Class<?> keyType;
 
@@ -56,6 +78,11 @@ public class RocksDBMap<K, V> implements CropMap<K, V> {
   public boolean containsKey(K k) {
     byte[] key = objectFormatter.encodeKey(k);
     try {
+      RocksDBBatch batch = store.getCurrentBatch();
+      if (batch != null) {
+        return batch.get(rocksDB, columnFamilyHandle, key) != null;
+      }
+
       // check if key definitely does not exist, then return false
       boolean result = rocksDB.keyMayExist(columnFamilyHandle, key, null);
       if (!result) return false;
@@ -73,7 +100,7 @@ public class RocksDBMap<K, V> implements CropMap<K, V> {
   public V get(K k) {
     try {
       byte[] key = objectFormatter.encodeKey(k);
-      byte[] value = rocksDB.get(columnFamilyHandle, key);
+      byte[] value = read(key);
       if (value == null) {
         return null;
       }
@@ -95,7 +122,15 @@ public class RocksDBMap<K, V> implements CropMap<K, V> {
     // drop and recreate column family and reset the size counter
     reference.dropColumnFamily(mapName);
     columnFamilyHandle = reference.getOrCreateColumnFamily(mapName);
-    size.set(0L);
+    try (WriteBatch writeBatch = new WriteBatch();
+        WriteOptions writeOptions = new WriteOptions()) {
+      reference.writeSize(writeBatch, mapName, 0);
+      rocksDB.write(writeOptions, writeBatch);
+      size.set(0);
+    } catch (RocksDBException e) {
+      log.error("Error while clearing " + mapName, e);
+      throw new CropIOException("failed to clear map", e);
+    }
     updateLastModifiedTime();
   }
 
@@ -106,8 +141,7 @@ public class RocksDBMap<K, V> implements CropMap<K, V> {
 
   @Override
   public RecordStream<V> values() {
-    return RecordStream.fromIterable(
-        new ValueSet<>(rocksDB, columnFamilyHandle, objectFormatter, getValueType()));
+    return RecordStream.fromIterable(new ValueSet<>(this, objectFormatter, getValueType()));
   }
 
   @Override
@@ -115,21 +149,37 @@ public class RocksDBMap<K, V> implements CropMap<K, V> {
   public V remove(K k) {
     try {
       byte[] key = objectFormatter.encodeKey(k);
+      RocksDBBatch batch = store.getCurrentBatch();
 
       // if the definitely does not exists return null
-      if (!rocksDB.keyMayExist(columnFamilyHandle, key, null)) {
+      if (batch == null && !rocksDB.keyMayExist(columnFamilyHandle, key, null)) {
         return null;
       }
 
       // double check if the key exists, if does not return null
-      byte[] value = reference.getRocksDB().get(columnFamilyHandle, key);
+      byte[] value = read(key);
       if (value == null) {
         return null;
       }
 
       // if key exists with null value, delete the key and return null
-      reference.getRocksDB().delete(columnFamilyHandle, key);
-      size.decrementAndGet();
+      if (batch != null) {
+        batch.delete(columnFamilyHandle, key);
+        batch.changeSize(this, -1);
+      } else {
+        BitSet stripes = lockKeys(key);
+        try (WriteBatch writeBatch = new WriteBatch()) {
+          // read again under the lock, another writer may have removed the key meanwhile
+          value = rocksDB.get(columnFamilyHandle, key);
+          if (value == null) {
+            return null;
+          }
+          writeBatch.delete(columnFamilyHandle, key);
+          writeWithSize(writeBatch, -1);
+        } finally {
+          keyLock.unlock(stripes);
+        }
+      }
       updateLastModifiedTime();
 
       return (V) objectFormatter.decode(value, getValueType());
@@ -141,8 +191,7 @@ public class RocksDBMap<K, V> implements CropMap<K, V> {
 
   @Override
   public RecordStream<K> keys() {
-    return RecordStream.fromIterable(
-        new KeySet<>(rocksDB, columnFamilyHandle, objectFormatter, getKeyType()));
+    return RecordStream.fromIterable(new KeySet<>(this, objectFormatter, getKeyType()));
   }
 
   @Override
@@ -152,13 +201,23 @@ public class RocksDBMap<K, V> implements CropMap<K, V> {
       byte[] key = objectFormatter.encodeKey(k);
       byte[] value = objectFormatter.encode(v);
 
-      // check if this is update or insert
-      boolean result = rocksDB.keyMayExist(columnFamilyHandle, key, null);
+      RocksDBBatch batch = store.getCurrentBatch();
+      if (batch != null) {
+        if (batch.get(rocksDB, columnFamilyHandle, key) == null) {
+          batch.changeSize(this, 1);
+        }
+        batch.put(columnFamilyHandle, key, value);
+        updateLastModifiedTime();
+        return;
+      }
 
-      reference.getRocksDB().put(columnFamilyHandle, key, value);
-      if (!result) {
-        // if insert then update the size
-        size.incrementAndGet();
+      // if insert then write the size change along
+      BitSet stripes = lockKeys(key);
+      try (WriteBatch writeBatch = new WriteBatch()) {
+        writeBatch.put(columnFamilyHandle, key, value);
+        writeWithSize(writeBatch, exists(key) ? 0 : 1);
+      } finally {
+        keyLock.unlock(stripes);
       }
 
       updateLastModifiedTime();
@@ -169,21 +228,58 @@ public class RocksDBMap<K, V> implements CropMap<K, V> {
   }
 
   @Override
-  public long size() {
-    if (size.get() == 0) {
-      // first time size calculation after db opening
-      try (RocksIterator iterator = rocksDB.newIterator(columnFamilyHandle)) {
-        iterator.seekToFirst();
+  public void putAll(Map<K, V> entries) {
+    if (store.getCurrentBatch() != null) {
+      // part of the running batch
+      CropMap.super.putAll(entries);
+      return;
+    }
+
+    byte[][] keys = new byte[entries.size()][];
+    byte[][] values = new byte[entries.size()][];
+    int i = 0;
+    for (Map.Entry<K, V> entry : entries.entrySet()) {
+      ValidationUtils.notNull(entry.getValue(), "value cannot be null");
+      keys[i] = objectFormatter.encodeKey(entry.getKey());
+      values[i++] = objectFormatter.encode(entry.getValue());
+    }
 
-        while (iterator.isValid()) {
-          size.incrementAndGet();
-          iterator.next();
+    BitSet stripes = lockKeys(keys);
+    try (WriteBatch writeBatch = new WriteBatch()) {
+      long inserted = 0;
+      for (i = 0; i < keys.length; i++) {
+        // check if this is update or insert
+        if (!exists(keys[i])) {
+          inserted++;
         }
+        writeBatch.put(columnFamilyHandle, keys[i], values[i]);
       }
+
+      writeWithSize(writeBatch, inserted);
+      updateLastModifiedTime();
+    } catch (RocksDBException e) {
+      log.error("Error while writing keys and values for " + mapName, e);
+      throw new CropIOException("failed to write keys and values", e);
+    } finally {
+      keyLock.unlock(stripes);
     }
+  }
 
-    // calculation already done and counter already started
-    return size.get();
+  @Override
+  public long size() {
+    // the counter is loaded on open and kept up to date by the writes
+    RocksDBBatch batch = store.getCurrentBatch();
+    return batch == null ? size.get() : size.get() + batch.getSizeChange(this);
+  }
+
+  @Override
+  public long estimateSize() {
+    try {
+      return rocksDB.getLongProperty(columnFamilyHandle, Constants.ESTIMATE_NUM_KEYS);
+    } catch (RocksDBException e) {
+      log.error("Error while estimating size of " + mapName, e);
+      throw new CropIOException("failed to estimate size", e);
+    }
   }
 
   @Override
@@ -193,17 +289,35 @@ public class RocksDBMap<K, V> implements CropMap<K, V> {
 
     try {
       byte[] key = objectFormatter.encodeKey(k);
-      byte[] oldValue = rocksDB.get(columnFamilyHandle, key);
+      RocksDBBatch batch = store.getCurrentBatch();
+      BitSet stripes = batch == null ? lockKeys(key) : null;
+      try {
+        // check if key definitely does not exist, otherwise read it
+        byte[] oldValue =
+            batch != null || rocksDB.keyMayExist(columnFamilyHandle, key, null) ? read(key) : null;
+
+        if (oldValue == null) {
+          byte[] value = objectFormatter.encode(v);
+          if (batch != null) {
+            batch.put(columnFamilyHandle, key, value);
+            batch.changeSize(this, 1);
+          } else {
+            try (WriteBatch writeBatch = new WriteBatch()) {
+              writeBatch.put(columnFamilyHandle, key, value);
+              writeWithSize(writeBatch, 1);
+            }
+          }
+
+          updateLastModifiedTime();
+          return null;
+        }
 
-      if (oldValue == null) {
-        byte[] value = objectFormatter.encode(v);
-        rocksDB.put(columnFamilyHandle, key, value);
-        size.incrementAndGet();
-        updateLastModifiedTime();
-        return null;
+        return (V) objectFormatter.decode(oldValue, getValueType());
+      } finally {
+        if (stripes != null) {
+          keyLock.unlock(stripes);
+        }
       }
-
-      return (V) objectFormatter.decode(oldValue, getValueType());
     } catch (Exception e) {
       log.error("Error while writing key and value", e);
       throw new CropIOException("failed to write key and value", e);
@@ -213,123 +327,79 @@ public class RocksDBMap<K, V> implements CropMap<K, V> {
   @Override
   public RecordStream<Pair<K, V>> entries() {
     return RecordStream.fromIterable(
-        new EntrySet<>(
-            rocksDB, columnFamilyHandle, objectFormatter, getKeyType(), getValueType(), false));
+        new EntrySet<>(this, objectFormatter, getKeyType(), getValueType(), false));
   }
 
   @Override
   public RecordStream<Pair<K, V>> reversedEntries() {
     return RecordStream.fromIterable(
-        new EntrySet<>(
-            rocksDB, columnFamilyHandle, objectFormatter, getKeyType(), getValueType(), true));
+        new EntrySet<>(this, objectFormatter, getKeyType(), getValueType(), true));
   }
 
   @Override
-  @SuppressWarnings({"unchecked", "rawtypes"})
-  public K higherKey(K k) {
-    try (RocksIterator iterator = rocksDB.newIterator(columnFamilyHandle)) {
-      byte[] key = objectFormatter.encodeKey(k);
-
-      iterator.seek(key);
-      if (!iterator.isValid()) {
-        iterator.seekToFirst();
-      }
-
-      ByteBuffer keyBuffer = ByteBuffer.wrap(key);
-      while (iterator.isValid()) {
-        byte[] nextKey = iterator.key();
-        ByteBuffer nextKeyBuffer = ByteBuffer.wrap(nextKey);
+  public RecordStream<Pair<K, V>> entries(
+      K from, boolean fromInclusive, K to, boolean toInclusive, boolean reverse) {
+    byte[] fromKey = from == null ? null : objectFormatter.encodeKey(from);
+    byte[] toKey = to == null ? null : objectFormatter.encodeKey(to);
+    return RecordStream.fromIterable(
+        new RangeEntrySet<>(
+            this,
+            objectFormatter,
+            bytewiseComparator,
+            getKeyType(),
+            getValueType(),
+            fromKey,
+            fromInclusive,
+            toKey,
+            toInclusive,
+            reverse));
+  }
 
-        if (bytewiseComparator.compare(nextKeyBuffer, keyBuffer) > 0) {
-          Comparable k2 = (Comparable) objectFormatter.decodeKey(nextKey, k.getClass());
-          return (K) k2;
-        }
-        iterator.next();
-      }
-    }
-    return null;
+  @Override
+  public K higherKey(K k) {
+    byte[] key = objectFormatter.encodeKey(k);
+    return findKey(
+        iterator -> {
+          // the keys sort like their values, so the first key after the seek is the answer
+          iterator.seek(key);
+          if (iterator.isValid() && compare(iterator.key(), key) == 0) {
+            iterator.next();
+          }
+          return currentKey(iterator);
+        });
   }
 
   @Override
-  @SuppressWarnings({"unchecked", "rawtypes"})
   public K ceilingKey(K k) {
-    try (RocksIterator iterator = rocksDB.newIterator(columnFamilyHandle)) {
-      byte[] key = objectFormatter.encodeKey(k);
-
-      iterator.seek(key);
-      if (!iterator.isValid()) {
-        iterator.seekToFirst();
-      }
-
-      ByteBuffer keyBuffer = ByteBuffer.wrap(key);
-      while (iterator.isValid()) {
-        byte[] nextKey = iterator.key();
-        ByteBuffer nextKeyBuffer = ByteBuffer.wrap(nextKey);
-
-        if (bytewiseComparator.compare(nextKeyBuffer, keyBuffer) >= 0) {
-          Comparable k2 = (Comparable) objectFormatter.decodeKey(nextKey, k.getClass());
-          return (K) k2;
-        }
-        iterator.next();
-      }
-    }
-    return null;
+    byte[] key = objectFormatter.encodeKey(k);
+    return findKey(
+        iterator -> {
+          iterator.seek(key);
+          return currentKey(iterator);
+        });
   }
 
   @Override
-  @SuppressWarnings({"unchecked", "rawtypes"})
   public K lowerKey(K k) {
-    try (RocksIterator iterator = rocksDB.newIterator(columnFamilyHandle)) {
-      byte[] key = objectFormatter.encodeKey(k);
-
-      iterator.seekForPrev(key);
-      if (!iterator.isValid()) {
-        iterator.seekToLast();
-      }
-
-      ByteBuffer keyBuffer = ByteBuffer.wrap(key);
-      while (iterator.isValid()) {
-        byte[] nextKey = iterator.key();
-        ByteBuffer nextKeyBuffer = ByteBuffer.wrap(nextKey);
-
-        if (bytewiseComparator.compare(nextKeyBuffer, keyBuffer) < 0) {
-          Comparable k2 = (Comparable) objectFormatter.decodeKey(nextKey, k.getClass());
-          return (K) k2;
-        }
-
-        iterator.prev();
-      }
-    }
-
-    return null;
+    byte[] key = objectFormatter.encodeKey(k);
+    return findKey(
+        iterator -> {
+          iterator.seekForPrev(key);
+          if (iterator.isValid() && compare(iterator.key(), key) == 0) {
+            iterator.prev();
+          }
+          return currentKey(iterator);
+        });
   }
 
   @Override
-  @SuppressWarnings({"unchecked", "rawtypes"})
   public K floorKey(K k) {
-    try (RocksIterator iterator = rocksDB.newIterator(columnFamilyHandle)) {
-      byte[] key = objectFormatter.encodeKey(k);
-
-      iterator.seekForPrev(key);
-      if (!iterator.isValid()) {
-        iterator.seekToLast();
-      }
-
-      ByteBuffer keyBuffer = ByteBuffer.wrap(key);
-      while (iterator.isValid()) {
-        byte[] nextKey = iterator.key();
-        ByteBuffer nextKeyBuffer = ByteBuffer.wrap(nextKey);
-
-        if (bytewiseComparator.compare(nextKeyBuffer, keyBuffer) <= 0) {
-          Comparable k2 = (Comparable) objectFormatter.decodeKey(nextKey, k.getClass());
-          return (K) k2;
-        }
-
-        iterator.prev();
-      }
-    }
-
-    return null;
+    byte[] key = objectFormatter.encodeKey(k);
+    return findKey(
+        iterator -> {
+          iterator.seekForPrev(key);
+          return currentKey(iterator);
+        });
   }
 
   @Override
@@ -356,13 +426,177 @@ public class RocksDBMap<K, V> implements CropMap<K, V> {
     }
   }
 
+  AtomicLong getSizeCounter() {
+    return size;
+  }
+
+  RocksDBBatch getCurrentBatch() {
+    return store.getCurrentBatch();
+  }
+
+  /**
+   * Creates an iterator over the column family of this map. Within a running batch the iterator
+   * sees the writes of the batch, like the point reads do.
+   *
+   * @param batch the running batch, or <code>null</code>
+   * @param readOptions the read options, or <code>null</code>
+   * @return the iterator
+   */
+  RocksIterator newIterator(RocksDBBatch batch, ReadOptions readOptions) {
+    if (batch != null) {
+      return batch.newIterator(rocksDB, columnFamilyHandle, readOptions);
+    }
+    return readOptions == null
+        ? rocksDB.newIterator(columnFamilyHandle)
+        : rocksDB.newIterator(columnFamilyHandle, readOptions);
+  }
+
+  void closeIterator(RocksDBBatch batch, RocksIterator iterator) {
+    if (batch != null) {
+      batch.closeIterator(iterator);
+    } else {
+      iterator.close();
+    }
+  }
+
+  private K findKey(Function<RocksIterator, K> seek) {
+    RocksDBBatch batch = store.getCurrentBatch();
+    RocksIterator iterator = newIterator(batch, null);
+    try {
+      return seek.apply(iterator);
+    } finally {
+      closeIterator(batch, iterator);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private K currentKey(RocksIterator iterator) {
+    if (!iterator.isValid()) {
+      return null;
+    }
+    return (K) objectFormatter.decodeKey(iterator.key(), getKeyType());
+  }
+
+  private int compare(byte[] key1, byte[] key2) {
+    return bytewiseComparator.compare(ByteBuffer.wrap(key1), ByteBuffer.wrap(key2));
+  }
+
+  private boolean exists(byte[] key) throws RocksDBException {
+    // check if key definitely does not exist, otherwise make sure of it
+    return rocksDB.keyMayExist(columnFamilyHandle, key, null)
+        && rocksDB.get(columnFamilyHandle, key) != null;
+  }
+
+  // locks the stripes of the keys, in ascending order so that writers of many keys do not deadlock
+  private BitSet lockKeys(byte[]... keys) {
+    BitSet stripes = new BitSet();
+    for (byte[] key : keys) {
+      // the bytes of an array do not make its hash code, so the stripe is taken from its content
+      stripes.set(keyLock.stripeOf(Arrays.hashCode(key)));
+    }
+    keyLock.lock(stripes);
+    return stripes;
+  }
+
+  // the caller locks the keys of the batch, so whether a key is new can not change meanwhile
+  private void writeWithSize(WriteBatch writeBatch, long sizeChange) throws RocksDBException {
+    if (sizeChange != 0) {
+      reference.changeSize(writeBatch, mapName, sizeChange);
+    }
+
+    try (WriteOptions writeOptions = new WriteOptions()) {
+      rocksDB.write(writeOptions, writeBatch);
+    }
+    size.addAndGet(sizeChange);
+  }
+
+  private long loadSize() {
+    try {
+      Long persisted = reference.readSize(mapName);
+      if (persisted != null) {
+        return persisted;
+      }
+
+      // written by an older version, so count the keys once and keep the counter
+      long count = 0;
+      try (RocksIterator iterator = rocksDB.newIterator(columnFamilyHandle)) {
+        for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+          count++;
+        }
+      }
+
+      try (WriteBatch writeBatch = new WriteBatch();
+          WriteOptions writeOptions = new WriteOptions()) {
+        reference.writeSize(writeBatch, mapName, count);
+        rocksDB.write(writeOptions, writeBatch);
+      }
+      return count;
+    } catch (RocksDBException e) {
+      log.error("Error while loading size of " + mapName, e);
+      throw new CropIOException("failed to load map size", e);
+    }
+  }
+
+  private byte[] read(byte[] key) throws RocksDBException {
+    // reads within a batch see the writes of the batch
+    RocksDBBatch batch = store.getCurrentBatch();
+    if (batch != null) {
+      return batch.get(rocksDB, columnFamilyHandle, key);
+    }
+    return rocksDB.get(columnFamilyHandle, key);
+  }
+
   private void initialize() {
-    this.size = new AtomicLong(0); // just initialized
     this.closedFlag = new AtomicBoolean(false);
     this.droppedFlag = new AtomicBoolean(false);
     this.objectFormatter = store.getStoreConfig().objectFormatter();
     this.columnFamilyHandle = reference.getOrCreateColumnFamily(getName());
     this.rocksDB = reference.getRocksDB();
     this.bytewiseComparator = this.reference.getDbComparator();
+    this.keyLock = new StripedLock(KEY_LOCK_STRIPES);
+    migrateLegacyKeys();
+    this.size = new AtomicLong(loadSize());
+  }
+
+  private void migrateLegacyKeys() {
+    try (RocksIterator iterator = rocksDB.newIterator(columnFamilyHandle)) {
+      // legacy keys sort before or after the current ones, so checking both ends is enough
+      iterator.seekToLast();
+      if (!iterator.isValid()) {
+        return;
+      }
+
+      boolean legacy = objectFormatter.isLegacyKey(iterator.key(), getKeyType());
+      if (!legacy) {
+        iterator.seekToFirst();
+        legacy = objectFormatter.isLegacyKey(iterator.key(), getKeyType());
+      }
+
+      if (!legacy) {
+        return;
+      }
+
+      log.info("Re-encoding the keys of " + mapName + " written by an older version");
+      try (WriteBatch writeBatch = new WriteBatch();
+          WriteOptions writeOptions = new WriteOptions()) {
+        for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+          byte[] key = iterator.key();
+          if (objectFormatter.isLegacyKey(key, getKeyType())) {
+            Object k = objectFormatter.decodeKey(key, getKeyType());
+            writeBatch.delete(columnFamilyHandle, key);
+            writeBatch.put(columnFamilyHandle, objectFormatter.encodeKey(k), iterator.value());
+          }
+
+          if (writeBatch.count() >= MIGRATION_BATCH_SIZE) {
+            rocksDB.write(writeOptions, writeBatch);
+            writeBatch.clear();
+          }
+        }
+        rocksDB.write(writeOptions, writeBatch);
+      }
+    } catch (RocksDBException e) {
+      log.error("Error while re-encoding the keys of " + mapName, e);
+      throw new CropIOException("failed to re-encode keys", e);
+    }
   }
 }
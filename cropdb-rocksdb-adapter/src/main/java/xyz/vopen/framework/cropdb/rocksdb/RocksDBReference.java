@@ -23,6 +23,8 @@ import xyz.vopen.framework.cropdb.exceptions.CropIOException;
 import org.rocksdb.*;
 import org.rocksdb.util.BytewiseComparator;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
@@ -43,6 +45,10 @@ public class RocksDBReference implements AutoCloseable {
   private List<ColumnFamilyDescriptor> columnFamilyDescriptors;
   private Map<String, ColumnFamilyHandle> columnFamilyHandleRegistry;
 
+  // the sizes are 64 bit counters which the writes add their changes to
+  private ColumnFamilyOptions sizeColumnFamilyOptions;
+  private ColumnFamilyHandle sizeColumnFamily;
+
   public RocksDBReference() {
     this.columnFamilyDescriptors = new ArrayList<>();
     this.columnFamilyHandleRegistry = new ConcurrentHashMap<>();
@@ -59,6 +65,7 @@ public class RocksDBReference implements AutoCloseable {
     dbOptions.close();
     dbComparator.close();
     columnFamilyOptions.close();
+    sizeColumnFamilyOptions.close();
     options.close();
   }
 
@@ -70,7 +77,7 @@ public class RocksDBReference implements AutoCloseable {
         ColumnFamilyHandle handle =
             rocksDB.createColumnFamily(
                 new ColumnFamilyDescriptor(
-                    name.getBytes(StandardCharsets.UTF_8), columnFamilyOptions));
+                    name.getBytes(StandardCharsets.UTF_8), getColumnFamilyOptions(name)));
         columnFamilyHandleRegistry.put(name, handle);
         return handle;
       } catch (RocksDBException e) {
@@ -94,6 +101,56 @@ public class RocksDBReference implements AutoCloseable {
     }
   }
 
+  public ColumnFamilyOptions getColumnFamilyOptions(String name) {
+    return Constants.SIZE_MAP_NAME.equals(name) ? sizeColumnFamilyOptions : columnFamilyOptions;
+  }
+
+  public Long readSize(String mapName) throws RocksDBException {
+    ColumnFamilyHandle handle = getSizeColumnFamily();
+    byte[] value = rocksDB.get(handle, mapName.getBytes(StandardCharsets.UTF_8));
+    return value == null ? null : decodeSize(value);
+  }
+
+  public void writeSize(AbstractWriteBatch writeBatch, String mapName, long size)
+      throws RocksDBException {
+    // the size is written along with the entries in one batch
+    ColumnFamilyHandle handle = getSizeColumnFamily();
+    writeBatch.put(handle, mapName.getBytes(StandardCharsets.UTF_8), encodeSize(size));
+  }
+
+  public void changeSize(AbstractWriteBatch writeBatch, String mapName, long sizeChange)
+      throws RocksDBException {
+    // the change is merged into the stored size, so concurrent writes need no lock
+    ColumnFamilyHandle handle = getSizeColumnFamily();
+    writeBatch.merge(handle, mapName.getBytes(StandardCharsets.UTF_8), encodeSize(sizeChange));
+  }
+
+  public void deleteSize(String mapName) {
+    try {
+      ColumnFamilyHandle handle = getSizeColumnFamily();
+      rocksDB.delete(handle, mapName.getBytes(StandardCharsets.UTF_8));
+    } catch (RocksDBException e) {
+      log.error("Error while deleting size of " + mapName, e);
+      throw new CropIOException("failed to delete map size", e);
+    }
+  }
+
+  private static byte[] encodeSize(long size) {
+    // the uint64add merge operator reads little endian values, negative changes wrap around
+    return ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN).putLong(size).array();
+  }
+
+  private static long decodeSize(byte[] value) {
+    return ByteBuffer.wrap(value).order(ByteOrder.LITTLE_ENDIAN).getLong();
+  }
+
+  private ColumnFamilyHandle getSizeColumnFamily() {
+    if (sizeColumnFamily == null) {
+      sizeColumnFamily = getOrCreateColumnFamily(Constants.SIZE_MAP_NAME);
+    }
+    return sizeColumnFamily;
+  }
+
   public BytewiseComparator getDbComparator() {
     // delayed initialization, otherwise initializing
     // it in ctor is throwing java.lang.UnsatisfiedLinkError
@@ -13,20 +13,24 @@ import xyz.vopen.framework.cropdb.store.CropRTree;
 import xyz.vopen.framework.cropdb.store.events.StoreEventListener;
 import xyz.vopen.framework.cropdb.store.events.StoreEvents;
 import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
 @Slf4j
 public class RocksDBStore extends AbstractCropStore<RocksDBConfig> {
   private final AtomicBoolean closed;
   private final Map<String, CropMap<?, ?>> cropMapRegistry;
+  private final ThreadLocal<RocksDBBatch> currentBatch;
   private RocksDBReference reference;
 
   public RocksDBStore() {
     super();
     cropMapRegistry = new ConcurrentHashMap<>();
+    currentBatch = new ThreadLocal<>();
     closed = new AtomicBoolean(true);
   }
 
@@ -64,9 +68,30 @@ public class RocksDBStore extends AbstractCropStore<RocksDBConfig> {
 
   @Override
   public void commit() {
+    flushLastModifiedTimes();
     alert(StoreEvents.Commit);
   }
 
+  @Override
+  public <T> T runInBatch(Supplier<T> unitOfWork) {
+    if (currentBatch.get() != null) {
+      // part of the running batch
+      return unitOfWork.get();
+    }
+
+    try (RocksDBBatch batch = new RocksDBBatch()) {
+      currentBatch.set(batch);
+      T result = unitOfWork.get();
+      batch.write(reference);
+      return result;
+    } catch (RocksDBException e) {
+      log.error("Error while writing batch", e);
+      throw new CropIOException("failed to write batch", e);
+    } finally {
+      currentBatch.remove();
+    }
+  }
+
   @Override
   public void close() {
     try {
@@ -126,6 +151,7 @@ public class RocksDBStore extends AbstractCropStore<RocksDBConfig> {
   @Override
   public void removeMap(String mapName) {
     reference.dropColumnFamily(mapName);
+    reference.deleteSize(mapName);
     getCatalog().remove(mapName);
     cropMapRegistry.remove(mapName);
   }
@@ -151,6 +177,10 @@ public class RocksDBStore extends AbstractCropStore<RocksDBConfig> {
     return "RocksDB/" + getRocksDbVersion();
   }
 
+  RocksDBBatch getCurrentBatch() {
+    return currentBatch.get();
+  }
+
   private void initEventBus() {
     if (getStoreConfig().eventListeners() != null) {
       for (StoreEventListener eventListener : getStoreConfig().eventListeners()) {
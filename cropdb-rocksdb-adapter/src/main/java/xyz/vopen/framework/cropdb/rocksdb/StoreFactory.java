@@ -82,6 +82,11 @@ class StoreFactory {
     }
 
     reference.setColumnFamilyOptions(columnFamilyOptions);
+
+    // the map sizes are counters, which the writes change with merges
+    ColumnFamilyOptions sizeColumnFamilyOptions = new ColumnFamilyOptions();
+    sizeColumnFamilyOptions.setMergeOperator(new UInt64AddOperator());
+    reference.setSizeColumnFamilyOptions(sizeColumnFamilyOptions);
   }
 
   private static void createColumnFamilyDescriptors(
@@ -97,8 +102,9 @@ class StoreFactory {
           RocksDB.listColumnFamilies(reference.getOptions(), dbConfig.filePath());
       for (byte[] columnFamily : columnFamilies) {
         if (!Arrays.equals(RocksDB.DEFAULT_COLUMN_FAMILY, columnFamily)) {
+          String name = new String(columnFamily, StandardCharsets.UTF_8);
           cfDescriptors.add(
-              new ColumnFamilyDescriptor(columnFamily, reference.getColumnFamilyOptions()));
+              new ColumnFamilyDescriptor(columnFamily, reference.getColumnFamilyOptions(name)));
         }
       }
     } catch (RocksDBException e) {
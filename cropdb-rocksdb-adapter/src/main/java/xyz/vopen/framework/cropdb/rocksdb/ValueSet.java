@@ -1,25 +1,21 @@
 package xyz.vopen.framework.cropdb.rocksdb;
 
+import xyz.vopen.framework.cropdb.exceptions.CropIOException;
 import xyz.vopen.framework.cropdb.rocksdb.formatter.ObjectFormatter;
-import org.rocksdb.ColumnFamilyHandle;
-import org.rocksdb.RocksDB;
 import org.rocksdb.RocksIterator;
 
 import java.util.Iterator;
 
 class ValueSet<V> implements Iterable<V> {
   private final ObjectFormatter objectFormatter;
-  private final RocksDB rocksDB;
-  private final ColumnFamilyHandle columnFamilyHandle;
+  private final RocksDBMap<?, ?> cropMap;
   private final Class<?> valueType;
 
   public ValueSet(
-      RocksDB rocksDB,
-      ColumnFamilyHandle columnFamilyHandle,
+      RocksDBMap<?, ?> cropMap,
       ObjectFormatter objectFormatter,
       Class<?> valueType) {
-    this.rocksDB = rocksDB;
-    this.columnFamilyHandle = columnFamilyHandle;
+    this.cropMap = cropMap;
     this.objectFormatter = objectFormatter;
     this.valueType = valueType;
   }
@@ -30,19 +26,32 @@ class ValueSet<V> implements Iterable<V> {
   }
 
   private class ValueIterator implements Iterator<V> {
+    private final RocksDBBatch batch;
     private final RocksIterator rawEntryIterator;
+    private boolean closed;
 
     public ValueIterator() {
-      rawEntryIterator = rocksDB.newIterator(columnFamilyHandle);
+      batch = cropMap.getCurrentBatch();
+      rawEntryIterator = cropMap.newIterator(batch, null);
       rawEntryIterator.seekToFirst();
     }
 
     @Override
     public boolean hasNext() {
+      // a closed iterator must not be used again
+      if (closed) {
+        return false;
+      }
+      if (batch != null && batch.isClosed()) {
+        // the iterator read the writes of the batch, which are gone
+        throw new CropIOException("iterator used after the end of its batch");
+      }
+
       try {
         boolean result = rawEntryIterator.isValid();
         if (!result) {
-          rawEntryIterator.close();
+          closed = true;
+          cropMap.closeIterator(batch, rawEntryIterator);
         }
         return result;
       } catch (AssertionError e) {
@@ -55,7 +64,7 @@ class ValueSet<V> implements Iterable<V> {
     public V next() {
       byte[] value = rawEntryIterator.value();
       rawEntryIterator.next();
-      return (V) objectFormatter.decode(value, valueType);
+      return (V) objectFormatter.decodeLazily(value, valueType);
     }
 
     @Override
@@ -0,0 +1,69 @@
+package xyz.vopen.framework.cropdb.rocksdb.formatter;
+
+import com.esotericsoftware.kryo.kryo5.Kryo;
+import com.esotericsoftware.kryo.kryo5.io.Input;
+import com.esotericsoftware.kryo.kryo5.io.Output;
+import xyz.vopen.framework.cropdb.collection.CropId;
+import xyz.vopen.framework.cropdb.index.CompoundKey;
+import xyz.vopen.framework.cropdb.index.DBValue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the keys of compound indexes as the order preserving forms of their values followed by
+ * the id of the document, so that the bytewise comparator of RocksDB sorts the keys like {@link
+ * CompoundKey#compareTo(CompoundKey)} does.
+ *
+ * <p>A lower bound is written as its values only, which is a prefix of all the keys after it. An
+ * upper bound ends with a byte which no value starts with, so it sorts after all the keys starting
+ * with its values.
+ *
+ * @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a>
+ * @since 4.0
+ */
+class CompoundKeySerializer extends KryoKeySerializer<CompoundKey> {
+  private static final byte UPPER_BOUND = (byte) 0xFF;
+
+  private final DBValueKeySerializer dbValueKeySerializer;
+
+  CompoundKeySerializer(DBValueKeySerializer dbValueKeySerializer) {
+    this.dbValueKeySerializer = dbValueKeySerializer;
+  }
+
+  @Override
+  public void write(Kryo kryo, Output output, CompoundKey object) {
+    writeKey(kryo, output, object);
+  }
+
+  @Override
+  public CompoundKey read(Kryo kryo, Input input, Class<? extends CompoundKey> type) {
+    return readKey(kryo, input, CompoundKey.class);
+  }
+
+  @Override
+  public void writeKey(Kryo kryo, Output output, CompoundKey object) {
+    for (int i = 0; i < object.size(); i++) {
+      dbValueKeySerializer.writeKey(kryo, output, object.getValue(i));
+    }
+
+    if (object.getCropId() != null) {
+      dbValueKeySerializer.writeKey(kryo, output, new DBValue(object.getCropId()));
+    } else if (object.isUpperBound()) {
+      output.writeByte(UPPER_BOUND);
+    }
+  }
+
+  @Override
+  public CompoundKey readKey(Kryo kryo, Input input, Class<CompoundKey> type) {
+    // the parts are self-delimiting, the last one is the id
+    List<DBValue> parts = new ArrayList<>();
+    while (input.position() < input.limit()) {
+      parts.add(dbValueKeySerializer.readKey(kryo, input, DBValue.class));
+    }
+
+    DBValue[] values = parts.subList(0, parts.size() - 1).toArray(new DBValue[0]);
+    CropId cropId = (CropId) parts.get(parts.size() - 1).getValue();
+    return new CompoundKey(values, cropId);
+  }
+}
@@ -9,31 +9,95 @@ import com.esotericsoftware.kryo.kryo5.serializers.MapSerializer;
 import xyz.vopen.framework.cropdb.collection.CropId;
 import xyz.vopen.framework.cropdb.collection.Document;
 import xyz.vopen.framework.cropdb.collection.meta.Attributes;
+import xyz.vopen.framework.cropdb.common.DBNull;
 import xyz.vopen.framework.cropdb.common.Fields;
 import xyz.vopen.framework.cropdb.common.tuples.Pair;
+import xyz.vopen.framework.cropdb.common.tuples.Triplet;
+import xyz.vopen.framework.cropdb.filters.Filter;
+import xyz.vopen.framework.cropdb.filters.PartialFilters;
+import xyz.vopen.framework.cropdb.index.CompoundKey;
+import xyz.vopen.framework.cropdb.index.CropIdBitmap;
 import xyz.vopen.framework.cropdb.index.DBValue;
 import xyz.vopen.framework.cropdb.index.IndexDescriptor;
 import xyz.vopen.framework.cropdb.index.IndexMeta;
+import xyz.vopen.framework.cropdb.index.IndexStatistics;
 import xyz.vopen.framework.cropdb.store.UserCredential;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /** @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a> */
 public class CropSerializers {
-  private static class CropIdSerializer extends ComparableKeySerializer<CropId> {
+  private static class CropIdSerializer extends KryoKeySerializer<CropId> {
+    // older versions wrote the id as a kryo string, which never starts with a zero or one byte
+    private static final byte LONG_FORMAT = 0;
+    // keys were first written with the little-endian long of kryo, which does not sort
+    private static final byte SORTABLE_FORMAT = 1;
 
     @Override
-    protected void writeKeyInternal(Kryo kryo, Output output, CropId object) {
-      output.writeString(object.getIdValue());
+    public void write(Kryo kryo, Output output, CropId object) {
+      String idValue = object.getIdValue();
+      if (!Long.toString(object.getLongValue()).equals(idValue)) {
+        // the text of a legacy id like "007" is kept in the older string form
+        output.writeString(idValue);
+        return;
+      }
+      output.writeByte(LONG_FORMAT);
+      output.writeLong(object.getLongValue());
     }
 
     @Override
-    protected CropId readKeyInternal(Kryo kryo, String input, Class<CropId> type) {
-      return CropId.createId(input);
+    public CropId read(Kryo kryo, Input input, Class<? extends CropId> type) {
+      int position = input.position();
+      if (input.readByte() == LONG_FORMAT) {
+        return CropId.createId(input.readLong());
+      }
+
+      input.setPosition(position);
+      return CropId.createId(input.readString());
+    }
+
+    @Override
+    public void writeKey(Kryo kryo, Output output, CropId object) {
+      // fixed 8-byte big-endian, the sign bit is flipped so that
+      // the byte order of the keys follows the numeric order
+      long value = object.getLongValue() ^ Long.MIN_VALUE;
+      output.writeByte(SORTABLE_FORMAT);
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        output.writeByte((byte) (value >>> shift));
+      }
+    }
+
+    @Override
+    public CropId readKey(Kryo kryo, Input input, Class<CropId> type) {
+      int position = input.position();
+      byte format = input.readByte();
+      if (format == SORTABLE_FORMAT) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+          value = (value << 8) | (input.readByte() & 0xFF);
+        }
+        return CropId.createId(value ^ Long.MIN_VALUE);
+      } else if (format == LONG_FORMAT) {
+        return CropId.createId(input.readLong() ^ Long.MIN_VALUE);
+      }
+
+      input.setPosition(position);
+      return CropId.createId(input.readString());
+    }
+
+    @Override
+    public boolean isLegacyKey(byte[] bytes) {
+      return bytes.length == 0 || bytes[0] != SORTABLE_FORMAT;
+    }
+
+    @Override
+    public boolean registerToKryo() {
+      return true;
     }
   }
 
@@ -94,6 +158,34 @@ public class CropSerializers {
       kryo.writeObject(output, object.getIndexDescriptor());
       output.writeString(object.getIndexMap());
       output.writeBoolean(object.getIsDirty().get());
+
+      IndexStatistics statistics = object.getStatistics();
+      output.writeBoolean(statistics != null);
+      if (statistics != null) {
+        output.writeVarLong(statistics.getEntryCount(), true);
+        output.writeVarLong(statistics.getDistinctKeyCount(), true);
+        output.writeVarLong(statistics.getModificationCount(), true);
+        List<DBValue> bucketBounds = statistics.getBucketBounds();
+        int buckets = bucketBounds == null ? 0 : bucketBounds.size();
+        output.writeVarInt(buckets, true);
+        for (int i = 0; i < buckets; i++) {
+          kryo.writeClassAndObject(output, bucketBounds.get(i).getValue());
+          output.writeVarLong(statistics.getBucketCounts()[i], true);
+        }
+      }
+
+      // written after the statistics, which an older version ends with
+      IndexDescriptor indexDescriptor = object.getIndexDescriptor();
+      output.writeBoolean(indexDescriptor.isSparse());
+      Filter partialFilter = indexDescriptor.getPartialFilter();
+      List<Triplet<String, String, Object>> terms =
+          partialFilter == null ? new ArrayList<>() : PartialFilters.toTerms(partialFilter);
+      output.writeVarInt(terms.size(), true);
+      for (Triplet<String, String, Object> term : terms) {
+        output.writeString(term.getFirst());
+        output.writeString(term.getSecond());
+        kryo.writeClassAndObject(output, term.getThird());
+      }
     }
 
     @Override
@@ -105,6 +197,39 @@ public class CropSerializers {
       indexMeta.setIndexDescriptor(indexDescriptor);
       indexMeta.setIndexMap(indexMap);
       indexMeta.setIsDirty(new AtomicBoolean(isDirty));
+
+      // index meta written by an older version ends here
+      if (!input.end() && input.readBoolean()) {
+        IndexStatistics statistics = new IndexStatistics();
+        statistics.setEntryCount(input.readVarLong(true));
+        statistics.setDistinctKeyCount(input.readVarLong(true));
+        statistics.setModificationCount(input.readVarLong(true));
+        int buckets = input.readVarInt(true);
+        List<DBValue> bucketBounds = new ArrayList<>(buckets);
+        long[] bucketCounts = new long[buckets];
+        for (int i = 0; i < buckets; i++) {
+          bucketBounds.add(new DBValue((Comparable<?>) kryo.readClassAndObject(input)));
+          bucketCounts[i] = input.readVarLong(true);
+        }
+        statistics.setBucketBounds(bucketBounds);
+        statistics.setBucketCounts(bucketCounts);
+        indexMeta.setStatistics(statistics);
+      }
+
+      // an index written by an older version holds all documents
+      if (!input.end()) {
+        indexDescriptor.setSparse(input.readBoolean());
+        int size = input.readVarInt(true);
+        List<Triplet<String, String, Object>> terms = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+          String operator = input.readString();
+          String field = input.readString();
+          terms.add(Triplet.triplet(operator, field, kryo.readClassAndObject(input)));
+        }
+        if (!terms.isEmpty()) {
+          indexDescriptor.setPartialFilter(PartialFilters.fromTerms(terms));
+        }
+      }
       return indexMeta;
     }
   }
@@ -186,8 +311,33 @@ public class CropSerializers {
     }
   }
 
+  private static class CropIdBitmapSerializer extends Serializer<CropIdBitmap> {
+    // legacy CopyOnWriteArrayList values never start with a zero byte
+    private static final byte FORMAT_MARKER = 0;
+
+    @Override
+    public void write(Kryo kryo, Output output, CropIdBitmap object) {
+      byte[] bytes = object.toBytes();
+      output.writeByte(FORMAT_MARKER);
+      output.writeVarInt(bytes.length, true);
+      output.writeBytes(bytes);
+    }
+
+    @Override
+    public CropIdBitmap read(Kryo kryo, Input input, Class<? extends CropIdBitmap> type) {
+      int position = input.position();
+      if (input.readByte() != FORMAT_MARKER) {
+        // index written by an older version, read it as list and convert
+        input.setPosition(position);
+        return CropIdBitmap.valueOf(kryo.readObject(input, CopyOnWriteArrayList.class));
+      }
+
+      int length = input.readVarInt(true);
+      return CropIdBitmap.fromBytes(input.readBytes(length));
+    }
+  }
+
   public static void registerAll(KryoObjectFormatter kryoObjectFormatter) {
-    kryoObjectFormatter.registerSerializer(CropId.class, new CropIdSerializer());
     kryoObjectFormatter.registerSerializer(Pair.class, new PairSerializer());
     kryoObjectFormatter.registerSerializer(Document.class, new DocumentSerializer());
     kryoObjectFormatter.registerSerializer(IndexMeta.class, new IndexMetaSerializer());
@@ -196,5 +346,23 @@ public class CropSerializers {
     kryoObjectFormatter.registerSerializer(Attributes.class, new AttributesSerializer());
     kryoObjectFormatter.registerSerializer(Fields.class, new FieldsSerializer());
     kryoObjectFormatter.registerSerializer(DBValue.class, new JavaSerializer());
+
+    // index keys are written in their own order preserving form
+    DBValueKeySerializer dbValueKeySerializer = new DBValueKeySerializer();
+    kryoObjectFormatter.registerSerializer(DBValue.class, dbValueKeySerializer);
+    kryoObjectFormatter.registerSerializer(DBNull.class, dbValueKeySerializer);
+    kryoObjectFormatter.registerSerializer(
+        CompoundKey.class, new CompoundKeySerializer(dbValueKeySerializer));
+  }
+
+  /**
+   * Registers the serializers of the id types. These are registered after all other serializers
+   * so that kryo class ids of the already registered types stay the same as in older versions.
+   *
+   * @param kryoObjectFormatter the kryo object formatter
+   */
+  public static void registerIdSerializers(KryoObjectFormatter kryoObjectFormatter) {
+    kryoObjectFormatter.registerSerializer(CropId.class, new CropIdSerializer());
+    kryoObjectFormatter.registerSerializer(CropIdBitmap.class, new CropIdBitmapSerializer());
   }
 }
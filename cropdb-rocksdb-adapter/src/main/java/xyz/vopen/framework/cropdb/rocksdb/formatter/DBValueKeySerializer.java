@@ -0,0 +1,372 @@
+package xyz.vopen.framework.cropdb.rocksdb.formatter;
+
+import com.esotericsoftware.kryo.kryo5.Kryo;
+import com.esotericsoftware.kryo.kryo5.io.Input;
+import com.esotericsoftware.kryo.kryo5.io.Output;
+import xyz.vopen.framework.cropdb.collection.CropId;
+import xyz.vopen.framework.cropdb.common.DBNull;
+import xyz.vopen.framework.cropdb.exceptions.CropIOException;
+import xyz.vopen.framework.cropdb.index.DBValue;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Date;
+
+/**
+ * Writes index keys in a binary form whose byte order is the order of the values, so that the
+ * bytewise comparator of RocksDB sorts the keys like {@link DBValue#compareTo(DBValue)} does.
+ *
+ * <p>A key starts with a tag byte of the value type, null keys come first. Numbers of all types
+ * share one tag and are ordered by their numeric value. Every part of a key is self-delimiting,
+ * strings and byte payloads are escaped and terminated.
+ *
+ * @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a>
+ * @since 4.0
+ */
+class DBValueKeySerializer extends KryoKeySerializer<DBValue> {
+  // null is a single zero byte, the same as older versions wrote for DBNull
+  private static final byte NULL = 0x00;
+  private static final byte BOOLEAN = 0x10;
+  private static final byte NUMBER = 0x20;
+  private static final byte CHARACTER = 0x30;
+  private static final byte STRING = 0x40;
+  private static final byte DATE = 0x50;
+  private static final byte ID = 0x60;
+  private static final byte ENUM = 0x70;
+  private static final byte OTHER = 0x7F;
+
+  // older versions wrote a java serialization stream, which sorts after all tags
+  private static final byte LEGACY_MAGIC_1 = (byte) 0xAC;
+  private static final byte LEGACY_MAGIC_2 = (byte) 0xED;
+
+  private static final byte ESCAPE = 0x00;
+  private static final byte ESCAPED_ZERO = (byte) 0xFF;
+  private static final byte TERMINATOR = 0x01;
+
+  private static final byte BYTE_TYPE = 1;
+  private static final byte SHORT_TYPE = 2;
+  private static final byte INTEGER_TYPE = 3;
+  private static final byte LONG_TYPE = 4;
+  private static final byte FLOAT_TYPE = 5;
+  private static final byte DOUBLE_TYPE = 6;
+  private static final byte BIG_INTEGER_TYPE = 7;
+  private static final byte BIG_DECIMAL_TYPE = 8;
+
+  private static final byte DATE_TYPE = 1;
+  private static final byte SQL_DATE_TYPE = 2;
+  private static final byte TIME_TYPE = 3;
+  private static final byte TIMESTAMP_TYPE = 4;
+
+  @Override
+  public void write(Kryo kryo, Output output, DBValue object) {
+    writeKey(kryo, output, object);
+  }
+
+  @Override
+  public DBValue read(Kryo kryo, Input input, Class<? extends DBValue> type) {
+    return readKey(kryo, input, DBValue.class);
+  }
+
+  @Override
+  public void writeKey(Kryo kryo, Output output, DBValue object) {
+    if (object == null || object instanceof DBNull || object.getValue() == null) {
+      output.writeByte(NULL);
+    } else {
+      writeValue(kryo, output, object.getValue());
+    }
+  }
+
+  @Override
+  public DBValue readKey(Kryo kryo, Input input, Class<DBValue> type) {
+    int position = input.position();
+    byte tag = input.readByte();
+    if (tag == LEGACY_MAGIC_1) {
+      input.setPosition(position);
+      return kryo.readObject(input, DBValue.class);
+    }
+
+    if (tag == NULL) {
+      return DBNull.getInstance();
+    }
+    return new DBValue(readValue(kryo, input, tag));
+  }
+
+  @Override
+  public boolean isLegacyKey(byte[] bytes) {
+    return bytes.length > 1 && bytes[0] == LEGACY_MAGIC_1 && bytes[1] == LEGACY_MAGIC_2;
+  }
+
+  private void writeValue(Kryo kryo, Output output, Comparable<?> value) {
+    if (value instanceof Boolean) {
+      output.writeByte(BOOLEAN);
+      output.writeByte((Boolean) value ? 1 : 0);
+    } else if (value instanceof Number && numberType((Number) value) != 0) {
+      output.writeByte(NUMBER);
+      writeNumber(output, (Number) value);
+    } else if (value instanceof Character) {
+      output.writeByte(CHARACTER);
+      writeBigEndian(output, (Character) value, 2);
+    } else if (value instanceof String) {
+      output.writeByte(STRING);
+      writeString(output, (String) value);
+    } else if (value instanceof Date && dateType((Date) value) != 0) {
+      output.writeByte(DATE);
+      writeDate(output, (Date) value);
+    } else if (value instanceof CropId) {
+      output.writeByte(ID);
+      writeBigEndian(output, ((CropId) value).getLongValue() ^ Long.MIN_VALUE, 8);
+    } else if (value instanceof Enum) {
+      // the constants of an enum are ordered by their ordinal
+      Enum<?> constant = (Enum<?>) value;
+      output.writeByte(ENUM);
+      writeString(output, constant.getDeclaringClass().getName());
+      writeBigEndian(output, constant.ordinal(), 4);
+    } else {
+      // no byte order for other types, such keys are still found by equality
+      Output payload = new Output(64, -1);
+      kryo.writeClassAndObject(payload, value);
+      output.writeByte(OTHER);
+      writeEscaped(output, payload.toBytes());
+    }
+  }
+
+  private Comparable<?> readValue(Kryo kryo, Input input, byte tag) {
+    switch (tag) {
+      case BOOLEAN:
+        return input.readByte() != 0;
+      case NUMBER:
+        return readNumber(input);
+      case CHARACTER:
+        return (char) readBigEndian(input, 2);
+      case STRING:
+        return readString(input);
+      case DATE:
+        return readDate(input);
+      case ID:
+        return CropId.createId(readBigEndian(input, 8) ^ Long.MIN_VALUE);
+      case ENUM:
+        return readEnum(kryo, input);
+      case OTHER:
+        return (Comparable<?>) kryo.readClassAndObject(new Input(readEscaped(input)));
+      default:
+        throw new CropIOException("unknown index key type " + tag);
+    }
+  }
+
+  // a number is ordered by the nearest double first, then by the exact difference to it,
+  // which is only non zero for large longs and big numbers
+  private void writeNumber(Output output, Number number) {
+    byte type = numberType(number);
+    double approximation = number.doubleValue();
+    double remainder = 0;
+
+    if (type == LONG_TYPE) {
+      remainder = number.longValue() - (long) approximation;
+    } else if (type == BIG_INTEGER_TYPE || type == BIG_DECIMAL_TYPE) {
+      if (Double.isInfinite(approximation)) {
+        approximation = approximation > 0 ? Double.MAX_VALUE : -Double.MAX_VALUE;
+      }
+      BigDecimal exact =
+          type == BIG_INTEGER_TYPE ? new BigDecimal((BigInteger) number) : (BigDecimal) number;
+      remainder = exact.subtract(new BigDecimal(approximation)).doubleValue();
+    }
+
+    writeBigEndian(output, sortableDouble(approximation), 8);
+    writeBigEndian(output, sortableDouble(remainder), 8);
+    output.writeByte(type);
+
+    if (type == BIG_INTEGER_TYPE) {
+      writeEscaped(output, number.toString().getBytes(StandardCharsets.UTF_8));
+    } else if (type == BIG_DECIMAL_TYPE) {
+      // equal decimals of a different scale are the same key
+      String decimal = ((BigDecimal) number).stripTrailingZeros().toString();
+      writeEscaped(output, decimal.getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  private Comparable<?> readNumber(Input input) {
+    double approximation = doubleOf(readBigEndian(input, 8));
+    double remainder = doubleOf(readBigEndian(input, 8));
+    byte type = input.readByte();
+
+    switch (type) {
+      case BYTE_TYPE:
+        return (byte) approximation;
+      case SHORT_TYPE:
+        return (short) approximation;
+      case INTEGER_TYPE:
+        return (int) approximation;
+      case LONG_TYPE:
+        return (long) approximation + (long) remainder;
+      case FLOAT_TYPE:
+        return (float) approximation;
+      case DOUBLE_TYPE:
+        return approximation;
+      case BIG_INTEGER_TYPE:
+        return new BigInteger(new String(readEscaped(input), StandardCharsets.UTF_8));
+      case BIG_DECIMAL_TYPE:
+        return new BigDecimal(new String(readEscaped(input), StandardCharsets.UTF_8));
+      default:
+        throw new CropIOException("unknown index key number type " + type);
+    }
+  }
+
+  private void writeDate(Output output, Date date) {
+    // a timestamp is ordered by its nanoseconds within the millisecond as well
+    int subMillisecondNanos =
+        date instanceof Timestamp ? ((Timestamp) date).getNanos() % 1000000 : 0;
+    writeBigEndian(output, date.getTime() ^ Long.MIN_VALUE, 8);
+    writeBigEndian(output, subMillisecondNanos, 4);
+    output.writeByte(dateType(date));
+  }
+
+  private Date readDate(Input input) {
+    long time = readBigEndian(input, 8) ^ Long.MIN_VALUE;
+    int subMillisecondNanos = (int) readBigEndian(input, 4);
+    byte type = input.readByte();
+
+    switch (type) {
+      case DATE_TYPE:
+        return new Date(time);
+      case SQL_DATE_TYPE:
+        return new java.sql.Date(time);
+      case TIME_TYPE:
+        return new Time(time);
+      case TIMESTAMP_TYPE:
+        Timestamp timestamp = new Timestamp(time);
+        timestamp.setNanos(timestamp.getNanos() + subMillisecondNanos);
+        return timestamp;
+      default:
+        throw new CropIOException("unknown index key date type " + type);
+    }
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private Comparable<?> readEnum(Kryo kryo, Input input) {
+    String className = readString(input);
+    int ordinal = (int) readBigEndian(input, 4);
+    try {
+      Class<? extends Enum> enumClass =
+          (Class<? extends Enum>) Class.forName(className, false, kryo.getClassLoader());
+      return enumClass.getEnumConstants()[ordinal];
+    } catch (ClassNotFoundException e) {
+      throw new CropIOException("failed to read index key of enum " + className, e);
+    }
+  }
+
+  // each char is written as its utf-8 sequence of up to 3 bytes, so that the byte order
+  // follows the order of the chars like String#compareTo does
+  private void writeString(Output output, String value) {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == 0) {
+        output.writeByte(ESCAPE);
+        output.writeByte(ESCAPED_ZERO);
+      } else if (c < 0x80) {
+        output.writeByte(c);
+      } else if (c < 0x800) {
+        output.writeByte(0xC0 | (c >> 6));
+        output.writeByte(0x80 | (c & 0x3F));
+      } else {
+        output.writeByte(0xE0 | (c >> 12));
+        output.writeByte(0x80 | ((c >> 6) & 0x3F));
+        output.writeByte(0x80 | (c & 0x3F));
+      }
+    }
+    output.writeByte(ESCAPE);
+    output.writeByte(TERMINATOR);
+  }
+
+  private String readString(Input input) {
+    StringBuilder builder = new StringBuilder();
+    while (true) {
+      int b = input.readByte() & 0xFF;
+      if (b == ESCAPE) {
+        if (input.readByte() == TERMINATOR) {
+          return builder.toString();
+        }
+        builder.append((char) 0);
+      } else if (b < 0x80) {
+        builder.append((char) b);
+      } else if (b < 0xE0) {
+        builder.append((char) (((b & 0x1F) << 6) | (input.readByte() & 0x3F)));
+      } else {
+        int second = input.readByte() & 0x3F;
+        builder.append((char) (((b & 0x0F) << 12) | (second << 6) | (input.readByte() & 0x3F)));
+      }
+    }
+  }
+
+  private void writeEscaped(Output output, byte[] bytes) {
+    for (byte b : bytes) {
+      output.writeByte(b);
+      if (b == ESCAPE) {
+        output.writeByte(ESCAPED_ZERO);
+      }
+    }
+    output.writeByte(ESCAPE);
+    output.writeByte(TERMINATOR);
+  }
+
+  private byte[] readEscaped(Input input) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    while (true) {
+      byte b = input.readByte();
+      if (b == ESCAPE && input.readByte() == TERMINATOR) {
+        return bytes.toByteArray();
+      }
+      bytes.write(b);
+    }
+  }
+
+  private static void writeBigEndian(Output output, long value, int length) {
+    for (int shift = (length - 1) * 8; shift >= 0; shift -= 8) {
+      output.writeByte((byte) (value >>> shift));
+    }
+  }
+
+  private static long readBigEndian(Input input, int length) {
+    long value = 0;
+    for (int i = 0; i < length; i++) {
+      value = (value << 8) | (input.readByte() & 0xFF);
+    }
+    return value;
+  }
+
+  // negative doubles have all bits flipped, positive ones only the sign bit, so that
+  // the bits order like the values, with NaN after positive infinity
+  private static long sortableDouble(double value) {
+    // -0.0 and 0.0 are equal numbers
+    long bits = Double.doubleToLongBits(value == 0 ? 0.0 : value);
+    return bits ^ ((bits >> 63) | Long.MIN_VALUE);
+  }
+
+  private static double doubleOf(long sortable) {
+    return Double.longBitsToDouble(sortable ^ ((~sortable >> 63) | Long.MIN_VALUE));
+  }
+
+  private static byte numberType(Number number) {
+    if (number instanceof Byte) return BYTE_TYPE;
+    if (number instanceof Short) return SHORT_TYPE;
+    if (number instanceof Integer) return INTEGER_TYPE;
+    if (number instanceof Long) return LONG_TYPE;
+    if (number instanceof Float) return FLOAT_TYPE;
+    if (number instanceof Double) return DOUBLE_TYPE;
+    if (number instanceof BigInteger) return BIG_INTEGER_TYPE;
+    if (number instanceof BigDecimal) return BIG_DECIMAL_TYPE;
+    return 0;
+  }
+
+  private static byte dateType(Date date) {
+    Class<?> type = date.getClass();
+    if (type == Date.class) return DATE_TYPE;
+    if (type == java.sql.Date.class) return SQL_DATE_TYPE;
+    if (type == Time.class) return TIME_TYPE;
+    if (type == Timestamp.class) return TIMESTAMP_TYPE;
+    return 0;
+  }
+}
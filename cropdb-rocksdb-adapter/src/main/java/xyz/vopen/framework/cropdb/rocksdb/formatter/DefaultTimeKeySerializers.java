@@ -14,20 +14,22 @@ import java.util.Locale;
 
 /** @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a> */
 class DefaultTimeKeySerializers {
-  private static final SimpleDateFormat format =
-      new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ", Locale.ENGLISH);
+  // SimpleDateFormat is not thread safe, keys are encoded concurrently
+  private static final ThreadLocal<SimpleDateFormat> format =
+      ThreadLocal.withInitial(
+          () -> new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ", Locale.ENGLISH));
 
   private static class DateSerializer extends ComparableKeySerializer<Date> {
 
     @Override
     public void writeKeyInternal(Kryo kryo, Output output, Date object) {
-      output.writeString(format.format(object));
+      output.writeString(format.get().format(object));
     }
 
     @Override
     public Date readKeyInternal(Kryo kryo, String value, Class<Date> type) {
       try {
-        return format.parse(value);
+        return format.get().parse(value);
       } catch (Exception e) {
         throw new CropIOException("failed to read java.util.Date", e);
       }
@@ -38,13 +40,13 @@ class DefaultTimeKeySerializers {
 
     @Override
     public void writeKeyInternal(Kryo kryo, Output output, Timestamp object) {
-      output.writeString(format.format(object));
+      output.writeString(format.get().format(object));
     }
 
     @Override
     public Timestamp readKeyInternal(Kryo kryo, String value, Class<Timestamp> type) {
       try {
-        return new Timestamp(format.parse(value).getTime());
+        return new Timestamp(format.get().parse(value).getTime());
       } catch (Exception e) {
         throw new CropIOException("failed to read java.sql.Timestamp", e);
       }
@@ -55,13 +57,13 @@ class DefaultTimeKeySerializers {
 
     @Override
     public void writeKeyInternal(Kryo kryo, Output output, java.sql.Date object) {
-      output.writeString(format.format(object));
+      output.writeString(format.get().format(object));
     }
 
     @Override
     public java.sql.Date readKeyInternal(Kryo kryo, String value, Class<java.sql.Date> type) {
       try {
-        return new java.sql.Date(format.parse(value).getTime());
+        return new java.sql.Date(format.get().parse(value).getTime());
       } catch (Exception e) {
         throw new CropIOException("failed to read java.sql.Date", e);
       }
@@ -72,13 +74,13 @@ class DefaultTimeKeySerializers {
 
     @Override
     public void writeKeyInternal(Kryo kryo, Output output, Time object) {
-      output.writeString(format.format(object));
+      output.writeString(format.get().format(object));
     }
 
     @Override
     public Time readKeyInternal(Kryo kryo, String value, Class<Time> type) {
       try {
-        return new Time(format.parse(value).getTime());
+        return new Time(format.get().parse(value).getTime());
       } catch (Exception e) {
         throw new CropIOException("failed to read java.sql.Time", e);
       }
@@ -89,14 +91,14 @@ class DefaultTimeKeySerializers {
 
     @Override
     protected void writeKeyInternal(Kryo kryo, Output output, Calendar object) {
-      output.writeString(format.format(object.getTime()));
+      output.writeString(format.get().format(object.getTime()));
     }
 
     @Override
     protected Calendar readKeyInternal(Kryo kryo, String input, Class<Calendar> type) {
       try {
         Calendar cal = Calendar.getInstance();
-        cal.setTime(format.parse(input));
+        cal.setTime(format.get().parse(input));
         return cal;
       } catch (Exception e) {
         throw new CropIOException("failed to read java.util.Date", e);
@@ -0,0 +1,183 @@
+package xyz.vopen.framework.cropdb.rocksdb.formatter;
+
+import com.esotericsoftware.kryo.kryo5.Kryo;
+import com.esotericsoftware.kryo.kryo5.io.Output;
+import xyz.vopen.framework.cropdb.collection.Document;
+import xyz.vopen.framework.cropdb.collection.LazyDocument;
+import xyz.vopen.framework.cropdb.common.tuples.Pair;
+import xyz.vopen.framework.cropdb.exceptions.CropIOException;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A document read from its stored form, whose field values are decoded by kryo only when they are
+ * read. The values are decoded from the stored bytes in place.
+ *
+ * <p>The stored form starts with a two byte marker, which is not a valid start of the map form
+ * written by older versions. The marker is followed by the number of fields and a header with the
+ * name and the value length of each field. The values written by kryo follow the header.
+ *
+ * @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a>
+ * @since 4.0
+ */
+class KryoDocument extends LazyDocument {
+  private static final long serialVersionUID = 1665980534L;
+
+  // a kryo varint never has a continuation byte followed by a zero byte
+  private static final byte[] MARKER = {(byte) 0x80, 0x00};
+
+  // name offset, name length, value offset and value length of each field
+  private static final int SLOTS = 4;
+
+  private final byte[] bytes;
+  private final KryoObjectFormatter formatter;
+  private final int[] fields;
+  private int position;
+
+  KryoDocument(byte[] bytes, KryoObjectFormatter formatter) {
+    this.bytes = bytes;
+    this.formatter = formatter;
+
+    try {
+      this.position = MARKER.length;
+      int count = readVarInt();
+      this.fields = new int[count * SLOTS];
+      for (int i = 0; i < count; i++) {
+        fields[i * SLOTS + 1] = readVarInt();
+        fields[i * SLOTS] = position;
+        position += fields[i * SLOTS + 1];
+        fields[i * SLOTS + 3] = readVarInt();
+      }
+
+      int valueOffset = position;
+      for (int i = 0; i < count; i++) {
+        fields[i * SLOTS + 2] = valueOffset;
+        valueOffset += fields[i * SLOTS + 3];
+      }
+
+      if (valueOffset != bytes.length) {
+        throw new CropIOException("corrupted document of " + bytes.length + " bytes");
+      }
+    } catch (ArrayIndexOutOfBoundsException e) {
+      throw new CropIOException("corrupted document of " + bytes.length + " bytes", e);
+    }
+  }
+
+  /**
+   * Checks if the bytes are in the stored form of a document.
+   *
+   * @param bytes the bytes
+   * @return `true` if the bytes are a stored document
+   */
+  static boolean isStoredForm(byte[] bytes) {
+    return bytes.length >= MARKER.length && bytes[0] == MARKER[0] && bytes[1] == MARKER[1];
+  }
+
+  /**
+   * Writes a document in the stored form.
+   *
+   * @param kryo the kryo
+   * @param header the output of the stored form
+   * @param values the output to write the values into first
+   * @param document the document
+   * @return the stored form
+   */
+  static byte[] write(Kryo kryo, Output header, Output values, Document document) {
+    if (document instanceof KryoDocument) {
+      byte[] stored = ((KryoDocument) document).getStoredForm();
+      if (stored != null) {
+        // a document none of whose values was read is written as it was read
+        return stored;
+      }
+    }
+
+    header.writeBytes(MARKER);
+    header.writeVarInt(document.size(), true);
+    for (Pair<String, Object> field : document) {
+      int start = values.position();
+      kryo.writeClassAndObject(values, field.getSecond());
+
+      byte[] name = field.getFirst().getBytes(StandardCharsets.UTF_8);
+      header.writeVarInt(name.length, true);
+      header.writeBytes(name);
+      header.writeVarInt(values.position() - start, true);
+    }
+    header.writeBytes(values.getBuffer(), 0, values.position());
+    return header.toBytes();
+  }
+
+  @Override
+  protected int fieldCount() {
+    return fields.length / SLOTS;
+  }
+
+  @Override
+  protected int indexOf(String field) {
+    for (int i = 0; i < fields.length; i += SLOTS) {
+      if (nameEquals(field, fields[i], fields[i + 1])) {
+        return i / SLOTS;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  protected String fieldName(int index) {
+    return new String(
+        bytes, fields[index * SLOTS], fields[index * SLOTS + 1], StandardCharsets.UTF_8);
+  }
+
+  @Override
+  protected Object decodeValue(int index) {
+    return formatter.decodeValue(bytes, fields[index * SLOTS + 2], fields[index * SLOTS + 3]);
+  }
+
+  private byte[] getStoredForm() {
+    return hasDecodedValues() ? null : bytes;
+  }
+
+  private boolean nameEquals(String field, int offset, int length) {
+    // every char takes at least one byte
+    int chars = field.length();
+    if (chars > length) {
+      return false;
+    }
+
+    // ascii names are compared without encoding them
+    for (int i = 0; i < chars; i++) {
+      char c = field.charAt(i);
+      if (c >= 0x80) {
+        return utf8Equals(field, offset, length);
+      }
+      if (bytes[offset + i] != c) {
+        return false;
+      }
+    }
+    return chars == length;
+  }
+
+  private boolean utf8Equals(String field, int offset, int length) {
+    byte[] name = field.getBytes(StandardCharsets.UTF_8);
+    if (name.length != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (bytes[offset + i] != name[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int readVarInt() {
+    int result = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      byte b = bytes[position++];
+      result |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return result;
+      }
+    }
+    throw new CropIOException("malformed length in a stored document");
+  }
+}
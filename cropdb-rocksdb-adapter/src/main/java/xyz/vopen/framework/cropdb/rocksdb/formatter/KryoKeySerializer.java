@@ -11,6 +11,10 @@ public abstract class KryoKeySerializer<T> extends Serializer<T> {
 
   public abstract T readKey(Kryo kryo, Input input, Class<T> type);
 
+  public boolean isLegacyKey(byte[] bytes) {
+    return false;
+  }
+
   public boolean registerToKryo() {
     return false;
   }
@@ -20,27 +20,41 @@ import com.esotericsoftware.kryo.kryo5.Kryo;
 import com.esotericsoftware.kryo.kryo5.Serializer;
 import com.esotericsoftware.kryo.kryo5.io.Input;
 import com.esotericsoftware.kryo.kryo5.io.Output;
+import com.esotericsoftware.kryo.kryo5.util.Pool;
 import lombok.extern.slf4j.Slf4j;
+import xyz.vopen.framework.cropdb.collection.Document;
+import xyz.vopen.framework.cropdb.common.tuples.Pair;
 import xyz.vopen.framework.cropdb.exceptions.CropIOException;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static xyz.vopen.framework.cropdb.rocksdb.Constants.DB_NULL;
 
 /** @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a> */
 @Slf4j
 public class KryoObjectFormatter implements ObjectFormatter {
-  private static final Kryo kryo = new Kryo();
+  private static final int BUFFER_SIZE = 4 * 1024;
+  private static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+  private static final byte[] EMPTY_BUFFER = new byte[0];
+
   private final Map<Class<?>, KryoKeySerializer<?>> keySerializerRegistry;
+  private final List<Pair<Class<?>, Serializer<?>>> kryoRegistry;
+  private final Pool<KryoContext> contextPool;
 
   public KryoObjectFormatter() {
-    this.keySerializerRegistry = new HashMap<>();
-    kryo.setRegistrationRequired(false);
+    this.keySerializerRegistry = new ConcurrentHashMap<>();
+    this.kryoRegistry = new CopyOnWriteArrayList<>();
+    this.contextPool =
+        new Pool<KryoContext>(true, true, Runtime.getRuntime().availableProcessors() * 2) {
+          @Override
+          protected KryoContext create() {
+            return new KryoContext();
+          }
+        };
     registerInternalSerializers();
   }
 
@@ -48,15 +62,16 @@ public class KryoObjectFormatter implements ObjectFormatter {
   public <T> byte[] encode(T object) {
     if (object == null) return DB_NULL;
 
-    try (ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream()) {
-      try (Output output = new Output(byteArrayOutputStream)) {
-        synchronized (kryo) {
-          kryo.writeObject(output, object);
-        }
+    KryoContext context = obtainContext();
+    try {
+      if (object instanceof Document) {
+        return KryoDocument.write(
+            context.kryo, context.headerOutput, context.output, (Document) object);
       }
-      return byteArrayOutputStream.toByteArray();
-    } catch (IOException e) {
-      throw new CropIOException("failed to close output stream", e);
+      context.kryo.writeObject(context.output, object);
+      return context.output.toBytes();
+    } finally {
+      contextPool.free(context);
     }
   }
 
@@ -71,24 +86,28 @@ public class KryoObjectFormatter implements ObjectFormatter {
       return encode(object);
     }
 
-    try (ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream()) {
-      try (Output output = new Output(byteArrayOutputStream)) {
-        serializer.writeKey(kryo, output, object);
-      }
-      return byteArrayOutputStream.toByteArray();
-    } catch (IOException e) {
-      throw new CropIOException("failed to close output stream", e);
+    KryoContext context = obtainContext();
+    try {
+      serializer.writeKey(context.kryo, context.output, object);
+      return context.output.toBytes();
+    } finally {
+      contextPool.free(context);
     }
   }
 
   @Override
   public <T> T decode(byte[] bytes, Class<T> type) {
     if (Arrays.equals(bytes, DB_NULL)) return null;
+    if (isStoredDocument(bytes, type)) {
+      return type.cast(new KryoDocument(bytes, this).inflate());
+    }
 
-    try (Input input = new Input(bytes, 0, bytes.length)) {
-      synchronized (kryo) {
-        return kryo.readObject(input, type);
-      }
+    KryoContext context = obtainContext();
+    try {
+      context.input.setBuffer(bytes);
+      return context.kryo.readObject(context.input, type);
+    } finally {
+      contextPool.free(context);
     }
   }
 
@@ -102,35 +121,115 @@ public class KryoObjectFormatter implements ObjectFormatter {
       return decode(bytes, type);
     }
 
-    try (ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(bytes)) {
-      try (Input input = new Input(byteArrayInputStream)) {
-        return serializer.readKey(kryo, input, type);
-      }
-    } catch (IOException e) {
-      throw new CropIOException("failed to close output stream", e);
+    KryoContext context = obtainContext();
+    try {
+      context.input.setBuffer(bytes);
+      return serializer.readKey(context.kryo, context.input, type);
+    } finally {
+      contextPool.free(context);
     }
   }
 
+  @Override
+  public <T> T decodeLazily(byte[] bytes, Class<T> type) {
+    if (isStoredDocument(bytes, type)) {
+      return type.cast(new KryoDocument(bytes, this));
+    }
+    return decode(bytes, type);
+  }
+
+  @Override
+  public boolean isLegacyKey(byte[] bytes, Class<?> type) {
+    KryoKeySerializer<?> serializer = keySerializerRegistry.get(type);
+    return serializer != null && serializer.isLegacyKey(bytes);
+  }
+
   public void registerSerializer(Class<?> type, Serializer<?> serializer) {
     if (serializer instanceof KryoKeySerializer) {
       KryoKeySerializer<?> kryoKeySerializer = (KryoKeySerializer<?>) serializer;
       if (kryoKeySerializer.registerToKryo()) {
-        kryo.register(type, serializer);
+        kryoRegistry.add(new Pair<>(type, serializer));
       }
       keySerializerRegistry.put(type, kryoKeySerializer);
     } else {
-      kryo.register(type, serializer);
+      kryoRegistry.add(new Pair<>(type, serializer));
     }
   }
 
+  Object decodeValue(byte[] bytes, int offset, int length) {
+    KryoContext context = obtainContext();
+    try {
+      context.input.setBuffer(bytes, offset, length);
+      return context.kryo.readClassAndObject(context.input);
+    } finally {
+      contextPool.free(context);
+    }
+  }
+
+  private boolean isStoredDocument(byte[] bytes, Class<?> type) {
+    // documents written by older versions are read by the document serializer
+    return type != null
+        && Document.class.isAssignableFrom(type)
+        && KryoDocument.isStoredForm(bytes);
+  }
+
+  private KryoContext obtainContext() {
+    KryoContext context = contextPool.obtain();
+    // serializers registered after the context was created are registered now
+    context.register(kryoRegistry);
+    return context;
+  }
+
   private void registerInternalSerializers() {
     try {
       CropSerializers.registerAll(this);
       DefaultJavaSerializers.registerAll(this);
       DefaultTimeKeySerializers.registerAll(this);
+      CropSerializers.registerIdSerializers(this);
     } catch (Exception e) {
       log.error("Error while registering default serializers", e);
       throw new CropIOException("failed to register default serializers", e);
     }
   }
+
+  /** A kryo instance is not thread safe, so each one is used by one thread at a time. */
+  private static class KryoContext implements Pool.Poolable {
+    private final Kryo kryo;
+    private final Output output;
+    private final Output headerOutput;
+    private final Input input;
+    private int registered;
+
+    KryoContext() {
+      this.kryo = new Kryo();
+      this.kryo.setRegistrationRequired(false);
+      this.output = new Output(BUFFER_SIZE, -1);
+      this.headerOutput = new Output(BUFFER_SIZE, -1);
+      this.input = new Input();
+    }
+
+    void register(List<Pair<Class<?>, Serializer<?>>> registry) {
+      // registration order decides the kryo class ids, so it is the same for all instances
+      for (; registered < registry.size(); registered++) {
+        Pair<Class<?>, Serializer<?>> registration = registry.get(registered);
+        kryo.register(registration.getFirst(), registration.getSecond());
+      }
+    }
+
+    @Override
+    public void reset() {
+      reset(output);
+      reset(headerOutput);
+      input.setBuffer(EMPTY_BUFFER);
+    }
+
+    private void reset(Output output) {
+      // do not keep a buffer grown by a large object
+      if (output.getBuffer().length > MAX_POOLED_BUFFER_SIZE) {
+        output.setBuffer(new byte[BUFFER_SIZE], -1);
+      } else {
+        output.reset();
+      }
+    }
+  }
 }
@@ -25,4 +25,21 @@ public interface ObjectFormatter {
   <T> T decode(byte[] bytes, Class<T> type);
 
   <T> T decodeKey(byte[] bytes, Class<T> type);
+
+  /**
+   * Decodes a value read by a scan of a map. The value may decode its parts only when they are
+   * read, as a {@link xyz.vopen.framework.cropdb.collection.LazyDocument} does.
+   */
+  default <T> T decodeLazily(byte[] bytes, Class<T> type) {
+    return decode(bytes, type);
+  }
+
+  /**
+   * Checks if a key was encoded by an older version of the formatter. Such keys are still readable
+   * by {@link #decodeKey(byte[], Class)} but must be re-encoded to be found by a lookup. Legacy
+   * keys are expected to sort before or after all keys of the current encoding.
+   */
+  default boolean isLegacyKey(byte[] bytes, Class<?> type) {
+    return false;
+  }
 }
@@ -23,6 +23,7 @@ import lombok.extern.slf4j.Slf4j;
 import xyz.vopen.framework.cropdb.common.Constants;
 import xyz.vopen.framework.cropdb.exceptions.IndexingException;
 import xyz.vopen.framework.cropdb.exceptions.InvalidOperationException;
+import xyz.vopen.framework.cropdb.exceptions.ValidationException;
 import xyz.vopen.framework.cropdb.index.CropIndexer;
 import xyz.vopen.framework.cropdb.common.mapper.CropMapper;
 import xyz.vopen.framework.cropdb.migration.Migration;
@@ -57,6 +58,10 @@ public class CropConfig implements AutoCloseable {
 
   @Getter private Integer schemaVersion = Constants.INITIAL_SCHEMA_VERSION;
 
+  @Getter private int sortBufferSize = Constants.DEFAULT_SORT_BUFFER_SIZE;
+
+  @Getter private boolean fineGrainedLocking = false;
+
   /** Instantiates a new {@link CropConfig}. */
   public CropConfig() {
     this.pluginManager = new PluginManager(this);
@@ -135,6 +140,42 @@ public class CropConfig implements AutoCloseable {
     return this;
   }
 
+  /**
+   * Sets the maximum number of documents a sort holds in memory. Larger sorts are spilled to
+   * temporary files as sorted runs and merged.
+   *
+   * @param size the sort buffer size
+   * @return the crop config
+   */
+  public CropConfig sortBufferSize(int size) {
+    if (configured) {
+      throw new InvalidOperationException(
+          "cannot change the sort buffer size after database" + " initialization");
+    }
+    if (size <= 0) {
+      throw new ValidationException("sort buffer size must be positive");
+    }
+    this.sortBufferSize = size;
+    return this;
+  }
+
+  /**
+   * Enables or disables fine grained locking of the collections. With fine grained locking, writes
+   * to different documents of a collection run at the same time, and only index changes like
+   * creating or dropping an index lock the whole collection.
+   *
+   * @param enabled if fine grained locking is enabled
+   * @return the crop config
+   */
+  public CropConfig fineGrainedLocking(boolean enabled) {
+    if (configured) {
+      throw new InvalidOperationException(
+          "cannot change the locking mode after database" + " initialization");
+    }
+    this.fineGrainedLocking = enabled;
+    return this;
+  }
+
   /**
    * Auto configures crop database with default configuration values and default built-in plugins.
    */
@@ -86,6 +86,30 @@ public class CropDBBuilder {
     return this;
   }
 
+  /**
+   * Sets the maximum number of documents a sort holds in memory, larger sorts spill to temporary
+   * files. Default value is 100000.
+   *
+   * @param size the sort buffer size
+   * @return the crop builder
+   */
+  public CropDBBuilder sortBufferSize(int size) {
+    this.cropConfig.sortBufferSize(size);
+    return this;
+  }
+
+  /**
+   * Enables fine grained locking, so that writes to different documents of a collection run at the
+   * same time. By default every write locks the whole collection.
+   *
+   * @param enabled if fine grained locking is enabled
+   * @return the crop builder
+   */
+  public CropDBBuilder fineGrainedLocking(boolean enabled) {
+    this.cropConfig.fineGrainedLocking(enabled);
+    return this;
+  }
+
   /**
    * Opens or creates a new crop database backed by mvstore. If it is an in-memory store, then it
    * will create a new one. If it is a file based store, and if the file does not exists, then it
@@ -219,6 +219,21 @@ public interface CropCollection extends PersistentCollection<Document> {
    */
   DocumentCursor find(Filter filter, FindOptions findOptions);
 
+  /**
+   * Counts the documents selected by a filter.
+   *
+   * <p>NOTE: If the filter can be answered by the indexes alone, the documents are not read. The
+   * default implementation counts the documents of a cursor.
+   *
+   * @param filter the filter to apply to select documents from collection.
+   * @return the number of selected documents.
+   */
+  default long count(Filter filter) {
+    try (DocumentCursor cursor = find(filter)) {
+      return cursor.size();
+    }
+  }
+
   /**
    * Gets a single element from the collection by its id. If no element is found, it will return
    * {@code null}.
@@ -18,6 +18,7 @@ package xyz.vopen.framework.cropdb.collection;
 
 import xyz.vopen.framework.cropdb.CropConfig;
 import xyz.vopen.framework.cropdb.common.Constants;
+import xyz.vopen.framework.cropdb.common.FieldPath;
 import xyz.vopen.framework.cropdb.common.tuples.Pair;
 import xyz.vopen.framework.cropdb.common.util.Iterables;
 import xyz.vopen.framework.cropdb.common.util.ObjectUtils;
@@ -31,7 +32,6 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.text.MessageFormat;
 import java.util.*;
 
 import static xyz.vopen.framework.cropdb.collection.CropId.*;
@@ -56,6 +56,10 @@ class CropDocument extends LinkedHashMap<String, Object> implements Document {
     super(objectMap);
   }
 
+  CropDocument(int initialCapacity) {
+    super(initialCapacity);
+  }
+
   @Override
   public Document put(String field, Object value) {
     // field name cannot be empty or null
@@ -77,24 +81,41 @@ class CropDocument extends LinkedHashMap<String, Object> implements Document {
     // if field name contains field separator, split the fields, and put the value
     // accordingly associated with th embedded field.
     if (isEmbedded(field)) {
-      String regex = MessageFormat.format("\\{0}", CropConfig.getFieldSeparator());
-      String[] splits = field.split(regex);
-      deepPut(splits, value);
+      deepPut(FieldPath.of(field), 0, value);
     } else {
       super.put(field, value);
     }
     return this;
   }
 
+  /**
+   * Puts a top level field read from a store, which was validated when it was written.
+   *
+   * @param field the field name
+   * @param value the value
+   */
+  void putStored(String field, Object value) {
+    super.put(field, value);
+  }
+
   @Override
   public Object get(String field) {
     if (field != null && isEmbedded(field) && !containsKey(field)) {
       // if field is an embedded field, get it by deep scan
-      return deepGet(field);
+      return getByEmbeddedKey(FieldPath.of(field));
     }
     return super.get(field);
   }
 
+  @Override
+  public Object get(FieldPath path) {
+    if (path.isEmbedded() && !containsKey(path.getPath())) {
+      // if field is an embedded field, get it by deep scan
+      return getByEmbeddedKey(path);
+    }
+    return super.get(path.getPath());
+  }
+
   @Override
   public <T> T get(String field, Class<T> type) {
     ValidationUtils.notNull(type, "type cannot be null");
@@ -137,9 +158,7 @@ class CropDocument extends LinkedHashMap<String, Object> implements Document {
     if (isEmbedded(field)) {
       // if the field is an embedded field,
       // run a deep scan and remove the last field
-      String regex = MessageFormat.format("\\{0}", CropConfig.getFieldSeparator());
-      String[] splits = field.split(regex);
-      deepRemove(splits);
+      deepRemove(FieldPath.of(field), 0);
     } else {
       // remove the field from this document
       super.remove(field);
@@ -167,6 +186,9 @@ class CropDocument extends LinkedHashMap<String, Object> implements Document {
 
   @Override
   public Document merge(Document document) {
+    if (document instanceof LazyDocument) {
+      document = ((LazyDocument) document).inflate();
+    }
     if (document instanceof CropDocument) {
       super.putAll((CropDocument) document);
     }
@@ -183,6 +205,9 @@ class CropDocument extends LinkedHashMap<String, Object> implements Document {
   public boolean equals(Object other) {
     if (other == this) return true;
 
+    if (other instanceof LazyDocument) {
+      other = ((LazyDocument) other).inflate();
+    }
     if (!(other instanceof CropDocument)) return false;
 
     CropDocument m = (CropDocument) other;
@@ -247,38 +272,26 @@ class CropDocument extends LinkedHashMap<String, Object> implements Document {
     return fields;
   }
 
-  private Object deepGet(String field) {
-    if (isEmbedded(field)) {
-      // for embedded field, run a deep scan
-      return getByEmbeddedKey(field);
-    } else {
-      return null;
-    }
-  }
-
-  private void deepPut(String[] splits, Object value) {
-    if (splits.length == 0) {
+  private void deepPut(FieldPath path, int level, Object value) {
+    if (path.length() == level) {
       throw new ValidationException("invalid key provided");
     }
-    String key = splits[0];
-    if (splits.length == 1) {
+    String key = path.getSegment(level);
+    if (path.length() == level + 1) {
       // if last key, simply put in the current document
       put(key, value);
     } else {
       // get the object for the current level
       Object val = get(key);
 
-      // get the remaining embedded fields for next level scan
-      String[] remaining = Arrays.copyOfRange(splits, 1, splits.length);
-
       if (val instanceof CropDocument) {
         // if the current level value is embedded doc, scan to the next level
-        ((CropDocument) val).deepPut(remaining, value);
+        ((CropDocument) val).deepPut(path, level + 1, value);
       } else if (val == null) {
         // if current level value is null, create a new document
         // and try to create next level embedded doc by next level scan
         CropDocument subDoc = new CropDocument();
-        subDoc.deepPut(remaining, value);
+        subDoc.deepPut(path, level + 1, value);
 
         // put the newly created document in current level
         put(key, subDoc);
@@ -286,25 +299,22 @@ class CropDocument extends LinkedHashMap<String, Object> implements Document {
     }
   }
 
-  private void deepRemove(String[] splits) {
-    if (splits.length == 0) {
+  private void deepRemove(FieldPath path, int level) {
+    if (path.length() == level) {
       throw new ValidationException("invalid key provided");
     }
-    String key = splits[0];
-    if (splits.length == 1) {
+    String key = path.getSegment(level);
+    if (path.length() == level + 1) {
       // if last key, simply remove the current document
       remove(key);
     } else {
       // get the object for the current level
       Object val = get(key);
 
-      // get the remaining embedded fields for next level scan
-      String[] remaining = Arrays.copyOfRange(splits, 1, splits.length);
-
       if (val instanceof CropDocument) {
         // if the current level value is embedded doc, scan to the next level
         CropDocument subDoc = (CropDocument) val;
-        subDoc.deepRemove(remaining);
+        subDoc.deepRemove(path, level + 1);
         if (subDoc.size() == 0) {
           // if the next level document is an empty one
           // remove the current level document also
@@ -317,50 +327,47 @@ class CropDocument extends LinkedHashMap<String, Object> implements Document {
     }
   }
 
-  private Object getByEmbeddedKey(String embeddedKey) {
-    String regex = MessageFormat.format("\\{0}", CropConfig.getFieldSeparator());
-
-    // split the key
-    String[] path = embeddedKey.split(regex);
-    if (path.length < 1) {
+  private Object getByEmbeddedKey(FieldPath path) {
+    if (path.length() < 1) {
       return null;
     }
 
     // get current level value and scan to next level using remaining keys
-    return recursiveGet(get(path[0]), Arrays.copyOfRange(path, 1, path.length));
+    return getEmbedded(get(path.getSegment(0)), path, 1);
   }
 
+  /**
+   * Gets the value of the remaining levels of an embedded field path from the value of a level.
+   *
+   * @param object the value of the previous level
+   * @param path the field path
+   * @param level the first remaining level
+   * @return the value
+   */
   @SuppressWarnings("unchecked")
-  private Object recursiveGet(Object object, String[] remainingPath) {
+  static Object getEmbedded(Object object, FieldPath path, int level) {
     if (object == null) {
       return null;
     }
 
-    if (remainingPath.length == 0) {
+    if (level == path.length()) {
       return object;
     }
 
     if (object instanceof Document) {
       // if the current level value is document, scan to the next level with remaining keys
-      return recursiveGet(
-          ((Document) object).get(remainingPath[0]),
-          Arrays.copyOfRange(remainingPath, 1, remainingPath.length));
+      return getEmbedded(((Document) object).get(path.getSegment(level)), path, level + 1);
     }
 
     if (object.getClass().isArray()) {
       // if the current level value is an array
 
-      // get the first key
-      String accessor = remainingPath[0];
-
       // convert current value to object array
       Object[] array = ObjectUtils.convertToObjectArray(object);
 
-      if (isInteger(accessor)) {
-        // if the current key is an integer
-
-        // convert the key as an integer index
-        int index = asInteger(accessor);
+      if (path.isIndex(level)) {
+        // if the current key is an integer, use it as an index
+        int index = path.getIndex(level);
 
         // check index lower bound
         if (index < 0) {
@@ -376,34 +383,28 @@ class CropDocument extends LinkedHashMap<String, Object> implements Document {
 
         // get the value at the index from the array
         // if there are remaining keys, scan to the next level
-        return recursiveGet(
-            array[index], Arrays.copyOfRange(remainingPath, 1, remainingPath.length));
+        return getEmbedded(array[index], path, level + 1);
       } else {
         // if the current key is not an integer, then decompose the
         // object array into a list and scan each of the element of the
         // list using remaining keys and return a list of all returned
         // elements from each of the list items.
-        return decompose(Iterables.listOf(array), remainingPath);
+        return decompose(Iterables.listOf(array), path, level);
       }
     }
 
     if (object instanceof Iterable) {
       // if the current level value is an iterable
 
-      // get the first key
-      String accessor = remainingPath[0];
-
       // convert current value to object iterable
       Iterable<Object> iterable = (Iterable<Object>) object;
 
       // create a list from the iterable
       List<Object> collection = Iterables.toList(iterable);
 
-      if (isInteger(accessor)) {
-        // if the current key is an integer
-
-        // convert the key as an integer index
-        int index = asInteger(accessor);
+      if (path.isIndex(level)) {
+        // if the current key is an integer, use it as an index
+        int index = path.getIndex(level);
 
         // check index lower bound
         if (index < 0) {
@@ -414,19 +415,21 @@ class CropDocument extends LinkedHashMap<String, Object> implements Document {
         // check index upper bound
         if (index >= collection.size()) {
           throw new ValidationException(
-              "index " + accessor + " is not less than the size of the list " + collection.size());
+              "index "
+                  + path.getSegment(level)
+                  + " is not less than the size of the list "
+                  + collection.size());
         }
 
         // get the value at the index from the list
         // if there are remaining keys, scan to the next level
-        return recursiveGet(
-            collection.get(index), Arrays.copyOfRange(remainingPath, 1, remainingPath.length));
+        return getEmbedded(collection.get(index), path, level + 1);
       } else {
         // if the current key is not an integer, then decompose the
         // list and scan each of the element of the
         // list using remaining keys and return a list of all returned
         // elements from each of the list items.
-        return decompose(collection, remainingPath);
+        return decompose(collection, path, level);
       }
     }
 
@@ -435,14 +438,14 @@ class CropDocument extends LinkedHashMap<String, Object> implements Document {
   }
 
   @SuppressWarnings("unchecked")
-  private List<Object> decompose(List<Object> collection, String[] remainingPath) {
+  private static List<Object> decompose(List<Object> collection, FieldPath path, int level) {
     Set<Object> items = new HashSet<>();
 
     // iterate each item
     for (Object item : collection) {
 
       // scan the item using remaining keys
-      Object result = recursiveGet(item, remainingPath);
+      Object result = getEmbedded(item, path, level);
 
       if (result != null) {
         if (result instanceof Iterable) {
@@ -462,27 +465,6 @@ class CropDocument extends LinkedHashMap<String, Object> implements Document {
     return new ArrayList<>(items);
   }
 
-  private int asInteger(String number) {
-    try {
-      // parse the string as an integer
-      return Integer.parseInt(number);
-    } catch (NumberFormatException e) {
-      // if parsing fails, return invalid integer for document access
-      return -1;
-    }
-  }
-
-  private boolean isInteger(String value) {
-    try {
-      // try parse the string as an integer
-      Integer.parseInt(value);
-      return true;
-    } catch (NumberFormatException e) {
-      // if parsing fails, then value is not an integer
-      return false;
-    }
-  }
-
   private boolean isEmbedded(String field) {
     // if the field contains separator character, then it is an embedded field
     return field.contains(CropConfig.getFieldSeparator());
@@ -23,7 +23,9 @@ import xyz.vopen.framework.cropdb.common.Constants;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 
 /**
  * An unique identifier across the Crop database. Each document in a crop collection is associated
@@ -42,13 +44,25 @@ public final class CropId implements Comparable<CropId>, Serializable {
   private static final long serialVersionUID = 1477462375L;
   private static final transient SnowflakeIdGenerator generator = new SnowflakeIdGenerator();
 
-  private String idValue;
+  // marks the binary serialized form, the legacy utf form starts with a zero length byte
+  private static final int BINARY_FORMAT = 1;
+
+  // keeps the class descriptor of the older string based form, the id is written by writeObject
+  private static final ObjectStreamField[] serialPersistentFields = {
+    new ObjectStreamField("idValue", String.class)
+  };
+
+  private long idValue;
+
+  // the text of an id created from a non canonical decimal string, e.g. "007" of an older
+  // version, kept so that getIdValue returns it unchanged; ids are equal by their long value
+  @EqualsAndHashCode.Exclude private String legacyValue;
 
   private CropId() {
-    this.idValue = Long.toString(generator.getId());
+    this.idValue = generator.getId();
   }
 
-  private CropId(String value) {
+  private CropId(long value) {
     this.idValue = value;
   }
 
@@ -62,13 +76,32 @@ public final class CropId implements Comparable<CropId>, Serializable {
   }
 
   /**
-   * Creates a {@link CropId} from a long value.
+   * Creates a {@link CropId} from the string representation of a long value. A value which is not
+   * in the canonical form of its long, e.g. "007", is returned as is by {@link #getIdValue()}.
    *
    * @param value the value
    * @return the {@link CropId}
    */
   public static CropId createId(String value) {
-    validId(value);
+    if (value == null) {
+      throw new InvalidIdException("id cannot be null");
+    }
+    try {
+      CropId cropId = new CropId(Long.parseLong(value));
+      cropId.legacyValue = legacyValue(cropId.idValue, value);
+      return cropId;
+    } catch (NumberFormatException e) {
+      throw new InvalidIdException("id must be a string representation of 64bit decimal number");
+    }
+  }
+
+  /**
+   * Creates a {@link CropId} from a long value.
+   *
+   * @param value the value
+   * @return the {@link CropId}
+   */
+  public static CropId createId(long value) {
     return new CropId(value);
   }
 
@@ -86,19 +119,16 @@ public final class CropId implements Comparable<CropId>, Serializable {
 
   @Override
   public int compareTo(CropId other) {
-    if (other.idValue == null) {
+    if (other == null) {
       throw new InvalidIdException("cannot compare with null id");
     }
 
-    return Long.compare(Long.parseLong(idValue), Long.parseLong(other.idValue));
+    return Long.compare(idValue, other.idValue);
   }
 
   @Override
   public String toString() {
-    if (idValue != null) {
-      return Constants.ID_PREFIX + idValue + Constants.ID_SUFFIX;
-    }
-    return "";
+    return Constants.ID_PREFIX + getIdValue() + Constants.ID_SUFFIX;
   }
 
   /**
@@ -107,14 +137,50 @@ public final class CropId implements Comparable<CropId>, Serializable {
    * @return the underlying id object.
    */
   public String getIdValue() {
+    return legacyValue != null ? legacyValue : Long.toString(idValue);
+  }
+
+  /**
+   * Gets the underlying id as a primitive long.
+   *
+   * @return the underlying id value.
+   */
+  public long getLongValue() {
     return idValue;
   }
 
+  private static String legacyValue(long value, String text) {
+    // a text too long for the older serialized form is not kept
+    return Long.toString(value).equals(text) || text.length() > 255 ? null : text;
+  }
+
   private void writeObject(ObjectOutputStream stream) throws IOException {
-    stream.writeUTF(idValue);
+    if (legacyValue != null) {
+      // the text is kept in the older form, its utf length is below 256 so the first byte is zero
+      stream.writeUTF(legacyValue);
+      return;
+    }
+    stream.writeByte(BINARY_FORMAT);
+    stream.writeLong(idValue);
   }
 
   private void readObject(ObjectInputStream stream) throws IOException {
-    idValue = stream.readUTF();
+    int format = stream.readUnsignedByte();
+    if (format == BINARY_FORMAT) {
+      idValue = stream.readLong();
+    } else {
+      // written by an older version using writeUTF, the first byte was
+      // the high byte of the utf length
+      int length = (format << 8) | stream.readUnsignedByte();
+      byte[] bytes = new byte[length];
+      stream.readFully(bytes);
+      String text = new String(bytes, StandardCharsets.UTF_8);
+      try {
+        idValue = Long.parseLong(text);
+        legacyValue = legacyValue(idValue, text);
+      } catch (NumberFormatException e) {
+        throw new InvalidIdException("invalid serialized id found", e);
+      }
+    }
   }
 }
@@ -17,6 +17,7 @@
 package xyz.vopen.framework.cropdb.collection;
 
 import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
 import xyz.vopen.framework.cropdb.CropConfig;
 import xyz.vopen.framework.cropdb.collection.events.CollectionEventInfo;
 import xyz.vopen.framework.cropdb.collection.events.CollectionEventListener;
@@ -25,6 +26,7 @@ import xyz.vopen.framework.cropdb.collection.operation.CollectionOperations;
 import xyz.vopen.framework.cropdb.common.Fields;
 import xyz.vopen.framework.cropdb.common.WriteResult;
 import xyz.vopen.framework.cropdb.common.concurrent.LockService;
+import xyz.vopen.framework.cropdb.common.concurrent.ThreadPoolManager;
 import xyz.vopen.framework.cropdb.common.event.EventBus;
 import xyz.vopen.framework.cropdb.common.event.CropEventBus;
 import xyz.vopen.framework.cropdb.exceptions.IndexingException;
@@ -43,12 +45,21 @@ import xyz.vopen.framework.cropdb.common.util.ValidationUtils;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
 
 import static xyz.vopen.framework.cropdb.collection.UpdateOptions.updateOptions;
 
 /** @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a>. */
+@Slf4j
 class DefaultCropCollection implements CropCollection {
+  // the number of logged writes applied at once to an index built in the background
+  private static final int INDEX_CATCH_UP_SIZE = 1000;
+  // the number of such rounds before the rest of the log is applied at once
+  private static final int INDEX_CATCH_UP_ROUNDS = 10;
+
   private final String collectionName;
   private final LockService lockService;
 
@@ -58,6 +69,7 @@ class DefaultCropCollection implements CropCollection {
 
   private Lock writeLock;
   private Lock readLock;
+  private boolean fineGrainedLocking;
   private CollectionOperations collectionOperations;
   private EventBus<CollectionEventInfo<?>, CollectionEventListener> eventBus;
 
@@ -106,13 +118,7 @@ class DefaultCropCollection implements CropCollection {
     ValidationUtils.notNull(documents, "a null document cannot be inserted");
     ValidationUtils.containsNull(documents, "a null document cannot be inserted");
 
-    try {
-      writeLock.lock();
-      checkOpened();
-      return collectionOperations.insert(documents);
-    } finally {
-      writeLock.unlock();
-    }
+    return write(false, () -> collectionOperations.insert(documents));
   }
 
   public WriteResult update(Document document, boolean insertIfAbsent) {
@@ -134,26 +140,17 @@ class DefaultCropCollection implements CropCollection {
     ValidationUtils.notNull(update, "a null document cannot be used for update");
     ValidationUtils.notNull(updateOptions, "updateOptions cannot be null");
 
-    try {
-      writeLock.lock();
-      checkOpened();
-      return collectionOperations.update(filter, update, updateOptions);
-    } finally {
-      writeLock.unlock();
-    }
+    // an insert if nothing matches must not run along with another one
+    return write(
+        updateOptions.isInsertIfAbsent(),
+        () -> collectionOperations.update(filter, update, updateOptions));
   }
 
   public WriteResult remove(Document document) {
     ValidationUtils.notNull(document, "a null document cannot be removed");
 
     if (document.hasId()) {
-      try {
-        writeLock.lock();
-        checkOpened();
-        return collectionOperations.remove(document);
-      } finally {
-        writeLock.unlock();
-      }
+      return write(false, () -> collectionOperations.remove(document));
     } else {
       throw new NotIdentifiableException(
           "remove operation failed as no id value found for the document");
@@ -165,13 +162,7 @@ class DefaultCropCollection implements CropCollection {
       throw new InvalidOperationException("remove all cannot be combined with just once");
     }
 
-    try {
-      writeLock.lock();
-      checkOpened();
-      return collectionOperations.remove(filter, justOne);
-    } finally {
-      writeLock.unlock();
-    }
+    return write(false, () -> collectionOperations.remove(filter, justOne));
   }
 
   public void clear() {
@@ -194,6 +185,19 @@ class DefaultCropCollection implements CropCollection {
     }
   }
 
+  public long count(Filter filter) {
+    try {
+      readLock.lock();
+      checkOpened();
+      if (filter == null || filter == Filter.ALL) {
+        return collectionOperations.getSize();
+      }
+      return collectionOperations.count(filter);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
   public void createIndex(IndexOptions indexOptions, String... fields) {
     ValidationUtils.notNull(fields, "fields cannot be null");
 
@@ -204,8 +208,41 @@ class DefaultCropCollection implements CropCollection {
 
       if (indexOptions == null) {
         collectionOperations.createIndex(indexFields, IndexType.UNIQUE);
+      } else if (indexOptions.isAsync()) {
+        collectionOperations.startIndexBuild(indexFields, indexOptions);
+        ThreadPoolManager.runAsync(() -> buildIndex(indexFields));
       } else {
-        collectionOperations.createIndex(indexFields, indexOptions.getIndexType());
+        collectionOperations.createIndex(indexFields, indexOptions);
+      }
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  public void createIndexes(Map<Fields, IndexOptions> indexes) {
+    ValidationUtils.notNull(indexes, "indexes cannot be null");
+
+    try {
+      writeLock.lock();
+      checkOpened();
+
+      // the indexes built in the foreground share one pass over the documents
+      Map<Fields, IndexOptions> foregroundIndexes = new LinkedHashMap<>();
+      for (Map.Entry<Fields, IndexOptions> entry : indexes.entrySet()) {
+        Fields indexFields = entry.getKey();
+        IndexOptions indexOptions = entry.getValue();
+        if (indexOptions == null) {
+          foregroundIndexes.put(indexFields, IndexOptions.indexOptions(IndexType.UNIQUE));
+        } else if (indexOptions.isAsync()) {
+          collectionOperations.startIndexBuild(indexFields, indexOptions);
+          ThreadPoolManager.runAsync(() -> buildIndex(indexFields));
+        } else {
+          foregroundIndexes.put(indexFields, indexOptions);
+        }
+      }
+
+      if (!foregroundIndexes.isEmpty()) {
+        collectionOperations.createIndexes(foregroundIndexes);
       }
     } finally {
       writeLock.unlock();
@@ -438,6 +475,63 @@ class DefaultCropCollection implements CropCollection {
     }
   }
 
+  private WriteResult write(boolean exclusive, Supplier<WriteResult> operation) {
+    if (fineGrainedLocking && !exclusive) {
+      // writes lock their documents, and exclude only the changes of the whole collection
+      try {
+        readLock.lock();
+        checkOpened();
+        if (collectionOperations.canWriteConcurrently()) {
+          return operation.get();
+        }
+      } finally {
+        readLock.unlock();
+      }
+    }
+
+    try {
+      writeLock.lock();
+      checkOpened();
+      return operation.get();
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private void buildIndex(Fields indexFields) {
+    try {
+      // the documents are indexed while the collection is written
+      CollectionOperations operations = collectionOperations;
+      if (operations == null) return;
+      operations.scanIndex(indexFields);
+
+      // the writes logged meanwhile are applied a few at a time, pausing the writers briefly.
+      // the writers may log faster than that, so the last round applies all of the log while
+      // they wait
+      boolean ready = false;
+      for (int round = 1; !ready; round++) {
+        int maxChanges = round < INDEX_CATCH_UP_ROUNDS ? INDEX_CATCH_UP_SIZE : Integer.MAX_VALUE;
+        try {
+          writeLock.lock();
+          checkOpened();
+          ready = collectionOperations.catchUpIndex(indexFields, maxChanges);
+        } finally {
+          writeLock.unlock();
+        }
+      }
+    } catch (Exception e) {
+      log.error("Failed to build the index on {} of {}", indexFields, collectionName, e);
+      try {
+        writeLock.lock();
+        if (isOpen()) {
+          collectionOperations.abortIndexBuild(indexFields);
+        }
+      } finally {
+        writeLock.unlock();
+      }
+    }
+  }
+
   private void closeEventBus() {
     if (eventBus != null) {
       eventBus.close();
@@ -451,8 +545,14 @@ class DefaultCropCollection implements CropCollection {
     this.writeLock = lockService.getWriteLock(collectionName);
     this.cropStore = cropConfig.getCropStore();
     this.eventBus = new CollectionEventBus();
+    this.fineGrainedLocking = cropConfig.isFineGrainedLocking();
     this.collectionOperations =
-        new CollectionOperations(collectionName, cropMap, cropConfig, eventBus);
+        new CollectionOperations(
+            collectionName,
+            cropMap,
+            cropConfig,
+            eventBus,
+            fineGrainedLocking ? lockService.getStripedLock(collectionName) : null);
   }
 
   private void checkOpened() {
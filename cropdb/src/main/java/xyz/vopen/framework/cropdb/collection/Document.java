@@ -18,6 +18,7 @@ package xyz.vopen.framework.cropdb.collection;
 
 import xyz.vopen.framework.cropdb.common.tuples.Pair;
 import xyz.vopen.framework.cropdb.common.Constants;
+import xyz.vopen.framework.cropdb.common.FieldPath;
 
 import java.io.Serializable;
 import java.util.LinkedHashMap;
@@ -85,6 +86,16 @@ public interface Document extends Iterable<Pair<String, Object>>, Cloneable, Ser
    */
   Object get(String key);
 
+  /**
+   * Returns the value of a field path, or null if this document contains no mapping for it.
+   *
+   * @param path the field path
+   * @return the object
+   */
+  default Object get(FieldPath path) {
+    return get(path.getPath());
+  }
+
   /**
    * Returns the value of type {@code <T>} to which the specified key is associated, or null if this
    * document contains no mapping for the key.
@@ -48,7 +48,7 @@ import xyz.vopen.framework.cropdb.common.RecordStream;
  * @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a>
  * @since 4.0
  */
-public interface DocumentCursor extends RecordStream<Document> {
+public interface DocumentCursor extends RecordStream<Document>, AutoCloseable {
   /**
    * Gets a filter plan for the query.
    *
@@ -77,4 +77,11 @@ public interface DocumentCursor extends RecordStream<Document> {
    * @since 2.1.0
    */
   RecordStream<Document> join(DocumentCursor foreignCursor, Lookup lookup);
+
+  /**
+   * Closes the cursor. The iterators of the cursor which are not read to the end release what
+   * they hold, e.g. the temporary files of a sort which does not fit in memory.
+   */
+  @Override
+  default void close() {}
 }
@@ -52,10 +52,12 @@ public class FindPlan {
   private Collator collator;
 
   private List<FindPlan> subPlans;
+  private List<FindPlan> intersectPlans;
 
   /** Instantiates a new {@link FindPlan}. */
   public FindPlan() {
     this.subPlans = new ArrayList<>();
+    this.intersectPlans = new ArrayList<>();
     this.blockingSortOrder = new ArrayList<>();
   }
 }
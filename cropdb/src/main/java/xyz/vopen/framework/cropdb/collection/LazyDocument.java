@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2021-2022. CropDB author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.vopen.framework.cropdb.collection;
+
+import xyz.vopen.framework.cropdb.CropConfig;
+import xyz.vopen.framework.cropdb.common.Constants;
+import xyz.vopen.framework.cropdb.common.FieldPath;
+import xyz.vopen.framework.cropdb.common.tuples.Pair;
+import xyz.vopen.framework.cropdb.common.util.ValidationUtils;
+import xyz.vopen.framework.cropdb.exceptions.InvalidIdException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A document over the stored form of a document, which decodes a top level field only when it is
+ * read. A store returns it while scanning a map, so that a filter or a sort reads only the fields
+ * it needs.
+ *
+ * <p>Any change, iteration or copy of the document first decodes all the fields into a {@link
+ * CropDocument}, and from then on the document works on it. Like the cursor which reads it, a lazy
+ * document is used by one thread at a time.
+ *
+ * @since 4.0
+ * @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a>
+ */
+public abstract class LazyDocument implements Document {
+  private static final long serialVersionUID = 1665980533L;
+  private static final Object UNDECODED = new Object();
+
+  private Object[] values;
+  private Document document;
+
+  /**
+   * Gets the number of top level fields in the stored form.
+   *
+   * @return the number of fields
+   */
+  protected abstract int fieldCount();
+
+  /**
+   * Gets the position of a top level field in the stored form.
+   *
+   * @param field the field name
+   * @return the position, or -1 if the field is not stored
+   */
+  protected abstract int indexOf(String field);
+
+  /**
+   * Gets the name of the top level field at a position.
+   *
+   * @param index the position
+   * @return the field name
+   */
+  protected abstract String fieldName(int index);
+
+  /**
+   * Decodes the value of the top level field at a position.
+   *
+   * @param index the position
+   * @return the value
+   */
+  protected abstract Object decodeValue(int index);
+
+  /**
+   * Indicates whether any field value has been decoded. A decoded value may have been changed in
+   * place, so the stored form is then no longer known to hold the document.
+   *
+   * @return `true` if a value has been decoded
+   */
+  protected final boolean hasDecodedValues() {
+    return values != null || document != null;
+  }
+
+  /**
+   * Decodes all the fields into a document, which is used by this document from then on.
+   *
+   * @return the decoded document
+   */
+  public Document inflate() {
+    if (document == null) {
+      document = decodeDocument(true);
+      values = null;
+    }
+    return document;
+  }
+
+  /**
+   * Gets the names of the top level fields in their stored order, without decoding the values.
+   *
+   * @return the field names
+   */
+  public List<String> getFieldNames() {
+    if (document != null) {
+      List<String> names = new ArrayList<>(document.size());
+      for (Pair<String, Object> field : document) {
+        names.add(field.getFirst());
+      }
+      return names;
+    }
+
+    int count = fieldCount();
+    List<String> names = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      names.add(fieldName(i));
+    }
+    return names;
+  }
+
+  @Override
+  public Document put(String key, Object value) {
+    inflate().put(key, value);
+    return this;
+  }
+
+  @Override
+  public Object get(String key) {
+    if (document != null) {
+      return document.get(key);
+    }
+    if (key == null) {
+      return null;
+    }
+
+    int index = indexOf(key);
+    if (index >= 0) {
+      return value(index);
+    }
+
+    return key.contains(CropConfig.getFieldSeparator()) ? getEmbedded(FieldPath.of(key)) : null;
+  }
+
+  @Override
+  public Object get(FieldPath path) {
+    if (document != null) {
+      return document.get(path);
+    }
+
+    int index = indexOf(path.getPath());
+    if (index >= 0) {
+      return value(index);
+    }
+    return path.isEmbedded() ? getEmbedded(path) : null;
+  }
+
+  @Override
+  public <T> T get(String key, Class<T> type) {
+    ValidationUtils.notNull(type, "type cannot be null");
+    return type.cast(get(key));
+  }
+
+  @Override
+  public CropId getId() {
+    if (document != null || indexOf(Constants.DOC_ID) < 0) {
+      // a missing id is generated and put into the document
+      return inflate().getId();
+    }
+
+    Object id = get(Constants.DOC_ID);
+    try {
+      return CropId.createId((String) id);
+    } catch (ClassCastException cce) {
+      throw new InvalidIdException("invalid _id found " + id);
+    }
+  }
+
+  @Override
+  public Set<String> getFields() {
+    return inflate().getFields();
+  }
+
+  @Override
+  public boolean hasId() {
+    return document != null ? document.hasId() : indexOf(Constants.DOC_ID) >= 0;
+  }
+
+  @Override
+  public void remove(String key) {
+    inflate().remove(key);
+  }
+
+  @Override
+  public Document clone() {
+    // a copy is decoded from the stored form, so it shares no value with this document
+    return document != null ? document.clone() : decodeDocument(false);
+  }
+
+  @Override
+  public int size() {
+    return document != null ? document.size() : fieldCount();
+  }
+
+  @Override
+  public Document merge(Document update) {
+    inflate().merge(update);
+    return this;
+  }
+
+  @Override
+  public boolean containsKey(String key) {
+    return document != null ? document.containsKey(key) : indexOf(key) >= 0;
+  }
+
+  @Override
+  public Iterator<Pair<String, Object>> iterator() {
+    return inflate().iterator();
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (other == this) return true;
+    if (other instanceof LazyDocument) {
+      other = ((LazyDocument) other).inflate();
+    }
+    return inflate().equals(other);
+  }
+
+  @Override
+  public int hashCode() {
+    return inflate().hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return inflate().toString();
+  }
+
+  /**
+   * Writes the decoded document in place of this one in a java serialization stream.
+   *
+   * @return the decoded document
+   */
+  protected Object writeReplace() {
+    return inflate();
+  }
+
+  private Document decodeDocument(boolean reuseValues) {
+    int count = fieldCount();
+    CropDocument decoded = new CropDocument(Math.max(16, count * 4 / 3 + 1));
+    for (int i = 0; i < count; i++) {
+      decoded.putStored(fieldName(i), reuseValues ? value(i) : decodeValue(i));
+    }
+    return decoded;
+  }
+
+  private Object getEmbedded(FieldPath path) {
+    if (path.length() < 1) {
+      return null;
+    }
+
+    // decode the top level field only, the rest of the path is resolved like in a document
+    return CropDocument.getEmbedded(get(path.getSegment(0)), path, 1);
+  }
+
+  private Object value(int index) {
+    if (values == null) {
+      values = new Object[fieldCount()];
+      Arrays.fill(values, UNDECODED);
+    }
+
+    // a field read more than once, like by a sort, is decoded once
+    Object value = values[index];
+    if (value == UNDECODED) {
+      value = decodeValue(index);
+      values[index] = value;
+    }
+    return value;
+  }
+}
@@ -36,5 +36,8 @@ public enum EventType {
   IndexStart,
 
   /** Indexing end event. */
-  IndexEnd
+  IndexEnd,
+
+  /** Indexing failure event, the index was not built and is dropped. */
+  IndexFailed
 }
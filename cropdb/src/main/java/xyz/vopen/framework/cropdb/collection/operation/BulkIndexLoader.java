@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2021-2022. CropDB author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.vopen.framework.cropdb.collection.operation;
+
+import xyz.vopen.framework.cropdb.CropConfig;
+import xyz.vopen.framework.cropdb.collection.CropId;
+import xyz.vopen.framework.cropdb.collection.Document;
+import xyz.vopen.framework.cropdb.common.FieldValues;
+import xyz.vopen.framework.cropdb.common.concurrent.ThreadPoolManager;
+import xyz.vopen.framework.cropdb.common.tuples.Pair;
+import xyz.vopen.framework.cropdb.common.util.DocumentUtils;
+import xyz.vopen.framework.cropdb.exceptions.CropException;
+import xyz.vopen.framework.cropdb.exceptions.IndexingException;
+import xyz.vopen.framework.cropdb.index.CropIndexer;
+import xyz.vopen.framework.cropdb.index.IndexDescriptor;
+import xyz.vopen.framework.cropdb.store.CropMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Loads the documents of a collection into new indexes, all of them in one pass over the
+ * collection.
+ *
+ * <p>The documents are read in runs of the sort buffer size. The index values of a run are read by
+ * the worker threads, and each index takes the run as one batch, which it writes in key order
+ * with a single read and write of every key.
+ *
+ * @since 4.0
+ * @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a>
+ */
+class BulkIndexLoader {
+  // the smallest number of documents worth handing to another thread
+  private static final int MIN_PARTITION_SIZE = 256;
+
+  private final CropConfig cropConfig;
+  private final CropMap<CropId, Document> cropMap;
+
+  BulkIndexLoader(CropConfig cropConfig, CropMap<CropId, Document> cropMap) {
+    this.cropConfig = cropConfig;
+    this.cropMap = cropMap;
+  }
+
+  /**
+   * Loads all the documents of the collection into the indexes.
+   *
+   * @param indexDescriptors the indexes
+   */
+  void load(List<IndexDescriptor> indexDescriptors) {
+    if (indexDescriptors.isEmpty()) return;
+
+    int runSize = Math.max(1, cropConfig.getSortBufferSize());
+    List<Document> run = new ArrayList<>();
+    for (Pair<CropId, Document> entry : cropMap.entries()) {
+      run.add(entry.getSecond());
+      if (run.size() >= runSize) {
+        loadRun(indexDescriptors, run);
+        run = new ArrayList<>();
+      }
+    }
+
+    if (!run.isEmpty()) {
+      loadRun(indexDescriptors, run);
+    }
+  }
+
+  private void loadRun(List<IndexDescriptor> indexDescriptors, List<Document> documents) {
+    FieldValues[][] runValues = new FieldValues[indexDescriptors.size()][documents.size()];
+
+    int partitions =
+        Math.min(
+            Runtime.getRuntime().availableProcessors(),
+            (documents.size() + MIN_PARTITION_SIZE - 1) / MIN_PARTITION_SIZE);
+    if (partitions <= 1) {
+      readValues(indexDescriptors, documents, runValues, 0, documents.size());
+    } else {
+      readValuesInParallel(indexDescriptors, documents, runValues, partitions);
+    }
+
+    for (int i = 0; i < indexDescriptors.size(); i++) {
+      IndexDescriptor indexDescriptor = indexDescriptors.get(i);
+      List<FieldValues> fieldValuesList = Arrays.asList(runValues[i]);
+      if (indexDescriptor.isFiltered()) {
+        // the documents left out of a sparse or partial index have no values
+        fieldValuesList = new ArrayList<>(fieldValuesList);
+        fieldValuesList.removeIf(Objects::isNull);
+        if (fieldValuesList.isEmpty()) continue;
+      }
+
+      CropIndexer cropIndexer = cropConfig.findIndexer(indexDescriptor.getIndexType());
+      cropIndexer.writeIndexEntries(fieldValuesList, indexDescriptor, cropConfig);
+    }
+  }
+
+  private void readValuesInParallel(
+      List<IndexDescriptor> indexDescriptors,
+      List<Document> documents,
+      FieldValues[][] runValues,
+      int partitions) {
+    List<FutureTask<Void>> tasks = new ArrayList<>(partitions);
+    int partitionSize = (documents.size() + partitions - 1) / partitions;
+    for (int start = 0; start < documents.size(); start += partitionSize) {
+      int from = start;
+      int to = Math.min(start + partitionSize, documents.size());
+      FutureTask<Void> task =
+          new FutureTask<>(
+              () -> readValues(indexDescriptors, documents, runValues, from, to), null);
+      tasks.add(task);
+      ThreadPoolManager.runAsync(task);
+    }
+
+    // a build may itself run on the worker pool, so the partitions not started yet are read here
+    for (FutureTask<Void> task : tasks) {
+      task.run();
+    }
+
+    for (FutureTask<Void> task : tasks) {
+      try {
+        task.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IndexingException("interrupted while building the indexes", e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof CropException) {
+          throw (CropException) e.getCause();
+        }
+        throw new IndexingException("failed to read the index values", e.getCause());
+      }
+    }
+  }
+
+  private void readValues(
+      List<IndexDescriptor> indexDescriptors,
+      List<Document> documents,
+      FieldValues[][] runValues,
+      int from,
+      int to) {
+    // a document is read by one thread only, and for all the indexes at once
+    for (int d = from; d < to; d++) {
+      Document document = documents.get(d);
+      for (int i = 0; i < indexDescriptors.size(); i++) {
+        IndexDescriptor indexDescriptor = indexDescriptors.get(i);
+        if (indexDescriptor.covers(document)) {
+          runValues[i][d] = DocumentUtils.getValues(document, indexDescriptor.getIndexFields());
+        }
+      }
+    }
+  }
+}
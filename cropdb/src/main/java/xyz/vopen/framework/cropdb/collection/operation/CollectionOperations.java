@@ -23,9 +23,11 @@ import xyz.vopen.framework.cropdb.collection.events.CollectionEventListener;
 import xyz.vopen.framework.cropdb.collection.meta.Attributes;
 import xyz.vopen.framework.cropdb.common.Fields;
 import xyz.vopen.framework.cropdb.common.WriteResult;
+import xyz.vopen.framework.cropdb.common.concurrent.StripedLock;
 import xyz.vopen.framework.cropdb.common.event.EventBus;
 import xyz.vopen.framework.cropdb.filters.Filter;
 import xyz.vopen.framework.cropdb.index.IndexDescriptor;
+import xyz.vopen.framework.cropdb.index.IndexOptions;
 import xyz.vopen.framework.cropdb.common.processors.Processor;
 import xyz.vopen.framework.cropdb.common.processors.ProcessorChain;
 import xyz.vopen.framework.cropdb.store.CropMap;
@@ -33,6 +35,7 @@ import xyz.vopen.framework.cropdb.store.StoreCatalog;
 import xyz.vopen.framework.cropdb.common.util.DocumentUtils;
 
 import java.util.Collection;
+import java.util.Map;
 
 import static xyz.vopen.framework.cropdb.collection.UpdateOptions.updateOptions;
 
@@ -47,6 +50,7 @@ public class CollectionOperations implements AutoCloseable {
   private final CropConfig cropConfig;
   private final CropMap<CropId, Document> cropMap;
   private final EventBus<CollectionEventInfo<?>, CollectionEventListener> eventBus;
+  private final StripedLock stripedLock;
   private ProcessorChain processorChain;
   private IndexOperations indexOperations;
   private WriteOperations writeOperations;
@@ -65,10 +69,31 @@ public class CollectionOperations implements AutoCloseable {
       CropMap<CropId, Document> cropMap,
       CropConfig cropConfig,
       EventBus<CollectionEventInfo<?>, CollectionEventListener> eventBus) {
+    this(collectionName, cropMap, cropConfig, eventBus, null);
+  }
+
+  /**
+   * Instantiates a new Collection operations, which locks the documents it writes with a striped
+   * lock, so that writes of different documents can run at the same time.
+   *
+   * @param collectionName the collection name
+   * @param cropMap the crop map
+   * @param cropConfig the crop config
+   * @param eventBus the event bus
+   * @param stripedLock the striped lock of the collection, or <code>null</code> if all writes are
+   *     serialized by the caller
+   */
+  public CollectionOperations(
+      String collectionName,
+      CropMap<CropId, Document> cropMap,
+      CropConfig cropConfig,
+      EventBus<CollectionEventInfo<?>, CollectionEventListener> eventBus,
+      StripedLock stripedLock) {
     this.collectionName = collectionName;
     this.cropMap = cropMap;
     this.cropConfig = cropConfig;
     this.eventBus = eventBus;
+    this.stripedLock = stripedLock;
     initialize();
   }
 
@@ -99,7 +124,68 @@ public class CollectionOperations implements AutoCloseable {
    * @param indexType the index type
    */
   public void createIndex(Fields fields, String indexType) {
-    indexOperations.createIndex(fields, indexType);
+    createIndex(fields, IndexOptions.indexOptions(indexType));
+  }
+
+  /**
+   * Creates index with the options, which can make it sparse or partial.
+   *
+   * @param fields the fields
+   * @param indexOptions the index options
+   */
+  public void createIndex(Fields fields, IndexOptions indexOptions) {
+    indexOperations.createIndex(fields, indexOptions);
+  }
+
+  /**
+   * Creates several indexes, which are built in one pass over the collection.
+   *
+   * @param indexes the index options, by the fields
+   */
+  public void createIndexes(Map<Fields, IndexOptions> indexes) {
+    indexOperations.createIndexes(indexes);
+  }
+
+  /**
+   * Starts to build an index in the background. The index is not used by the queries until it is
+   * built, and the writes meanwhile are logged for it.
+   *
+   * @param fields the fields
+   * @param indexOptions the index options
+   */
+  public void startIndexBuild(Fields fields, IndexOptions indexOptions) {
+    indexOperations.startIndexBuild(fields, indexOptions);
+  }
+
+  /**
+   * Indexes the documents of the collection for an index being built. It runs while the
+   * collection is written.
+   *
+   * @param fields the fields
+   */
+  public void scanIndex(Fields fields) {
+    indexOperations.scanIndex(fields);
+  }
+
+  /**
+   * Applies the logged writes to an index being built, and marks it ready once none is left. It
+   * runs while no document of the collection is written.
+   *
+   * @param fields the fields
+   * @param maxChanges the maximum number of writes to apply
+   * @return `true` if the index is ready
+   */
+  public boolean catchUpIndex(Fields fields, int maxChanges) {
+    return indexOperations.catchUpIndex(fields, maxChanges);
+  }
+
+  /**
+   * Drops an index whose build has failed.
+   *
+   * @param fields the fields
+   */
+  public void abortIndexBuild(Fields fields) {
+    indexOperations.abortIndexBuild(fields);
   }
 
   /**
@@ -164,6 +250,16 @@ public class CollectionOperations implements AutoCloseable {
     indexOperations.dropAllIndices();
   }
 
+  /**
+   * Checks if the documents can be written while other documents are written. An index left dirty
+   * is rebuilt by the next write, which must not run with other writes.
+   *
+   * @return the boolean
+   */
+  public boolean canWriteConcurrently() {
+    return stripedLock != null && !indexOperations.hasDirtyIndex();
+  }
+
   /**
    * Inserts documents to the collection.
    *
@@ -218,6 +314,16 @@ public class CollectionOperations implements AutoCloseable {
     return readOperations.find(filter, findOptions);
   }
 
+  /**
+   * Counts documents using filter.
+   *
+   * @param filter the filter
+   * @return the number of documents
+   */
+  public long count(Filter filter) {
+    return readOperations.count(filter);
+  }
+
   /**
    * Gets document by id.
    *
@@ -275,8 +381,11 @@ public class CollectionOperations implements AutoCloseable {
         new ReadOperations(collectionName, indexOperations, cropConfig, cropMap, processorChain);
 
     DocumentIndexWriter indexWriter = new DocumentIndexWriter(cropConfig, indexOperations);
+    DocumentLocks documentLocks =
+        stripedLock == null ? null : new DocumentLocks(stripedLock, cropConfig, indexOperations);
     this.writeOperations =
-        new WriteOperations(indexWriter, readOperations, cropMap, eventBus, processorChain);
+        new WriteOperations(
+            indexWriter, readOperations, cropMap, eventBus, processorChain, documentLocks);
   }
 
   private void dropCropMap() {
@@ -16,20 +16,28 @@
 
 package xyz.vopen.framework.cropdb.collection.operation;
 
+import lombok.extern.slf4j.Slf4j;
 import xyz.vopen.framework.cropdb.CropConfig;
 import xyz.vopen.framework.cropdb.collection.Document;
 import xyz.vopen.framework.cropdb.common.FieldValues;
 import xyz.vopen.framework.cropdb.common.Fields;
 import xyz.vopen.framework.cropdb.common.util.DocumentUtils;
 import xyz.vopen.framework.cropdb.index.IndexDescriptor;
+import xyz.vopen.framework.cropdb.exceptions.IndexingException;
+import xyz.vopen.framework.cropdb.exceptions.UniqueConstraintException;
 import xyz.vopen.framework.cropdb.index.CropIndexer;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * @since 4.0
  * @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a>
  */
+@Slf4j
 class DocumentIndexWriter {
   private final CropConfig cropConfig;
   private final IndexOperations indexOperations;
@@ -39,6 +47,18 @@ class DocumentIndexWriter {
     this.indexOperations = indexOperations;
   }
 
+  void rebuildDirtyIndexes() {
+    Collection<IndexDescriptor> indexEntries = indexOperations.listIndexes();
+    if (indexEntries != null) {
+      for (IndexDescriptor indexDescriptor : indexEntries) {
+        // a rebuild scans the collection, so it can not run within a batch of the store
+        if (indexOperations.shouldRebuildIndex(indexDescriptor.getIndexFields())) {
+          indexOperations.buildIndex(indexDescriptor, true);
+        }
+      }
+    }
+  }
+
   void writeIndexEntry(Document document) {
     Collection<IndexDescriptor> indexEntries = indexOperations.listIndexes();
     if (indexEntries != null) {
@@ -51,6 +71,55 @@ class DocumentIndexWriter {
     }
   }
 
+  void writeIndexEntries(List<Document> documents) {
+    Collection<IndexDescriptor> indexEntries = indexOperations.listIndexes();
+    if (indexEntries != null && !documents.isEmpty()) {
+      Map<IndexDescriptor, List<FieldValues>> batch = new LinkedHashMap<>();
+      for (IndexDescriptor indexDescriptor : indexEntries) {
+        Fields fields = indexDescriptor.getIndexFields();
+        List<FieldValues> fieldValuesList = new ArrayList<>(documents.size());
+        for (Document document : documents) {
+          if (indexDescriptor.covers(document)) {
+            fieldValuesList.add(DocumentUtils.getValues(document, fields));
+          }
+        }
+
+        // a sparse or partial index may hold none of the documents
+        if (fieldValuesList.isEmpty()) continue;
+
+        // an index being built may have scanned the documents already, so it takes the changes
+        // even if the batch fails in another index
+        if (!logIndexChanges(fields, fieldValuesList)) {
+          batch.put(indexDescriptor, fieldValuesList);
+        }
+      }
+
+      Map<IndexDescriptor, List<FieldValues>> written = new LinkedHashMap<>();
+      try {
+        for (Map.Entry<IndexDescriptor, List<FieldValues>> entry : batch.entrySet()) {
+          IndexDescriptor indexDescriptor = entry.getKey();
+          List<FieldValues> fieldValuesList = entry.getValue();
+          String indexType = indexDescriptor.getIndexType();
+          CropIndexer cropIndexer = cropConfig.findIndexer(indexType);
+          written.put(indexDescriptor, fieldValuesList);
+
+          // if dirty index and currently indexing is not running, rebuild
+          if (indexOperations.shouldRebuildIndex(indexDescriptor.getIndexFields())) {
+            // rebuild will also take care of the current batch
+            indexOperations.buildIndex(indexDescriptor, true);
+          } else if (cropIndexer != null) {
+            cropIndexer.writeIndexEntries(fieldValuesList, indexDescriptor, cropConfig);
+            indexOperations.updateIndexStatistics(indexDescriptor, fieldValuesList.size());
+          }
+        }
+      } catch (UniqueConstraintException | IndexingException e) {
+        // the batch is written all or nothing, so take it out of the indexes again
+        rollbackIndexEntries(written);
+        throw e;
+      }
+    }
+  }
+
   void removeIndexEntry(Document document) {
     Collection<IndexDescriptor> indexEntries = indexOperations.listIndexes();
     if (indexEntries != null) {
@@ -78,32 +147,78 @@ class DocumentIndexWriter {
 
   private void writeIndexEntryInternal(
       IndexDescriptor indexDescriptor, Document document, CropIndexer cropIndexer) {
-    if (indexDescriptor != null) {
+    // a sparse or partial index holds only some of the documents
+    if (indexDescriptor != null && indexDescriptor.covers(document)) {
       Fields fields = indexDescriptor.getIndexFields();
       FieldValues fieldValues = DocumentUtils.getValues(document, fields);
 
+      if (indexOperations.logIndexChange(fields, fieldValues)) {
+        // the index is being built, and takes the change once it is done
+        return;
+      }
+
       // if dirty index and currently indexing is not running, rebuild
       if (indexOperations.shouldRebuildIndex(fields)) {
         // rebuild will also take care of the current document
         indexOperations.buildIndex(indexDescriptor, true);
       } else if (cropIndexer != null) {
         cropIndexer.writeIndexEntry(fieldValues, indexDescriptor, cropConfig);
+        indexOperations.updateIndexStatistics(indexDescriptor, 1);
+      }
+    }
+  }
+
+  private boolean logIndexChanges(Fields fields, List<FieldValues> fieldValuesList) {
+    boolean logged = false;
+    for (FieldValues fieldValues : fieldValuesList) {
+      logged = indexOperations.logIndexChange(fields, fieldValues);
+      if (!logged) break;
+    }
+    return logged;
+  }
+
+  private void rollbackIndexEntries(Map<IndexDescriptor, List<FieldValues>> written) {
+    int index = 0;
+    for (Map.Entry<IndexDescriptor, List<FieldValues>> entry : written.entrySet()) {
+      IndexDescriptor indexDescriptor = entry.getKey();
+      CropIndexer cropIndexer = cropConfig.findIndexer(indexDescriptor.getIndexType());
+      if (cropIndexer == null) continue;
+
+      for (FieldValues fieldValues : entry.getValue()) {
+        try {
+          cropIndexer.removeIndexEntry(fieldValues, indexDescriptor, cropConfig);
+        } catch (IndexingException e) {
+          // the entry was never indexed
+          log.debug("Skipping rollback of index entry {}", fieldValues, e);
+        }
+      }
+
+      // the statistics are updated for every index but the failed one, which is the last
+      if (++index < written.size()) {
+        indexOperations.updateIndexStatistics(indexDescriptor, -entry.getValue().size());
       }
     }
   }
 
   private void removeIndexEntryInternal(
       IndexDescriptor indexDescriptor, Document document, CropIndexer cropIndexer) {
-    if (indexDescriptor != null) {
+    // a sparse or partial index holds only some of the documents
+    if (indexDescriptor != null && indexDescriptor.covers(document)) {
       Fields fields = indexDescriptor.getIndexFields();
       FieldValues fieldValues = DocumentUtils.getValues(document, fields);
 
+      if (indexOperations.logIndexChange(fields, fieldValues)) {
+        // the index is being built, and takes the change once it is done
+        return;
+      }
+
       // if dirty index and currently indexing is not running, rebuild
       if (indexOperations.shouldRebuildIndex(fields)) {
         // rebuild will also take care of the current document
         indexOperations.buildIndex(indexDescriptor, true);
       } else if (cropIndexer != null) {
         cropIndexer.removeIndexEntry(fieldValues, indexDescriptor, cropConfig);
+        indexOperations.updateIndexStatistics(indexDescriptor, -1);
       }
     }
   }
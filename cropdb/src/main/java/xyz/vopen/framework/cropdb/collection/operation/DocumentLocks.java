@@ -0,0 +1,107 @@
+package xyz.vopen.framework.cropdb.collection.operation;
+
+import xyz.vopen.framework.cropdb.CropConfig;
+import xyz.vopen.framework.cropdb.collection.CropId;
+import xyz.vopen.framework.cropdb.collection.Document;
+import xyz.vopen.framework.cropdb.common.FieldValues;
+import xyz.vopen.framework.cropdb.common.concurrent.StripedLock;
+import xyz.vopen.framework.cropdb.common.tuples.Pair;
+import xyz.vopen.framework.cropdb.common.util.DocumentUtils;
+import xyz.vopen.framework.cropdb.index.CropIndexer;
+import xyz.vopen.framework.cropdb.index.IndexDescriptor;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Locks the documents and the index entries which a write changes, so that writes of different
+ * documents of a collection run at the same time. The locks are held until the write and its
+ * index changes are stored.
+ *
+ * <p>The index entries to lock are found from the documents before they are locked, so a writer
+ * reads the document again after locking it, and locks again if it has been changed meanwhile.
+ *
+ * @since 4.0
+ * @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a>
+ */
+class DocumentLocks {
+  private final StripedLock stripedLock;
+  private final CropConfig cropConfig;
+  private final IndexOperations indexOperations;
+
+  DocumentLocks(StripedLock stripedLock, CropConfig cropConfig, IndexOperations indexOperations) {
+    this.stripedLock = stripedLock;
+    this.cropConfig = cropConfig;
+    this.indexOperations = indexOperations;
+  }
+
+  /**
+   * Gets the stripes of a document id and the index entries of the documents.
+   *
+   * @param cropId the document id
+   * @param documents the documents
+   * @return the stripes
+   */
+  BitSet stripesOf(CropId cropId, Document... documents) {
+    BitSet stripes = stripesOf(Collections.singletonList(cropId), Collections.emptyList());
+    for (Document document : documents) {
+      if (document != null) {
+        addIndexStripes(stripes, document);
+      }
+    }
+    return stripes;
+  }
+
+  /**
+   * Gets the stripes of the document ids and the index entries of the documents.
+   *
+   * @param cropIds the document ids
+   * @param documents the documents
+   * @return the stripes
+   */
+  BitSet stripesOf(Collection<CropId> cropIds, Collection<Document> documents) {
+    BitSet stripes = new BitSet();
+    for (CropId cropId : cropIds) {
+      stripes.set(stripedLock.stripeOf(cropId));
+    }
+    for (Document document : documents) {
+      addIndexStripes(stripes, document);
+    }
+    return stripes;
+  }
+
+  /**
+   * Locks the stripes.
+   *
+   * @param stripes the stripes
+   */
+  void lock(BitSet stripes) {
+    stripedLock.lock(stripes);
+  }
+
+  /**
+   * Unlocks the stripes.
+   *
+   * @param stripes the stripes
+   */
+  void unlock(BitSet stripes) {
+    stripedLock.unlock(stripes);
+  }
+
+  private void addIndexStripes(BitSet stripes, Document document) {
+    Collection<IndexDescriptor> indexDescriptors = indexOperations.listIndexes();
+    if (indexDescriptors == null) return;
+
+    for (IndexDescriptor indexDescriptor : indexDescriptors) {
+      CropIndexer cropIndexer = cropConfig.findIndexer(indexDescriptor.getIndexType());
+      if (cropIndexer == null) continue;
+
+      FieldValues fieldValues =
+          DocumentUtils.getValues(document, indexDescriptor.getIndexFields());
+      for (Object key : cropIndexer.getEntryKeys(fieldValues, indexDescriptor)) {
+        stripes.set(stripedLock.stripeOf(new Pair<>(indexDescriptor.getIndexFields(), key)));
+      }
+    }
+  }
+}
@@ -23,6 +23,7 @@ import xyz.vopen.framework.cropdb.common.SortOrder;
 import xyz.vopen.framework.cropdb.common.tuples.Pair;
 import xyz.vopen.framework.cropdb.exceptions.FilterException;
 import xyz.vopen.framework.cropdb.index.IndexDescriptor;
+import xyz.vopen.framework.cropdb.index.IndexStatistics;
 import xyz.vopen.framework.cropdb.common.Constants;
 import xyz.vopen.framework.cropdb.common.util.Iterables;
 import xyz.vopen.framework.cropdb.filters.*;
@@ -37,10 +38,22 @@ import static xyz.vopen.framework.cropdb.filters.Filter.or;
  * @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a>
  */
 class FindOptimizer {
+  // relative cost of reading a document through an index compared to a collection scan
+  private static final double INDEX_LOOKUP_COST = 4.0;
+  // relative cost of reading an id from an index to intersect it with another index
+  private static final double INDEX_SCAN_COST = 1.0;
+
+  private final IndexOperations indexOperations;
+
+  FindOptimizer(IndexOperations indexOperations) {
+    this.indexOperations = indexOperations;
+  }
 
   public FindPlan optimize(
       Filter filter, FindOptions findOptions, Collection<IndexDescriptor> indexDescriptors) {
-    FindPlan findPlan = createFilterPlan(indexDescriptors, filter);
+    // a sorted find may be served in index order, so do not trade the index for a collection scan
+    boolean allowCollectionScan = findOptions == null || findOptions.orderBy() == null;
+    FindPlan findPlan = createFilterPlan(indexDescriptors, filter, allowCollectionScan);
     readSortOption(findOptions, findPlan);
     readLimitOption(findOptions, findPlan);
 
@@ -50,15 +63,16 @@ class FindOptimizer {
     return findPlan;
   }
 
-  private FindPlan createFilterPlan(Collection<IndexDescriptor> indexDescriptors, Filter filter) {
+  private FindPlan createFilterPlan(
+      Collection<IndexDescriptor> indexDescriptors, Filter filter, boolean allowCollectionScan) {
     if (filter instanceof AndFilter) {
       List<Filter> filters = flattenAndFilter((AndFilter) filter);
-      return createAndPlan(indexDescriptors, filters);
+      return createAndPlan(indexDescriptors, filters, allowCollectionScan);
     } else if (filter instanceof OrFilter) {
-      return createOrPlan(indexDescriptors, ((OrFilter) filter).getFilters());
+      return createOrPlan(indexDescriptors, ((OrFilter) filter).getFilters(), allowCollectionScan);
     } else {
       List<Filter> filters = Collections.singletonList(filter);
-      return createAndPlan(indexDescriptors, filters);
+      return createAndPlan(indexDescriptors, filters, allowCollectionScan);
     }
   }
 
@@ -78,7 +92,9 @@ class FindOptimizer {
   }
 
   private FindPlan createOrPlan(
-      Collection<IndexDescriptor> indexDescriptors, List<Filter> filters) {
+      Collection<IndexDescriptor> indexDescriptors,
+      List<Filter> filters,
+      boolean allowCollectionScan) {
     FindPlan findPlan = new FindPlan();
 
     Set<Filter> flattenedFilter = new HashSet<>();
@@ -93,7 +109,7 @@ class FindOptimizer {
     }
 
     for (Filter filter : flattenedFilter) {
-      FindPlan subPlan = createFilterPlan(indexDescriptors, filter);
+      FindPlan subPlan = createFilterPlan(indexDescriptors, filter, allowCollectionScan);
       findPlan.getSubPlans().add(subPlan);
     }
 
@@ -114,7 +130,9 @@ class FindOptimizer {
   }
 
   private FindPlan createAndPlan(
-      Collection<IndexDescriptor> indexDescriptors, List<Filter> filters) {
+      Collection<IndexDescriptor> indexDescriptors,
+      List<Filter> filters,
+      boolean allowCollectionScan) {
     FindPlan findPlan = new FindPlan();
     Set<ComparableFilter> indexScanFilters = new LinkedHashSet<>();
     Set<Filter> columnScanFilters = new LinkedHashSet<>();
@@ -127,7 +145,8 @@ class FindOptimizer {
 
     // if no id filter found or no index only filter found, scan for matching index
     if (findPlan.getByIdFilter() == null && indexScanFilters.isEmpty()) {
-      planForIndexScanningFilters(findPlan, indexScanFilters, indexDescriptors, filters);
+      planForIndexScanningFilters(
+          findPlan, indexScanFilters, indexDescriptors, filters, allowCollectionScan);
     }
 
     // plan for column scan filters
@@ -226,12 +245,17 @@ class FindOptimizer {
       FindPlan findPlan,
       Set<ComparableFilter> indexScanFilters,
       Collection<IndexDescriptor> indexDescriptors,
-      List<Filter> filters) {
+      List<Filter> filters,
+      boolean allowCollectionScan) {
     // descending sort based on cardinality of indices, consider the higher cardinality index first
     NavigableMap<IndexDescriptor, List<ComparableFilter>> indexFilterMap =
         new TreeMap<>(Collections.reverseOrder());
 
     for (IndexDescriptor indexDescriptor : indexDescriptors) {
+      if (indexDescriptor.isFiltered() && !canAnswer(indexDescriptor, filters)) {
+        // the index leaves out some documents the query may select
+        continue;
+      }
       List<String> fieldNames = indexDescriptor.getIndexFields().getFieldNames();
 
       List<ComparableFilter> indexedFilters = new ArrayList<>();
@@ -259,6 +283,12 @@ class FindOptimizer {
       }
     }
 
+    if (planForCheapestIndex(
+        findPlan, indexScanFilters, indexFilterMap, filters, allowCollectionScan)) {
+      return;
+    }
+
+    // without statistics, prefer the index covering the most filters
     for (Map.Entry<IndexDescriptor, List<ComparableFilter>> entry : indexFilterMap.entrySet()) {
       // consider the filter combination if it encompasses more fields
       // than the previously selected filter
@@ -270,16 +300,165 @@ class FindOptimizer {
     }
   }
 
+  // a sparse or partial index answers the queries which never select a document it leaves out
+  private boolean canAnswer(IndexDescriptor indexDescriptor, List<Filter> filters) {
+    if (indexDescriptor.isSparse() && !excludesMissingFields(indexDescriptor, filters)) {
+      return false;
+    }
+
+    Filter partialFilter = indexDescriptor.getPartialFilter();
+    if (partialFilter != null) {
+      for (ComparableFilter indexFilter : PartialFilters.getFilters(partialFilter)) {
+        if (!isImplied(indexFilter, filters)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private boolean excludesMissingFields(IndexDescriptor indexDescriptor, List<Filter> filters) {
+    List<String> fieldNames = indexDescriptor.getIndexFields().getFieldNames();
+    for (Filter filter : filters) {
+      if (filter instanceof ComparableFilter) {
+        ComparableFilter comparableFilter = (ComparableFilter) filter;
+        if (fieldNames.contains(comparableFilter.getField()) && comparableFilter.excludesNull()) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private boolean isImplied(ComparableFilter indexFilter, List<Filter> filters) {
+    for (Filter filter : filters) {
+      if (filter instanceof ComparableFilter && ((ComparableFilter) filter).implies(indexFilter)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean planForCheapestIndex(
+      FindPlan findPlan,
+      Set<ComparableFilter> indexScanFilters,
+      NavigableMap<IndexDescriptor, List<ComparableFilter>> indexFilterMap,
+      List<Filter> filters,
+      boolean allowCollectionScan) {
+    if (indexFilterMap.isEmpty()) {
+      return false;
+    }
+
+    IndexDescriptor cheapestIndex = null;
+    double cheapestCost = Double.MAX_VALUE;
+    long collectionSize = 0;
+    boolean collectionSizeKnown = false;
+    Map<IndexDescriptor, Double> estimatedRows = new HashMap<>();
+    for (Map.Entry<IndexDescriptor, List<ComparableFilter>> entry : indexFilterMap.entrySet()) {
+      IndexStatistics statistics =
+          indexOperations.findIndexStatistics(entry.getKey().getIndexFields());
+      if (statistics == null) {
+        // can not estimate the cost without statistics of every candidate index
+        return false;
+      }
+
+      // the first field is covered by the statistics, the rest of the fields
+      // of a compound index are estimated with the default selectivity
+      List<ComparableFilter> indexFilters = entry.getValue();
+      double selectivity = indexFilters.get(0).estimateSelectivity(statistics);
+      for (int i = 1; i < indexFilters.size(); i++) {
+        selectivity *= indexFilters.get(i).estimateSelectivity(null);
+      }
+
+      double rows = Math.max(1, statistics.getEntryCount() * selectivity);
+      double cost = rows * INDEX_LOOKUP_COST;
+      estimatedRows.put(entry.getKey(), rows);
+      if (cost < cheapestCost) {
+        cheapestCost = cost;
+        cheapestIndex = entry.getKey();
+      }
+      if (!entry.getKey().isFiltered()) {
+        // a sparse or partial index does not count all the documents
+        collectionSize = Math.max(collectionSize, statistics.getEntryCount());
+        collectionSizeKnown = true;
+      }
+    }
+
+    if (allowCollectionScan
+        && collectionSizeKnown
+        && collectionSize < cheapestCost
+        && isCollectionScanSupported(filters)) {
+      // reading all documents is cheaper than going through the index
+      return true;
+    }
+
+    // maintain the order in set
+    indexScanFilters.addAll(indexFilterMap.get(cheapestIndex));
+    findPlan.setIndexDescriptor(cheapestIndex);
+
+    planForIndexIntersection(
+        findPlan, indexScanFilters, indexFilterMap, estimatedRows, collectionSize);
+    return true;
+  }
+
+  private void planForIndexIntersection(
+      FindPlan findPlan,
+      Set<ComparableFilter> indexScanFilters,
+      NavigableMap<IndexDescriptor, List<ComparableFilter>> indexFilterMap,
+      Map<IndexDescriptor, Double> estimatedRows,
+      long collectionSize) {
+    if (collectionSize == 0) {
+      return;
+    }
+
+    // consider the most selective of the remaining indexes first
+    List<IndexDescriptor> candidates = new ArrayList<>(indexFilterMap.keySet());
+    candidates.remove(findPlan.getIndexDescriptor());
+    candidates.sort(Comparator.comparingDouble(estimatedRows::get));
+
+    Set<ComparableFilter> plannedFilters = new HashSet<>(indexScanFilters);
+    double rows = estimatedRows.get(findPlan.getIndexDescriptor());
+    for (IndexDescriptor candidate : candidates) {
+      List<ComparableFilter> candidateFilters = indexFilterMap.get(candidate);
+      if (!Collections.disjoint(plannedFilters, candidateFilters)) {
+        // the filters are already served by another index
+        continue;
+      }
+
+      // scanning the ids of the index pays off if it saves enough document reads,
+      // assuming the filters are independent of each other
+      double candidateRows = estimatedRows.get(candidate);
+      double selectivity = Math.min(1.0, candidateRows / collectionSize);
+      double savedCost = rows * (1 - selectivity) * INDEX_LOOKUP_COST;
+      if (candidateRows * INDEX_SCAN_COST < savedCost) {
+        FindPlan intersectPlan = new FindPlan();
+        intersectPlan.setIndexDescriptor(candidate);
+        intersectPlan.setIndexScanFilter(new IndexScanFilter(candidateFilters));
+        findPlan.getIntersectPlans().add(intersectPlan);
+
+        plannedFilters.addAll(candidateFilters);
+        rows = Math.max(1, rows * selectivity);
+      }
+    }
+  }
+
   private void planForCollectionScanningFilters(
       FindPlan findPlan,
       Set<ComparableFilter> indexScanFilters,
       Set<Filter> columnScanFilters,
       List<Filter> filters) {
+    // filters served by intersecting with other indexes
+    Set<Filter> intersectFilters = new HashSet<>();
+    for (FindPlan intersectPlan : findPlan.getIntersectPlans()) {
+      intersectFilters.addAll(intersectPlan.getIndexScanFilter().getFilters());
+    }
+
     for (Filter filter : filters) {
       // ignore the elected filters for index scan and
       // insert rest of the filters for column scan
       // NOTE: for byId filter, index scan filters will always be empty
-      if (!(filter instanceof ComparableFilter) || !indexScanFilters.contains(filter)) {
+      if (!(filter instanceof ComparableFilter)
+          || (!indexScanFilters.contains(filter) && !intersectFilters.contains(filter))) {
         // ignore the byId filter (if any) for column scan
         if (filter != findPlan.getByIdFilter()) {
           columnScanFilters.add(filter);
@@ -294,6 +473,15 @@ class FindOptimizer {
     }
   }
 
+  private boolean isCollectionScanSupported(Collection<Filter> filters) {
+    for (Filter filter : filters) {
+      if (filter instanceof IndexOnlyFilter || filter instanceof TextFilter) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   private void validateCollectionScanFilters(Collection<Filter> filters) {
     for (Filter filter : filters) {
       if (filter instanceof IndexOnlyFilter) {
@@ -17,16 +17,24 @@
 
 package xyz.vopen.framework.cropdb.collection.operation;
 
+import lombok.extern.slf4j.Slf4j;
 import xyz.vopen.framework.cropdb.CropConfig;
 import xyz.vopen.framework.cropdb.common.Fields;
+import xyz.vopen.framework.cropdb.common.concurrent.ThreadPoolManager;
+import xyz.vopen.framework.cropdb.exceptions.IndexingException;
+import xyz.vopen.framework.cropdb.filters.PartialFilters;
 import xyz.vopen.framework.cropdb.index.IndexDescriptor;
 import xyz.vopen.framework.cropdb.index.IndexMeta;
 import xyz.vopen.framework.cropdb.index.CropIndexer;
+import xyz.vopen.framework.cropdb.index.IndexOptions;
+import xyz.vopen.framework.cropdb.index.IndexStatistics;
+import xyz.vopen.framework.cropdb.index.IndexType;
 import xyz.vopen.framework.cropdb.store.CropMap;
 import xyz.vopen.framework.cropdb.store.CropStore;
 import xyz.vopen.framework.cropdb.common.util.IndexUtils;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -35,11 +43,15 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a>
  * @since 4.0
  */
+@Slf4j
 public class IndexManager implements AutoCloseable {
   private final CropConfig cropConfig;
   private final CropStore<?> cropStore;
   private final String collectionName;
   private final CropMap<Fields, IndexMeta> indexMetaMap;
+  private final Map<Fields, IndexStatistics> indexStatisticsCache;
+  private final Set<Fields> unsupportedStatistics;
+  private final Set<Fields> analyzingStatistics;
   private Collection<IndexDescriptor> indexDescriptorCache;
 
   /**
@@ -53,6 +65,9 @@ public class IndexManager implements AutoCloseable {
     this.cropConfig = cropConfig;
     this.cropStore = cropConfig.getCropStore();
     this.indexMetaMap = getIndexMetaMap();
+    this.indexStatisticsCache = new ConcurrentHashMap<>();
+    this.unsupportedStatistics = ConcurrentHashMap.newKeySet();
+    this.analyzingStatistics = ConcurrentHashMap.newKeySet();
     initialize();
   }
 
@@ -98,13 +113,49 @@ public class IndexManager implements AutoCloseable {
     return null;
   }
 
+  /**
+   * Gets the statistics of the index on the fields. An index without statistics yet, e.g. one
+   * created by an older version, or with stale statistics after enough modifications, is analyzed
+   * again in the background, and the statistics at hand are returned meanwhile.
+   *
+   * @param fields the fields
+   * @return the index statistics, or <code>null</code> if not available for the index yet
+   */
+  public IndexStatistics getIndexStatistics(Fields fields) {
+    IndexStatistics statistics = loadIndexStatistics(fields);
+    if (unsupportedStatistics.contains(fields)) {
+      return statistics;
+    }
+
+    // only one analysis of an index runs at a time
+    if ((statistics == null || statistics.isStale()) && analyzingStatistics.add(fields)) {
+      try {
+        ThreadPoolManager.runAsync(() -> analyzeInBackground(fields));
+      } catch (RuntimeException e) {
+        // the thread pools are shut down
+        analyzingStatistics.remove(fields);
+        log.debug("Skipping analysis of index on {}", fields, e);
+      }
+    }
+    return statistics;
+  }
+
   @Override
   public void close() {
+    // save the latest statistics
+    for (Map.Entry<Fields, IndexStatistics> entry : indexStatisticsCache.entrySet()) {
+      if (entry.getValue().getModificationCount() > 0) {
+        saveIndexStatistics(entry.getKey(), entry.getValue());
+      }
+    }
+    indexStatisticsCache.clear();
+
     // close all index maps
     Iterable<IndexMeta> indexMetas = indexMetaMap.values();
     for (IndexMeta indexMeta : indexMetas) {
       if (indexMeta != null && indexMeta.getIndexDescriptor() != null) {
-        String indexMapName = indexMeta.getIndexMap();
+        // the name is derived again, older versions stored compound indexes in another map
+        String indexMapName = IndexUtils.deriveIndexMapName(indexMeta.getIndexDescriptor());
         CropMap<?, ?> indexMap = cropStore.openMap(indexMapName, Object.class, Object.class);
         indexMap.close();
       }
@@ -143,12 +194,15 @@ public class IndexManager implements AutoCloseable {
    * Create index descriptor index descriptor.
    *
    * @param fields the fields
-   * @param indexType the index type
+   * @param indexOptions the index options
    * @return the index descriptor
    */
-  IndexDescriptor createIndexDescriptor(Fields fields, String indexType) {
-    validateIndexRequest(fields, indexType);
+  IndexDescriptor createIndexDescriptor(Fields fields, IndexOptions indexOptions) {
+    String indexType = indexOptions.getIndexType();
+    validateIndexRequest(fields, indexOptions);
     IndexDescriptor index = new IndexDescriptor(indexType, fields, collectionName);
+    index.setSparse(indexOptions.isSparse());
+    index.setPartialFilter(indexOptions.getPartialFilter());
 
     IndexMeta indexMeta = new IndexMeta();
     indexMeta.setIndexDescriptor(index);
@@ -169,16 +223,20 @@ public class IndexManager implements AutoCloseable {
   void dropIndexDescriptor(Fields fields) {
     IndexMeta meta = indexMetaMap.get(fields);
     if (meta != null && meta.getIndexDescriptor() != null) {
-      String indexMapName = meta.getIndexMap();
+      String indexMapName = IndexUtils.deriveIndexMapName(meta.getIndexDescriptor());
       CropMap<?, ?> indexMap = cropStore.openMap(indexMapName, Object.class, Object.class);
       indexMap.drop();
     }
 
     indexMetaMap.remove(fields);
+    indexStatisticsCache.remove(fields);
+    unsupportedStatistics.remove(fields);
     updateIndexDescriptorCache();
   }
 
   void dropIndexMeta() {
+    indexStatisticsCache.clear();
+    unsupportedStatistics.clear();
     indexMetaMap.clear();
     indexMetaMap.drop();
   }
@@ -201,6 +259,88 @@ public class IndexManager implements AutoCloseable {
     markDirty(fields, false);
   }
 
+  /**
+   * Records a modification of the index. Stale statistics are not analyzed here, but the next
+   * time they are read.
+   *
+   * @param indexDescriptor the index descriptor
+   * @param delta the change in the number of indexed documents
+   */
+  void updateIndexStatistics(IndexDescriptor indexDescriptor, long delta) {
+    // the key count changes of concurrent writes are taken by whichever write comes first
+    CropIndexer indexer = cropConfig.findIndexer(indexDescriptor.getIndexType());
+    long keyDelta = indexer.takeKeyCountChange(indexDescriptor, cropConfig);
+
+    IndexStatistics statistics = loadIndexStatistics(indexDescriptor.getIndexFields());
+    if (statistics != null) {
+      statistics.recordModification(delta, keyDelta);
+    }
+  }
+
+  /**
+   * Analyzes the index and saves its statistics.
+   *
+   * @param indexDescriptor the index descriptor
+   * @return the index statistics, or <code>null</code> if not supported by the index
+   */
+  IndexStatistics analyzeIndex(IndexDescriptor indexDescriptor) {
+    CropIndexer indexer = cropConfig.findIndexer(indexDescriptor.getIndexType());
+    // the key count changes so far are part of the analysis
+    indexer.takeKeyCountChange(indexDescriptor, cropConfig);
+    IndexStatistics statistics = indexer.computeStatistics(indexDescriptor, cropConfig);
+    Fields fields = indexDescriptor.getIndexFields();
+    if (indexMetaMap.get(fields) == null) {
+      // dropped meanwhile
+      return null;
+    }
+
+    if (statistics != null) {
+      indexStatisticsCache.put(fields, statistics);
+      saveIndexStatistics(fields, statistics);
+    } else {
+      unsupportedStatistics.add(fields);
+    }
+    return statistics;
+  }
+
+  private void analyzeInBackground(Fields fields) {
+    try {
+      IndexMeta meta = indexMetaMap.get(fields);
+      if (meta != null && meta.getIndexDescriptor() != null && !meta.getIsDirty().get()) {
+        analyzeIndex(meta.getIndexDescriptor());
+      }
+    } catch (Exception e) {
+      // the collection may be closed or dropped meanwhile, the next read tries again
+      log.warn("Failed to analyze index on {}", fields, e);
+    } finally {
+      analyzingStatistics.remove(fields);
+    }
+  }
+
+  private IndexStatistics loadIndexStatistics(Fields fields) {
+    IndexStatistics statistics = indexStatisticsCache.get(fields);
+    if (statistics != null || unsupportedStatistics.contains(fields)) {
+      return statistics;
+    }
+
+    IndexMeta meta = indexMetaMap.get(fields);
+    if (meta == null || meta.getStatistics() == null || meta.getIsDirty().get()) {
+      return null;
+    }
+
+    statistics = new IndexStatistics(meta.getStatistics());
+    IndexStatistics existing = indexStatisticsCache.putIfAbsent(fields, statistics);
+    return existing != null ? existing : statistics;
+  }
+
+  private void saveIndexStatistics(Fields fields, IndexStatistics statistics) {
+    IndexMeta meta = indexMetaMap.get(fields);
+    if (meta != null && meta.getIndexDescriptor() != null) {
+      meta.setStatistics(new IndexStatistics(statistics));
+      indexMetaMap.put(fields, meta);
+    }
+  }
+
   private void initialize() {
     updateIndexDescriptorCache();
   }
@@ -221,8 +361,21 @@ public class IndexManager implements AutoCloseable {
     indexDescriptorCache = listIndexDescriptors();
   }
 
-  private void validateIndexRequest(Fields fields, String indexType) {
+  private void validateIndexRequest(Fields fields, IndexOptions indexOptions) {
+    String indexType = indexOptions.getIndexType();
     CropIndexer indexer = cropConfig.findIndexer(indexType);
     indexer.validateIndex(fields);
+
+    if (indexOptions.isSparse() || indexOptions.getPartialFilter() != null) {
+      // only the comparable indexes are answered by the filters a query implies
+      if (!IndexType.UNIQUE.equals(indexType) && !IndexType.NON_UNIQUE.equals(indexType)) {
+        throw new IndexingException(indexType + " index can not be sparse or partial");
+      }
+
+      if (indexOptions.getPartialFilter() != null) {
+        // fails for a filter which can not be stored with the index
+        PartialFilters.getFilters(indexOptions.getPartialFilter());
+      }
+    }
   }
 }
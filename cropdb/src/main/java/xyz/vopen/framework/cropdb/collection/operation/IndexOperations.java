@@ -12,16 +12,23 @@ import xyz.vopen.framework.cropdb.common.event.EventBus;
 import xyz.vopen.framework.cropdb.common.tuples.Pair;
 import xyz.vopen.framework.cropdb.common.util.DocumentUtils;
 import xyz.vopen.framework.cropdb.exceptions.IndexingException;
+import xyz.vopen.framework.cropdb.exceptions.UniqueConstraintException;
 import xyz.vopen.framework.cropdb.index.IndexDescriptor;
 import xyz.vopen.framework.cropdb.index.CropIndexer;
+import xyz.vopen.framework.cropdb.index.IndexOptions;
+import xyz.vopen.framework.cropdb.index.IndexStatistics;
 import xyz.vopen.framework.cropdb.store.CropMap;
 import xyz.vopen.framework.cropdb.common.concurrent.ThreadPoolManager;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -33,6 +40,7 @@ class IndexOperations implements AutoCloseable {
   private final CropMap<CropId, Document> cropMap;
   private final EventBus<CollectionEventInfo<?>, CollectionEventListener> eventBus;
   private final Map<Fields, AtomicBoolean> indexBuildTracker;
+  private final Map<Fields, IndexBuild> indexBuilds;
   private IndexManager indexManager;
 
   IndexOperations(
@@ -45,6 +53,7 @@ class IndexOperations implements AutoCloseable {
     this.cropMap = cropMap;
     this.eventBus = eventBus;
     this.indexBuildTracker = new ConcurrentHashMap<>();
+    this.indexBuilds = new ConcurrentHashMap<>();
     this.indexManager = new IndexManager(collectionName, cropConfig);
   }
 
@@ -53,29 +62,147 @@ class IndexOperations implements AutoCloseable {
     indexManager.close();
   }
 
-  void createIndex(Fields fields, String indexType) {
-    IndexDescriptor indexDescriptor = indexManager.findExactIndexDescriptor(fields);
-    if (indexDescriptor == null) {
-      // if no index create index
-      indexDescriptor = indexManager.createIndexDescriptor(fields, indexType);
-    } else {
+  void createIndex(Fields fields, IndexOptions indexOptions) {
+    createIndexes(Collections.singletonMap(fields, indexOptions));
+  }
+
+  // all the indexes are built together, in one pass over the collection
+  void createIndexes(Map<Fields, IndexOptions> indexes) {
+    for (Fields fields : indexes.keySet()) {
       // if index already there throw
+      if (indexManager.findExactIndexDescriptor(fields) != null) {
+        throw new IndexingException("index already exists on " + fields);
+      }
+    }
+
+    List<IndexDescriptor> indexDescriptors = new ArrayList<>(indexes.size());
+    for (Map.Entry<Fields, IndexOptions> entry : indexes.entrySet()) {
+      indexDescriptors.add(indexManager.createIndexDescriptor(entry.getKey(), entry.getValue()));
+    }
+
+    buildIndexes(indexDescriptors, false);
+  }
+
+  // the index is not used by the queries, and not written by the writers, until it is built. the
+  // writers log their changes for it instead, which are applied once the documents are scanned
+  void startIndexBuild(Fields fields, IndexOptions indexOptions) {
+    if (indexManager.findExactIndexDescriptor(fields) != null) {
       throw new IndexingException("index already exists on " + fields);
     }
 
-    buildIndex(indexDescriptor, false);
+    indexManager.createIndexDescriptor(fields, indexOptions);
+    getBuildFlag(fields).set(true);
+    indexBuilds.put(fields, new IndexBuild());
+
+    alert(EventType.IndexStart, fields);
+    // a dirty marker left by a crash rebuilds the index on the next write
+    indexManager.beginIndexing(fields);
+  }
+
+  // runs without any lock, the writes meanwhile are found in the change log
+  void scanIndex(Fields fields) {
+    IndexBuild indexBuild = findIndexBuild(fields);
+    IndexDescriptor indexDescriptor = indexManager.findExactIndexDescriptor(fields);
+    CropIndexer cropIndexer = cropConfig.findIndexer(indexDescriptor.getIndexType());
+
+    for (Pair<CropId, Document> entry : cropMap.entries()) {
+      // a sparse or partial index holds only some of the documents
+      if (!indexDescriptor.covers(entry.getSecond())) continue;
+
+      FieldValues fieldValues = DocumentUtils.getValues(entry.getSecond(), fields);
+      try {
+        cropIndexer.writeIndexEntry(fieldValues, indexDescriptor, cropConfig);
+      } catch (UniqueConstraintException e) {
+        // the key may be held by an older version of a changed document
+        indexBuild.clashes.add(fieldValues);
+      }
+    }
+  }
+
+  // runs while no document is written, returns true once the index is ready
+  boolean catchUpIndex(Fields fields, int maxChanges) {
+    IndexBuild indexBuild = findIndexBuild(fields);
+    IndexDescriptor indexDescriptor = indexManager.findExactIndexDescriptor(fields);
+    CropIndexer cropIndexer = cropConfig.findIndexer(indexDescriptor.getIndexType());
+
+    Map<CropId, List<FieldValues>> changes = new LinkedHashMap<>();
+    FieldValues change;
+    for (int i = 0; i < maxChanges && (change = indexBuild.changes.poll()) != null; i++) {
+      changes.computeIfAbsent(change.getCropId(), k -> new ArrayList<>()).add(change);
+    }
+
+    // once all the changes are applied, no older version holds a key, and a clash is real
+    boolean lastChanges = indexBuild.changes.isEmpty();
+    if (lastChanges) {
+      while ((change = indexBuild.clashes.poll()) != null) {
+        changes.computeIfAbsent(change.getCropId(), k -> new ArrayList<>()).add(change);
+      }
+    }
+
+    // the index may hold any logged version of a changed document, take them all out
+    for (List<FieldValues> versions : changes.values()) {
+      for (FieldValues fieldValues : versions) {
+        cropIndexer.removeIndexEntry(fieldValues, indexDescriptor, cropConfig);
+      }
+    }
+
+    // and index the documents as they are now
+    for (CropId cropId : changes.keySet()) {
+      Document document = cropMap.get(cropId);
+      if (document == null || !indexDescriptor.covers(document)) continue;
+
+      FieldValues fieldValues = DocumentUtils.getValues(document, fields);
+      try {
+        cropIndexer.writeIndexEntry(fieldValues, indexDescriptor, cropConfig);
+      } catch (UniqueConstraintException e) {
+        if (lastChanges) {
+          throw e;
+        }
+        indexBuild.clashes.add(fieldValues);
+      }
+    }
+
+    if (!lastChanges) {
+      return false;
+    }
+
+    indexBuilds.remove(fields);
+    indexManager.endIndexing(fields);
+    getBuildFlag(fields).set(false);
+    indexManager.analyzeIndex(indexDescriptor);
+    alert(EventType.IndexEnd, fields);
+    return true;
+  }
+
+  void abortIndexBuild(Fields fields) {
+    if (indexBuilds.remove(fields) == null) return;
+
+    IndexDescriptor indexDescriptor = indexManager.findExactIndexDescriptor(fields);
+    if (indexDescriptor != null) {
+      CropIndexer cropIndexer = cropConfig.findIndexer(indexDescriptor.getIndexType());
+      cropIndexer.dropIndex(indexDescriptor, cropConfig);
+      indexManager.dropIndexDescriptor(fields);
+    }
+    indexBuildTracker.remove(fields);
+    // the index is gone, which the listeners can not tell from an index end
+    alert(EventType.IndexFailed, fields);
+  }
+
+  // returns true if the index is being built, and the change is logged for it
+  boolean logIndexChange(Fields fields, FieldValues fieldValues) {
+    if (indexBuilds.isEmpty()) return false;
+
+    IndexBuild indexBuild = indexBuilds.get(fields);
+    if (indexBuild == null) return false;
+
+    indexBuild.changes.add(fieldValues);
+    return true;
   }
 
   // call to this method is already synchronized, only one thread per field
   // can access it only if rebuild is already not running for that field
   void buildIndex(IndexDescriptor indexDescriptor, boolean rebuild) {
-    final Fields fields = indexDescriptor.getIndexFields();
-    if (getBuildFlag(fields).compareAndSet(false, true)) {
-      buildIndexInternal(indexDescriptor, rebuild);
-      return;
-    }
-    throw new IndexingException(
-        "indexing is already running on " + indexDescriptor.getIndexFields());
+    buildIndexes(Collections.singletonList(indexDescriptor), rebuild);
   }
 
   void dropIndex(Fields fields) {
@@ -140,10 +267,34 @@ class IndexOperations implements AutoCloseable {
     return indexManager.getIndexDescriptors();
   }
 
+  // lists the indexes which are not being built in the background
+  Collection<IndexDescriptor> listReadyIndexes() {
+    Collection<IndexDescriptor> indexDescriptors = listIndexes();
+    if (indexBuilds.isEmpty()) {
+      return indexDescriptors;
+    }
+
+    List<IndexDescriptor> readyIndexes = new ArrayList<>(indexDescriptors.size());
+    for (IndexDescriptor indexDescriptor : indexDescriptors) {
+      if (!indexBuilds.containsKey(indexDescriptor.getIndexFields())) {
+        readyIndexes.add(indexDescriptor);
+      }
+    }
+    return readyIndexes;
+  }
+
   IndexDescriptor findIndexDescriptor(Fields field) {
     return indexManager.findExactIndexDescriptor(field);
   }
 
+  IndexStatistics findIndexStatistics(Fields fields) {
+    return indexManager.getIndexStatistics(fields);
+  }
+
+  void updateIndexStatistics(IndexDescriptor indexDescriptor, long delta) {
+    indexManager.updateIndexStatistics(indexDescriptor, delta);
+  }
+
   AtomicBoolean getBuildFlag(Fields field) {
     AtomicBoolean flag = indexBuildTracker.get(field);
     if (flag != null) return flag;
@@ -157,36 +308,72 @@ class IndexOperations implements AutoCloseable {
     return indexManager.isDirtyIndex(fields) && !getBuildFlag(fields).get();
   }
 
-  private void buildIndexInternal(IndexDescriptor indexDescriptor, boolean rebuild) {
-    Fields fields = indexDescriptor.getIndexFields();
-    try {
-      alert(EventType.IndexStart, fields);
-      // first put dirty marker
-      indexManager.beginIndexing(fields);
-
-      String indexType = indexDescriptor.getIndexType();
-      CropIndexer cropIndexer = cropConfig.findIndexer(indexType);
+  boolean hasDirtyIndex() {
+    for (IndexDescriptor indexDescriptor : listIndexes()) {
+      if (shouldRebuildIndex(indexDescriptor.getIndexFields())) {
+        return true;
+      }
+    }
+    return false;
+  }
 
-      // if rebuild drop existing index
-      if (rebuild) {
-        cropIndexer.dropIndex(indexDescriptor, cropConfig);
+  private void buildIndexes(List<IndexDescriptor> indexDescriptors, boolean rebuild) {
+    List<IndexDescriptor> flagged = new ArrayList<>(indexDescriptors.size());
+    for (IndexDescriptor indexDescriptor : indexDescriptors) {
+      if (!getBuildFlag(indexDescriptor.getIndexFields()).compareAndSet(false, true)) {
+        for (IndexDescriptor descriptor : flagged) {
+          getBuildFlag(descriptor.getIndexFields()).set(false);
+        }
+        throw new IndexingException(
+            "indexing is already running on " + indexDescriptor.getIndexFields());
       }
+      flagged.add(indexDescriptor);
+    }
 
-      for (Pair<CropId, Document> entry : cropMap.entries()) {
-        Document document = entry.getSecond();
-        FieldValues fieldValues =
-            DocumentUtils.getValues(document, indexDescriptor.getIndexFields());
-        cropIndexer.writeIndexEntry(fieldValues, indexDescriptor, cropConfig);
+    buildIndexInternal(indexDescriptors, rebuild);
+  }
+
+  private void buildIndexInternal(List<IndexDescriptor> indexDescriptors, boolean rebuild) {
+    try {
+      for (IndexDescriptor indexDescriptor : indexDescriptors) {
+        Fields fields = indexDescriptor.getIndexFields();
+        alert(EventType.IndexStart, fields);
+        // first put dirty marker
+        indexManager.beginIndexing(fields);
+
+        // if rebuild drop existing index
+        if (rebuild) {
+          CropIndexer cropIndexer = cropConfig.findIndexer(indexDescriptor.getIndexType());
+          cropIndexer.dropIndex(indexDescriptor, cropConfig);
+        }
       }
+
+      new BulkIndexLoader(cropConfig, cropMap).load(indexDescriptors);
     } finally {
-      // remove dirty marker to denote indexing completed successfully
-      // if dirty marker is found in any index, it needs to be rebuild
-      indexManager.endIndexing(fields);
-      getBuildFlag(fields).set(false);
-      alert(EventType.IndexEnd, fields);
+      for (IndexDescriptor indexDescriptor : indexDescriptors) {
+        // remove dirty marker to denote indexing completed successfully
+        // if dirty marker is found in any index, it needs to be rebuild
+        Fields fields = indexDescriptor.getIndexFields();
+        indexManager.endIndexing(fields);
+        getBuildFlag(fields).set(false);
+        alert(EventType.IndexEnd, fields);
+      }
+    }
+
+    // collect the statistics of the new indexes for the query planner
+    for (IndexDescriptor indexDescriptor : indexDescriptors) {
+      indexManager.analyzeIndex(indexDescriptor);
     }
   }
 
+  private IndexBuild findIndexBuild(Fields fields) {
+    IndexBuild indexBuild = indexBuilds.get(fields);
+    if (indexBuild == null) {
+      throw new IndexingException("index on " + fields + " is not being built");
+    }
+    return indexBuild;
+  }
+
   private void alert(EventType eventType, Fields field) {
     CollectionEventInfo<Fields> eventInfo = new CollectionEventInfo<>();
     eventInfo.setItem(field);
@@ -196,4 +383,11 @@ class IndexOperations implements AutoCloseable {
       eventBus.post(eventInfo);
     }
   }
+
+  // the versions of the documents written while an index is built in the background
+  private static class IndexBuild {
+    private final Queue<FieldValues> changes = new ConcurrentLinkedQueue<>();
+    // documents whose key was held by another one, which are indexed after all the changes
+    private final Queue<FieldValues> clashes = new ConcurrentLinkedQueue<>();
+  }
 }
@@ -24,7 +24,9 @@ import xyz.vopen.framework.cropdb.filters.EqualsFilter;
 import xyz.vopen.framework.cropdb.filters.Filter;
 import xyz.vopen.framework.cropdb.filters.LogicalFilter;
 import xyz.vopen.framework.cropdb.filters.CropFilter;
+import xyz.vopen.framework.cropdb.index.CropIdBitmap;
 import xyz.vopen.framework.cropdb.index.IndexDescriptor;
+import xyz.vopen.framework.cropdb.index.IndexType;
 import xyz.vopen.framework.cropdb.index.CropIndexer;
 import xyz.vopen.framework.cropdb.common.processors.ProcessorChain;
 import xyz.vopen.framework.cropdb.store.CropMap;
@@ -34,6 +36,9 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+
+import static xyz.vopen.framework.cropdb.filters.FluentFilter.where;
 
 /** @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a> */
 class ReadOperations {
@@ -54,7 +59,7 @@ class ReadOperations {
     this.cropConfig = cropConfig;
     this.collectionName = collectionName;
     this.indexOperations = indexOperations;
-    this.findOptimizer = new FindOptimizer();
+    this.findOptimizer = new FindOptimizer(indexOperations);
     this.processorChain = processorChain;
   }
 
@@ -64,9 +69,29 @@ class ReadOperations {
     }
 
     prepareFilter(filter);
-    Collection<IndexDescriptor> indexDescriptors = indexOperations.listIndexes();
+    Collection<IndexDescriptor> indexDescriptors = indexOperations.listReadyIndexes();
     FindPlan findPlan = findOptimizer.optimize(filter, findOptions, indexDescriptors);
-    return createCursor(findPlan);
+    return createCursor(filter, findPlan);
+  }
+
+  public long count(Filter filter) {
+    if (filter == null) {
+      filter = Filter.ALL;
+    }
+
+    prepareFilter(filter);
+    Collection<IndexDescriptor> indexDescriptors = indexOperations.listReadyIndexes();
+    FindPlan findPlan = findOptimizer.optimize(filter, null, indexDescriptors);
+    if (isSingleIndexPlan(findPlan)) {
+      // the index counts the ids of its posting lists, no document or id set is built
+      IndexDescriptor indexDescriptor = findPlan.getIndexDescriptor();
+      CropIndexer indexer = cropConfig.findIndexer(indexDescriptor.getIndexType());
+      return indexer.countByFilter(findPlan, cropConfig);
+    }
+
+    try (DocumentCursor cursor = createCursor(filter, findPlan)) {
+      return cursor.size();
+    }
   }
 
   Document getById(CropId cropId) {
@@ -125,12 +150,8 @@ class ReadOperations {
       } else {
         IndexDescriptor indexDescriptor = findPlan.getIndexDescriptor();
         if (indexDescriptor != null) {
-          // get optimized filter
-          CropIndexer indexer = cropConfig.findIndexer(indexDescriptor.getIndexType());
-          LinkedHashSet<CropId> cropIds = indexer.findByFilter(findPlan, cropConfig);
-
           // create indexed stream from optimized filter
-          rawStream = new IndexedStream(cropIds, cropMap);
+          rawStream = new IndexedStream(findIndexedIds(findPlan), cropMap);
         } else {
           rawStream = cropMap.entries();
         }
@@ -141,10 +162,27 @@ class ReadOperations {
       }
     }
 
+    return sortAndBound(findPlan, rawStream);
+  }
+
+  private RecordStream<Pair<CropId, Document>> sortAndBound(
+      FindPlan findPlan, RecordStream<Pair<CropId, Document>> rawStream) {
     // sort and bound stage
     if (rawStream != null) {
       if (findPlan.getBlockingSortOrder() != null && !findPlan.getBlockingSortOrder().isEmpty()) {
-        rawStream = new SortedDocumentStream(findPlan, rawStream);
+        int sortBufferSize = cropConfig.getSortBufferSize();
+        if (findPlan.getLimit() != null) {
+          // only the first skip + limit documents are needed, keep them in a bounded heap
+          long skip = findPlan.getSkip() == null ? 0 : findPlan.getSkip();
+          long size = skip + findPlan.getLimit();
+          if (size >= 0 && size <= sortBufferSize) {
+            rawStream = new TopKDocumentStream(findPlan, rawStream, (int) size);
+          } else {
+            rawStream = new SortedDocumentStream(findPlan, rawStream, sortBufferSize);
+          }
+        } else {
+          rawStream = new SortedDocumentStream(findPlan, rawStream, sortBufferSize);
+        }
       }
 
       if (findPlan.getLimit() != null || findPlan.getSkip() != null) {
@@ -157,10 +195,143 @@ class ReadOperations {
     return rawStream;
   }
 
-  private DocumentCursor createCursor(FindPlan findPlan) {
-    RecordStream<Pair<CropId, Document>> recordStream = findSuitableStream(findPlan);
+  private LinkedHashSet<CropId> findIndexedIds(FindPlan findPlan) {
+    // get optimized filter
+    IndexDescriptor indexDescriptor = findPlan.getIndexDescriptor();
+    CropIndexer indexer = cropConfig.findIndexer(indexDescriptor.getIndexType());
+    LinkedHashSet<CropId> cropIds = indexer.findByFilter(findPlan, cropConfig);
+
+    // and filters on other indexes, keep only the ids found in all of them
+    CropIdBitmap intersectIds = null;
+    for (FindPlan intersectPlan : findPlan.getIntersectPlans()) {
+      if (cropIds.isEmpty() || (intersectIds != null && intersectIds.isEmpty())) {
+        break;
+      }
+
+      CropIdBitmap ids = findIntersectIds(intersectPlan);
+      intersectIds = intersectIds == null ? ids : intersectIds.and(ids);
+    }
+
+    if (intersectIds != null) {
+      // the ids keep the order of the first index
+      cropIds.retainAll(intersectIds);
+    }
+    return cropIds;
+  }
+
+  private CropIdBitmap findIntersectIds(FindPlan intersectPlan) {
+    IndexDescriptor indexDescriptor = intersectPlan.getIndexDescriptor();
+    CropIndexer indexer = cropConfig.findIndexer(indexDescriptor.getIndexType());
+    LinkedHashSet<CropId> cropIds = indexer.findByFilter(intersectPlan, cropConfig);
+
+    CropIdBitmap bitmap = new CropIdBitmap();
+    for (CropId cropId : cropIds) {
+      bitmap.add(cropId);
+    }
+    return bitmap;
+  }
+
+  private boolean isSingleIndexPlan(FindPlan findPlan) {
+    return findPlan.getSubPlans().isEmpty()
+        && findPlan.getByIdFilter() == null
+        && findPlan.getIndexDescriptor() != null
+        && findPlan.getIntersectPlans().isEmpty()
+        && findPlan.getCollectionScanFilter() == null;
+  }
+
+  private boolean isCoveredPlan(FindPlan findPlan) {
+    // the ids found in the indexes are the final result, if no document needs to be
+    // filtered or sorted after reading it
+    if (findPlan.getCollectionScanFilter() != null
+        || (findPlan.getBlockingSortOrder() != null
+            && !findPlan.getBlockingSortOrder().isEmpty())) {
+      return false;
+    }
+
+    if (!findPlan.getSubPlans().isEmpty()) {
+      for (FindPlan subPlan : findPlan.getSubPlans()) {
+        if (!isCoveredPlan(subPlan)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return findPlan.getByIdFilter() == null && findPlan.getIndexDescriptor() != null;
+  }
+
+  private LinkedHashSet<CropId> findCoveredIds(FindPlan findPlan) {
+    if (!findPlan.getSubPlans().isEmpty()) {
+      // union of the ids of all sub plans
+      LinkedHashSet<CropId> cropIds = new LinkedHashSet<>();
+      for (FindPlan subPlan : findPlan.getSubPlans()) {
+        cropIds.addAll(findCoveredIds(subPlan));
+      }
+      return cropIds;
+    }
+    return findIndexedIds(findPlan);
+  }
+
+  private DocumentCursor createCursor(Filter filter, FindPlan findPlan) {
+    RecordStream<Pair<CropId, Document>> recordStream;
+    RecordStream<CropId> coveredIds = null;
+    if (isCoveredPlan(findPlan)) {
+      // the documents are read only if the cursor needs more than the ids
+      Set<CropId> cropIds = findCoveredIds(findPlan);
+      recordStream = sortAndBound(findPlan, new IndexedStream(cropIds, cropMap));
+
+      long skip = findPlan.getSkip() == null ? 0 : findPlan.getSkip();
+      long limit = findPlan.getLimit() == null ? Long.MAX_VALUE : findPlan.getLimit();
+      coveredIds = () -> cropIds.stream().skip(skip).limit(limit).iterator();
+    } else {
+      recordStream = findSuitableStream(findPlan);
+    }
+
     DocumentStream cursor = new DocumentStream(recordStream, processorChain);
     cursor.setFindPlan(findPlan);
+    cursor.setCoveredIds(coveredIds);
+    cursor.setDocumentLookup(createDocumentLookup(filter, findPlan));
     return cursor;
   }
+
+  private DocumentLookup createDocumentLookup(Filter filter, FindPlan findPlan) {
+    if (findPlan.getSkip() != null || findPlan.getLimit() != null) {
+      // the documents of a bounded cursor depend on the documents before them
+      return null;
+    }
+
+    return new DocumentLookup() {
+      @Override
+      public boolean isLookupPreferred(String field) {
+        // reading the cursor once keeps all of its documents in memory, prefer the index
+        // if the collection does not fit in the memory budget
+        return isIndexed(field) && cropMap.estimateSize() > cropConfig.getSortBufferSize();
+      }
+
+      @Override
+      public RecordStream<Document> findByField(String field, Object value) {
+        Filter fieldFilter = where(field).eq(value);
+        if (filter == Filter.ALL) {
+          return find(fieldFilter, null);
+        }
+
+        Filter andFilter = Filter.and(filter, fieldFilter);
+        if (filter instanceof CropFilter && andFilter instanceof CropFilter) {
+          // keep the object filter flag of the original filter while preparing
+          ((CropFilter) andFilter).setObjectFilter(((CropFilter) filter).getObjectFilter());
+        }
+        return find(andFilter, null);
+      }
+    };
+  }
+
+  private boolean isIndexed(String field) {
+    for (IndexDescriptor indexDescriptor : indexOperations.listReadyIndexes()) {
+      String indexType = indexDescriptor.getIndexType();
+      if ((IndexType.UNIQUE.equals(indexType) || IndexType.NON_UNIQUE.equals(indexType))
+          && indexDescriptor.getIndexFields().getFieldNames().get(0).equals(field)) {
+        return true;
+      }
+    }
+    return false;
+  }
 }
@@ -27,13 +27,20 @@ import xyz.vopen.framework.cropdb.collection.events.EventType;
 import xyz.vopen.framework.cropdb.common.WriteResult;
 import xyz.vopen.framework.cropdb.common.event.EventBus;
 import xyz.vopen.framework.cropdb.common.processors.ProcessorChain;
+import xyz.vopen.framework.cropdb.common.tuples.Pair;
 import xyz.vopen.framework.cropdb.exceptions.IndexingException;
 import xyz.vopen.framework.cropdb.exceptions.UniqueConstraintException;
 import xyz.vopen.framework.cropdb.filters.Filter;
+import xyz.vopen.framework.cropdb.filters.IndexOnlyFilter;
 import xyz.vopen.framework.cropdb.store.CropMap;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 import static xyz.vopen.framework.cropdb.common.Constants.*;
 
@@ -45,24 +52,28 @@ class WriteOperations {
   private final EventBus<CollectionEventInfo<?>, CollectionEventListener> eventBus;
   private final CropMap<CropId, Document> cropMap;
   private final ProcessorChain processorChain;
+  private final DocumentLocks documentLocks;
 
   WriteOperations(
       DocumentIndexWriter documentIndexWriter,
       ReadOperations readOperations,
       CropMap<CropId, Document> cropMap,
       EventBus<CollectionEventInfo<?>, CollectionEventListener> eventBus,
-      ProcessorChain processorChain) {
+      ProcessorChain processorChain,
+      DocumentLocks documentLocks) {
     this.documentIndexWriter = documentIndexWriter;
     this.readOperations = readOperations;
     this.eventBus = eventBus;
     this.cropMap = cropMap;
     this.processorChain = processorChain;
+    this.documentLocks = documentLocks;
   }
 
   WriteResult insert(Document... documents) {
-    List<CropId> cropIds = new ArrayList<>(documents.length);
     log.debug("Total {} document(s) to be inserted in {}", documents.length, cropMap.getName());
 
+    Map<CropId, Document> newDocuments = new LinkedHashMap<>();
+    List<CollectionEventInfo<Document>> eventInfos = new ArrayList<>(documents.length);
     for (Document document : documents) {
       Document newDoc = document.clone();
       CropId cropId = newDoc.getId();
@@ -81,48 +92,67 @@ class WriteOperations {
         newDoc.remove(DOC_SOURCE);
       }
 
-      // run processors
-      Document unprocessed = newDoc.clone();
-      Document processed = processorChain.processBeforeWrite(unprocessed);
+      // run processors, they copy the document only if they change it
+      Document processed = processorChain.processBeforeWrite(newDoc);
       log.debug("Document processed from {} to {} before insert", newDoc, processed);
 
-      log.debug("Inserting processed document {} in {}", processed, cropMap.getName());
-      Document already = cropMap.putIfAbsent(cropId, processed);
-
-      if (already != null) {
-        log.warn("Another document {} already exists with same id {}", already, cropId);
-
-        throw new UniqueConstraintException(
-            "id constraint violation, "
-                + "entry with same id already exists in "
-                + cropMap.getName());
-      } else {
-        try {
-          documentIndexWriter.writeIndexEntry(processed);
-        } catch (UniqueConstraintException | IndexingException e) {
-          log.error(
-              "Index operation has failed during insertion for the document "
-                  + document
-                  + " in "
-                  + cropMap.getName(),
-              e);
-          cropMap.remove(cropId);
-          throw e;
-        }
+      // validate the id against the batch before anything is written
+      if (newDocuments.containsKey(cropId)) {
+        throw duplicateId(cropId);
       }
-
-      cropIds.add(cropId);
+      newDocuments.put(cropId, processed);
 
       CollectionEventInfo<Document> eventInfo = new CollectionEventInfo<>();
       eventInfo.setItem(newDoc);
       eventInfo.setTimestamp(time);
       eventInfo.setEventType(EventType.Insert);
       eventInfo.setOriginator(source);
+      eventInfos.add(eventInfo);
+    }
+
+    log.debug("Inserting {} processed document(s) in {}", newDocuments.size(), cropMap.getName());
+    BitSet stripes = lock(newDocuments.keySet(), newDocuments.values());
+    try {
+      // validate the ids against the collection once no other writer can take them
+      for (CropId cropId : newDocuments.keySet()) {
+        if (cropMap.containsKey(cropId)) {
+          throw duplicateId(cropId);
+        }
+      }
+
+      documentIndexWriter.rebuildDirtyIndexes();
+      cropMap
+          .getStore()
+          .runInBatch(
+              () -> {
+                cropMap.putAll(newDocuments);
+                try {
+                  documentIndexWriter.writeIndexEntries(new ArrayList<>(newDocuments.values()));
+                } catch (UniqueConstraintException | IndexingException e) {
+                  log.error(
+                      "Index operation has failed during insertion of "
+                          + newDocuments.size()
+                          + " document(s) in "
+                          + cropMap.getName(),
+                      e);
+                  for (CropId cropId : newDocuments.keySet()) {
+                    cropMap.remove(cropId);
+                  }
+                  throw e;
+                }
+                return null;
+              });
+    } finally {
+      unlock(stripes);
+    }
+
+    // notify only after the whole batch is written
+    for (CollectionEventInfo<Document> eventInfo : eventInfos) {
       alert(EventType.Insert, eventInfo);
     }
 
     WriteResultImpl result = new WriteResultImpl();
-    result.setCropIds(cropIds);
+    result.setCropIds(new ArrayList<>(newDocuments.keySet()));
 
     log.debug("Returning write result {} for collection {}", result, cropMap.getName());
     return result;
@@ -144,6 +174,7 @@ class WriteOperations {
       return writeResult;
     }
 
+    documentIndexWriter.rebuildDirtyIndexes();
     long count = 0;
     for (Document doc : cursor) {
       if (doc != null) {
@@ -153,58 +184,7 @@ class WriteOperations {
           break;
         }
 
-        Document newDoc = doc.clone();
-        Document oldDocument = doc.clone();
-        String source = document.getSource();
-        long time = System.currentTimeMillis();
-
-        CropId cropId = newDoc.getId();
-        log.debug("Document to update {} in {}", newDoc, cropMap.getName());
-
-        if (!REPLICATOR.contentEquals(document.getSource())) {
-          document.remove(DOC_SOURCE);
-          newDoc.merge(document);
-          int rev = newDoc.getRevision();
-          newDoc.put(DOC_REVISION, rev + 1);
-          newDoc.put(DOC_MODIFIED, time);
-        } else {
-          document.remove(DOC_SOURCE);
-          newDoc.merge(document);
-        }
-
-        // run processor
-        Document unprocessed = newDoc.clone();
-        Document processed = processorChain.processBeforeWrite(unprocessed);
-        log.debug("Document processed from {} to {} before update", newDoc, processed);
-
-        cropMap.put(cropId, processed);
-        log.debug("Document {} updated in {}", processed, cropMap.getName());
-
-        // if 'update' only contains id value, affected count = 0
-        if (document.size() > 0) {
-          writeResult.addToList(cropId);
-        }
-
-        try {
-          documentIndexWriter.updateIndexEntry(oldDocument, processed);
-        } catch (UniqueConstraintException | IndexingException e) {
-          log.error(
-              "Index operation failed during update, reverting changes for the document "
-                  + oldDocument
-                  + " in "
-                  + cropMap.getName(),
-              e);
-          cropMap.put(cropId, oldDocument);
-          documentIndexWriter.updateIndexEntry(processed, oldDocument);
-          throw e;
-        }
-
-        CollectionEventInfo<Document> eventInfo = new CollectionEventInfo<>();
-        eventInfo.setItem(newDoc);
-        eventInfo.setEventType(EventType.Update);
-        eventInfo.setTimestamp(time);
-        eventInfo.setOriginator(source);
-        alert(EventType.Update, eventInfo);
+        updateDocument(filter, doc, document, writeResult);
       }
     }
 
@@ -232,17 +212,14 @@ class WriteOperations {
     DocumentCursor cursor = readOperations.find(filter, null);
     WriteResultImpl result = new WriteResultImpl();
 
+    documentIndexWriter.rebuildDirtyIndexes();
     long count = 0;
     for (Document document : cursor) {
       if (document != null) {
         count++;
 
-        // run processor
-        Document unprocessed = document.clone();
-        Document processed = processorChain.processAfterRead(unprocessed);
-        log.debug("Document processed from {} to {} after remove", document, processed);
-
-        CollectionEventInfo<Document> eventInfo = removeAndCreateEvent(processed, result);
+        // the cursor has already processed its copy of the document
+        CollectionEventInfo<Document> eventInfo = removeAndCreateEvent(filter, document, result);
         if (eventInfo != null) {
           alert(EventType.Remove, eventInfo);
         }
@@ -271,7 +248,8 @@ class WriteOperations {
 
   WriteResult remove(Document document) {
     WriteResultImpl result = new WriteResultImpl();
-    CollectionEventInfo<Document> eventInfo = removeAndCreateEvent(document, result);
+    documentIndexWriter.rebuildDirtyIndexes();
+    CollectionEventInfo<Document> eventInfo = removeAndCreateEvent(null, document, result);
     if (eventInfo != null) {
       eventInfo.setOriginator(document.getSource());
       alert(EventType.Remove, eventInfo);
@@ -279,23 +257,167 @@ class WriteOperations {
     return result;
   }
 
+  private void updateDocument(
+      Filter filter, Document doc, Document document, WriteResultImpl writeResult) {
+    CropId cropId = doc.getId();
+    String source = document.getSource();
+    BitSet stripes = documentLocks == null ? null : documentLocks.stripesOf(cropId, doc);
+
+    while (true) {
+      BitSet missing = null;
+      lock(stripes);
+      try {
+        // the cursor returns a copy of the stored document, which is kept as the old one
+        Document oldDocument = doc;
+        if (stripes != null) {
+          // another writer may have changed or removed the document since it was read
+          Document stored = cropMap.get(cropId);
+          if (stored == null) {
+            return;
+          }
+          oldDocument = processorChain.processAfterRead(stored);
+          if (isChanged(doc, oldDocument) && !matches(filter, cropId, oldDocument)) {
+            return;
+          }
+        }
+
+        Document newDoc = oldDocument.clone();
+        long time = System.currentTimeMillis();
+        log.debug("Document to update {} in {}", newDoc, cropMap.getName());
+
+        if (!REPLICATOR.contentEquals(document.getSource())) {
+          document.remove(DOC_SOURCE);
+          newDoc.merge(document);
+          int rev = newDoc.getRevision();
+          newDoc.put(DOC_REVISION, rev + 1);
+          newDoc.put(DOC_MODIFIED, time);
+        } else {
+          document.remove(DOC_SOURCE);
+          newDoc.merge(document);
+        }
+
+        // run processor, it copies the document only if it changes it
+        Document processed = processorChain.processBeforeWrite(newDoc);
+        log.debug("Document processed from {} to {} before update", newDoc, processed);
+
+        if (stripes != null) {
+          missing = documentLocks.stripesOf(cropId, oldDocument, processed);
+          missing.andNot(stripes);
+        }
+
+        if (missing == null || missing.isEmpty()) {
+          writeUpdate(cropId, oldDocument, processed);
+
+          // if 'update' only contains id value, affected count = 0
+          if (document.size() > 0) {
+            writeResult.addToList(cropId);
+          }
+
+          CollectionEventInfo<Document> eventInfo = new CollectionEventInfo<>();
+          eventInfo.setItem(newDoc);
+          eventInfo.setEventType(EventType.Update);
+          eventInfo.setTimestamp(time);
+          eventInfo.setOriginator(source);
+          alert(EventType.Update, eventInfo);
+          return;
+        }
+      } finally {
+        unlock(stripes);
+      }
+
+      // the document has changed index entries which are not locked yet
+      stripes.or(missing);
+    }
+  }
+
+  private void writeUpdate(CropId cropId, Document oldDocument, Document processed) {
+    // the document and its index entries are written in one batch
+    cropMap
+        .getStore()
+        .runInBatch(
+            () -> {
+              cropMap.put(cropId, processed);
+              log.debug("Document {} updated in {}", processed, cropMap.getName());
+
+              try {
+                documentIndexWriter.updateIndexEntry(oldDocument, processed);
+              } catch (UniqueConstraintException | IndexingException e) {
+                log.error(
+                    "Index operation failed during update, reverting changes for the document "
+                        + oldDocument
+                        + " in "
+                        + cropMap.getName(),
+                    e);
+                cropMap.put(cropId, oldDocument);
+                documentIndexWriter.updateIndexEntry(processed, oldDocument);
+                throw e;
+              }
+              return null;
+            });
+  }
+
   private CollectionEventInfo<Document> removeAndCreateEvent(
-      Document document, WriteResultImpl writeResult) {
+      Filter filter, Document document, WriteResultImpl writeResult) {
     CropId cropId = document.getId();
-    document = cropMap.remove(cropId);
-    if (document != null) {
+    BitSet stripes = documentLocks == null ? null : documentLocks.stripesOf(cropId, document);
+
+    Document removed;
+    while (true) {
+      BitSet missing = null;
+      lock(stripes);
+      try {
+        if (stripes != null) {
+          // the index entries are removed for the stored document, which may have been changed
+          Document stored = cropMap.get(cropId);
+          if (stored == null) {
+            return null;
+          }
+          if (filter != null
+              && isChanged(document, stored)
+              && !matches(filter, cropId, processorChain.processAfterRead(stored))) {
+            return null;
+          }
+
+          missing = documentLocks.stripesOf(cropId, stored);
+          missing.andNot(stripes);
+        }
+
+        if (missing == null || missing.isEmpty()) {
+          // the document and its index entries are removed in one batch
+          removed =
+              cropMap
+                  .getStore()
+                  .runInBatch(
+                      () -> {
+                        Document value = cropMap.remove(cropId);
+                        if (value != null) {
+                          documentIndexWriter.removeIndexEntry(value);
+                        }
+                        return value;
+                      });
+          break;
+        }
+      } finally {
+        unlock(stripes);
+      }
+
+      // the stored document has index entries which are not locked yet
+      stripes.or(missing);
+    }
+
+    if (removed != null) {
       long time = System.currentTimeMillis();
-      documentIndexWriter.removeIndexEntry(document);
       writeResult.addToList(cropId);
 
-      int rev = document.getRevision();
-      document.put(DOC_REVISION, rev + 1);
-      document.put(DOC_MODIFIED, time);
+      // the removed document may still be read by a concurrent reader, so a copy is changed
+      Document eventDoc = removed.clone();
+      int rev = eventDoc.getRevision();
+      eventDoc.put(DOC_REVISION, rev + 1);
+      eventDoc.put(DOC_MODIFIED, time);
 
-      log.debug("Document removed {} from {}", document, cropMap.getName());
+      log.debug("Document removed {} from {}", eventDoc, cropMap.getName());
 
       CollectionEventInfo<Document> eventInfo = new CollectionEventInfo<>();
-      Document eventDoc = document.clone();
       eventInfo.setItem(eventDoc);
       eventInfo.setEventType(EventType.Remove);
       eventInfo.setTimestamp(time);
@@ -304,6 +426,47 @@ class WriteOperations {
     return null;
   }
 
+  private BitSet lock(Collection<CropId> cropIds, Collection<Document> documents) {
+    if (documentLocks == null) {
+      return null;
+    }
+    BitSet stripes = documentLocks.stripesOf(cropIds, documents);
+    documentLocks.lock(stripes);
+    return stripes;
+  }
+
+  private void lock(BitSet stripes) {
+    if (stripes != null) {
+      documentLocks.lock(stripes);
+    }
+  }
+
+  private void unlock(BitSet stripes) {
+    if (stripes != null) {
+      documentLocks.unlock(stripes);
+    }
+  }
+
+  private boolean isChanged(Document document, Document stored) {
+    // every write of a document gives it a new revision or modification time
+    return !Objects.equals(document.get(DOC_REVISION), stored.get(DOC_REVISION))
+        || !Objects.equals(document.get(DOC_MODIFIED), stored.get(DOC_MODIFIED));
+  }
+
+  private boolean matches(Filter filter, CropId cropId, Document document) {
+    // an index only filter can not be checked against a document
+    return filter == null
+        || filter == Filter.ALL
+        || filter instanceof IndexOnlyFilter
+        || filter.apply(new Pair<>(cropId, document));
+  }
+
+  private UniqueConstraintException duplicateId(CropId cropId) {
+    log.warn("Another document already exists with same id {}", cropId);
+    return new UniqueConstraintException(
+        "id constraint violation, entry with same id already exists in " + cropMap.getName());
+  }
+
   private void alert(EventType action, CollectionEventInfo<?> changedItem) {
     log.debug("Notifying {} event for item {} from {}", action, changedItem, cropMap.getName());
     if (eventBus != null) {
@@ -165,4 +165,7 @@ public class Constants {
 
   /** The constant INITIAL_REVISION. */
   public static final Integer INITIAL_SCHEMA_VERSION = 1;
+
+  /** The constant DEFAULT_SORT_BUFFER_SIZE. */
+  public static final int DEFAULT_SORT_BUFFER_SIZE = 100000;
 }
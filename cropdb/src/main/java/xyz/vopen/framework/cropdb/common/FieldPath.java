@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2021-2022. CropDB author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.vopen.framework.cropdb.common;
+
+import xyz.vopen.framework.cropdb.CropConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Represents a document field name split by the field separator into the names of its levels.
+ * A field name is split once, and the same path is returned for it from then on, so that a filter,
+ * an index or a sort reads an embedded field of every document without splitting its name again.
+ *
+ * <p>A path is split like {@link String#split(String)} would split it, an empty name between two
+ * separators is kept and the empty names at the end are dropped.
+ *
+ * @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a>
+ * @since 4.0
+ */
+public final class FieldPath {
+  // names of fields from documents may end up here, the cache is cleared before it grows unbounded
+  private static final int MAX_CACHED_PATHS = 10_000;
+  private static final Map<String, FieldPath> cache = new ConcurrentHashMap<>();
+
+  private final String path;
+  private final String separator;
+  private final String[] segments;
+  private final int[] indexes;
+  private final boolean[] numeric;
+
+  private FieldPath(String path, String separator) {
+    this.path = path;
+    this.separator = separator;
+    this.segments = split(path, separator);
+    this.indexes = new int[segments.length];
+    this.numeric = new boolean[segments.length];
+
+    for (int i = 0; i < segments.length; i++) {
+      try {
+        indexes[i] = Integer.parseInt(segments[i]);
+        numeric[i] = true;
+      } catch (NumberFormatException e) {
+        indexes[i] = -1;
+      }
+    }
+  }
+
+  /**
+   * Gets the path of a field name for the current field separator.
+   *
+   * @param path the field name
+   * @return the field path
+   */
+  public static FieldPath of(String path) {
+    String separator = CropConfig.getFieldSeparator();
+    FieldPath fieldPath = cache.get(path);
+    if (fieldPath != null && fieldPath.separator.equals(separator)) {
+      return fieldPath;
+    }
+
+    fieldPath = new FieldPath(path, separator);
+    if (cache.size() >= MAX_CACHED_PATHS) {
+      cache.clear();
+    }
+    cache.put(path, fieldPath);
+    return fieldPath;
+  }
+
+  /**
+   * Gets the field name of this path.
+   *
+   * @return the field name
+   */
+  public String getPath() {
+    return path;
+  }
+
+  /**
+   * Checks if the field name contains the field separator.
+   *
+   * @return `true` if the field is an embedded field
+   */
+  public boolean isEmbedded() {
+    return path.contains(separator);
+  }
+
+  /**
+   * Checks if this is the path of a field name for the current field separator.
+   *
+   * @param fieldName the field name
+   * @return `true` if this path can be used for the field name
+   */
+  public boolean describes(String fieldName) {
+    return path.equals(fieldName) && separator.equals(CropConfig.getFieldSeparator());
+  }
+
+  /**
+   * Gets the number of levels of this path.
+   *
+   * @return the number of levels
+   */
+  public int length() {
+    return segments.length;
+  }
+
+  /**
+   * Gets the field name of a level.
+   *
+   * @param level the level
+   * @return the field name of the level
+   */
+  public String getSegment(int level) {
+    return segments[level];
+  }
+
+  /**
+   * Checks if the field name of a level is an integer, which is an array or list index.
+   *
+   * @param level the level
+   * @return `true` if the field name is an integer
+   */
+  public boolean isIndex(int level) {
+    return numeric[level];
+  }
+
+  /**
+   * Gets the integer field name of a level as an index, or -1 if it is not an integer.
+   *
+   * @param level the level
+   * @return the index
+   */
+  public int getIndex(int level) {
+    return indexes[level];
+  }
+
+  @Override
+  public String toString() {
+    return path;
+  }
+
+  private static String[] split(String path, String separator) {
+    if (separator.isEmpty() || !path.contains(separator)) {
+      return new String[] {path};
+    }
+
+    List<String> segments = new ArrayList<>();
+    int start = 0;
+    int next;
+    while ((next = path.indexOf(separator, start)) >= 0) {
+      segments.add(path.substring(start, next));
+      start = next + separator.length();
+    }
+    segments.add(path.substring(start));
+
+    int size = segments.size();
+    while (size > 0 && segments.get(size - 1).isEmpty()) {
+      size--;
+    }
+    return segments.subList(0, size).toArray(new String[0]);
+  }
+}
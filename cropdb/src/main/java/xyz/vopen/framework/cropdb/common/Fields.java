@@ -32,6 +32,8 @@ public class Fields implements Comparable<Fields>, Serializable {
   @Setter(AccessLevel.PACKAGE)
   protected List<String> fieldNames;
 
+  private transient List<FieldPath> fieldPaths;
+
   /** Instantiates a new Fields. */
   public Fields() {
     fieldNames = new ArrayList<>();
@@ -72,6 +74,24 @@ public class Fields implements Comparable<Fields>, Serializable {
     return Collections.unmodifiableList(fieldNames);
   }
 
+  /**
+   * Gets the parsed paths of the field names, which are parsed once for all the documents.
+   *
+   * @return the field paths
+   */
+  public List<FieldPath> getFieldPaths() {
+    List<FieldPath> paths = fieldPaths;
+    if (paths == null || !isParsed(paths)) {
+      paths = new ArrayList<>(fieldNames.size());
+      for (String fieldName : fieldNames) {
+        paths.add(FieldPath.of(fieldName));
+      }
+      paths = Collections.unmodifiableList(paths);
+      fieldPaths = paths;
+    }
+    return paths;
+  }
+
   /**
    * Starts with boolean.
    *
@@ -131,6 +151,15 @@ public class Fields implements Comparable<Fields>, Serializable {
     return result;
   }
 
+  private boolean isParsed(List<FieldPath> paths) {
+    // the field names can be changed after the paths are parsed
+    if (paths.size() != fieldNames.size()) return false;
+    for (int i = 0; i < paths.size(); i++) {
+      if (!paths.get(i).describes(fieldNames.get(i))) return false;
+    }
+    return true;
+  }
+
   private void writeObject(ObjectOutputStream stream) throws IOException {
     stream.writeObject(fieldNames);
   }
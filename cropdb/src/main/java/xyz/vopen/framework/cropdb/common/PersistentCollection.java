@@ -35,6 +35,7 @@ import xyz.vopen.framework.cropdb.exceptions.*;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * The interface Persistent collection.
@@ -97,6 +98,23 @@ public interface PersistentCollection<T> extends EventAware, MetadataAware, Auto
    */
   void createIndex(IndexOptions indexOptions, String... fields);
 
+  /**
+   * Creates several indexes at once. The documents are read once for all of them, which is faster
+   * than creating them one by one. An index whose options are {@code null} uses the default
+   * options.
+   *
+   * @param indexes the options of the indexes, by their fields.
+   * @throws IndexingException if an index already exists on any of the fields.
+   * @see #createIndex(IndexOptions, String...)
+   */
+  default void createIndexes(Map<Fields, IndexOptions> indexes) {
+    ValidationUtils.notNull(indexes, "indexes cannot be null");
+    for (Map.Entry<Fields, IndexOptions> entry : indexes.entrySet()) {
+      String[] fields = entry.getKey().getFieldNames().toArray(new String[0]);
+      createIndex(entry.getValue(), fields);
+    }
+  }
+
   /**
    * Rebuilds index on the {@code field} if it exists.
    *
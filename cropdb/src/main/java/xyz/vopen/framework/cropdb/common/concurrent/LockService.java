@@ -12,11 +12,15 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * @since 4.0
  */
 public class LockService {
+  private static final int STRIPE_COUNT = 64;
+
   private final Map<String, ReentrantReadWriteLock> lockRegistry;
+  private final Map<String, StripedLock> stripedLockRegistry;
 
   /** Instantiates a new Lock service. */
   public LockService() {
     this.lockRegistry = new HashMap<>();
+    this.stripedLockRegistry = new HashMap<>();
   }
 
   /**
@@ -50,4 +54,14 @@ public class LockService {
     lockRegistry.put(name, rwLock);
     return rwLock.writeLock();
   }
+
+  /**
+   * Gets striped lock.
+   *
+   * @param name the name
+   * @return the striped lock
+   */
+  public synchronized StripedLock getStripedLock(String name) {
+    return stripedLockRegistry.computeIfAbsent(name, k -> new StripedLock(STRIPE_COUNT));
+  }
 }
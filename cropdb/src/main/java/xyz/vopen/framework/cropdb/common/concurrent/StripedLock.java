@@ -0,0 +1,66 @@
+package xyz.vopen.framework.cropdb.common.concurrent;
+
+import java.util.BitSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks, each of which guards all the keys hashed to it. Threads locking different
+ * keys mostly lock different stripes, and so do not wait for each other.
+ *
+ * <p>A thread locks all the stripes it needs at once, in ascending order, so that two threads
+ * never wait for a stripe held by the other one.
+ *
+ * @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a>
+ * @since 4.0
+ */
+public class StripedLock {
+  private final ReentrantLock[] stripes;
+
+  /**
+   * Instantiates a new {@link StripedLock}.
+   *
+   * @param stripeCount the number of stripes, rounded up to a power of two
+   */
+  public StripedLock(int stripeCount) {
+    int count = Integer.highestOneBit(Math.max(1, stripeCount - 1) << 1);
+    this.stripes = new ReentrantLock[count];
+    for (int i = 0; i < count; i++) {
+      stripes[i] = new ReentrantLock();
+    }
+  }
+
+  /**
+   * Gets the stripe of a key. Keys which are equal must have the same hash code.
+   *
+   * @param key the key
+   * @return the stripe
+   */
+  public int stripeOf(Object key) {
+    int hash = key == null ? 0 : key.hashCode();
+    // spread the high bits, like a hash map does
+    hash ^= (hash >>> 16);
+    return hash & (stripes.length - 1);
+  }
+
+  /**
+   * Locks the stripes in ascending order.
+   *
+   * @param stripeSet the stripes
+   */
+  public void lock(BitSet stripeSet) {
+    for (int i = stripeSet.nextSetBit(0); i >= 0; i = stripeSet.nextSetBit(i + 1)) {
+      stripes[i].lock();
+    }
+  }
+
+  /**
+   * Unlocks the stripes.
+   *
+   * @param stripeSet the stripes
+   */
+  public void unlock(BitSet stripeSet) {
+    for (int i = stripeSet.nextSetBit(0); i >= 0; i = stripeSet.nextSetBit(i + 1)) {
+      stripes[i].unlock();
+    }
+  }
+}
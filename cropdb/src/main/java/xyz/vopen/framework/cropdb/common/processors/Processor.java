@@ -22,6 +22,9 @@ import xyz.vopen.framework.cropdb.collection.Document;
 /**
  * Represents a document processor.
  *
+ * <p>A processor does not change the document it is given, which may be shared. It returns a
+ * changed copy of the document, or the same document if nothing changes.
+ *
  * @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a>
  * @since 4.0
  */
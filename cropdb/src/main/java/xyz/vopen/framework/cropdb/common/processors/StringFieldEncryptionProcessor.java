@@ -72,20 +72,21 @@ public class StringFieldEncryptionProcessor implements Processor {
   @Override
   public Document processBeforeWrite(Document document) {
     try {
-      Document copy = document.clone();
-      if (!fields.isEmpty()) {
-        for (String field : fields) {
-          String value = copy.get(field, String.class);
-          if (!StringUtils.isNullOrEmpty(value)) {
-            // encrypt
-            value = encryptor.encrypt(value.getBytes(StandardCharsets.UTF_8));
+      Document copy = null;
+      for (String field : fields) {
+        String value = (copy == null ? document : copy).get(field, String.class);
+        if (!StringUtils.isNullOrEmpty(value)) {
+          // encrypt
+          value = encryptor.encrypt(value.getBytes(StandardCharsets.UTF_8));
 
-            // set the value
-            copy.put(field, value);
+          // set the value in a copy, made on the first change
+          if (copy == null) {
+            copy = document.clone();
           }
+          copy.put(field, value);
         }
       }
-      return copy;
+      return copy == null ? document : copy;
     } catch (Exception e) {
       log.error("Error while processing document before write", e);
       throw new CropIOException("failed to process document before write", e);
@@ -95,20 +96,21 @@ public class StringFieldEncryptionProcessor implements Processor {
   @Override
   public Document processAfterRead(Document document) {
     try {
-      Document copy = document.clone();
-      if (!fields.isEmpty()) {
-        for (String field : fields) {
-          String value = copy.get(field, String.class);
-          if (!StringUtils.isNullOrEmpty(value)) {
-            // decrypt
-            value = encryptor.decrypt(value);
+      Document copy = null;
+      for (String field : fields) {
+        String value = (copy == null ? document : copy).get(field, String.class);
+        if (!StringUtils.isNullOrEmpty(value)) {
+          // decrypt
+          value = encryptor.decrypt(value);
 
-            // set the value
-            copy.put(field, value);
+          // set the value in a copy, made on the first change
+          if (copy == null) {
+            copy = document.clone();
           }
+          copy.put(field, value);
         }
       }
-      return copy;
+      return copy == null ? document : copy;
     } catch (Exception e) {
       log.error("Error while processing document after read", e);
       throw new CropIOException("failed to process document after read", e);
@@ -21,6 +21,7 @@ import xyz.vopen.framework.cropdb.collection.CropId;
 import xyz.vopen.framework.cropdb.collection.Document;
 import xyz.vopen.framework.cropdb.common.RecordStream;
 import xyz.vopen.framework.cropdb.common.tuples.Pair;
+import xyz.vopen.framework.cropdb.exceptions.CropIOException;
 import xyz.vopen.framework.cropdb.exceptions.ValidationException;
 
 import java.util.Collections;
@@ -30,10 +31,14 @@ import java.util.NoSuchElementException;
 /**
  * Represents a bounded document stream.
  *
+ * <p>An iterator of the underlying stream which holds resources, e.g. the temporary files of a
+ * sort, is closed as soon as the bound is reached.
+ *
  * @since 1.0
  * @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a>.
  */
-public class BoundedDocumentStream implements RecordStream<Pair<CropId, Document>> {
+public class BoundedDocumentStream
+    implements RecordStream<Pair<CropId, Document>>, AutoCloseable {
   private final RecordStream<Pair<CropId, Document>> recordStream;
   private final long skip;
   private final long limit;
@@ -67,6 +72,21 @@ public class BoundedDocumentStream implements RecordStream<Pair<CropId, Document
     return new BoundedIterator<>(iterator, skip, limit);
   }
 
+  @Override
+  public void close() {
+    if (recordStream instanceof AutoCloseable) {
+      closeQuietly((AutoCloseable) recordStream);
+    }
+  }
+
+  private static void closeQuietly(AutoCloseable closeable) {
+    try {
+      closeable.close();
+    } catch (Exception e) {
+      throw new CropIOException("failed to close the bounded stream", e);
+    }
+  }
+
   private static class BoundedIterator<T> implements Iterator<T> {
     private final Iterator<? extends T> iterator;
     private final long skip;
@@ -104,6 +124,14 @@ public class BoundedDocumentStream implements RecordStream<Pair<CropId, Document
         iterator.next();
         pos++;
       }
+      closeIfBounded();
+    }
+
+    private void closeIfBounded() {
+      // nothing more is read from the iterator, release what it holds
+      if (checkBounds() && iterator instanceof AutoCloseable) {
+        closeQuietly((AutoCloseable) iterator);
+      }
     }
 
     @Override
@@ -125,6 +153,7 @@ public class BoundedDocumentStream implements RecordStream<Pair<CropId, Document
       }
       final T next = iterator.next();
       pos++;
+      closeIfBounded();
       return next;
     }
 
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2017-2021 Crop author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package xyz.vopen.framework.cropdb.common.streams;
+
+import xyz.vopen.framework.cropdb.collection.Document;
+import xyz.vopen.framework.cropdb.common.RecordStream;
+
+/**
+ * Looks up the documents of a cursor by the value of a field, using an index of the collection.
+ *
+ * @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a>
+ * @since 4.0
+ */
+public interface DocumentLookup {
+  /**
+   * Indicates if looking up the documents by the field is preferred over reading all documents of
+   * the cursor once.
+   *
+   * @param field the field
+   * @return the boolean
+   */
+  boolean isLookupPreferred(String field);
+
+  /**
+   * Finds the documents of the cursor having the field equal to the value.
+   *
+   * @param field the field
+   * @param value the value
+   * @return the documents
+   */
+  RecordStream<Document> findByField(String field, Object value);
+}
@@ -20,6 +20,7 @@ package xyz.vopen.framework.cropdb.common.streams;
 import xyz.vopen.framework.cropdb.collection.CropId;
 import xyz.vopen.framework.cropdb.collection.Document;
 import xyz.vopen.framework.cropdb.common.DBNull;
+import xyz.vopen.framework.cropdb.common.FieldPath;
 import xyz.vopen.framework.cropdb.common.SortOrder;
 import xyz.vopen.framework.cropdb.common.tuples.Pair;
 import xyz.vopen.framework.cropdb.exceptions.ValidationException;
@@ -39,6 +40,7 @@ import java.util.List;
 public class DocumentSorter implements Comparator<Pair<CropId, Document>> {
   private final Collator collator;
   private final List<Pair<String, SortOrder>> sortOrder;
+  private final FieldPath[] sortPaths;
 
   /**
    * Instantiates a new Document sorter.
@@ -49,18 +51,23 @@ public class DocumentSorter implements Comparator<Pair<CropId, Document>> {
   public DocumentSorter(Collator collator, List<Pair<String, SortOrder>> sortOrder) {
     this.collator = collator;
     this.sortOrder = sortOrder;
+    this.sortPaths = new FieldPath[sortOrder == null ? 0 : sortOrder.size()];
+    for (int i = 0; i < sortPaths.length; i++) {
+      sortPaths[i] = FieldPath.of(sortOrder.get(i).getFirst());
+    }
   }
 
   @Override
   @SuppressWarnings({"rawtypes", "unchecked"})
   public int compare(Pair<CropId, Document> pair1, Pair<CropId, Document> pair2) {
     if (sortOrder != null && !sortOrder.isEmpty()) {
-      for (Pair<String, SortOrder> pair : sortOrder) {
+      for (int i = 0; i < sortPaths.length; i++) {
+        Pair<String, SortOrder> pair = sortOrder.get(i);
         Document doc1 = pair1.getSecond();
         Document doc2 = pair2.getSecond();
 
-        Object value1 = doc1.get(pair.getFirst());
-        Object value2 = doc2.get(pair.getFirst());
+        Object value1 = doc1.get(sortPaths[i]);
+        Object value2 = doc2.get(sortPaths[i]);
 
         // handle null values
         int result;
@@ -23,9 +23,11 @@ import xyz.vopen.framework.cropdb.collection.CropId;
 import xyz.vopen.framework.cropdb.collection.Document;
 import xyz.vopen.framework.cropdb.collection.DocumentCursor;
 import xyz.vopen.framework.cropdb.collection.FindPlan;
+import xyz.vopen.framework.cropdb.common.Constants;
 import xyz.vopen.framework.cropdb.common.Lookup;
 import xyz.vopen.framework.cropdb.common.RecordStream;
 import xyz.vopen.framework.cropdb.common.tuples.Pair;
+import xyz.vopen.framework.cropdb.exceptions.CropIOException;
 import xyz.vopen.framework.cropdb.exceptions.InvalidOperationException;
 import xyz.vopen.framework.cropdb.exceptions.ValidationException;
 import xyz.vopen.framework.cropdb.common.processors.ProcessorChain;
@@ -45,6 +47,12 @@ public class DocumentStream implements DocumentCursor {
 
   @Getter @Setter private FindPlan findPlan;
 
+  /** The ids of the result if they are known without reading the documents. */
+  @Setter private RecordStream<CropId> coveredIds;
+
+  /** Looks up the documents of this cursor by a field, if supported. */
+  @Getter @Setter private DocumentLookup documentLookup;
+
   /**
    * Instantiates a new Document stream.
    *
@@ -60,9 +68,21 @@ public class DocumentStream implements DocumentCursor {
   @Override
   public RecordStream<Document> project(Document projection) {
     validateProjection(projection);
+    if (coveredIds != null && isIdProjection(projection)) {
+      // only the ids are selected, no need to read the documents
+      return () -> new IdDocumentIterator(coveredIds.iterator(), processorChain);
+    }
     return new ProjectedDocumentStream(recordStream, projection, processorChain);
   }
 
+  @Override
+  public long size() {
+    if (coveredIds != null) {
+      return coveredIds.size();
+    }
+    return recordStream == null ? 0 : recordStream.size();
+  }
+
   @Override
   public RecordStream<Document> join(DocumentCursor foreignCursor, Lookup lookup) {
     return new JoinedDocumentStream(recordStream, foreignCursor, lookup, processorChain);
@@ -75,6 +95,21 @@ public class DocumentStream implements DocumentCursor {
     return new DocumentCursorIterator(iterator, processorChain);
   }
 
+  @Override
+  public void close() {
+    if (recordStream instanceof AutoCloseable) {
+      try {
+        ((AutoCloseable) recordStream).close();
+      } catch (Exception e) {
+        throw new CropIOException("failed to close the cursor", e);
+      }
+    }
+  }
+
+  private boolean isIdProjection(Document projection) {
+    return projection.size() == 1 && projection.containsKey(Constants.DOC_ID);
+  }
+
   private void validateProjection(Document projection) {
     for (Pair<String, Object> kvp : projection) {
       validateKeyValuePair(kvp);
@@ -91,6 +126,39 @@ public class DocumentStream implements DocumentCursor {
     }
   }
 
+  private static class IdDocumentIterator implements Iterator<Document> {
+    private final Iterator<CropId> iterator;
+    private final ProcessorChain processorChain;
+
+    /**
+     * Instantiates a new Id document iterator.
+     *
+     * @param iterator the id iterator
+     * @param processorChain the processor chain
+     */
+    IdDocumentIterator(Iterator<CropId> iterator, ProcessorChain processorChain) {
+      this.iterator = iterator;
+      this.processorChain = processorChain;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return iterator.hasNext();
+    }
+
+    @Override
+    public Document next() {
+      CropId cropId = iterator.next();
+      Document document = Document.createDocument(Constants.DOC_ID, cropId.getIdValue());
+      return processorChain.processAfterRead(document);
+    }
+
+    @Override
+    public void remove() {
+      throw new InvalidOperationException("remove on a cursor is not supported");
+    }
+  }
+
   private static class DocumentCursorIterator implements Iterator<Document> {
     private final Iterator<Pair<CropId, Document>> iterator;
     private final ProcessorChain processorChain;
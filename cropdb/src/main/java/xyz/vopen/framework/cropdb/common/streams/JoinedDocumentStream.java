@@ -27,14 +27,23 @@ import xyz.vopen.framework.cropdb.exceptions.InvalidOperationException;
 import xyz.vopen.framework.cropdb.common.processors.ProcessorChain;
 import xyz.vopen.framework.cropdb.common.util.ObjectUtils;
 
+import java.lang.reflect.Array;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
  * Represents a joined document stream.
  *
+ * <p>The foreign documents are read once and grouped by the foreign field in a hash table. If the
+ * foreign cursor prefers it, e.g. for a large indexed collection, the foreign documents of each
+ * local document are looked up through the index instead.
+ *
  * @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a>.
  * @since 1.0
  */
@@ -67,7 +76,8 @@ public class JoinedDocumentStream implements RecordStream<Document> {
   public Iterator<Document> iterator() {
     Iterator<Pair<CropId, Document>> iterator =
         recordStream == null ? Collections.emptyIterator() : recordStream.iterator();
-    return new JoinedDocumentIterator(iterator, processorChain, foreignCursor, lookup);
+    return new JoinedDocumentIterator(
+        iterator, processorChain, foreignCursor, findForeignLookup(), lookup);
   }
 
   @Override
@@ -75,26 +85,43 @@ public class JoinedDocumentStream implements RecordStream<Document> {
     return toList().toString();
   }
 
+  private DocumentLookup findForeignLookup() {
+    if (foreignCursor instanceof DocumentStream) {
+      DocumentLookup documentLookup = ((DocumentStream) foreignCursor).getDocumentLookup();
+      if (documentLookup != null && documentLookup.isLookupPreferred(lookup.getForeignField())) {
+        return documentLookup;
+      }
+    }
+    return null;
+  }
+
   private static class JoinedDocumentIterator implements Iterator<Document> {
     private final Iterator<Pair<CropId, Document>> iterator;
     private final ProcessorChain processorChain;
     private final DocumentCursor foreignCursor;
+    private final DocumentLookup foreignLookup;
     private final Lookup lookup;
+    private Map<Integer, List<Document>> hashTable;
 
     /**
      * Instantiates a new Joined document iterator.
      *
      * @param iterator the iterator
      * @param processorChain the processor chain
+     * @param foreignCursor the foreign cursor
+     * @param foreignLookup the index lookup of the foreign cursor, if preferred
+     * @param lookup the lookup
      */
     public JoinedDocumentIterator(
         Iterator<Pair<CropId, Document>> iterator,
         ProcessorChain processorChain,
         DocumentCursor foreignCursor,
+        DocumentLookup foreignLookup,
         Lookup lookup) {
       this.iterator = iterator;
       this.processorChain = processorChain;
       this.foreignCursor = foreignCursor;
+      this.foreignLookup = foreignLookup;
       this.lookup = lookup;
     }
 
@@ -112,7 +139,7 @@ public class JoinedDocumentStream implements RecordStream<Document> {
 
         // process the document
         Document processed = processorChain.processAfterRead(unprocessed);
-        return join(processed, foreignCursor, lookup);
+        return join(processed);
       }
       return null;
     }
@@ -122,23 +149,84 @@ public class JoinedDocumentStream implements RecordStream<Document> {
       throw new InvalidOperationException("remove on a cursor is not supported");
     }
 
-    private Document join(Document localDocument, DocumentCursor foreignCursor, Lookup lookup) {
+    private Document join(Document localDocument) {
       Object localObject = localDocument.get(lookup.getLocalField());
       if (localObject == null) return localDocument;
       Set<Document> target = new HashSet<>();
 
-      for (Document foreignDocument : foreignCursor) {
-        Object foreignObject = foreignDocument.get(lookup.getForeignField());
-        if (foreignObject != null) {
-          if (ObjectUtils.deepEquals(foreignObject, localObject)) {
+      if (foreignLookup != null && localObject instanceof Comparable) {
+        // index nested loop, the candidates are read through the index
+        for (Document foreignDocument :
+            foreignLookup.findByField(lookup.getForeignField(), localObject)) {
+          if (isMatch(foreignDocument, localObject)) {
             target.add(foreignDocument);
           }
         }
+      } else {
+        // hash join, the candidates share the hash of the local value
+        List<Document> candidates = getHashTable().get(hash(localObject));
+        if (candidates != null) {
+          for (Document foreignDocument : candidates) {
+            if (isMatch(foreignDocument, localObject)) {
+              // the foreign document is shared by all local documents
+              target.add(foreignDocument.clone());
+            }
+          }
+        }
       }
+
       if (!target.isEmpty()) {
         localDocument.put(lookup.getTargetField(), target);
       }
       return localDocument;
     }
+
+    private boolean isMatch(Document foreignDocument, Object localObject) {
+      Object foreignObject = foreignDocument.get(lookup.getForeignField());
+      return foreignObject != null && ObjectUtils.deepEquals(foreignObject, localObject);
+    }
+
+    private Map<Integer, List<Document>> getHashTable() {
+      if (hashTable == null) {
+        // read the foreign cursor only once
+        hashTable = new HashMap<>();
+        for (Document foreignDocument : foreignCursor) {
+          Object foreignObject = foreignDocument.get(lookup.getForeignField());
+          if (foreignObject != null) {
+            hashTable
+                .computeIfAbsent(hash(foreignObject), k -> new ArrayList<>())
+                .add(foreignDocument);
+          }
+        }
+      }
+      return hashTable;
+    }
+
+    // a hash consistent with ObjectUtils.deepEquals
+    private static int hash(Object value) {
+      if (value == null) {
+        return 0;
+      } else if (value instanceof Number) {
+        // equal numbers of the same type may differ in scale or sign of zero
+        return Double.hashCode(((Number) value).doubleValue() + 0.0);
+      } else if (value instanceof Iterable) {
+        int hash = 1;
+        for (Object item : (Iterable<?>) value) {
+          hash = 31 * hash + hash(item);
+        }
+        return hash;
+      } else if (value.getClass().isArray()) {
+        int hash = 1;
+        int length = Array.getLength(value);
+        for (int i = 0; i < length; i++) {
+          hash = 31 * hash + hash(Array.get(value, i));
+        }
+        return hash;
+      } else if (value instanceof Map) {
+        // entries are compared in iteration order with their own equality
+        return ((Map<?, ?>) value).size();
+      }
+      return value.hashCode();
+    }
   }
 }
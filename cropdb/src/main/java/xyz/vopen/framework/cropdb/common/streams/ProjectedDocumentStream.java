@@ -19,13 +19,18 @@ package xyz.vopen.framework.cropdb.common.streams;
 
 import xyz.vopen.framework.cropdb.collection.Document;
 import xyz.vopen.framework.cropdb.collection.CropId;
+import xyz.vopen.framework.cropdb.collection.LazyDocument;
 import xyz.vopen.framework.cropdb.common.RecordStream;
 import xyz.vopen.framework.cropdb.common.tuples.Pair;
 import xyz.vopen.framework.cropdb.exceptions.InvalidOperationException;
 import xyz.vopen.framework.cropdb.common.processors.ProcessorChain;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Represents a projected crop document stream.
@@ -95,7 +100,8 @@ public class ProjectedDocumentStream implements RecordStream<Document> {
 
     @Override
     public Document next() {
-      Document returnValue = nextElement.clone();
+      // the projected document is a new one
+      Document returnValue = nextElement;
       nextMatch();
       return returnValue;
     }
@@ -105,7 +111,7 @@ public class ProjectedDocumentStream implements RecordStream<Document> {
         Pair<CropId, Document> next = iterator.next();
         Document document = next.getSecond();
         if (document != null) {
-          Document projected = project(document.clone());
+          Document projected = project(document);
           if (projected != null) {
             nextElement = projected;
             return;
@@ -122,18 +128,33 @@ public class ProjectedDocumentStream implements RecordStream<Document> {
     }
 
     private Document project(Document original) {
-      if (projection == null) return original;
-      Document result = original.clone();
-
-      for (Pair<String, Object> pair : original) {
-        if (!projection.containsKey(pair.getFirst())) {
-          result.remove(pair.getFirst());
+      if (projection == null) return original.clone();
+
+      // copy the projected fields only, so that a lazy document decodes no other field
+      Map<String, Object> fields = new LinkedHashMap<>();
+      for (String field : fieldNames(original)) {
+        if (projection.containsKey(field)) {
+          Object value = original.get(field);
+          fields.put(field, value instanceof Document ? ((Document) value).clone() : value);
         }
       }
+      Document result = Document.createDocument(fields);
 
       // process the result
       result = processorChain.processAfterRead(result);
       return result;
     }
+
+    private List<String> fieldNames(Document document) {
+      if (document instanceof LazyDocument) {
+        return ((LazyDocument) document).getFieldNames();
+      }
+
+      List<String> fieldNames = new ArrayList<>(document.size());
+      for (Pair<String, Object> pair : document) {
+        fieldNames.add(pair.getFirst());
+      }
+      return fieldNames;
+    }
   }
 }
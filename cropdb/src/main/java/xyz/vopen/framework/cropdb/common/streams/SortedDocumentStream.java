@@ -17,31 +17,72 @@
 
 package xyz.vopen.framework.cropdb.common.streams;
 
+import lombok.extern.slf4j.Slf4j;
 import xyz.vopen.framework.cropdb.collection.CropId;
 import xyz.vopen.framework.cropdb.collection.Document;
 import xyz.vopen.framework.cropdb.collection.FindPlan;
+import xyz.vopen.framework.cropdb.common.Constants;
 import xyz.vopen.framework.cropdb.common.RecordStream;
 import xyz.vopen.framework.cropdb.common.tuples.Pair;
-import xyz.vopen.framework.cropdb.common.util.Iterables;
+import xyz.vopen.framework.cropdb.exceptions.CropIOException;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Represents a sorted crop document stream
  *
+ * <p>If the stream holds more documents than the sort buffer size, the documents are sorted in
+ * runs which are spilled to temporary files and merged while iterating. The files of a run are
+ * deleted once it is read to the end, or when the stream is closed.
+ *
  * @since 4.0
  * @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a>.
  */
-public class SortedDocumentStream implements RecordStream<Pair<CropId, Document>> {
+@Slf4j
+public class SortedDocumentStream
+    implements RecordStream<Pair<CropId, Document>>, AutoCloseable {
+  // maximum number of runs merged at once, more runs are merged in several passes
+  private static final int MERGE_FAN_IN = 64;
+
   private final FindPlan findPlan;
   private final RecordStream<Pair<CropId, Document>> recordStream;
+  private final int sortBufferSize;
+  private final Set<MergeIterator> openIterators;
 
   public SortedDocumentStream(
       FindPlan findPlan, RecordStream<Pair<CropId, Document>> recordStream) {
+    this(findPlan, recordStream, Constants.DEFAULT_SORT_BUFFER_SIZE);
+  }
+
+  /**
+   * Instantiates a new Sorted document stream.
+   *
+   * @param findPlan the find plan
+   * @param recordStream the record stream
+   * @param sortBufferSize the maximum number of documents to sort in memory
+   */
+  public SortedDocumentStream(
+      FindPlan findPlan, RecordStream<Pair<CropId, Document>> recordStream, int sortBufferSize) {
     this.findPlan = findPlan;
     this.recordStream = recordStream;
+    this.sortBufferSize = Math.max(1, sortBufferSize);
+    this.openIterators = ConcurrentHashMap.newKeySet();
   }
 
   @Override
@@ -51,9 +92,213 @@ public class SortedDocumentStream implements RecordStream<Pair<CropId, Document>
     DocumentSorter documentSorter =
         new DocumentSorter(findPlan.getCollator(), findPlan.getBlockingSortOrder());
 
-    List<Pair<CropId, Document>> recordList = Iterables.toList(recordStream);
-    Collections.sort(recordList, documentSorter);
+    Iterator<Pair<CropId, Document>> iterator = recordStream.iterator();
+    List<Pair<CropId, Document>> recordList = readRun(iterator);
+    recordList.sort(documentSorter);
+    if (!iterator.hasNext()) {
+      return recordList.iterator();
+    }
+
+    // the documents do not fit in the sort buffer, spill sorted runs to disk
+    List<SortedRun> spilledRuns = new ArrayList<>();
+    try {
+      List<SortedRun> runs = new ArrayList<>();
+      while (true) {
+        SortedRun run = SortedRun.spill(runs.size(), recordList.iterator());
+        runs.add(run);
+        spilledRuns.add(run);
+        if (!iterator.hasNext()) break;
+
+        recordList = readRun(iterator);
+        recordList.sort(documentSorter);
+      }
+
+      while (runs.size() > MERGE_FAN_IN) {
+        // merge consecutive runs so equal documents keep their order
+        List<SortedRun> mergedRuns = new ArrayList<>();
+        for (int i = 0; i < runs.size(); i += MERGE_FAN_IN) {
+          List<SortedRun> group = runs.subList(i, Math.min(i + MERGE_FAN_IN, runs.size()));
+          try (MergeIterator mergeIterator = new MergeIterator(group, documentSorter, null)) {
+            SortedRun mergedRun = SortedRun.spill(mergedRuns.size(), mergeIterator);
+            mergedRuns.add(mergedRun);
+            spilledRuns.add(mergedRun);
+          }
+        }
+        runs = mergedRuns;
+      }
+      return new MergeIterator(runs, documentSorter, openIterators);
+    } catch (IOException | ClassNotFoundException e) {
+      closeRuns(spilledRuns);
+      throw new CropIOException("failed to spill the sorted documents", e);
+    } catch (RuntimeException e) {
+      closeRuns(spilledRuns);
+      throw e;
+    }
+  }
+
+  /** Closes the iterators of this stream which are not read to the end and deletes their runs. */
+  @Override
+  public void close() {
+    for (MergeIterator iterator : openIterators) {
+      iterator.close();
+    }
+  }
+
+  private void closeRuns(List<SortedRun> runs) {
+    for (SortedRun run : runs) {
+      run.close();
+    }
+  }
+
+  private List<Pair<CropId, Document>> readRun(Iterator<Pair<CropId, Document>> iterator) {
+    List<Pair<CropId, Document>> recordList = new ArrayList<>();
+    while (iterator.hasNext() && recordList.size() < sortBufferSize) {
+      recordList.add(iterator.next());
+    }
+    return recordList;
+  }
+
+  private static class SortedRun {
+    private final int index;
+    private final File file;
+    private ObjectInputStream inputStream;
+    private long remaining;
+    private Pair<CropId, Document> head;
+
+    private SortedRun(int index, File file, long remaining) {
+      this.index = index;
+      this.file = file;
+      this.remaining = remaining;
+    }
+
+    static SortedRun spill(int index, Iterator<Pair<CropId, Document>> records)
+        throws IOException {
+      File file = File.createTempFile("crop-sort", ".run");
+      long count = 0;
+      try (ObjectOutputStream outputStream =
+          new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+        while (records.hasNext()) {
+          outputStream.writeObject(records.next());
+          // do not hold the written documents in the stream's handle table
+          outputStream.reset();
+          count++;
+        }
+      } catch (IOException | CropIOException e) {
+        delete(file);
+        throw e;
+      }
+      return new SortedRun(index, file, count);
+    }
+
+    void open() throws IOException, ClassNotFoundException {
+      this.inputStream =
+          new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+      advance();
+    }
+
+    @SuppressWarnings("unchecked")
+    void advance() throws IOException, ClassNotFoundException {
+      if (remaining > 0) {
+        head = (Pair<CropId, Document>) inputStream.readObject();
+        remaining--;
+      } else {
+        head = null;
+        close();
+      }
+    }
+
+    void close() {
+      if (inputStream != null) {
+        try {
+          inputStream.close();
+        } catch (IOException e) {
+          log.warn("Failed to close the sorted run " + file, e);
+        }
+        inputStream = null;
+      }
+      delete(file);
+    }
+
+    private static void delete(File file) {
+      if (file.exists() && !file.delete()) {
+        log.warn("Failed to delete the sorted run " + file);
+      }
+    }
+  }
+
+  private static class MergeIterator implements Iterator<Pair<CropId, Document>>, AutoCloseable {
+    private final List<SortedRun> runs;
+    private final PriorityQueue<SortedRun> queue;
+    private final Set<MergeIterator> openIterators;
+
+    MergeIterator(
+        List<SortedRun> runs, DocumentSorter documentSorter, Set<MergeIterator> openIterators)
+        throws IOException, ClassNotFoundException {
+      // equal documents are taken from the earlier run first to keep the sort stable
+      Comparator<SortedRun> comparator =
+          (run1, run2) -> {
+            int result = documentSorter.compare(run1.head, run2.head);
+            return result != 0 ? result : Integer.compare(run1.index, run2.index);
+          };
+      this.runs = runs;
+      this.queue = new PriorityQueue<>(runs.size(), comparator);
+      this.openIterators = openIterators;
+      try {
+        for (SortedRun run : runs) {
+          run.open();
+          if (run.head != null) {
+            queue.add(run);
+          }
+        }
+      } catch (IOException | ClassNotFoundException | RuntimeException e) {
+        close();
+        throw e;
+      }
+
+      if (openIterators != null && !queue.isEmpty()) {
+        openIterators.add(this);
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return !queue.isEmpty();
+    }
+
+    @Override
+    public Pair<CropId, Document> next() {
+      SortedRun run = queue.poll();
+      if (run == null) {
+        throw new NoSuchElementException();
+      }
+
+      Pair<CropId, Document> record = run.head;
+      try {
+        run.advance();
+      } catch (IOException | ClassNotFoundException | RuntimeException e) {
+        close();
+        throw new CropIOException("failed to read the sorted documents", e);
+      }
+
+      if (run.head != null) {
+        queue.add(run);
+      } else if (queue.isEmpty()) {
+        // all runs are read and deleted
+        close();
+      }
+      return record;
+    }
+
+    @Override
+    public void close() {
+      queue.clear();
+      for (SortedRun run : runs) {
+        run.close();
+      }
 
-    return recordList.iterator();
+      if (openIterators != null) {
+        openIterators.remove(this);
+      }
+    }
   }
 }
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2017-2021 Crop author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package xyz.vopen.framework.cropdb.common.streams;
+
+import xyz.vopen.framework.cropdb.collection.CropId;
+import xyz.vopen.framework.cropdb.collection.Document;
+import xyz.vopen.framework.cropdb.collection.FindPlan;
+import xyz.vopen.framework.cropdb.common.RecordStream;
+import xyz.vopen.framework.cropdb.common.tuples.Pair;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Represents a crop document stream holding only the first documents of a sort order.
+ *
+ * <p>The documents are kept in a bounded heap, so only the requested number of documents is held
+ * in memory. Documents which compare equal keep their order in the source stream.
+ *
+ * @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a>
+ * @since 4.0
+ */
+public class TopKDocumentStream implements RecordStream<Pair<CropId, Document>> {
+  private final FindPlan findPlan;
+  private final RecordStream<Pair<CropId, Document>> recordStream;
+  private final int size;
+
+  /**
+   * Instantiates a new Top k document stream.
+   *
+   * @param findPlan the find plan
+   * @param recordStream the record stream
+   * @param size the number of documents to keep
+   */
+  public TopKDocumentStream(
+      FindPlan findPlan, RecordStream<Pair<CropId, Document>> recordStream, int size) {
+    this.findPlan = findPlan;
+    this.recordStream = recordStream;
+    this.size = size;
+  }
+
+  @Override
+  public Iterator<Pair<CropId, Document>> iterator() {
+    if (recordStream == null || size <= 0) return Collections.emptyIterator();
+
+    DocumentSorter documentSorter =
+        new DocumentSorter(findPlan.getCollator(), findPlan.getBlockingSortOrder());
+
+    // ties are broken by the position in the source stream to keep the sort stable
+    Comparator<Pair<Long, Pair<CropId, Document>>> comparator =
+        (entry1, entry2) -> {
+          int result = documentSorter.compare(entry1.getSecond(), entry2.getSecond());
+          return result != 0 ? result : Long.compare(entry1.getFirst(), entry2.getFirst());
+        };
+
+    // the head of the heap is the last of the documents kept so far
+    PriorityQueue<Pair<Long, Pair<CropId, Document>>> heap =
+        new PriorityQueue<>(Math.min(size, 1024) + 1, comparator.reversed());
+
+    long position = 0;
+    for (Pair<CropId, Document> record : recordStream) {
+      if (heap.size() < size) {
+        heap.add(new Pair<>(position, record));
+      } else if (documentSorter.compare(record, heap.peek().getSecond()) < 0) {
+        heap.poll();
+        heap.add(new Pair<>(position, record));
+      }
+      position++;
+    }
+
+    List<Pair<Long, Pair<CropId, Document>>> entries = new ArrayList<>(heap);
+    entries.sort(comparator);
+
+    List<Pair<CropId, Document>> recordList = new ArrayList<>(entries.size());
+    for (Pair<Long, Pair<CropId, Document>> entry : entries) {
+      recordList.add(entry.getSecond());
+    }
+    return recordList.iterator();
+  }
+}
@@ -17,6 +17,7 @@
 package xyz.vopen.framework.cropdb.common.util;
 
 import xyz.vopen.framework.cropdb.collection.Document;
+import xyz.vopen.framework.cropdb.common.FieldPath;
 import xyz.vopen.framework.cropdb.common.FieldValues;
 import xyz.vopen.framework.cropdb.common.Fields;
 import xyz.vopen.framework.cropdb.common.tuples.Pair;
@@ -94,9 +95,9 @@ public class DocumentUtils {
     fieldValues.setFields(fields);
     fieldValues.setValues(new ArrayList<>());
 
-    for (String field : fields.getFieldNames()) {
-      Object value = document.get(field);
-      fieldValues.getValues().add(new Pair<>(field, value));
+    for (FieldPath path : fields.getFieldPaths()) {
+      Object value = document.get(path);
+      fieldValues.getValues().add(new Pair<>(path.getPath(), value));
     }
 
     return fieldValues;
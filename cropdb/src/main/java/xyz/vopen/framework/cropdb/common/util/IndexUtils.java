@@ -18,6 +18,7 @@
 package xyz.vopen.framework.cropdb.common.util;
 
 import xyz.vopen.framework.cropdb.index.IndexDescriptor;
+import xyz.vopen.framework.cropdb.index.IndexType;
 
 import static xyz.vopen.framework.cropdb.common.Constants.*;
 
@@ -28,6 +29,11 @@ import static xyz.vopen.framework.cropdb.common.Constants.*;
  * @since 1.0
  */
 public class IndexUtils {
+  // compound indexes are stored flat and unique indexes with one id per key,
+  // under names older versions did not use
+  private static final String FLAT_INDEX_SUFFIX = "flat";
+  private static final String SCALAR_INDEX_SUFFIX = "scalar";
+
   private IndexUtils() {}
 
   /**
@@ -37,6 +43,23 @@ public class IndexUtils {
    * @return the string
    */
   public static String deriveIndexMapName(IndexDescriptor descriptor) {
+    String mapName = deriveLegacyIndexMapName(descriptor);
+    if (descriptor.isCompoundIndex()) {
+      return mapName + INTERNAL_NAME_SEPARATOR + FLAT_INDEX_SUFFIX;
+    } else if (IndexType.UNIQUE.equalsIgnoreCase(descriptor.getIndexType())) {
+      return mapName + INTERNAL_NAME_SEPARATOR + SCALAR_INDEX_SUFFIX;
+    }
+    return mapName;
+  }
+
+  /**
+   * Derives the name of the map in which older versions stored an index, a compound index as
+   * nested maps of the values of each field and a unique index with a posting list per key.
+   *
+   * @param descriptor the descriptor
+   * @return the string
+   */
+  public static String deriveLegacyIndexMapName(IndexDescriptor descriptor) {
     return INDEX_PREFIX
         + INTERNAL_NAME_SEPARATOR
         + descriptor.getCollectionName()
@@ -17,11 +17,14 @@
 package xyz.vopen.framework.cropdb.filters;
 
 import xyz.vopen.framework.cropdb.collection.CropId;
+import xyz.vopen.framework.cropdb.common.tuples.Pair;
 import xyz.vopen.framework.cropdb.exceptions.FilterException;
+import xyz.vopen.framework.cropdb.index.CropIdBitmap;
 import xyz.vopen.framework.cropdb.index.IndexMap;
+import xyz.vopen.framework.cropdb.index.IndexStatistics;
 
+import java.util.Collection;
 import java.util.List;
-import java.util.NavigableMap;
 
 /**
  * Represents a filter based on document field holding {@link Comparable} values.
@@ -30,6 +33,9 @@ import java.util.NavigableMap;
  * @since 4.0
  */
 public abstract class ComparableFilter extends FieldBasedFilter {
+  private static final double DEFAULT_EQUALS_SELECTIVITY = 0.1;
+  private static final double DEFAULT_RANGE_SELECTIVITY = 1.0 / 3;
+
   /**
    * Instantiates a new Comparable filter.
    *
@@ -61,6 +67,100 @@ public abstract class ComparableFilter extends FieldBasedFilter {
    */
   public abstract List<?> applyOnIndex(IndexMap indexMap);
 
+  /**
+   * Gets the entries of an crop index whose keys match this filter, without listing the ids of
+   * their values.
+   *
+   * @param indexMap the index map
+   * @return the entries, or <code>null</code> if the filter can only be applied by {@link
+   *     #applyOnIndex(IndexMap)}
+   */
+  public Iterable<? extends Pair<Comparable<?>, ?>> findIndexEntries(IndexMap indexMap) {
+    return null;
+  }
+
+  /**
+   * Estimates the fraction of the index entries selected by this filter.
+   *
+   * @param statistics the index statistics, or <code>null</code> if not known
+   * @return the estimated selectivity
+   */
+  public double estimateSelectivity(IndexStatistics statistics) {
+    return 1.0;
+  }
+
+  /**
+   * Estimates the fraction of the index entries with a key equal to the value.
+   *
+   * @param statistics the index statistics, or <code>null</code> if not known
+   * @param value the value
+   * @return the estimated selectivity
+   */
+  protected double estimateEquals(IndexStatistics statistics, Object value) {
+    return statistics != null ? statistics.estimateEquals(value) : DEFAULT_EQUALS_SELECTIVITY;
+  }
+
+  /**
+   * Estimates the fraction of the index entries with a key within a range.
+   *
+   * @param statistics the index statistics, or <code>null</code> if not known
+   * @param from the lower bound, or <code>null</code> if open
+   * @param to the upper bound, or <code>null</code> if open
+   * @return the estimated selectivity
+   */
+  protected double estimateRange(
+      IndexStatistics statistics, Comparable<?> from, Comparable<?> to) {
+    return statistics != null ? statistics.estimateRange(from, to) : DEFAULT_RANGE_SELECTIVITY;
+  }
+
+  /**
+   * Checks if every document selected by this filter is also selected by another filter, which
+   * lets a partial index on the other filter answer this one.
+   *
+   * @param other the other filter
+   * @return `true` if the other filter is implied
+   */
+  public boolean implies(ComparableFilter other) {
+    return false;
+  }
+
+  /**
+   * Checks if this filter never selects a document without a value of the field, which lets a
+   * sparse index on the field answer it.
+   *
+   * @return `true` if a document without the field is never selected
+   */
+  public boolean excludesNull() {
+    return false;
+  }
+
+  /**
+   * Checks if a value of the field is selected by this filter.
+   *
+   * @param fieldValue the field value
+   * @return `true` if the value is selected
+   */
+  protected boolean matches(Object fieldValue) {
+    return false;
+  }
+
+  /**
+   * Checks if a value is selected by another filter on the same field. A value the other filter
+   * can not compare is not selected.
+   *
+   * @param other the other filter
+   * @param value the value
+   * @return `true` if the value is selected
+   */
+  protected boolean isSelectedBy(ComparableFilter other, Object value) {
+    if (!getField().equals(other.getField())) return false;
+    try {
+      return other.matches(value);
+    } catch (ClassCastException | FilterException e) {
+      return false;
+    }
+  }
+
   /**
    * Process values after index scanning.
    *
@@ -69,16 +169,15 @@ public abstract class ComparableFilter extends FieldBasedFilter {
    * @param cropIds the crop ids
    */
   @SuppressWarnings("unchecked")
-  protected void processIndexValue(
-      Object value, List<NavigableMap<Comparable<?>, Object>> subMap, List<CropId> cropIds) {
-    if (value instanceof List) {
-      // if its is list then add it directly to crop ids
-      List<CropId> result = (List<CropId>) value;
+  protected void processIndexValue(Object value, List<IndexMap> subMap, List<CropId> cropIds) {
+    if (CropIdBitmap.isPostingList(value)) {
+      // if its is a posting list then add it directly to crop ids
+      Collection<CropId> result = (Collection<CropId>) value;
       cropIds.addAll(result);
     }
 
-    if (value instanceof NavigableMap) {
-      subMap.add((NavigableMap<Comparable<?>, Object>) value);
+    if (value instanceof IndexMap) {
+      subMap.add((IndexMap) value);
     }
   }
 }
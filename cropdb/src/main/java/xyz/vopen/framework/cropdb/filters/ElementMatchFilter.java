@@ -135,7 +135,7 @@ class ElementMatchFilter extends CropFilter {
     Object value = ((EqualsFilter) filter).getValue();
     if (item instanceof Document) {
       Document document = (Document) item;
-      Object docValue = document.get(((EqualsFilter) filter).getField());
+      Object docValue = document.get(((EqualsFilter) filter).getFieldPath());
       return ObjectUtils.deepEquals(value, docValue);
     } else {
       return ObjectUtils.deepEquals(item, value);
@@ -153,7 +153,7 @@ class ElementMatchFilter extends CropFilter {
       return arg.compareTo(comparable) > 0;
     } else if (item instanceof Document) {
       Document document = (Document) item;
-      Object docValue = document.get(((GreaterThanFilter) filter).getField());
+      Object docValue = document.get(((GreaterThanFilter) filter).getFieldPath());
       if (docValue instanceof Comparable) {
         Comparable arg = (Comparable) docValue;
         return arg.compareTo(comparable) > 0;
@@ -176,7 +176,7 @@ class ElementMatchFilter extends CropFilter {
       return arg.compareTo(comparable) >= 0;
     } else if (item instanceof Document) {
       Document document = (Document) item;
-      Object docValue = document.get(((GreaterEqualFilter) filter).getField());
+      Object docValue = document.get(((GreaterEqualFilter) filter).getFieldPath());
       if (docValue instanceof Comparable) {
         Comparable arg = (Comparable) docValue;
         return arg.compareTo(comparable) >= 0;
@@ -199,7 +199,7 @@ class ElementMatchFilter extends CropFilter {
       return arg.compareTo(comparable) <= 0;
     } else if (item instanceof Document) {
       Document document = (Document) item;
-      Object docValue = document.get(((LesserEqualFilter) filter).getField());
+      Object docValue = document.get(((LesserEqualFilter) filter).getFieldPath());
       if (docValue instanceof Comparable) {
         Comparable arg = (Comparable) docValue;
         return arg.compareTo(comparable) <= 0;
@@ -222,7 +222,7 @@ class ElementMatchFilter extends CropFilter {
       return arg.compareTo(comparable) < 0;
     } else if (item instanceof Document) {
       Document document = (Document) item;
-      Object docValue = document.get(((LesserThanFilter) filter).getField());
+      Object docValue = document.get(((LesserThanFilter) filter).getFieldPath());
       if (docValue instanceof Comparable) {
         Comparable arg = (Comparable) docValue;
         return arg.compareTo(comparable) < 0;
@@ -239,7 +239,7 @@ class ElementMatchFilter extends CropFilter {
     if (values != null) {
       if (item instanceof Document) {
         Document document = (Document) item;
-        Object docValue = document.get(((InFilter) filter).getField());
+        Object docValue = document.get(((InFilter) filter).getFieldPath());
         if (docValue instanceof Comparable) {
           return values.contains(docValue);
         }
@@ -255,7 +255,7 @@ class ElementMatchFilter extends CropFilter {
     if (values != null) {
       if (item instanceof Document) {
         Document document = (Document) item;
-        Object docValue = document.get(((NotInFilter) filter).getField());
+        Object docValue = document.get(((NotInFilter) filter).getFieldPath());
         if (docValue instanceof Comparable) {
           return !values.contains(docValue);
         }
@@ -274,7 +274,7 @@ class ElementMatchFilter extends CropFilter {
       return matcher.find();
     } else if (item instanceof Document) {
       Document document = (Document) item;
-      Object docValue = document.get(((RegexFilter) filter).getField());
+      Object docValue = document.get(((RegexFilter) filter).getFieldPath());
       if (docValue instanceof String) {
         Pattern pattern = Pattern.compile(value);
         Matcher matcher = pattern.matcher((String) docValue);
@@ -19,9 +19,13 @@ package xyz.vopen.framework.cropdb.filters;
 import xyz.vopen.framework.cropdb.collection.Document;
 import xyz.vopen.framework.cropdb.collection.CropId;
 import xyz.vopen.framework.cropdb.common.tuples.Pair;
+import xyz.vopen.framework.cropdb.index.CropIdBitmap;
 import xyz.vopen.framework.cropdb.index.IndexMap;
+import xyz.vopen.framework.cropdb.index.IndexStatistics;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import static xyz.vopen.framework.cropdb.common.util.ObjectUtils.deepEquals;
@@ -35,15 +39,19 @@ public class EqualsFilter extends ComparableFilter {
   @Override
   public boolean apply(Pair<CropId, Document> element) {
     Document document = element.getSecond();
-    Object fieldValue = document.get(getField());
+    return matches(document.get(getFieldPath()));
+  }
+
+  @Override
+  protected boolean matches(Object fieldValue) {
     return deepEquals(fieldValue, getValue());
   }
 
   @Override
   public List<?> applyOnIndex(IndexMap indexMap) {
     Object value = indexMap.get((Comparable<?>) getValue());
-    if (value instanceof List) {
-      return ((List<?>) value);
+    if (CropIdBitmap.isPostingList(value)) {
+      return new ArrayList<>((Collection<?>) value);
     }
 
     List<Object> result = new ArrayList<>();
@@ -51,6 +59,30 @@ public class EqualsFilter extends ComparableFilter {
     return result;
   }
 
+  @Override
+  public Iterable<? extends Pair<Comparable<?>, ?>> findIndexEntries(IndexMap indexMap) {
+    Object value = indexMap.get((Comparable<?>) getValue());
+    if (value == null) {
+      return Collections.emptyList();
+    }
+    return Collections.singletonList(new Pair<>((Comparable<?>) getValue(), value));
+  }
+
+  @Override
+  public double estimateSelectivity(IndexStatistics statistics) {
+    return estimateEquals(statistics, getValue());
+  }
+
+  @Override
+  public boolean implies(ComparableFilter other) {
+    return isSelectedBy(other, getValue());
+  }
+
+  @Override
+  public boolean excludesNull() {
+    return getValue() != null;
+  }
+
   @Override
   public String toString() {
     return "(" + getField() + " == " + getValue() + ")";
@@ -20,6 +20,8 @@ import lombok.AccessLevel;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
+import lombok.Setter;
+import xyz.vopen.framework.cropdb.common.FieldPath;
 import xyz.vopen.framework.cropdb.exceptions.ValidationException;
 import xyz.vopen.framework.cropdb.common.mapper.CropMapper;
 import xyz.vopen.framework.cropdb.common.util.ValidationUtils;
@@ -43,6 +45,10 @@ public abstract class FieldBasedFilter extends CropFilter {
   @Getter(AccessLevel.NONE)
   private boolean processed = false;
 
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  private transient FieldPath fieldPath;
+
   /**
    * Instantiates a new Field based filter.
    *
@@ -76,6 +82,20 @@ public abstract class FieldBasedFilter extends CropFilter {
     return value;
   }
 
+  /**
+   * Gets the parsed path of the field, which is parsed once for all the documents.
+   *
+   * @return the field path
+   */
+  protected FieldPath getFieldPath() {
+    FieldPath path = fieldPath;
+    if (path == null || !path.describes(field)) {
+      path = FieldPath.of(field);
+      fieldPath = path;
+    }
+    return path;
+  }
+
   protected void validateSearchTerm(CropMapper cropMapper, String field, Object value) {
     ValidationUtils.notNull(field, "field cannot be null");
     ValidationUtils.notEmpty(field, "field cannot be empty");
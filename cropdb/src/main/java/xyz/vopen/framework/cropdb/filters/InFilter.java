@@ -21,6 +21,7 @@ import xyz.vopen.framework.cropdb.collection.Document;
 import xyz.vopen.framework.cropdb.collection.CropId;
 import xyz.vopen.framework.cropdb.common.tuples.Pair;
 import xyz.vopen.framework.cropdb.index.IndexMap;
+import xyz.vopen.framework.cropdb.index.IndexStatistics;
 
 import java.util.*;
 
@@ -37,8 +38,11 @@ class InFilter extends ComparableArrayFilter {
   @Override
   public boolean apply(Pair<CropId, Document> element) {
     Document document = element.getSecond();
-    Object fieldValue = document.get(getField());
+    return matches(document.get(getFieldPath()));
+  }
 
+  @Override
+  protected boolean matches(Object fieldValue) {
     if (fieldValue instanceof Comparable) {
       Comparable<?> comparable = (Comparable<?>) fieldValue;
       return comparableSet.contains(comparable);
@@ -47,12 +51,24 @@ class InFilter extends ComparableArrayFilter {
   }
 
   public List<?> applyOnIndex(IndexMap indexMap) {
-    List<NavigableMap<Comparable<?>, Object>> subMap = new ArrayList<>();
+    List<IndexMap> subMap = new ArrayList<>();
     List<CropId> cropIds = new ArrayList<>();
 
-    for (Pair<Comparable<?>, ?> entry : indexMap.entries()) {
-      if (comparableSet.contains(entry.getFirst())) {
-        processIndexValue(entry.getSecond(), subMap, cropIds);
+    List<Comparable<?>> lookupValues = getLookupValues(indexMap);
+    if (lookupValues != null) {
+      // look up each value in index order instead of scanning the whole index
+      for (Comparable<?> comparable : lookupValues) {
+        Object value = indexMap.get(comparable);
+        if (value != null) {
+          processIndexValue(value, subMap, cropIds);
+        }
+      }
+    } else {
+      // values of another type than the keys can not be compared with them, match by equality
+      for (Pair<Comparable<?>, ?> entry : indexMap.entries()) {
+        if (comparableSet.contains(entry.getFirst())) {
+          processIndexValue(entry.getSecond(), subMap, cropIds);
+        }
       }
     }
 
@@ -66,6 +82,59 @@ class InFilter extends ComparableArrayFilter {
     }
   }
 
+  /**
+   * Gets the values in the order of the index scan, if all of them are of the type of the keys
+   * of the index and can be compared with them, else <code>null</code>.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private List<Comparable<?>> getLookupValues(IndexMap indexMap) {
+    // the first key after the null keys, in the order of the index
+    Comparable<?> firstKey =
+        indexMap.isReverseScan() ? indexMap.lowerKey(null) : indexMap.higherKey(null);
+    Class<?> keyType = firstKey == null ? null : firstKey.getClass();
+
+    List<Comparable<?>> values = new ArrayList<>(comparableSet.size());
+    for (Comparable<?> comparable : comparableSet) {
+      if (comparable != null) {
+        if (keyType == null) {
+          keyType = comparable.getClass();
+        } else if (comparable.getClass() != keyType) {
+          return null;
+        }
+      }
+      values.add(comparable);
+    }
+
+    // the values are of a single type, their natural order is the order of the keys
+    Comparator<Comparable> comparator = Comparator.nullsFirst(Comparator.naturalOrder());
+    values.sort(indexMap.isReverseScan() ? comparator.reversed() : comparator);
+    return values;
+  }
+
+  @Override
+  public double estimateSelectivity(IndexStatistics statistics) {
+    double selectivity = 0;
+    for (Comparable<?> comparable : comparableSet) {
+      selectivity += estimateEquals(statistics, comparable);
+    }
+    return Math.min(1, selectivity);
+  }
+
+  @Override
+  public boolean implies(ComparableFilter other) {
+    for (Comparable<?> comparable : comparableSet) {
+      if (!isSelectedBy(other, comparable)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean excludesNull() {
+    return !comparableSet.contains(null);
+  }
+
   @Override
   public String toString() {
     return "(" + getField() + " in " + Arrays.toString((Comparable<?>[]) getValue()) + ")";
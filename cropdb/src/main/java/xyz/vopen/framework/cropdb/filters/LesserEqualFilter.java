@@ -21,10 +21,10 @@ import xyz.vopen.framework.cropdb.collection.Document;
 import xyz.vopen.framework.cropdb.common.tuples.Pair;
 import xyz.vopen.framework.cropdb.exceptions.FilterException;
 import xyz.vopen.framework.cropdb.index.IndexMap;
+import xyz.vopen.framework.cropdb.index.IndexStatistics;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.NavigableMap;
 
 import static xyz.vopen.framework.cropdb.common.util.Numbers.compare;
 
@@ -35,11 +35,15 @@ class LesserEqualFilter extends ComparableFilter {
   }
 
   @Override
-  @SuppressWarnings({"unchecked", "rawtypes"})
   public boolean apply(Pair<CropId, Document> element) {
-    Comparable comparable = getComparable();
     Document document = element.getSecond();
-    Object fieldValue = document.get(getField());
+    return matches(document.get(getFieldPath()));
+  }
+
+  @Override
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  protected boolean matches(Object fieldValue) {
+    Comparable comparable = getComparable();
     if (fieldValue != null) {
       if (fieldValue instanceof Number && comparable instanceof Number) {
         return compare((Number) fieldValue, (Number) comparable) <= 0;
@@ -57,18 +61,13 @@ class LesserEqualFilter extends ComparableFilter {
   @Override
   @SuppressWarnings({"unchecked", "rawtypes"})
   public List<?> applyOnIndex(IndexMap indexMap) {
-    Comparable comparable = getComparable();
-    List<NavigableMap<Comparable<?>, Object>> subMap = new ArrayList<>();
+    List<IndexMap> subMap = new ArrayList<>();
     List<CropId> cropIds = new ArrayList<>();
 
-    Comparable ceilingKey = indexMap.floorKey(comparable);
-    while (ceilingKey != null) {
-      // get the starting value, it can be a navigable-map (compound index)
+    for (Pair<Comparable<?>, ?> entry : findIndexEntries(indexMap)) {
+      // the value can be an index map (compound index)
       // or list (single field index)
-      Object value = indexMap.get(ceilingKey);
-      processIndexValue(value, subMap, cropIds);
-
-      ceilingKey = indexMap.lowerKey(ceilingKey);
+      processIndexValue(entry.getSecond(), subMap, cropIds);
     }
 
     if (!subMap.isEmpty()) {
@@ -81,6 +80,29 @@ class LesserEqualFilter extends ComparableFilter {
     }
   }
 
+  @Override
+  public Iterable<? extends Pair<Comparable<?>, ?>> findIndexEntries(IndexMap indexMap) {
+    // stream the matching range of the index in a single pass
+    return indexMap.entries(null, false, getComparable(), true);
+  }
+
+  @Override
+  public double estimateSelectivity(IndexStatistics statistics) {
+    return estimateRange(statistics, null, getComparable());
+  }
+
+  @Override
+  public boolean implies(ComparableFilter other) {
+    // the highest value selected is the bound itself
+    return (other instanceof LesserThanFilter || other instanceof LesserEqualFilter)
+        && isSelectedBy(other, getValue());
+  }
+
+  @Override
+  public boolean excludesNull() {
+    return true;
+  }
+
   @Override
   public String toString() {
     return "(" + getField() + " <= " + getValue() + ")";
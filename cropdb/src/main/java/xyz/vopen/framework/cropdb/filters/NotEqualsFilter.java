@@ -4,11 +4,11 @@ import xyz.vopen.framework.cropdb.collection.CropId;
 import xyz.vopen.framework.cropdb.collection.Document;
 import xyz.vopen.framework.cropdb.common.tuples.Pair;
 import xyz.vopen.framework.cropdb.index.IndexMap;
+import xyz.vopen.framework.cropdb.index.IndexStatistics;
 import xyz.vopen.framework.cropdb.common.util.ObjectUtils;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.NavigableMap;
 
 /** @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a> */
 class NotEqualsFilter extends ComparableFilter {
@@ -19,12 +19,12 @@ class NotEqualsFilter extends ComparableFilter {
   @Override
   public boolean apply(Pair<CropId, Document> element) {
     Document document = element.getSecond();
-    Object fieldValue = document.get(getField());
+    Object fieldValue = document.get(getFieldPath());
     return !ObjectUtils.deepEquals(fieldValue, getValue());
   }
 
   public List<?> applyOnIndex(IndexMap indexMap) {
-    List<NavigableMap<Comparable<?>, Object>> subMap = new ArrayList<>();
+    List<IndexMap> subMap = new ArrayList<>();
     List<CropId> cropIds = new ArrayList<>();
 
     for (Pair<Comparable<?>, ?> entry : indexMap.entries()) {
@@ -43,6 +43,11 @@ class NotEqualsFilter extends ComparableFilter {
     }
   }
 
+  @Override
+  public double estimateSelectivity(IndexStatistics statistics) {
+    return Math.max(0, 1 - estimateEquals(statistics, getValue()));
+  }
+
   @Override
   public String toString() {
     return "(" + getField() + " != " + getValue() + ")";
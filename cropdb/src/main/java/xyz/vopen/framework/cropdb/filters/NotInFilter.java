@@ -21,6 +21,7 @@ import xyz.vopen.framework.cropdb.collection.Document;
 import xyz.vopen.framework.cropdb.collection.CropId;
 import xyz.vopen.framework.cropdb.common.tuples.Pair;
 import xyz.vopen.framework.cropdb.index.IndexMap;
+import xyz.vopen.framework.cropdb.index.IndexStatistics;
 
 import java.util.*;
 
@@ -37,7 +38,7 @@ class NotInFilter extends ComparableArrayFilter {
   @Override
   public boolean apply(Pair<CropId, Document> element) {
     Document document = element.getSecond();
-    Object fieldValue = document.get(getField());
+    Object fieldValue = document.get(getFieldPath());
 
     if (fieldValue instanceof Comparable) {
       Comparable<?> comparable = (Comparable<?>) fieldValue;
@@ -47,7 +48,7 @@ class NotInFilter extends ComparableArrayFilter {
   }
 
   public List<?> applyOnIndex(IndexMap indexMap) {
-    List<NavigableMap<Comparable<?>, Object>> subMap = new ArrayList<>();
+    List<IndexMap> subMap = new ArrayList<>();
     List<CropId> cropIds = new ArrayList<>();
 
     for (Pair<Comparable<?>, ?> entry : indexMap.entries()) {
@@ -66,6 +67,15 @@ class NotInFilter extends ComparableArrayFilter {
     }
   }
 
+  @Override
+  public double estimateSelectivity(IndexStatistics statistics) {
+    double selectivity = 1;
+    for (Comparable<?> comparable : comparableSet) {
+      selectivity -= estimateEquals(statistics, comparable);
+    }
+    return Math.max(0, selectivity);
+  }
+
   @Override
   public String toString() {
     return "(" + getField() + " not in " + Arrays.toString((Comparable<?>[]) getValue()) + ")";
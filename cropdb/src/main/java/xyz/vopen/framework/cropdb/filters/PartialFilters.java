@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2021-2022. CropDB author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.vopen.framework.cropdb.filters;
+
+import xyz.vopen.framework.cropdb.common.tuples.Triplet;
+import xyz.vopen.framework.cropdb.exceptions.IndexingException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Converts the filter of a partial index to the terms it is stored as, and back.
+ *
+ * <p>A partial filter is an equality, range or in filter, or an and filter of them. Each of them
+ * is stored as a term of its operator, field and operand, so that it is read back without the
+ * filter classes being serializable.
+ *
+ * @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a>
+ * @since 4.0
+ */
+public final class PartialFilters {
+  private static final String EQUALS = "$eq";
+  private static final String GREATER_THAN = "$gt";
+  private static final String GREATER_EQUAL = "$gte";
+  private static final String LESSER_THAN = "$lt";
+  private static final String LESSER_EQUAL = "$lte";
+  private static final String IN = "$in";
+
+  private PartialFilters() {}
+
+  /**
+   * Gets the comparable filters of a partial filter, all of which must select a document.
+   *
+   * @param filter the partial filter
+   * @return the filters
+   * @throws IndexingException if the filter can not be used for a partial index
+   */
+  public static List<ComparableFilter> getFilters(Filter filter) {
+    List<ComparableFilter> filters = new ArrayList<>();
+    collectFilters(filter, filters);
+    return filters;
+  }
+
+  /**
+   * Converts a partial filter to its terms.
+   *
+   * @param filter the partial filter
+   * @return the terms of operator, field and operand
+   * @throws IndexingException if the filter can not be used for a partial index
+   */
+  public static List<Triplet<String, String, Object>> toTerms(Filter filter) {
+    List<Triplet<String, String, Object>> terms = new ArrayList<>();
+    for (ComparableFilter comparableFilter : getFilters(filter)) {
+      String field = comparableFilter.getField();
+      Object operand = comparableFilter.getValue();
+      if (comparableFilter instanceof InFilter) {
+        operand = new ArrayList<>(Arrays.asList((Comparable<?>[]) operand));
+      }
+      terms.add(Triplet.triplet(operatorOf(comparableFilter), field, operand));
+    }
+    return terms;
+  }
+
+  /**
+   * Converts the terms of a partial filter back to the filter.
+   *
+   * @param terms the terms of operator, field and operand
+   * @return the partial filter
+   */
+  public static Filter fromTerms(List<Triplet<String, String, Object>> terms) {
+    Filter[] filters = new Filter[terms.size()];
+    for (int i = 0; i < filters.length; i++) {
+      Triplet<String, String, Object> term = terms.get(i);
+      filters[i] = createFilter(term.getFirst(), term.getSecond(), term.getThird());
+    }
+    return filters.length == 1 ? filters[0] : Filter.and(filters);
+  }
+
+  private static void collectFilters(Filter filter, List<ComparableFilter> filters) {
+    if (filter instanceof AndFilter) {
+      for (Filter subFilter : ((AndFilter) filter).getFilters()) {
+        collectFilters(subFilter, filters);
+      }
+    } else if (filter instanceof ComparableFilter && isPartialFilter((ComparableFilter) filter)) {
+      filters.add((ComparableFilter) filter);
+    } else {
+      throw new IndexingException(
+          "partial filter of an index can only be an equality, range or in filter "
+              + "or an and filter of them, found " + filter);
+    }
+  }
+
+  private static boolean isPartialFilter(ComparableFilter filter) {
+    if (operatorOf(filter) == null) return false;
+    if (!(filter instanceof EqualsFilter) && filter.getValue() == null) {
+      throw new IndexingException("partial filter " + filter + " must have a value");
+    }
+    return true;
+  }
+
+  private static String operatorOf(ComparableFilter filter) {
+    if (filter instanceof EqualsFilter) return EQUALS;
+    if (filter instanceof GreaterThanFilter) return GREATER_THAN;
+    if (filter instanceof GreaterEqualFilter) return GREATER_EQUAL;
+    if (filter instanceof LesserThanFilter) return LESSER_THAN;
+    if (filter instanceof LesserEqualFilter) return LESSER_EQUAL;
+    if (filter instanceof InFilter) return IN;
+    return null;
+  }
+
+  private static Filter createFilter(String operator, String field, Object operand) {
+    switch (operator) {
+      case EQUALS:
+        return new EqualsFilter(field, operand);
+      case GREATER_THAN:
+        return new GreaterThanFilter(field, (Comparable<?>) operand);
+      case GREATER_EQUAL:
+        return new GreaterEqualFilter(field, (Comparable<?>) operand);
+      case LESSER_THAN:
+        return new LesserThanFilter(field, (Comparable<?>) operand);
+      case LESSER_EQUAL:
+        return new LesserEqualFilter(field, (Comparable<?>) operand);
+      case IN:
+        return new InFilter(field, ((Collection<?>) operand).toArray(new Comparable<?>[0]));
+      default:
+        throw new IndexingException("unknown operator " + operator + " in partial filter");
+    }
+  }
+}
@@ -36,7 +36,7 @@ class RegexFilter extends FieldBasedFilter {
   @Override
   public boolean apply(Pair<CropId, Document> element) {
     Document document = element.getSecond();
-    Object fieldValue = document.get(getField());
+    Object fieldValue = document.get(getFieldPath());
     if (fieldValue != null) {
       if (fieldValue instanceof String) {
         Matcher matcher = pattern.matcher((String) fieldValue);
@@ -53,7 +53,7 @@ public class TextFilter extends StringFilter {
     ValidationUtils.notNull(getField(), "field cannot be null");
     ValidationUtils.notNull(getStringValue(), "search term cannot be null");
     String searchString = getStringValue();
-    Object docValue = element.getSecond().get(getField());
+    Object docValue = element.getSecond().get(getFieldPath());
 
     if (!(docValue instanceof String)) {
       throw new FilterException("text filter can not be applied on non string field " + getField());
@@ -79,7 +79,7 @@ public class TextFilter extends StringFilter {
    * @param indexMap the index map
    * @return the linked hash set
    */
-  public LinkedHashSet<CropId> applyOnIndex(CropMap<String, List<?>> indexMap) {
+  public LinkedHashSet<CropId> applyOnIndex(CropMap<String, Collection<CropId>> indexMap) {
     ValidationUtils.notNull(getField(), "field cannot be null");
     ValidationUtils.notNull(getStringValue(), "search term cannot be null");
     String searchString = getStringValue();
@@ -91,14 +91,13 @@ public class TextFilter extends StringFilter {
     }
   }
 
-  @SuppressWarnings("unchecked")
   private LinkedHashSet<CropId> searchExactByIndex(
-      CropMap<String, List<?>> indexMap, String searchString) {
+      CropMap<String, Collection<CropId>> indexMap, String searchString) {
 
     Set<String> words = textTokenizer.tokenize(searchString);
     Map<CropId, Integer> scoreMap = new HashMap<>();
     for (String word : words) {
-      List<CropId> cropIds = (List<CropId>) indexMap.get(word);
+      Collection<CropId> cropIds = indexMap.get(word);
       if (cropIds != null) {
         for (CropId id : cropIds) {
           Integer score = scoreMap.get(id);
@@ -115,7 +114,7 @@ public class TextFilter extends StringFilter {
   }
 
   private LinkedHashSet<CropId> searchByWildCard(
-      CropMap<String, List<?>> indexMap, String searchString) {
+      CropMap<String, Collection<CropId>> indexMap, String searchString) {
     if (searchString.contentEquals("*")) {
       throw new FilterException("* is not a valid search string");
     }
@@ -135,9 +134,8 @@ public class TextFilter extends StringFilter {
     }
   }
 
-  @SuppressWarnings("unchecked")
   private LinkedHashSet<CropId> searchByLeadingWildCard(
-      CropMap<String, List<?>> indexMap, String searchString) {
+      CropMap<String, Collection<CropId>> indexMap, String searchString) {
     if (searchString.equalsIgnoreCase("*")) {
       throw new FilterException("invalid search term '*'");
     }
@@ -145,18 +143,17 @@ public class TextFilter extends StringFilter {
     LinkedHashSet<CropId> idSet = new LinkedHashSet<>();
     String term = searchString.substring(1);
 
-    for (Pair<String, List<?>> entry : indexMap.entries()) {
+    for (Pair<String, Collection<CropId>> entry : indexMap.entries()) {
       String key = entry.getFirst();
       if (key.endsWith(term.toLowerCase())) {
-        idSet.addAll((List<CropId>) entry.getSecond());
+        idSet.addAll(entry.getSecond());
       }
     }
     return idSet;
   }
 
-  @SuppressWarnings("unchecked")
   private LinkedHashSet<CropId> searchByTrailingWildCard(
-      CropMap<String, List<?>> indexMap, String searchString) {
+      CropMap<String, Collection<CropId>> indexMap, String searchString) {
     if (searchString.equalsIgnoreCase("*")) {
       throw new FilterException("invalid search term '*'");
     }
@@ -164,23 +161,22 @@ public class TextFilter extends StringFilter {
     LinkedHashSet<CropId> idSet = new LinkedHashSet<>();
     String term = searchString.substring(0, searchString.length() - 1);
 
-    for (Pair<String, List<?>> entry : indexMap.entries()) {
+    for (Pair<String, Collection<CropId>> entry : indexMap.entries()) {
       String key = entry.getFirst();
       if (key.startsWith(term.toLowerCase())) {
-        idSet.addAll((List<CropId>) entry.getSecond());
+        idSet.addAll(entry.getSecond());
       }
     }
     return idSet;
   }
 
-  @SuppressWarnings("unchecked")
-  private LinkedHashSet<CropId> searchContains(CropMap<String, List<?>> indexMap, String term) {
+  private LinkedHashSet<CropId> searchContains(CropMap<String, Collection<CropId>> indexMap, String term) {
     LinkedHashSet<CropId> idSet = new LinkedHashSet<>();
 
-    for (Pair<String, List<?>> entry : indexMap.entries()) {
+    for (Pair<String, Collection<CropId>> entry : indexMap.entries()) {
       String key = entry.getFirst();
       if (key.contains(term.toLowerCase())) {
-        idSet.addAll((List<CropId>) entry.getSecond());
+        idSet.addAll(entry.getSecond());
       }
     }
     return idSet;
@@ -21,8 +21,12 @@ import xyz.vopen.framework.cropdb.collection.FindPlan;
 import xyz.vopen.framework.cropdb.collection.CropId;
 import xyz.vopen.framework.cropdb.common.FieldValues;
 import xyz.vopen.framework.cropdb.common.Fields;
+import xyz.vopen.framework.cropdb.common.util.ObjectUtils;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -61,6 +65,12 @@ public abstract class ComparableIndexer implements CropIndexer {
     return cropIndex.findCropIds(findPlan);
   }
 
+  @Override
+  public long countByFilter(FindPlan findPlan, CropConfig cropConfig) {
+    CropIndex cropIndex = findCropIndex(findPlan.getIndexDescriptor(), cropConfig);
+    return cropIndex.countCropIds(findPlan);
+  }
+
   @Override
   public void writeIndexEntry(
       FieldValues fieldValues, IndexDescriptor indexDescriptor, CropConfig cropConfig) {
@@ -68,6 +78,13 @@ public abstract class ComparableIndexer implements CropIndexer {
     cropIndex.write(fieldValues);
   }
 
+  @Override
+  public void writeIndexEntries(
+      List<FieldValues> fieldValuesList, IndexDescriptor indexDescriptor, CropConfig cropConfig) {
+    CropIndex cropIndex = findCropIndex(indexDescriptor, cropConfig);
+    cropIndex.writeAll(fieldValuesList);
+  }
+
   @Override
   public void removeIndexEntry(
       FieldValues fieldValues, IndexDescriptor indexDescriptor, CropConfig cropConfig) {
@@ -75,12 +92,55 @@ public abstract class ComparableIndexer implements CropIndexer {
     cropIndex.remove(fieldValues);
   }
 
+  @Override
+  public Collection<?> getEntryKeys(FieldValues fieldValues, IndexDescriptor indexDescriptor) {
+    // the entries of both single field and compound indexes are keyed by the first field
+    String firstField = fieldValues.getFields().getFieldNames().get(0);
+    Object element = fieldValues.get(firstField);
+
+    List<Object> keys = new ArrayList<>();
+    if (element == null || element instanceof Comparable) {
+      keys.add(entryKey(element));
+    } else if (element.getClass().isArray()) {
+      for (Object item : ObjectUtils.convertToObjectArray(element)) {
+        keys.add(entryKey(item));
+      }
+    } else if (element instanceof Iterable) {
+      for (Object item : (Iterable<?>) element) {
+        keys.add(entryKey(item));
+      }
+    }
+    return keys;
+  }
+
+  @Override
+  public IndexStatistics computeStatistics(
+      IndexDescriptor indexDescriptor, CropConfig cropConfig) {
+    CropIndex cropIndex = findCropIndex(indexDescriptor, cropConfig);
+    return cropIndex.computeStatistics();
+  }
+
+  @Override
+  public long takeKeyCountChange(IndexDescriptor indexDescriptor, CropConfig cropConfig) {
+    CropIndex cropIndex = findCropIndex(indexDescriptor, cropConfig);
+    return cropIndex.takeKeyCountChange();
+  }
+
   @Override
   public void dropIndex(IndexDescriptor indexDescriptor, CropConfig cropConfig) {
     CropIndex cropIndex = findCropIndex(indexDescriptor, cropConfig);
     cropIndex.drop();
   }
 
+  private Object entryKey(Object value) {
+    if (value instanceof Number) {
+      // numbers of different types are the same index key if they are equal
+      double number = ((Number) value).doubleValue();
+      return number == 0 ? 0d : number;
+    }
+    return value;
+  }
+
   private CropIndex findCropIndex(IndexDescriptor indexDescriptor, CropConfig cropConfig) {
     if (indexRegistry.containsKey(indexDescriptor)) {
       return indexRegistry.get(indexDescriptor);
@@ -89,6 +149,8 @@ public abstract class ComparableIndexer implements CropIndexer {
     CropIndex cropIndex;
     if (indexDescriptor.isCompoundIndex()) {
       cropIndex = new CompoundIndex(indexDescriptor, cropConfig.getCropStore());
+    } else if (isUnique()) {
+      cropIndex = new UniqueFieldIndex(indexDescriptor, cropConfig.getCropStore());
     } else {
       cropIndex = new SingleFieldIndex(indexDescriptor, cropConfig.getCropStore());
     }
@@ -18,33 +18,56 @@
 package xyz.vopen.framework.cropdb.index;
 
 import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
 import xyz.vopen.framework.cropdb.collection.CropId;
 import xyz.vopen.framework.cropdb.collection.FindPlan;
 import xyz.vopen.framework.cropdb.common.DBNull;
 import xyz.vopen.framework.cropdb.common.FieldValues;
-import xyz.vopen.framework.cropdb.common.Fields;
 import xyz.vopen.framework.cropdb.common.tuples.Pair;
 import xyz.vopen.framework.cropdb.exceptions.IndexingException;
+import xyz.vopen.framework.cropdb.exceptions.UniqueConstraintException;
 import xyz.vopen.framework.cropdb.filters.ComparableFilter;
 import xyz.vopen.framework.cropdb.store.CropMap;
 import xyz.vopen.framework.cropdb.store.CropStore;
 import xyz.vopen.framework.cropdb.common.util.IndexUtils;
 import xyz.vopen.framework.cropdb.common.util.ObjectUtils;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Represents a crop compound index.
  *
+ * <p>The index is a single ordered map with an entry per document and value of the first field.
+ * The key of an entry holds the values of all the fields and the id of the document, so writing or
+ * removing a document changes only its own entries, and the documents with the same leading values
+ * are found by a scan of a key range.
+ *
  * @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a>
  * @since 4.0
  */
+@Slf4j
 public class CompoundIndex implements CropIndex {
+  // an entry is all in its key
+  private static final Boolean PRESENT = Boolean.TRUE;
+  private static final int MIGRATION_BATCH_SIZE = 10000;
+
   @Getter private final IndexDescriptor indexDescriptor;
   private final CropStore<?> cropStore;
+  private final AtomicLong keyCountChange;
+  private volatile boolean migrated;
 
   /**
    * Instantiates a new Compound index.
@@ -55,84 +78,79 @@ public class CompoundIndex implements CropIndex {
   public CompoundIndex(IndexDescriptor indexDescriptor, CropStore<?> cropStore) {
     this.indexDescriptor = indexDescriptor;
     this.cropStore = cropStore;
+    this.keyCountChange = new AtomicLong();
   }
 
   public void write(FieldValues fieldValues) {
-    Fields fields = fieldValues.getFields();
-    List<String> fieldNames = fields.getFieldNames();
-
-    String firstField = fieldNames.get(0);
-    Object firstValue = fieldValues.get(firstField);
-
-    // NOTE: only first field can have array or iterable value, subsequent fields can not
-    validateIndexField(firstValue, firstField);
-
-    CropMap<DBValue, NavigableMap<DBValue, ?>> indexMap = findIndexMap();
-    if (firstValue == null) {
-      addIndexElement(indexMap, fieldValues, DBNull.getInstance());
-    } else if (firstValue instanceof Comparable) {
-      // wrap around a db value
-      DBValue dbValue = new DBValue((Comparable<?>) firstValue);
-      addIndexElement(indexMap, fieldValues, dbValue);
-    } else if (firstValue.getClass().isArray()) {
-      Object[] array = ObjectUtils.convertToObjectArray(firstValue);
+    List<CompoundKey> keys = createKeys(fieldValues, true);
+    CropMap<CompoundKey, Boolean> indexMap = findIndexMap();
 
-      for (Object item : array) {
-        // wrap around db value
-        DBValue dbValue = item == null ? DBNull.getInstance() : new DBValue((Comparable<?>) item);
-        addIndexElement(indexMap, fieldValues, dbValue);
+    if (isUnique()) {
+      for (CompoundKey key : keys) {
+        checkUnique(indexMap, key);
       }
-    } else if (firstValue instanceof Iterable) {
-      Iterable<?> iterable = (Iterable<?>) firstValue;
+    }
 
-      for (Object item : iterable) {
-        // wrap around db value
-        DBValue dbValue = item != null ? new DBValue((Comparable<?>) item) : DBNull.getInstance();
-        addIndexElement(indexMap, fieldValues, dbValue);
+    for (CompoundKey key : keys) {
+      if (!hasFirstValue(indexMap, key.getValue(0))) {
+        keyCountChange.incrementAndGet();
       }
+      indexMap.put(key, PRESENT);
     }
   }
 
   @Override
-  public void remove(FieldValues fieldValues) {
-    Fields fields = fieldValues.getFields();
-    List<String> fieldNames = fields.getFieldNames();
-
-    String firstField = fieldNames.get(0);
-    Object firstValue = fieldValues.get(firstField);
-
-    // NOTE: only first field can have array or iterable value, subsequent fields can not
-    validateIndexField(firstValue, firstField);
-    CropMap<DBValue, NavigableMap<DBValue, ?>> indexMap = findIndexMap();
+  public void writeAll(List<FieldValues> fieldValuesList) {
+    // the entries are written in key order
+    NavigableMap<CompoundKey, Boolean> batch = new TreeMap<>();
+    for (FieldValues fieldValues : fieldValuesList) {
+      for (CompoundKey key : createKeys(fieldValues, true)) {
+        batch.put(key, PRESENT);
+      }
+    }
 
-    if (firstValue == null) {
-      removeIndexElement(indexMap, fieldValues, DBNull.getInstance());
-    } else if (firstValue instanceof Comparable) {
-      // wrap around db value
-      DBValue dbValue = new DBValue((Comparable<?>) firstValue);
-      removeIndexElement(indexMap, fieldValues, dbValue);
-    } else if (firstValue.getClass().isArray()) {
-      Object[] array = ObjectUtils.convertToObjectArray(firstValue);
+    CropMap<CompoundKey, Boolean> indexMap = findIndexMap();
+    if (isUnique()) {
+      CompoundKey previous = null;
+      for (CompoundKey key : batch.keySet()) {
+        if (previous != null && key.startsWith(previous.getValues())) {
+          // the batch itself has two documents with the same values
+          throw new UniqueConstraintException(
+              "unique key constraint violation for " + indexDescriptor.getIndexFields());
+        }
+        checkUnique(indexMap, key);
+        previous = key;
+      }
+    }
 
-      for (Object item : array) {
-        // wrap around db value
-        DBValue dbValue = item == null ? DBNull.getInstance() : new DBValue((Comparable<?>) item);
-        removeIndexElement(indexMap, fieldValues, dbValue);
+    // the keys are sorted, so the ones with the same first value follow each other
+    long newKeys = 0;
+    DBValue previousValue = null;
+    for (CompoundKey key : batch.keySet()) {
+      DBValue value = key.getValue(0);
+      if ((previousValue == null || previousValue.compareTo(value) != 0)
+          && !hasFirstValue(indexMap, value)) {
+        newKeys++;
       }
-    } else if (firstValue instanceof Iterable) {
-      Iterable<?> iterable = (Iterable<?>) firstValue;
+      previousValue = value;
+    }
+    indexMap.putAll(batch);
+    keyCountChange.addAndGet(newKeys);
+  }
 
-      for (Object item : iterable) {
-        // wrap around db value
-        DBValue dbValue = item != null ? new DBValue((Comparable<?>) item) : DBNull.getInstance();
-        removeIndexElement(indexMap, fieldValues, dbValue);
+  @Override
+  public void remove(FieldValues fieldValues) {
+    CropMap<CompoundKey, Boolean> indexMap = findIndexMap();
+    for (CompoundKey key : createKeys(fieldValues, false)) {
+      if (indexMap.remove(key) != null && !hasFirstValue(indexMap, key.getValue(0))) {
+        keyCountChange.decrementAndGet();
       }
     }
   }
 
   @Override
   public void drop() {
-    CropMap<DBValue, NavigableMap<DBValue, ?>> indexMap = findIndexMap();
+    CropMap<CompoundKey, Boolean> indexMap = findIndexMap();
     indexMap.clear();
     indexMap.drop();
   }
@@ -141,119 +159,198 @@ public class CompoundIndex implements CropIndex {
   public LinkedHashSet<CropId> findCropIds(FindPlan findPlan) {
     if (findPlan.getIndexScanFilter() == null) return new LinkedHashSet<>();
 
-    CropMap<DBValue, NavigableMap<DBValue, ?>> indexMap = findIndexMap();
+    CropMap<CompoundKey, Boolean> indexMap = findIndexMap();
     return scanIndex(findPlan, indexMap);
   }
 
-  private void addIndexElement(
-      CropMap<DBValue, NavigableMap<DBValue, ?>> indexMap,
-      FieldValues fieldValues,
-      DBValue element) {
-    NavigableMap<DBValue, ?> subMap = indexMap.get(element);
-    if (subMap == null) {
-      // index are always in ascending order
-      subMap = new ConcurrentSkipListMap<>();
-    }
-
-    populateSubMap(subMap, fieldValues, 1);
-    indexMap.put(element, subMap);
+  @Override
+  public IndexStatistics computeStatistics() {
+    // the statistics are of the first field, like the ones of a single field index
+    CropMap<CompoundKey, Boolean> indexMap = findIndexMap();
+    Iterable<Pair<DBValue, Long>> entries =
+        () -> new FirstValueIterator(indexMap.entries().iterator());
+    return IndexStatistics.analyze(entries);
   }
 
-  private void removeIndexElement(
-      CropMap<DBValue, NavigableMap<DBValue, ?>> indexMap,
-      FieldValues fieldValues,
-      DBValue element) {
-    NavigableMap<DBValue, ?> subMap = indexMap.get(element);
-    if (subMap != null && !subMap.isEmpty()) {
-      deleteFromSubMap(subMap, fieldValues, 1);
-      indexMap.put(element, subMap);
-    }
+  @Override
+  public long takeKeyCountChange() {
+    return keyCountChange.getAndSet(0);
   }
 
-  @SuppressWarnings({"rawtypes", "unchecked"})
-  private void populateSubMap(NavigableMap subMap, FieldValues fieldValues, int startIndex) {
-    if (startIndex >= fieldValues.getValues().size()) return;
+  // creates the keys of the document, one for each value of the first field
+  private List<CompoundKey> createKeys(FieldValues fieldValues, boolean validate) {
+    List<Pair<String, Object>> values = fieldValues.getValues();
+    String firstField = values.get(0).getFirst();
+    Object firstValue = values.get(0).getSecond();
 
-    Pair<String, Object> pair = fieldValues.getValues().get(startIndex);
-    Object value = pair.getSecond();
-    DBValue dbValue;
-    if (value == null) {
-      dbValue = DBNull.getInstance();
-    } else {
-      if (Iterable.class.isAssignableFrom(value.getClass()) || value.getClass().isArray()) {
-        throw new IndexingException(
-            "compound multikey index is supported on the first field of the index only");
-      }
+    // NOTE: only first field can have array or iterable value, subsequent fields can not
+    validateIndexField(firstValue, firstField);
 
-      if (!(value instanceof Comparable)) {
-        throw new IndexingException(value + " is not comparable");
+    DBValue[] otherValues = new DBValue[values.size() - 1];
+    for (int i = 1; i < values.size(); i++) {
+      DBValue dbValue = toDBValue(values.get(i).getSecond(), validate);
+      if (dbValue == null) {
+        // not indexed
+        return Collections.emptyList();
       }
-      dbValue = new DBValue((Comparable<?>) value);
+      otherValues[i - 1] = dbValue;
     }
 
-    if (startIndex == fieldValues.getValues().size() - 1) {
-      // terminal field
-      List<CropId> cropIds = (List<CropId>) subMap.get(dbValue);
-      cropIds = addCropIds(cropIds, fieldValues);
-      subMap.put(dbValue, cropIds);
+    Collection<?> items;
+    if (firstValue == null || firstValue instanceof Comparable) {
+      items = Collections.singletonList(firstValue);
+    } else if (firstValue.getClass().isArray()) {
+      items = Arrays.asList(ObjectUtils.convertToObjectArray(firstValue));
+    } else if (firstValue instanceof Iterable) {
+      List<Object> list = new ArrayList<>();
+      ((Iterable<?>) firstValue).forEach(list::add);
+      items = list;
     } else {
-      // intermediate fields
-      NavigableMap subMap2 = (NavigableMap) subMap.get(dbValue);
-      if (subMap2 == null) {
-        // index are always in ascending order
-        subMap2 = new ConcurrentSkipListMap<>();
-      }
+      return Collections.emptyList();
+    }
 
-      subMap.put(dbValue, subMap2);
-      populateSubMap(subMap2, fieldValues, startIndex + 1);
+    List<CompoundKey> keys = new ArrayList<>(items.size());
+    for (Object item : items) {
+      DBValue[] keyValues = new DBValue[values.size()];
+      // wrap around db value
+      keyValues[0] = item == null ? DBNull.getInstance() : new DBValue((Comparable<?>) item);
+      System.arraycopy(otherValues, 0, keyValues, 1, otherValues.length);
+      keys.add(new CompoundKey(keyValues, fieldValues.getCropId()));
     }
+    return keys;
   }
 
-  @SuppressWarnings({"rawtypes", "unchecked"})
-  private void deleteFromSubMap(NavigableMap subMap, FieldValues fieldValues, int startIndex) {
-    Pair<String, Object> pair = fieldValues.getValues().get(startIndex);
-    Object value = pair.getSecond();
-    DBValue dbValue;
+  private DBValue toDBValue(Object value, boolean validate) {
     if (value == null) {
-      dbValue = DBNull.getInstance();
-    } else {
-      if (!(value instanceof Comparable)) {
-        return;
-      }
-      dbValue = new DBValue((Comparable<?>) value);
+      return DBNull.getInstance();
     }
 
-    if (startIndex == fieldValues.getValues().size() - 1) {
-      // terminal field
-      List<CropId> cropIds = (List<CropId>) subMap.get(dbValue);
-      cropIds = removeCropIds(cropIds, fieldValues);
-      if (cropIds == null || cropIds.isEmpty()) {
-        subMap.remove(dbValue);
-      } else {
-        subMap.put(dbValue, cropIds);
-      }
-    } else {
-      // intermediate fields
-      NavigableMap subMap2 = (NavigableMap) subMap.get(dbValue);
-      if (subMap2 == null) {
-        return;
-      }
+    if (Iterable.class.isAssignableFrom(value.getClass()) || value.getClass().isArray()) {
+      if (!validate) return null;
+      throw new IndexingException(
+          "compound multikey index is supported on the first field of the index only");
+    }
 
-      deleteFromSubMap(subMap2, fieldValues, startIndex + 1);
-      subMap.put(dbValue, subMap2);
+    if (!(value instanceof Comparable)) {
+      if (!validate) return null;
+      throw new IndexingException(value + " is not comparable");
     }
+    return new DBValue((Comparable<?>) value);
   }
 
-  private CropMap<DBValue, NavigableMap<DBValue, ?>> findIndexMap() {
+  private void checkUnique(CropMap<CompoundKey, Boolean> indexMap, CompoundKey key) {
+    // a unique index has at most one entry for the values of a key
+    DBValue[] values = key.getValues();
+    CompoundKey existing = indexMap.ceilingKey(CompoundKey.lowerBound(values));
+    if (existing != null
+        && existing.startsWith(values)
+        && !existing.getCropId().equals(key.getCropId())) {
+      // if key is already exists for unique type, throw error
+      throw new UniqueConstraintException(
+          "unique key constraint violation for " + indexDescriptor.getIndexFields());
+    }
+  }
+
+  private boolean hasFirstValue(CropMap<CompoundKey, Boolean> indexMap, DBValue value) {
+    // the statistics count the distinct values of the first field
+    CompoundKey existing = indexMap.ceilingKey(CompoundKey.lowerBound(value));
+    return existing != null && existing.startsWith(new DBValue[] {value});
+  }
+
+  private CropMap<CompoundKey, Boolean> findIndexMap() {
     String mapName = IndexUtils.deriveIndexMapName(indexDescriptor);
-    return cropStore.openMap(mapName, DBValue.class, ConcurrentSkipListMap.class);
+    CropMap<CompoundKey, Boolean> indexMap =
+        cropStore.openMap(mapName, CompoundKey.class, Boolean.class);
+    if (!migrated) {
+      migrateNestedIndex(indexMap);
+    }
+    return indexMap;
+  }
+
+  // older versions stored the index as nested maps of the values of each field
+  private synchronized void migrateNestedIndex(CropMap<CompoundKey, Boolean> indexMap) {
+    if (migrated) return;
+
+    String nestedMapName = IndexUtils.deriveLegacyIndexMapName(indexDescriptor);
+    if (cropStore.hasMap(nestedMapName)) {
+      log.info("Converting the compound index " + nestedMapName + " written by an older version");
+      CropMap<DBValue, NavigableMap<DBValue, ?>> nestedMap =
+          cropStore.openMap(nestedMapName, DBValue.class, ConcurrentSkipListMap.class);
+
+      Map<CompoundKey, Boolean> entries = new LinkedHashMap<>();
+      for (Pair<DBValue, NavigableMap<DBValue, ?>> entry : nestedMap.entries()) {
+        flatten(entry.getSecond(), new DBValue[] {entry.getFirst()}, indexMap, entries);
+      }
+      indexMap.putAll(entries);
+      nestedMap.drop();
+    }
+    migrated = true;
+  }
+
+  @SuppressWarnings("unchecked")
+  private void flatten(
+      Object value,
+      DBValue[] values,
+      CropMap<CompoundKey, Boolean> indexMap,
+      Map<CompoundKey, Boolean> entries) {
+    if (value instanceof NavigableMap) {
+      for (Map.Entry<DBValue, ?> entry : ((NavigableMap<DBValue, ?>) value).entrySet()) {
+        DBValue[] subValues = Arrays.copyOf(values, values.length + 1);
+        subValues[values.length] = entry.getKey();
+        flatten(entry.getValue(), subValues, indexMap, entries);
+      }
+    } else if (CropIdBitmap.isPostingList(value)) {
+      for (CropId cropId : (Collection<CropId>) value) {
+        entries.put(new CompoundKey(values, cropId), PRESENT);
+      }
+
+      if (entries.size() >= MIGRATION_BATCH_SIZE) {
+        indexMap.putAll(entries);
+        entries.clear();
+      }
+    }
   }
 
   private LinkedHashSet<CropId> scanIndex(
-      FindPlan findPlan, CropMap<DBValue, NavigableMap<DBValue, ?>> indexMap) {
+      FindPlan findPlan, CropMap<CompoundKey, Boolean> indexMap) {
     List<ComparableFilter> filters = findPlan.getIndexScanFilter().getFilters();
-    IndexMap iMap = new IndexMap(indexMap);
+    IndexMap iMap = new IndexMap(indexMap, indexDescriptor.getIndexFields().getFieldNames().size());
     IndexScanner indexScanner = new IndexScanner(iMap);
     return indexScanner.doScan(filters, findPlan.getIndexScanOrder());
   }
+
+  /** Counts the entries of each value of the first field, in key order. */
+  private static class FirstValueIterator implements Iterator<Pair<DBValue, Long>> {
+    private final Iterator<Pair<CompoundKey, Boolean>> entryIterator;
+    private DBValue pending;
+
+    FirstValueIterator(Iterator<Pair<CompoundKey, Boolean>> entryIterator) {
+      this.entryIterator = entryIterator;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return pending != null || entryIterator.hasNext();
+    }
+
+    @Override
+    public Pair<DBValue, Long> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+
+      DBValue value = pending != null ? pending : entryIterator.next().getFirst().getValue(0);
+      pending = null;
+      long count = 1;
+      while (entryIterator.hasNext()) {
+        DBValue next = entryIterator.next().getFirst().getValue(0);
+        if (next.compareTo(value) != 0) {
+          pending = next;
+          break;
+        }
+        count++;
+      }
+      return new Pair<>(value, count);
+    }
+  }
 }
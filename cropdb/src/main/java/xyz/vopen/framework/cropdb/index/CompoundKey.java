@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2021-2022. CropDB author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.vopen.framework.cropdb.index;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import xyz.vopen.framework.cropdb.collection.CropId;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * The key of an entry of a compound index, which holds the values of the index fields and the id
+ * of the document. The keys are ordered by the values, field by field, and then by the id, so all
+ * the entries with the same leading values are next to each other in the index.
+ *
+ * <p>A bound is a key with only some leading values and no id, which comes before or after all
+ * the entries starting with its values. Bounds are used to scan a range of the index, they are
+ * never stored.
+ *
+ * @since 4.0
+ * @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a>
+ */
+@EqualsAndHashCode
+public class CompoundKey implements Comparable<CompoundKey>, Serializable {
+  private static final long serialVersionUID = 1666540801L;
+
+  private static final int LOWER_BOUND = -1;
+  private static final int ENTRY = 0;
+  private static final int UPPER_BOUND = 1;
+
+  private final DBValue[] values;
+  @Getter private final CropId cropId;
+  private final int bound;
+
+  /**
+   * Instantiates a new {@link CompoundKey} of an index entry.
+   *
+   * @param values the values of the index fields
+   * @param cropId the id of the document
+   */
+  public CompoundKey(DBValue[] values, CropId cropId) {
+    this(values, cropId, ENTRY);
+  }
+
+  private CompoundKey(DBValue[] values, CropId cropId, int bound) {
+    this.values = values;
+    this.cropId = cropId;
+    this.bound = bound;
+  }
+
+  /**
+   * Creates a key which comes before all the entries starting with the values.
+   *
+   * @param values the leading values
+   * @return the bound
+   */
+  public static CompoundKey lowerBound(DBValue... values) {
+    return new CompoundKey(values, null, LOWER_BOUND);
+  }
+
+  /**
+   * Creates a key which comes after all the entries starting with the values.
+   *
+   * @param values the leading values
+   * @return the bound
+   */
+  public static CompoundKey upperBound(DBValue... values) {
+    return new CompoundKey(values, null, UPPER_BOUND);
+  }
+
+  /**
+   * Gets the number of values in the key.
+   *
+   * @return the number of values
+   */
+  public int size() {
+    return values.length;
+  }
+
+  /**
+   * Gets the value of the index field at a position.
+   *
+   * @param index the position
+   * @return the value
+   */
+  public DBValue getValue(int index) {
+    return values[index];
+  }
+
+  /**
+   * Gets the values of the index fields.
+   *
+   * @return a copy of the values
+   */
+  public DBValue[] getValues() {
+    return values.clone();
+  }
+
+  /**
+   * Indicates if this is an upper bound.
+   *
+   * @return `true` if it comes after all the entries starting with its values
+   */
+  public boolean isUpperBound() {
+    return bound == UPPER_BOUND;
+  }
+
+  /**
+   * Indicates if this key starts with the values.
+   *
+   * @param prefix the leading values
+   * @return the boolean
+   */
+  public boolean startsWith(DBValue[] prefix) {
+    if (prefix.length > values.length) return false;
+    for (int i = 0; i < prefix.length; i++) {
+      if (values[i].compareTo(prefix[i]) != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int compareTo(CompoundKey other) {
+    int length = Math.min(values.length, other.values.length);
+    for (int i = 0; i < length; i++) {
+      int result = values[i].compareTo(other.values[i]);
+      if (result != 0) {
+        return result;
+      }
+    }
+
+    if (values.length != other.values.length) {
+      // only a bound is shorter than the keys after its values
+      return values.length < other.values.length
+          ? (bound == ENTRY ? -1 : bound)
+          : (other.bound == ENTRY ? 1 : -other.bound);
+    }
+
+    if (bound != ENTRY || other.bound != ENTRY) {
+      return Integer.compare(bound, other.bound);
+    }
+    return cropId.compareTo(other.cropId);
+  }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(values) + (cropId == null ? "" : " -> " + cropId);
+  }
+}
@@ -0,0 +1,879 @@
+/*
+ * Copyright (c) 2017-2021 Crop author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package xyz.vopen.framework.cropdb.index;
+
+import xyz.vopen.framework.cropdb.collection.CropId;
+import xyz.vopen.framework.cropdb.exceptions.IndexingException;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Represents a compressed posting list of {@link CropId}s stored against an index key.
+ *
+ * <p>The ids are kept as primitive longs in a roaring bitmap layout. The high 48 bits of an id
+ * select a container and the low 16 bits are stored in that container, either as a sorted array
+ * for sparse chunks or as a 65536-bit bitmap for dense chunks. Lookup is {@code O(log n)}, and
+ * the ids are always iterated in ascending order.
+ *
+ * <p>Writers are serialized on the bitmap and change the containers it owns in place. Ids which
+ * are larger than all others, like new snowflake ids, are appended to the spare capacity of the
+ * last container and of the container table, so adding them is amortized {@code O(1)}. A
+ * container shared with a copy of the bitmap is copied once before it is changed, and only that
+ * container is copied. Readers are not blocked. An array container never changes the values it
+ * already holds, and a bitmap container only sets or clears single bits, so iterators see every
+ * id which is not changed meanwhile and serialization writes a consistent copy of each container.
+ *
+ * @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a>
+ * @since 4.0
+ */
+public class CropIdBitmap extends AbstractSet<CropId> implements Serializable {
+  private static final long serialVersionUID = 1635780131L;
+
+  private static final int ARRAY_CONTAINER_MAX = 4096;
+  private static final int BITMAP_WORDS = 1024;
+  private static final byte ARRAY_CONTAINER = 1;
+  private static final byte BITMAP_CONTAINER = 2;
+
+  private static final Table EMPTY = new Table(new long[0], new Container[0], 0, null);
+
+  private transient volatile Table table;
+  private transient volatile int cardinality;
+  // the table and the containers of this owner are changed in place, guarded by this
+  private transient Object owner;
+
+  /** Instantiates a new empty {@link CropIdBitmap}. */
+  public CropIdBitmap() {
+    this(EMPTY, 0);
+  }
+
+  /**
+   * Instantiates a new {@link CropIdBitmap} as a copy of another one.
+   *
+   * @param other the bitmap to copy
+   */
+  public CropIdBitmap(CropIdBitmap other) {
+    this(EMPTY, 0);
+    synchronized (other) {
+      // both bitmaps share the containers, so neither may change them in place any more
+      other.owner = new Object();
+      this.table = other.table;
+      this.cardinality = other.cardinality;
+    }
+  }
+
+  private CropIdBitmap(Table table, int cardinality) {
+    this.table = table;
+    this.cardinality = cardinality;
+    this.owner = table.owner != null ? table.owner : new Object();
+  }
+
+  /**
+   * Converts an index value to a {@link CropIdBitmap}. Index maps written by an older version
+   * store the ids as a {@link List}, which are converted here. The returned bitmap is not written
+   * back to the store, the caller is responsible for that.
+   *
+   * @param indexValue the index value
+   * @return the bitmap or <code>null</code> if the value is <code>null</code>
+   */
+  public static CropIdBitmap valueOf(Object indexValue) {
+    if (indexValue == null) return null;
+    if (indexValue instanceof CropIdBitmap) {
+      return (CropIdBitmap) indexValue;
+    }
+
+    if (indexValue instanceof Collection) {
+      CropIdBitmap bitmap = new CropIdBitmap();
+      for (Object item : (Collection<?>) indexValue) {
+        if (!(item instanceof CropId)) {
+          throw new IndexingException(item + " is not a valid crop id");
+        }
+        bitmap.add((CropId) item);
+      }
+      return bitmap;
+    }
+
+    throw new IndexingException(
+        "invalid posting list of type " + indexValue.getClass().getName());
+  }
+
+  /**
+   * Indicates if an index value is a posting list of {@link CropId}s, either a {@link
+   * CropIdBitmap} or a legacy {@link List}.
+   *
+   * @param indexValue the index value
+   * @return the boolean
+   */
+  public static boolean isPostingList(Object indexValue) {
+    return indexValue instanceof CropIdBitmap || indexValue instanceof List;
+  }
+
+  /**
+   * Reads a {@link CropIdBitmap} from its serialized form.
+   *
+   * @param bytes the bytes
+   * @return the bitmap
+   * @see #toBytes()
+   */
+  public static CropIdBitmap fromBytes(byte[] bytes) {
+    try {
+      // nothing else refers to the containers read, so the new bitmap owns them
+      Object owner = new Object();
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      int count = buffer.getInt();
+      long[] keys = new long[count];
+      Container[] containers = new Container[count];
+      int cardinality = 0;
+      for (int i = 0; i < count; i++) {
+        keys[i] = buffer.getLong();
+        byte type = buffer.get();
+        int size = buffer.getChar() + 1;
+
+        if (type == ARRAY_CONTAINER) {
+          char[] values = new char[size];
+          for (int j = 0; j < size; j++) {
+            values[j] = buffer.getChar();
+          }
+          containers[i] = new ArrayContainer(values, size, owner);
+        } else if (type == BITMAP_CONTAINER) {
+          long[] words = new long[BITMAP_WORDS];
+          for (int j = 0; j < BITMAP_WORDS; j++) {
+            words[j] = buffer.getLong();
+          }
+          containers[i] = new BitmapContainer(words, size, owner);
+        } else {
+          throw new IndexingException("invalid posting list container type " + type);
+        }
+        cardinality += size;
+      }
+      return new CropIdBitmap(new Table(keys, containers, count, owner), cardinality);
+    } catch (BufferUnderflowException | NegativeArraySizeException e) {
+      throw new IndexingException("corrupted posting list found", e);
+    }
+  }
+
+  /**
+   * Gets the compact serialized form of this bitmap.
+   *
+   * @return the bytes
+   */
+  public byte[] toBytes() {
+    // take a consistent copy of every container first, a writer may change them meanwhile
+    Table current = table;
+    Container[] frozen = new Container[current.count];
+    int count = 0;
+    int length = 4;
+    for (int i = 0; i < current.count; i++) {
+      Container container = current.containers[i].freeze();
+      if (container.cardinality() > 0) {
+        frozen[i] = container;
+        length += 8 + container.serializedSize();
+        count++;
+      }
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    buffer.putInt(count);
+    for (int i = 0; i < current.count; i++) {
+      if (frozen[i] != null) {
+        buffer.putLong(current.keys[i]);
+        frozen[i].writeTo(buffer);
+      }
+    }
+    return buffer.array();
+  }
+
+  @Override
+  public boolean add(CropId cropId) {
+    return add(toLong(cropId));
+  }
+
+  /**
+   * Adds an id value to this bitmap.
+   *
+   * @param value the id value
+   * @return <code>true</code> if the value was not present
+   */
+  public synchronized boolean add(long value) {
+    long key = value >> 16;
+    Table current = table;
+    int index = Arrays.binarySearch(current.keys, 0, current.count, key);
+    if (index < 0) {
+      Container container = new ArrayContainer(new char[] {(char) value}, 1, owner);
+      table = current.insert(-index - 1, key, container, owner);
+    } else {
+      Container container = current.containers[index];
+      if (container.contains((char) value)) return false;
+
+      Container updated = container.add((char) value, owner);
+      if (updated != container) {
+        table = current.replace(index, updated, owner);
+      }
+    }
+    cardinality++;
+    return true;
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    return o instanceof CropId && remove(toLong((CropId) o));
+  }
+
+  /**
+   * Removes an id value from this bitmap.
+   *
+   * @param value the id value
+   * @return <code>true</code> if the value was present
+   */
+  public synchronized boolean remove(long value) {
+    Table current = table;
+    int index = Arrays.binarySearch(current.keys, 0, current.count, value >> 16);
+    if (index < 0) return false;
+
+    Container container = current.containers[index];
+    if (!container.contains((char) value)) return false;
+
+    if (container.cardinality() == 1) {
+      table = current.delete(index, owner);
+    } else {
+      Container updated = container.remove((char) value, owner);
+      if (updated != container) {
+        table = current.replace(index, updated, owner);
+      }
+    }
+    cardinality--;
+    return true;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return o instanceof CropId && contains(toLong((CropId) o));
+  }
+
+  /**
+   * Checks if an id value is present in this bitmap.
+   *
+   * @param value the id value
+   * @return the boolean
+   */
+  public boolean contains(long value) {
+    Table current = table;
+    int index = Arrays.binarySearch(current.keys, 0, current.count, value >> 16);
+    return index >= 0 && current.containers[index].contains((char) value);
+  }
+
+  /**
+   * Returns a new bitmap containing the ids present in both this and the other bitmap.
+   *
+   * @param other the other bitmap
+   * @return the intersection
+   */
+  public CropIdBitmap and(CropIdBitmap other) {
+    Table left = table;
+    Table right = other.table;
+    int capacity = Math.min(left.count, right.count);
+    long[] keys = new long[capacity];
+    Container[] containers = new Container[capacity];
+    int count = 0, cardinality = 0;
+
+    int i = 0, j = 0;
+    while (i < left.count && j < right.count) {
+      if (left.keys[i] < right.keys[j]) {
+        i++;
+      } else if (left.keys[i] > right.keys[j]) {
+        j++;
+      } else {
+        Container container = left.containers[i].and(right.containers[j]);
+        if (container.cardinality() > 0) {
+          keys[count] = left.keys[i];
+          containers[count++] = container;
+          cardinality += container.cardinality();
+        }
+        i++;
+        j++;
+      }
+    }
+    return new CropIdBitmap(new Table(keys, containers, count, null), cardinality);
+  }
+
+  /**
+   * Returns a new bitmap containing the ids present in either this or the other bitmap.
+   *
+   * @param other the other bitmap
+   * @return the union
+   */
+  public CropIdBitmap or(CropIdBitmap other) {
+    Table left = table;
+    Table right = other.table;
+    int capacity = left.count + right.count;
+    long[] keys = new long[capacity];
+    Container[] containers = new Container[capacity];
+    int count = 0, cardinality = 0;
+
+    int i = 0, j = 0;
+    while (i < left.count || j < right.count) {
+      // containers found in one bitmap only are frozen, their owner may change them later
+      Container container;
+      if (j == right.count || (i < left.count && left.keys[i] < right.keys[j])) {
+        keys[count] = left.keys[i];
+        container = left.containers[i++].freeze();
+      } else if (i == left.count || left.keys[i] > right.keys[j]) {
+        keys[count] = right.keys[j];
+        container = right.containers[j++].freeze();
+      } else {
+        keys[count] = left.keys[i];
+        container = left.containers[i++].or(right.containers[j++]);
+      }
+
+      if (container.cardinality() > 0) {
+        containers[count++] = container;
+        cardinality += container.cardinality();
+      }
+    }
+    return new CropIdBitmap(new Table(keys, containers, count, null), cardinality);
+  }
+
+  /**
+   * Returns a new bitmap containing the ids present in any of the bitmaps. The bitmaps are merged
+   * pairwise, so that each id is copied once per level instead of once per bitmap.
+   *
+   * @param bitmaps the bitmaps
+   * @return the union
+   */
+  public static CropIdBitmap union(List<CropIdBitmap> bitmaps) {
+    if (bitmaps.isEmpty()) {
+      return new CropIdBitmap();
+    }
+
+    List<CropIdBitmap> level = bitmaps;
+    while (level.size() > 1) {
+      List<CropIdBitmap> next = new ArrayList<>((level.size() + 1) / 2);
+      for (int i = 0; i < level.size(); i += 2) {
+        next.add(i + 1 < level.size() ? level.get(i).or(level.get(i + 1)) : level.get(i));
+      }
+      level = next;
+    }
+    return level.get(0);
+  }
+
+  @Override
+  public Iterator<CropId> iterator() {
+    return new BitmapIterator(this);
+  }
+
+  @Override
+  public int size() {
+    return cardinality;
+  }
+
+  @Override
+  public synchronized void clear() {
+    table = EMPTY;
+    cardinality = 0;
+  }
+
+  private static long toLong(CropId cropId) {
+    return cropId.getLongValue();
+  }
+
+  private void writeObject(ObjectOutputStream stream) throws IOException {
+    byte[] bytes = toBytes();
+    stream.writeInt(bytes.length);
+    stream.write(bytes);
+  }
+
+  private void readObject(ObjectInputStream stream) throws IOException {
+    byte[] bytes = new byte[stream.readInt()];
+    stream.readFully(bytes);
+    CropIdBitmap bitmap = fromBytes(bytes);
+    this.owner = bitmap.owner;
+    this.table = bitmap.table;
+    this.cardinality = bitmap.cardinality;
+  }
+
+  /**
+   * The sorted container keys and their containers. The slots before {@code count} are visible to
+   * the readers of the table, the table of an owner grows in place into the slots after it.
+   */
+  private static class Table {
+    private final long[] keys;
+    private final Container[] containers;
+    private final int count;
+    private final Object owner;
+
+    Table(long[] keys, Container[] containers, int count, Object owner) {
+      this.keys = keys;
+      this.containers = containers;
+      this.count = count;
+      this.owner = owner;
+    }
+
+    Table replace(int index, Container container, Object owner) {
+      if (this.owner == owner) {
+        // readers see either container, both hold the same ids but the changed one
+        containers[index] = container;
+        return this;
+      }
+
+      Container[] newContainers = Arrays.copyOf(containers, count);
+      newContainers[index] = container;
+      return new Table(Arrays.copyOf(keys, count), newContainers, count, owner);
+    }
+
+    Table insert(int index, long key, Container container, Object owner) {
+      if (this.owner == owner && index == count && count < keys.length) {
+        // append after the visible slots
+        keys[count] = key;
+        containers[count] = container;
+        return new Table(keys, containers, count + 1, owner);
+      }
+
+      int capacity = Math.max(4, index == count ? count * 2 : count + 1);
+      long[] newKeys = new long[capacity];
+      Container[] newContainers = new Container[capacity];
+      System.arraycopy(keys, 0, newKeys, 0, index);
+      System.arraycopy(containers, 0, newContainers, 0, index);
+      newKeys[index] = key;
+      newContainers[index] = container;
+      System.arraycopy(keys, index, newKeys, index + 1, count - index);
+      System.arraycopy(containers, index, newContainers, index + 1, count - index);
+      return new Table(newKeys, newContainers, count + 1, owner);
+    }
+
+    Table delete(int index, Object owner) {
+      // the visible slots are never moved, readers may be iterating them
+      long[] newKeys = new long[count - 1];
+      Container[] newContainers = new Container[count - 1];
+      System.arraycopy(keys, 0, newKeys, 0, index);
+      System.arraycopy(containers, 0, newContainers, 0, index);
+      System.arraycopy(keys, index + 1, newKeys, index, count - index - 1);
+      System.arraycopy(containers, index + 1, newContainers, index, count - index - 1);
+      return new Table(newKeys, newContainers, count - 1, owner);
+    }
+  }
+
+  private static class BitmapIterator implements Iterator<CropId> {
+    private final CropIdBitmap bitmap;
+    private final Table table;
+    private int index;
+    private Container container;
+    private int limit;
+    private int cursor;
+    private long lastValue;
+    private boolean removable;
+
+    BitmapIterator(CropIdBitmap bitmap) {
+      this.bitmap = bitmap;
+      this.table = bitmap.table;
+      this.index = -1;
+      this.cursor = -1;
+      nextContainer();
+    }
+
+    @Override
+    public boolean hasNext() {
+      return cursor >= 0;
+    }
+
+    @Override
+    public CropId next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+
+      long value = (table.keys[index] << 16) | container.valueAt(cursor);
+      cursor = container.next(cursor, limit);
+      if (cursor < 0) {
+        nextContainer();
+      }
+      lastValue = value;
+      removable = true;
+      return CropId.createId(value);
+    }
+
+    @Override
+    public void remove() {
+      if (!removable) {
+        throw new IllegalStateException();
+      }
+      // the ids after the removed one are still iterated, the removal never moves them
+      bitmap.remove(lastValue);
+      removable = false;
+    }
+
+    private void nextContainer() {
+      while (cursor < 0 && ++index < table.count) {
+        container = table.containers[index];
+        // the ids of an array container appended later are not iterated
+        limit = container.cardinality();
+        cursor = container.next(-1, limit);
+      }
+    }
+  }
+
+  /**
+   * A chunk of 65536 id values. A container is changed in place only by the bitmap which owns it,
+   * other changes return a new container.
+   */
+  private abstract static class Container {
+    protected final Object owner;
+
+    Container(Object owner) {
+      this.owner = owner;
+    }
+
+    abstract int cardinality();
+
+    abstract boolean contains(char value);
+
+    abstract Container add(char value, Object owner);
+
+    abstract Container remove(char value, Object owner);
+
+    abstract Container and(Container other);
+
+    abstract Container or(Container other);
+
+    abstract Container freeze();
+
+    abstract int next(int cursor, int limit);
+
+    abstract char valueAt(int cursor);
+
+    abstract int serializedSize();
+
+    abstract void writeTo(ByteBuffer buffer);
+  }
+
+  private static class ArrayContainer extends Container {
+    // the values before size are never changed, so a reader which read the size sees them
+    private final char[] values;
+    private volatile int size;
+
+    ArrayContainer(char[] values, int size, Object owner) {
+      super(owner);
+      this.values = values;
+      this.size = size;
+    }
+
+    @Override
+    int cardinality() {
+      return size;
+    }
+
+    @Override
+    boolean contains(char value) {
+      return Arrays.binarySearch(values, 0, size, value) >= 0;
+    }
+
+    @Override
+    Container add(char value, Object owner) {
+      int count = size;
+      if (count >= ARRAY_CONTAINER_MAX) {
+        long[] words = toWords(count);
+        words[value >>> 6] |= 1L << value;
+        return new BitmapContainer(words, count + 1, owner);
+      }
+
+      if (this.owner == owner
+          && count < values.length
+          && (count == 0 || value > values[count - 1])) {
+        // append in place after the visible values
+        values[count] = value;
+        size = count + 1;
+        return this;
+      }
+
+      int index = -Arrays.binarySearch(values, 0, count, value) - 1;
+      int capacity = Math.min(ARRAY_CONTAINER_MAX, Math.max(4, count * 2));
+      char[] result = new char[Math.max(capacity, count + 1)];
+      System.arraycopy(values, 0, result, 0, index);
+      result[index] = value;
+      System.arraycopy(values, index, result, index + 1, count - index);
+      return new ArrayContainer(result, count + 1, owner);
+    }
+
+    @Override
+    Container remove(char value, Object owner) {
+      int count = size;
+      int index = Arrays.binarySearch(values, 0, count, value);
+      if (index < 0) return this;
+
+      char[] result = new char[count - 1];
+      System.arraycopy(values, 0, result, 0, index);
+      System.arraycopy(values, index + 1, result, index, count - index - 1);
+      return new ArrayContainer(result, count - 1, owner);
+    }
+
+    @Override
+    Container and(Container other) {
+      int count = size;
+      char[] result = new char[Math.min(count, other.cardinality())];
+      int resultCount = 0;
+      if (other instanceof ArrayContainer) {
+        ArrayContainer that = (ArrayContainer) other;
+        int thatCount = that.size;
+        int i = 0, j = 0;
+        while (i < count && j < thatCount && resultCount < result.length) {
+          if (values[i] < that.values[j]) {
+            i++;
+          } else if (values[i] > that.values[j]) {
+            j++;
+          } else {
+            result[resultCount++] = values[i];
+            i++;
+            j++;
+          }
+        }
+      } else {
+        for (int i = 0; i < count && resultCount < result.length; i++) {
+          if (other.contains(values[i])) {
+            result[resultCount++] = values[i];
+          }
+        }
+      }
+      return new ArrayContainer(result, resultCount, null);
+    }
+
+    @Override
+    Container or(Container other) {
+      if (other instanceof BitmapContainer) {
+        return other.or(this);
+      }
+
+      ArrayContainer that = (ArrayContainer) other;
+      int count = size;
+      int thatCount = that.size;
+      char[] result = new char[count + thatCount];
+      int i = 0, j = 0, resultCount = 0;
+      while (i < count || j < thatCount) {
+        if (j == thatCount || (i < count && values[i] < that.values[j])) {
+          result[resultCount++] = values[i++];
+        } else if (i == count || values[i] > that.values[j]) {
+          result[resultCount++] = that.values[j++];
+        } else {
+          result[resultCount++] = values[i];
+          i++;
+          j++;
+        }
+      }
+
+      if (resultCount > ARRAY_CONTAINER_MAX) {
+        return new BitmapContainer(
+            new ArrayContainer(result, resultCount, null).toWords(resultCount), resultCount, null);
+      }
+      return new ArrayContainer(result, resultCount, null);
+    }
+
+    @Override
+    Container freeze() {
+      // the visible values never change, so they are shared
+      return new ArrayContainer(values, size, null);
+    }
+
+    @Override
+    int next(int cursor, int limit) {
+      return cursor + 1 < limit ? cursor + 1 : -1;
+    }
+
+    @Override
+    char valueAt(int cursor) {
+      return values[cursor];
+    }
+
+    @Override
+    int serializedSize() {
+      return 3 + 2 * size;
+    }
+
+    @Override
+    void writeTo(ByteBuffer buffer) {
+      int count = size;
+      buffer.put(ARRAY_CONTAINER);
+      buffer.putChar((char) (count - 1));
+      for (int i = 0; i < count; i++) {
+        buffer.putChar(values[i]);
+      }
+    }
+
+    private long[] toWords(int count) {
+      long[] words = new long[BITMAP_WORDS];
+      for (int i = 0; i < count; i++) {
+        words[values[i] >>> 6] |= 1L << values[i];
+      }
+      return words;
+    }
+  }
+
+  private static class BitmapContainer extends Container {
+    // the owner sets and clears single bits in place, the size is written after the bit
+    private final long[] words;
+    private volatile int size;
+
+    BitmapContainer(long[] words, int size, Object owner) {
+      super(owner);
+      this.words = words;
+      this.size = size;
+    }
+
+    @Override
+    int cardinality() {
+      return size;
+    }
+
+    @Override
+    boolean contains(char value) {
+      // read the size first, so that the bits written before it are seen
+      return size > 0 && (words[value >>> 6] & (1L << value)) != 0;
+    }
+
+    @Override
+    Container add(char value, Object owner) {
+      if (this.owner == owner) {
+        words[value >>> 6] |= 1L << value;
+        size = size + 1;
+        return this;
+      }
+
+      long[] result = Arrays.copyOf(words, BITMAP_WORDS);
+      result[value >>> 6] |= 1L << value;
+      return new BitmapContainer(result, size + 1, owner);
+    }
+
+    @Override
+    Container remove(char value, Object owner) {
+      int count = size;
+      if (count - 1 <= ARRAY_CONTAINER_MAX) {
+        char[] values = new char[count - 1];
+        int resultCount = 0;
+        for (int cursor = next(-1, 0); cursor >= 0 && resultCount < values.length;
+            cursor = next(cursor, 0)) {
+          if (cursor != value) {
+            values[resultCount++] = (char) cursor;
+          }
+        }
+        return new ArrayContainer(values, resultCount, owner);
+      }
+
+      if (this.owner == owner) {
+        words[value >>> 6] &= ~(1L << value);
+        size = count - 1;
+        return this;
+      }
+
+      long[] result = Arrays.copyOf(words, BITMAP_WORDS);
+      result[value >>> 6] &= ~(1L << value);
+      return new BitmapContainer(result, count - 1, owner);
+    }
+
+    @Override
+    Container and(Container other) {
+      if (other instanceof ArrayContainer) {
+        return other.and(this);
+      }
+
+      BitmapContainer that = (BitmapContainer) other;
+      long[] result = new long[BITMAP_WORDS];
+      for (int i = 0; i < BITMAP_WORDS; i++) {
+        result[i] = words[i] & that.words[i];
+      }
+      return of(result);
+    }
+
+    @Override
+    Container or(Container other) {
+      long[] result = Arrays.copyOf(words, BITMAP_WORDS);
+      if (other instanceof ArrayContainer) {
+        ArrayContainer that = (ArrayContainer) other;
+        int count = that.size;
+        for (int i = 0; i < count; i++) {
+          result[that.values[i] >>> 6] |= 1L << that.values[i];
+        }
+      } else {
+        BitmapContainer that = (BitmapContainer) other;
+        for (int i = 0; i < BITMAP_WORDS; i++) {
+          result[i] |= that.words[i];
+        }
+      }
+      return of(result);
+    }
+
+    @Override
+    Container freeze() {
+      // copy the bits, the size is counted so that it matches them
+      return of(Arrays.copyOf(words, BITMAP_WORDS));
+    }
+
+    @Override
+    int next(int cursor, int limit) {
+      int start = cursor + 1;
+      if (start >= BITMAP_WORDS * 64) return -1;
+
+      int index = start >>> 6;
+      long word = words[index] & (-1L << start);
+      while (word == 0) {
+        if (++index == BITMAP_WORDS) return -1;
+        word = words[index];
+      }
+      return index * 64 + Long.numberOfTrailingZeros(word);
+    }
+
+    @Override
+    char valueAt(int cursor) {
+      return (char) cursor;
+    }
+
+    @Override
+    int serializedSize() {
+      return 3 + 8 * BITMAP_WORDS;
+    }
+
+    @Override
+    void writeTo(ByteBuffer buffer) {
+      buffer.put(BITMAP_CONTAINER);
+      buffer.putChar((char) (size - 1));
+      for (long word : words) {
+        buffer.putLong(word);
+      }
+    }
+
+    private static Container of(long[] words) {
+      int count = 0;
+      for (long word : words) {
+        count += Long.bitCount(word);
+      }
+
+      BitmapContainer bitmap = new BitmapContainer(words, count, null);
+      return count <= ARRAY_CONTAINER_MAX ? bitmap.toArray() : bitmap;
+    }
+
+    private ArrayContainer toArray() {
+      char[] values = new char[size];
+      int count = 0;
+      for (int cursor = next(-1, 0); cursor >= 0; cursor = next(cursor, 0)) {
+        values[count++] = (char) cursor;
+      }
+      return new ArrayContainer(values, count, null);
+    }
+  }
+}
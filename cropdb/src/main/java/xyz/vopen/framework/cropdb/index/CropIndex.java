@@ -24,8 +24,8 @@ import xyz.vopen.framework.cropdb.exceptions.UniqueConstraintException;
 import xyz.vopen.framework.cropdb.exceptions.ValidationException;
 import xyz.vopen.framework.cropdb.common.util.ValidationUtils;
 
-import java.util.*;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
 
 /**
  * Represents a crop index.
@@ -48,6 +48,17 @@ public interface CropIndex {
    */
   void write(FieldValues fieldValues);
 
+  /**
+   * Writes a batch of {@link FieldValues} in the index.
+   *
+   * @param fieldValuesList the field values of the batch
+   */
+  default void writeAll(List<FieldValues> fieldValuesList) {
+    for (FieldValues fieldValues : fieldValuesList) {
+      write(fieldValues);
+    }
+  }
+
   /**
    * Removes a {@link FieldValues} from the index.
    *
@@ -66,6 +77,35 @@ public interface CropIndex {
    */
   LinkedHashSet<CropId> findCropIds(FindPlan findPlan);
 
+  /**
+   * Counts the {@link CropId}s found in the index after executing the {@link FindPlan}.
+   *
+   * @param findPlan the find plan
+   * @return the number of ids found
+   */
+  default long countCropIds(FindPlan findPlan) {
+    return findCropIds(findPlan).size();
+  }
+
+  /**
+   * Analyzes the index and computes its {@link IndexStatistics}.
+   *
+   * @return the index statistics, or <code>null</code> if not supported by the index
+   */
+  default IndexStatistics computeStatistics() {
+    return null;
+  }
+
+  /**
+   * Gets the change in the number of distinct keys of the index since the last call and resets
+   * it, so that the statistics follow the writes between two analyses.
+   *
+   * @return the change in the number of distinct keys
+   */
+  default long takeKeyCountChange() {
+    return 0;
+  }
+
   /**
    * Indicates if this is an unique index.
    *
@@ -95,16 +135,16 @@ public interface CropIndex {
   }
 
   /**
-   * Adds a {@link CropId} of the {@link FieldValues} to the existing indexed list of {@link
+   * Adds a {@link CropId} of the {@link FieldValues} to the existing indexed posting list of {@link
    * CropId}s.
    *
    * @param cropIds the crop ids
    * @param fieldValues the field values
-   * @return the list
+   * @return the posting list
    */
-  default List<CropId> addCropIds(List<CropId> cropIds, FieldValues fieldValues) {
+  default CropIdBitmap addCropIds(CropIdBitmap cropIds, FieldValues fieldValues) {
     if (cropIds == null) {
-      cropIds = new CopyOnWriteArrayList<>();
+      cropIds = new CropIdBitmap();
     }
 
     if (isUnique() && cropIds.size() == 1 && !cropIds.contains(fieldValues.getCropId())) {
@@ -119,14 +159,14 @@ public interface CropIndex {
   }
 
   /**
-   * Removes a {@link CropId} of the {@link FieldValues} from the existing indexed list of {@link
-   * CropId}s.
+   * Removes a {@link CropId} of the {@link FieldValues} from the existing indexed posting list of
+   * {@link CropId}s.
    *
    * @param cropIds the crop ids
    * @param fieldValues the field values
-   * @return the list
+   * @return the posting list
    */
-  default List<CropId> removeCropIds(List<CropId> cropIds, FieldValues fieldValues) {
+  default CropIdBitmap removeCropIds(CropIdBitmap cropIds, FieldValues fieldValues) {
     if (cropIds != null && !cropIds.isEmpty()) {
       cropIds.remove(fieldValues.getCropId());
     }
@@ -23,7 +23,10 @@ import xyz.vopen.framework.cropdb.common.FieldValues;
 import xyz.vopen.framework.cropdb.common.Fields;
 import xyz.vopen.framework.cropdb.common.module.CropPlugin;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashSet;
+import java.util.List;
 
 /**
  * Represents an indexer for creating a crop index.
@@ -64,6 +67,20 @@ public interface CropIndexer extends CropPlugin {
   void writeIndexEntry(
       FieldValues fieldValues, IndexDescriptor indexDescriptor, CropConfig cropConfig);
 
+  /**
+   * Writes the index entries of a batch of documents.
+   *
+   * @param fieldValuesList the field values of the batch
+   * @param indexDescriptor the index descriptor
+   * @param cropConfig the crop config
+   */
+  default void writeIndexEntries(
+      List<FieldValues> fieldValuesList, IndexDescriptor indexDescriptor, CropConfig cropConfig) {
+    for (FieldValues fieldValues : fieldValuesList) {
+      writeIndexEntry(fieldValues, indexDescriptor, cropConfig);
+    }
+  }
+
   /**
    * Removes an index entry.
    *
@@ -74,6 +91,19 @@ public interface CropIndexer extends CropPlugin {
   void removeIndexEntry(
       FieldValues fieldValues, IndexDescriptor indexDescriptor, CropConfig cropConfig);
 
+  /**
+   * Gets the keys of the index entries which writing or removing the field values changes. Writes
+   * of entries with equal keys do not run at the same time, so equal keys must have the same hash
+   * code. By default the whole index is one entry.
+   *
+   * @param fieldValues the field values
+   * @param indexDescriptor the index descriptor
+   * @return the entry keys
+   */
+  default Collection<?> getEntryKeys(FieldValues fieldValues, IndexDescriptor indexDescriptor) {
+    return Collections.singletonList(indexDescriptor);
+  }
+
   /**
    * Finds a list of {@link CropId} after executing the {@link FindPlan} on the index.
    *
@@ -82,4 +112,39 @@ public interface CropIndexer extends CropPlugin {
    * @return the linked hash set
    */
   LinkedHashSet<CropId> findByFilter(FindPlan findPlan, CropConfig cropConfig);
+
+  /**
+   * Counts the {@link CropId}s found after executing the {@link FindPlan} on the index.
+   *
+   * @param findPlan the find plan
+   * @param cropConfig the crop config
+   * @return the number of ids found
+   */
+  default long countByFilter(FindPlan findPlan, CropConfig cropConfig) {
+    return findByFilter(findPlan, cropConfig).size();
+  }
+
+  /**
+   * Computes the {@link IndexStatistics} of the index specified by the index descriptor.
+   *
+   * @param indexDescriptor the index descriptor
+   * @param cropConfig the crop config
+   * @return the index statistics, or <code>null</code> if not supported by the indexer
+   */
+  default IndexStatistics computeStatistics(
+      IndexDescriptor indexDescriptor, CropConfig cropConfig) {
+    return null;
+  }
+
+  /**
+   * Gets the change in the number of distinct keys of the index specified by the index
+   * descriptor since the last call, and resets it.
+   *
+   * @param indexDescriptor the index descriptor
+   * @param cropConfig the crop config
+   * @return the change in the number of distinct keys, 0 if not tracked by the indexer
+   */
+  default long takeKeyCountChange(IndexDescriptor indexDescriptor, CropConfig cropConfig) {
+    return 0;
+  }
 }
@@ -20,13 +20,20 @@ import lombok.AccessLevel;
 import lombok.Data;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
+import xyz.vopen.framework.cropdb.collection.Document;
 import xyz.vopen.framework.cropdb.common.Fields;
+import xyz.vopen.framework.cropdb.common.tuples.Pair;
+import xyz.vopen.framework.cropdb.common.tuples.Triplet;
 import xyz.vopen.framework.cropdb.common.util.ValidationUtils;
+import xyz.vopen.framework.cropdb.filters.Filter;
+import xyz.vopen.framework.cropdb.filters.PartialFilters;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.List;
 
 import static xyz.vopen.framework.cropdb.common.util.ValidationUtils.notEmpty;
 
@@ -66,6 +73,22 @@ public class IndexDescriptor implements Comparable<IndexDescriptor>, Serializabl
    */
   @Getter private String collectionName;
 
+  /**
+   * Specifies whether the index leaves out the documents without any of the index fields.
+   *
+   * @param sparse if the index is sparse
+   * @return `true` if the index is sparse.
+   */
+  private boolean sparse;
+
+  /**
+   * Specifies the filter of the documents the index holds.
+   *
+   * @param partialFilter the filter of the indexed documents
+   * @return the filter of the indexed documents, or `null` if all documents are indexed.
+   */
+  private transient Filter partialFilter;
+
   /**
    * Instantiates a new Index.
    *
@@ -118,6 +141,38 @@ public class IndexDescriptor implements Comparable<IndexDescriptor>, Serializabl
     return indexFields.getFieldNames().size() > 1;
   }
 
+  /**
+   * Checks if the index leaves out some documents, so that it can only answer the queries which
+   * never select them.
+   *
+   * @return the boolean
+   */
+  public boolean isFiltered() {
+    return sparse || partialFilter != null;
+  }
+
+  /**
+   * Checks if a document is held by the index.
+   *
+   * @param document the document
+   * @return `true` if the document is indexed
+   */
+  public boolean covers(Document document) {
+    if (sparse && !hasAnyField(document)) {
+      return false;
+    }
+    return partialFilter == null || partialFilter.apply(new Pair<>(document.getId(), document));
+  }
+
+  private boolean hasAnyField(Document document) {
+    for (String field : indexFields.getFieldNames()) {
+      if (document.get(field) != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   private boolean isUniqueIndex() {
     return indexType.equals(IndexType.UNIQUE);
   }
@@ -126,11 +181,24 @@ public class IndexDescriptor implements Comparable<IndexDescriptor>, Serializabl
     stream.writeUTF(indexType);
     stream.writeObject(indexFields);
     stream.writeUTF(collectionName);
+    stream.writeBoolean(sparse);
+    stream.writeObject(partialFilter == null ? null : PartialFilters.toTerms(partialFilter));
   }
 
+  @SuppressWarnings("unchecked")
   private void readObject(ObjectInputStream stream) throws IOException, ClassNotFoundException {
     indexType = stream.readUTF();
     indexFields = (Fields) stream.readObject();
     collectionName = stream.readUTF();
+    try {
+      sparse = stream.readBoolean();
+    } catch (EOFException e) {
+      // written by an older version, which indexes all documents
+      return;
+    }
+
+    List<Triplet<String, String, Object>> terms =
+        (List<Triplet<String, String, Object>>) stream.readObject();
+    partialFilter = terms == null ? null : PartialFilters.fromTerms(terms);
   }
 }
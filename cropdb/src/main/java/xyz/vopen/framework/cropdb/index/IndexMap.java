@@ -21,22 +21,32 @@ import lombok.Getter;
 import lombok.Setter;
 import xyz.vopen.framework.cropdb.collection.CropId;
 import xyz.vopen.framework.cropdb.common.DBNull;
+import xyz.vopen.framework.cropdb.common.RecordStream;
 import xyz.vopen.framework.cropdb.common.tuples.Pair;
 import xyz.vopen.framework.cropdb.store.CropMap;
 
 import java.util.*;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
 
 /**
  * Represents an index map.
  *
+ * <p>The map of a single field index holds a posting list of ids for each key, or a single id in
+ * a unique index, which is seen as a posting list of that id. A compound index
+ * is seen through one index map per field, a map of a field holds the values of the field in the
+ * entries which start with the values of the fields before it. The value of a key in the map of
+ * the last field is the list of ids, in the map of another field it is the index map of the next
+ * field.
+ *
  * @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a>
  * @since 4.0
  */
 @SuppressWarnings("unchecked")
 public class IndexMap {
   private CropMap<DBValue, ?> cropMap;
-  private NavigableMap<DBValue, ?> navigableMap;
+  private CropMap<CompoundKey, ?> compoundMap;
+  private DBValue[] prefix;
+  private int fieldCount;
 
   @Getter @Setter private boolean reverseScan;
 
@@ -50,12 +60,19 @@ public class IndexMap {
   }
 
   /**
-   * Instantiates a new {@link IndexMap}.
+   * Instantiates a new {@link IndexMap} of the first field of a compound index.
    *
-   * @param navigableMap the navigable map
+   * @param compoundMap the map of the compound index
+   * @param fieldCount the number of fields of the index
    */
-  public IndexMap(NavigableMap<DBValue, ?> navigableMap) {
-    this.navigableMap = navigableMap;
+  public IndexMap(CropMap<CompoundKey, ?> compoundMap, int fieldCount) {
+    this(compoundMap, new DBValue[0], fieldCount);
+  }
+
+  private IndexMap(CropMap<CompoundKey, ?> compoundMap, DBValue[] prefix, int fieldCount) {
+    this.compoundMap = compoundMap;
+    this.prefix = prefix;
+    this.fieldCount = fieldCount;
   }
 
   /**
@@ -67,18 +84,10 @@ public class IndexMap {
    */
   public <T extends Comparable<T>> T lowerKey(T key) {
     DBValue dbKey = key == null ? DBNull.getInstance() : new DBValue(key);
-    if (!reverseScan) {
-      if (cropMap != null) {
-        dbKey = cropMap.lowerKey(dbKey);
-      } else if (navigableMap != null) {
-        dbKey = navigableMap.lowerKey(dbKey);
-      }
-    } else {
-      if (cropMap != null) {
-        dbKey = cropMap.higherKey(dbKey);
-      } else if (navigableMap != null) {
-        dbKey = navigableMap.higherKey(dbKey);
-      }
+    if (compoundMap != null) {
+      dbKey = !reverseScan ? levelKeyBefore(dbKey, false) : levelKeyAfter(dbKey, false);
+    } else if (cropMap != null) {
+      dbKey = !reverseScan ? cropMap.lowerKey(dbKey) : cropMap.higherKey(dbKey);
     }
 
     return dbKey == null || dbKey instanceof DBNull ? null : (T) dbKey.getValue();
@@ -93,18 +102,10 @@ public class IndexMap {
    */
   public <T extends Comparable<T>> T higherKey(T key) {
     DBValue dbKey = key == null ? DBNull.getInstance() : new DBValue(key);
-    if (!reverseScan) {
-      if (cropMap != null) {
-        dbKey = cropMap.higherKey(dbKey);
-      } else if (navigableMap != null) {
-        dbKey = navigableMap.higherKey(dbKey);
-      }
-    } else {
-      if (cropMap != null) {
-        dbKey = cropMap.lowerKey(dbKey);
-      } else if (navigableMap != null) {
-        dbKey = navigableMap.lowerKey(dbKey);
-      }
+    if (compoundMap != null) {
+      dbKey = !reverseScan ? levelKeyAfter(dbKey, false) : levelKeyBefore(dbKey, false);
+    } else if (cropMap != null) {
+      dbKey = !reverseScan ? cropMap.higherKey(dbKey) : cropMap.lowerKey(dbKey);
     }
 
     return dbKey == null || dbKey instanceof DBNull ? null : (T) dbKey.getValue();
@@ -119,18 +120,10 @@ public class IndexMap {
    */
   public <T extends Comparable<T>> T ceilingKey(T key) {
     DBValue dbKey = key == null ? DBNull.getInstance() : new DBValue(key);
-    if (!reverseScan) {
-      if (cropMap != null) {
-        dbKey = cropMap.ceilingKey(dbKey);
-      } else if (navigableMap != null) {
-        dbKey = navigableMap.ceilingKey(dbKey);
-      }
-    } else {
-      if (cropMap != null) {
-        dbKey = cropMap.floorKey(dbKey);
-      } else if (navigableMap != null) {
-        dbKey = navigableMap.floorKey(dbKey);
-      }
+    if (compoundMap != null) {
+      dbKey = !reverseScan ? levelKeyAfter(dbKey, true) : levelKeyBefore(dbKey, true);
+    } else if (cropMap != null) {
+      dbKey = !reverseScan ? cropMap.ceilingKey(dbKey) : cropMap.floorKey(dbKey);
     }
 
     return dbKey == null || dbKey instanceof DBNull ? null : (T) dbKey.getValue();
@@ -145,18 +138,10 @@ public class IndexMap {
    */
   public <T extends Comparable<T>> T floorKey(T key) {
     DBValue dbKey = key == null ? DBNull.getInstance() : new DBValue(key);
-    if (!reverseScan) {
-      if (cropMap != null) {
-        dbKey = cropMap.floorKey(dbKey);
-      } else if (navigableMap != null) {
-        dbKey = navigableMap.floorKey(dbKey);
-      }
-    } else {
-      if (cropMap != null) {
-        dbKey = cropMap.ceilingKey(dbKey);
-      } else if (navigableMap != null) {
-        dbKey = navigableMap.ceilingKey(dbKey);
-      }
+    if (compoundMap != null) {
+      dbKey = !reverseScan ? levelKeyBefore(dbKey, true) : levelKeyAfter(dbKey, true);
+    } else if (cropMap != null) {
+      dbKey = !reverseScan ? cropMap.floorKey(dbKey) : cropMap.ceilingKey(dbKey);
     }
 
     return dbKey == null || dbKey instanceof DBNull ? null : (T) dbKey.getValue();
@@ -170,10 +155,17 @@ public class IndexMap {
    */
   public Object get(Comparable<?> comparable) {
     DBValue dbKey = comparable == null ? DBNull.getInstance() : new DBValue(comparable);
-    if (cropMap != null) {
-      return cropMap.get(dbKey);
-    } else if (navigableMap != null) {
-      return navigableMap.get(dbKey);
+    if (compoundMap != null) {
+      DBValue[] keyPrefix = withPrefix(dbKey);
+      if (isLastField()) {
+        List<CropId> cropIds = collectCropIds(keyPrefix);
+        return cropIds.isEmpty() ? null : cropIds;
+      }
+
+      CompoundKey first = compoundMap.ceilingKey(CompoundKey.lowerBound(keyPrefix));
+      return first != null && first.startsWith(keyPrefix) ? subMap(keyPrefix) : null;
+    } else if (cropMap != null) {
+      return toPostingList(cropMap.get(dbKey));
     }
     return null;
   }
@@ -184,60 +176,54 @@ public class IndexMap {
    * @return the iterable
    */
   public Iterable<? extends Pair<Comparable<?>, ?>> entries() {
-    if (cropMap != null) {
-      Iterator<? extends Pair<DBValue, ?>> entryIterator;
-      if (!reverseScan) {
-        entryIterator = cropMap.entries().iterator();
-      } else {
-        entryIterator = cropMap.reversedEntries().iterator();
-      }
+    if (compoundMap != null) {
+      return levelEntries(CompoundKey.lowerBound(prefix), CompoundKey.upperBound(prefix), false);
+    } else if (cropMap != null) {
+      RecordStream<? extends Pair<DBValue, ?>> stream =
+          !reverseScan ? cropMap.entries() : cropMap.reversedEntries();
+      return toEntries(stream, false);
+    }
+    return Collections.EMPTY_SET;
+  }
 
-      return (Iterable<Pair<Comparable<?>, ?>>)
-          () ->
-              new Iterator<Pair<Comparable<?>, ?>>() {
-                @Override
-                public boolean hasNext() {
-                  return entryIterator.hasNext();
-                }
-
-                @Override
-                public Pair<Comparable<?>, ?> next() {
-                  Pair<DBValue, ?> next = entryIterator.next();
-                  DBValue dbKey = next.getFirst();
-                  if (dbKey instanceof DBNull) {
-                    return new Pair<>(null, next.getSecond());
-                  } else {
-                    return new Pair<>(dbKey.getValue(), next.getSecond());
-                  }
-                }
-              };
-    } else if (navigableMap != null) {
-      Iterator<? extends Map.Entry<DBValue, ?>> entryIterator;
-      if (reverseScan) {
-        entryIterator = navigableMap.descendingMap().entrySet().iterator();
-      } else {
-        entryIterator = navigableMap.entrySet().iterator();
+  /**
+   * Returns the iterable entries of the indexed items whose keys lie within a range, in a single
+   * pass over the underlying map. A <code>null</code> bound leaves that end of the range open.
+   * Entries of <code>null</code> keys are never part of a range.
+   *
+   * @param from the lower bound
+   * @param fromInclusive if the lower bound is included
+   * @param to the upper bound
+   * @param toInclusive if the upper bound is included
+   * @return the iterable
+   */
+  public Iterable<? extends Pair<Comparable<?>, ?>> entries(
+      Comparable<?> from, boolean fromInclusive, Comparable<?> to, boolean toInclusive) {
+    DBValue fromKey = from == null ? null : new DBValue(from);
+    DBValue toKey = to == null ? null : new DBValue(to);
+
+    if (compoundMap != null) {
+      if (fromKey != null && toKey != null && fromKey.compareTo(toKey) > 0) {
+        return Collections.EMPTY_SET;
       }
 
-      return (Iterable<Pair<Comparable<?>, ?>>)
-          () ->
-              new Iterator<Pair<Comparable<?>, ?>>() {
-                @Override
-                public boolean hasNext() {
-                  return entryIterator.hasNext();
-                }
-
-                @Override
-                public Pair<Comparable<?>, ?> next() {
-                  Map.Entry<DBValue, ?> next = entryIterator.next();
-                  DBValue dbKey = next.getKey();
-                  if (dbKey instanceof DBNull) {
-                    return new Pair<>(null, next.getValue());
-                  } else {
-                    return new Pair<>(dbKey.getValue(), next.getValue());
-                  }
-                }
-              };
+      // the null keys come first, an open range starts after them
+      CompoundKey lower =
+          fromKey == null
+              ? CompoundKey.upperBound(withPrefix(DBNull.getInstance()))
+              : fromInclusive
+                  ? CompoundKey.lowerBound(withPrefix(fromKey))
+                  : CompoundKey.upperBound(withPrefix(fromKey));
+      CompoundKey upper =
+          toKey == null
+              ? CompoundKey.upperBound(prefix)
+              : toInclusive
+                  ? CompoundKey.upperBound(withPrefix(toKey))
+                  : CompoundKey.lowerBound(withPrefix(toKey));
+      return levelEntries(lower, upper, true);
+    } else if (cropMap != null) {
+      return toEntries(
+          cropMap.entries(fromKey, fromInclusive, toKey, toInclusive, reverseScan), true);
     }
     return Collections.EMPTY_SET;
   }
@@ -248,25 +234,237 @@ public class IndexMap {
    * @return the terminal crop ids
    */
   public List<CropId> getTerminalCropIds() {
-    List<CropId> terminalResult = new CopyOnWriteArrayList<>();
+    if (compoundMap != null) {
+      // the entries of all the following fields are next to each other in the index
+      List<CropId> terminalResult = new ArrayList<>();
+      for (Pair<CompoundKey, ?> entry : prefixEntries(prefix, reverseScan)) {
+        terminalResult.add(entry.getFirst().getCropId());
+      }
+      return terminalResult;
+    }
 
-    // scan each entry of the navigable map and collect all terminal crop-ids
+    List<CropId> terminalResult = new ArrayList<>();
     for (Pair<Comparable<?>, ?> entry : entries()) {
       // if the value is terminal, collect all crop-ids
-      if (entry.getSecond() instanceof List) {
-        List<CropId> cropIds = (List<CropId>) entry.getSecond();
+      if (CropIdBitmap.isPostingList(entry.getSecond())) {
+        Collection<CropId> cropIds = (Collection<CropId>) entry.getSecond();
         terminalResult.addAll(cropIds);
       }
+    }
+    return terminalResult;
+  }
 
-      // if the value is not terminal, scan recursively
-      if (entry.getSecond() instanceof NavigableMap) {
-        NavigableMap<DBValue, ?> subMap = (NavigableMap<DBValue, ?>) entry.getSecond();
-        IndexMap indexMap = new IndexMap(subMap);
-        List<CropId> cropIds = indexMap.getTerminalCropIds();
-        terminalResult.addAll(cropIds);
+  private static Object toPostingList(Object value) {
+    // the single id of a key of a unique index
+    return value instanceof CropId ? Collections.singletonList(value) : value;
+  }
+
+  private boolean isLastField() {
+    return prefix.length == fieldCount - 1;
+  }
+
+  private DBValue[] withPrefix(DBValue value) {
+    DBValue[] values = Arrays.copyOf(prefix, prefix.length + 1);
+    values[prefix.length] = value;
+    return values;
+  }
+
+  private IndexMap subMap(DBValue[] keyPrefix) {
+    return new IndexMap(compoundMap, keyPrefix, fieldCount);
+  }
+
+  private RecordStream<? extends Pair<CompoundKey, ?>> prefixEntries(
+      DBValue[] keyPrefix, boolean reverse) {
+    return compoundMap.entries(
+        CompoundKey.lowerBound(keyPrefix), true, CompoundKey.upperBound(keyPrefix), true, reverse);
+  }
+
+  private List<CropId> collectCropIds(DBValue[] keyPrefix) {
+    // the ids are listed in ascending order, like in a posting list
+    List<CropId> cropIds = new ArrayList<>();
+    for (Pair<CompoundKey, ?> entry : prefixEntries(keyPrefix, false)) {
+      cropIds.add(entry.getFirst().getCropId());
+    }
+    return cropIds;
+  }
+
+  // the smallest value of the field after the given one
+  private DBValue levelKeyAfter(DBValue value, boolean inclusive) {
+    DBValue[] keyPrefix = withPrefix(value);
+    CompoundKey bound =
+        inclusive ? CompoundKey.lowerBound(keyPrefix) : CompoundKey.upperBound(keyPrefix);
+    CompoundKey key = compoundMap.higherKey(bound);
+    return key != null && key.startsWith(prefix) ? key.getValue(prefix.length) : null;
+  }
+
+  // the largest value of the field before the given one
+  private DBValue levelKeyBefore(DBValue value, boolean inclusive) {
+    DBValue[] keyPrefix = withPrefix(value);
+    CompoundKey bound =
+        inclusive ? CompoundKey.upperBound(keyPrefix) : CompoundKey.lowerBound(keyPrefix);
+    CompoundKey key = compoundMap.lowerKey(bound);
+    return key != null && key.startsWith(prefix) ? key.getValue(prefix.length) : null;
+  }
+
+  private Iterable<Pair<Comparable<?>, ?>> levelEntries(
+      CompoundKey lower, CompoundKey upper, boolean skipNull) {
+    if (lower.compareTo(upper) >= 0) {
+      return Collections.EMPTY_SET;
+    }
+
+    if (isLastField()) {
+      // one pass over the range, the ids of a value are next to each other
+      return () ->
+          new LastFieldIterator(
+              compoundMap.entries(lower, true, upper, true, reverseScan).iterator(), skipNull);
+    }
+
+    // the entries of a value are skipped by seeking to the next value
+    return () -> new FieldIterator(lower, upper, skipNull);
+  }
+
+  private Iterable<Pair<Comparable<?>, ?>> toEntries(
+      RecordStream<? extends Pair<DBValue, ?>> stream, boolean skipNull) {
+    return () ->
+        toEntries(stream.iterator(), Pair::getFirst, e -> toPostingList(e.getSecond()), skipNull);
+  }
+
+  private <E> Iterator<Pair<Comparable<?>, ?>> toEntries(
+      Iterator<E> entryIterator,
+      Function<E, DBValue> keyFunction,
+      Function<E, ?> valueFunction,
+      boolean skipNull) {
+    return new Iterator<Pair<Comparable<?>, ?>>() {
+      private Pair<Comparable<?>, ?> nextPair;
+
+      @Override
+      public boolean hasNext() {
+        while (nextPair == null && entryIterator.hasNext()) {
+          E next = entryIterator.next();
+          DBValue dbKey = keyFunction.apply(next);
+          if (dbKey instanceof DBNull) {
+            if (!skipNull) {
+              nextPair = new Pair<>(null, valueFunction.apply(next));
+            }
+          } else {
+            nextPair = new Pair<>(dbKey.getValue(), valueFunction.apply(next));
+          }
+        }
+        return nextPair != null;
+      }
+
+      @Override
+      public Pair<Comparable<?>, ?> next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        Pair<Comparable<?>, ?> result = nextPair;
+        nextPair = null;
+        return result;
       }
+    };
+  }
+
+  private static Pair<Comparable<?>, ?> levelEntry(DBValue value, Object mapped) {
+    return new Pair<>(value instanceof DBNull ? null : value.getValue(), mapped);
+  }
+
+  /** Iterates the values of the last field of a compound index, with the list of their ids. */
+  private class LastFieldIterator implements Iterator<Pair<Comparable<?>, ?>> {
+    private final Iterator<? extends Pair<CompoundKey, ?>> entryIterator;
+    private final boolean skipNull;
+    private CompoundKey pending;
+    private Pair<Comparable<?>, ?> nextPair;
+
+    LastFieldIterator(Iterator<? extends Pair<CompoundKey, ?>> entryIterator, boolean skipNull) {
+      this.entryIterator = entryIterator;
+      this.skipNull = skipNull;
     }
 
-    return terminalResult;
+    @Override
+    public boolean hasNext() {
+      while (nextPair == null && (pending != null || entryIterator.hasNext())) {
+        CompoundKey first = pending != null ? pending : entryIterator.next().getFirst();
+        pending = null;
+
+        DBValue value = first.getValue(prefix.length);
+        List<CropId> cropIds = new ArrayList<>();
+        cropIds.add(first.getCropId());
+        while (entryIterator.hasNext()) {
+          CompoundKey key = entryIterator.next().getFirst();
+          if (key.getValue(prefix.length).compareTo(value) != 0) {
+            pending = key;
+            break;
+          }
+          cropIds.add(key.getCropId());
+        }
+
+        if (!(skipNull && value instanceof DBNull)) {
+          if (reverseScan) {
+            Collections.reverse(cropIds);
+          }
+          nextPair = levelEntry(value, cropIds);
+        }
+      }
+      return nextPair != null;
+    }
+
+    @Override
+    public Pair<Comparable<?>, ?> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Pair<Comparable<?>, ?> result = nextPair;
+      nextPair = null;
+      return result;
+    }
+  }
+
+  /** Iterates the values of a field of a compound index, with the index map of the next field. */
+  private class FieldIterator implements Iterator<Pair<Comparable<?>, ?>> {
+    private final boolean skipNull;
+    private CompoundKey lower;
+    private CompoundKey upper;
+    private Pair<Comparable<?>, ?> nextPair;
+    private boolean done;
+
+    FieldIterator(CompoundKey lower, CompoundKey upper, boolean skipNull) {
+      this.lower = lower;
+      this.upper = upper;
+      this.skipNull = skipNull;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (nextPair == null && !done) {
+        CompoundKey key = reverseScan ? compoundMap.lowerKey(upper) : compoundMap.higherKey(lower);
+        if (key == null || key.compareTo(lower) <= 0 || key.compareTo(upper) >= 0) {
+          done = true;
+          break;
+        }
+
+        DBValue[] keyPrefix = withPrefix(key.getValue(prefix.length));
+        if (reverseScan) {
+          upper = CompoundKey.lowerBound(keyPrefix);
+        } else {
+          lower = CompoundKey.upperBound(keyPrefix);
+        }
+
+        if (!(skipNull && keyPrefix[prefix.length] instanceof DBNull)) {
+          nextPair = levelEntry(keyPrefix[prefix.length], subMap(keyPrefix));
+        }
+      }
+      return nextPair != null;
+    }
+
+    @Override
+    public Pair<Comparable<?>, ?> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Pair<Comparable<?>, ?> result = nextPair;
+      nextPair = null;
+      return result;
+    }
   }
 }
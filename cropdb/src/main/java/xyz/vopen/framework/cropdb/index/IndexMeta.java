@@ -22,6 +22,7 @@ import lombok.NoArgsConstructor;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OptionalDataException;
 import java.io.Serializable;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -39,16 +40,24 @@ public class IndexMeta implements Serializable {
   private IndexDescriptor indexDescriptor;
   private String indexMap;
   private AtomicBoolean isDirty;
+  private IndexStatistics statistics;
 
   private void writeObject(ObjectOutputStream stream) throws IOException {
     stream.writeObject(indexDescriptor);
     stream.writeUTF(indexMap);
     stream.writeObject(isDirty);
+    stream.writeObject(statistics);
   }
 
   private void readObject(ObjectInputStream stream) throws IOException, ClassNotFoundException {
     indexDescriptor = (IndexDescriptor) stream.readObject();
     indexMap = stream.readUTF();
     isDirty = (AtomicBoolean) stream.readObject();
+    try {
+      statistics = (IndexStatistics) stream.readObject();
+    } catch (OptionalDataException e) {
+      // written by an older version without statistics
+      statistics = null;
+    }
   }
 }
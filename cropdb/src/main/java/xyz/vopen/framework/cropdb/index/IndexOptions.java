@@ -19,6 +19,7 @@ package xyz.vopen.framework.cropdb.index;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.Setter;
+import xyz.vopen.framework.cropdb.filters.Filter;
 
 /**
  * Represents options to apply while creating an index.
@@ -37,6 +38,36 @@ public class IndexOptions {
    */
   @Getter @Setter private String indexType;
 
+  /**
+   * Specifies whether an index is built in the background. The collection can be written while
+   * the index is built, and the index is used by the queries once it is ready. The collection
+   * posts an {@code IndexEnd} event once the index is ready, or an {@code IndexFailed} event if
+   * the build failed, e.g. on a duplicate key of an unique index, and the index was dropped.
+   *
+   * @param async if the index is built in the background.
+   * @return `true` if the index is built in the background.
+   */
+  @Getter @Setter private boolean async;
+
+  /**
+   * Specifies whether an index leaves out the documents without any of the index fields. A sparse
+   * index is only used by the queries which never select such a document.
+   *
+   * @param sparse if the index is sparse.
+   * @return `true` if the index is sparse.
+   */
+  @Getter @Setter private boolean sparse;
+
+  /**
+   * Specifies the filter of the documents an index holds. A partial index is only used by the
+   * queries which select a subset of these documents. The filter can be an equality, range or in
+   * filter, or an and filter of them.
+   *
+   * @param partialFilter the filter of the indexed documents.
+   * @return the filter of the indexed documents, or `null` if all documents are indexed.
+   */
+  @Getter @Setter private Filter partialFilter;
+
   /**
    * Creates an {@link IndexOptions} with the specified `indexType`. Index creation will be
    * synchronous with this option.
@@ -49,4 +80,31 @@ public class IndexOptions {
     options.setIndexType(indexType);
     return options;
   }
+
+  /**
+   * Creates an {@link IndexOptions} with the specified `indexType`. An index created with
+   * `async` set to `true` is built in the background, and the index creation returns at once.
+   *
+   * @param indexType the type of index to be created.
+   * @param async if the index is built in the background.
+   * @return a new index creation option.
+   */
+  public static IndexOptions indexOptions(String indexType, boolean async) {
+    IndexOptions options = indexOptions(indexType);
+    options.setAsync(async);
+    return options;
+  }
+
+  /**
+   * Creates an {@link IndexOptions} to create an index again the way it was created.
+   *
+   * @param indexDescriptor the descriptor of the index.
+   * @return a new synchronous index creation option.
+   */
+  public static IndexOptions indexOptions(IndexDescriptor indexDescriptor) {
+    IndexOptions options = indexOptions(indexDescriptor.getIndexType());
+    options.setSparse(indexDescriptor.isSparse());
+    options.setPartialFilter(indexDescriptor.getPartialFilter());
+    return options;
+  }
 }
@@ -18,13 +18,14 @@
 package xyz.vopen.framework.cropdb.index;
 
 import xyz.vopen.framework.cropdb.collection.CropId;
+import xyz.vopen.framework.cropdb.common.tuples.Pair;
 import xyz.vopen.framework.cropdb.exceptions.FilterException;
 import xyz.vopen.framework.cropdb.filters.ComparableFilter;
 
+import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.NavigableMap;
 
 /**
  * Represents an {@link IndexMap} scanner.
@@ -70,7 +71,7 @@ public class IndexScanner {
         indexMap.setReverseScan(reverseScan);
 
         // apply the filter on the index map
-        // result can be list of crop ids or list of navigable maps
+        // result can be list of crop ids or list of index maps of the next field
         List<?> scanResult = comparableFilter.applyOnIndex(indexMap);
         if (isEmptyList(scanResult)) {
           // if list is empty then no need for further scanning
@@ -81,17 +82,15 @@ public class IndexScanner {
           // reached the terminal crop ids
           List<CropId> idList = (List<CropId>) scanResult;
           cropIds.addAll(idList);
-        } else if (isNavigableMapList(scanResult)) {
+        } else if (isIndexMapList(scanResult)) {
           // if this is a list of sub maps, then take each of the sub map
           // and the next filter and scan the sub map
-          List<NavigableMap<DBValue, ?>> subMaps = (List<NavigableMap<DBValue, ?>>) scanResult;
+          List<IndexMap> subMaps = (List<IndexMap>) scanResult;
           List<ComparableFilter> remainingFilter = filters.subList(1, filters.size());
 
-          for (NavigableMap<DBValue, ?> subMap : subMaps) {
-            // create an index map from the sub map and scan to get the
-            // terminal crop ids
-            IndexMap indexMap = new IndexMap(subMap);
-            IndexScanner subMapScanner = new IndexScanner(indexMap);
+          for (IndexMap subMap : subMaps) {
+            // scan the index map of the next field to get the terminal crop ids
+            IndexScanner subMapScanner = new IndexScanner(subMap);
             LinkedHashSet<CropId> subResult = subMapScanner.doScan(remainingFilter, indexScanOrder);
             cropIds.addAll(subResult);
           }
@@ -111,6 +110,39 @@ public class IndexScanner {
     return cropIds;
   }
 
+  /**
+   * Counts the {@link CropId}s of the matching elements of a single field {@link IndexMap}. The
+   * posting lists of a filter finding its index entries are counted by their cardinality, without
+   * listing their ids.
+   *
+   * @param filters the filters
+   * @return the number of matching ids
+   */
+  public long doCount(List<ComparableFilter> filters) {
+    Iterable<? extends Pair<Comparable<?>, ?>> entries =
+        filters != null && filters.size() == 1 && filters.get(0) != null
+            ? filters.get(0).findIndexEntries(indexMap)
+            : null;
+    if (entries == null) {
+      return doScan(filters, null).size();
+    }
+
+    List<CropIdBitmap> postingLists = new ArrayList<>();
+    for (Pair<Comparable<?>, ?> entry : entries) {
+      if (!CropIdBitmap.isPostingList(entry.getSecond())) {
+        // not a terminal value, the ids are found by scanning
+        return doScan(filters, null).size();
+      }
+      postingLists.add(CropIdBitmap.valueOf(entry.getSecond()));
+    }
+
+    if (postingLists.size() == 1) {
+      return postingLists.get(0).size();
+    }
+    // an id of an array field can be found in more than one posting list
+    return CropIdBitmap.union(postingLists).size();
+  }
+
   private boolean isEmptyList(List<?> list) {
     return list == null || list.isEmpty();
   }
@@ -120,8 +152,8 @@ public class IndexScanner {
     return value instanceof CropId;
   }
 
-  private boolean isNavigableMapList(List<?> list) {
+  private boolean isIndexMapList(List<?> list) {
     Object value = list.get(0);
-    return value instanceof NavigableMap;
+    return value instanceof IndexMap;
   }
 }
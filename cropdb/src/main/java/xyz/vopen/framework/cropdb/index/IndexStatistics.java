@@ -0,0 +1,300 @@
+/*
+ * Copyright (c) 2019-2020. Crop author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.vopen.framework.cropdb.index;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import xyz.vopen.framework.cropdb.common.DBNull;
+import xyz.vopen.framework.cropdb.common.tuples.Pair;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Represents the statistics of an index, used to estimate the number of entries a filter selects.
+ *
+ * <p>Besides the entry and distinct key counts, it keeps an equi-depth histogram of the first
+ * field keys, i.e. the upper bound key of each bucket along with the cumulative number of entries
+ * up to that bucket. The entry and distinct key counts are adjusted as documents are indexed, the
+ * histogram is rebuilt when the index is analyzed again after enough modifications.
+ *
+ * @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a>
+ * @since 4.0
+ */
+@Data
+@NoArgsConstructor
+public class IndexStatistics implements Serializable {
+  private static final long serialVersionUID = 1617520001L;
+
+  private static final int HISTOGRAM_BUCKETS = 32;
+  private static final long MIN_STALE_MODIFICATIONS = 1000;
+  private static final double STALE_RATIO = 0.1;
+
+  private long entryCount;
+  private long distinctKeyCount;
+  private long modificationCount;
+  private List<DBValue> bucketBounds;
+  private long[] bucketCounts;
+
+  /**
+   * Instantiates a new {@link IndexStatistics} as a copy of another one.
+   *
+   * @param other the other statistics
+   */
+  public IndexStatistics(IndexStatistics other) {
+    this.entryCount = other.entryCount;
+    this.distinctKeyCount = other.distinctKeyCount;
+    this.modificationCount = other.modificationCount;
+    this.bucketBounds = other.bucketBounds == null ? null : new ArrayList<>(other.bucketBounds);
+    this.bucketCounts = other.bucketCounts == null ? null : other.bucketCounts.clone();
+  }
+
+  /**
+   * Analyzes the entries of an index map, in key order, and creates its statistics. The value of
+   * an entry is the posting list of the key, or the number of ids of the key.
+   *
+   * @param entries the index entries
+   * @return the index statistics
+   */
+  public static IndexStatistics analyze(Iterable<? extends Pair<DBValue, ?>> entries) {
+    long entryCount = 0;
+    long distinctKeyCount = 0;
+
+    // the equi-depth histogram is built in the same pass, buckets are closed once they reach
+    // the depth, and whenever there are twice as many buckets as needed adjacent ones are merged
+    // and the depth is doubled. If there are only a few keys every key gets its own bucket.
+    DBValue[] bounds = new DBValue[2 * HISTOGRAM_BUCKETS];
+    long[] counts = new long[2 * HISTOGRAM_BUCKETS];
+    int buckets = 0;
+    long depth = 1;
+    long cumulative = 0;
+    DBValue lastKey = null;
+    for (Pair<DBValue, ?> entry : entries) {
+      long count = countEntries(entry.getSecond());
+      entryCount += count;
+      distinctKeyCount++;
+      if (isNullKey(entry.getFirst())) {
+        // null keys never take part in a range
+        continue;
+      }
+
+      cumulative += count;
+      lastKey = entry.getFirst();
+      if (cumulative - (buckets == 0 ? 0 : counts[buckets - 1]) >= depth) {
+        bounds[buckets] = lastKey;
+        counts[buckets] = cumulative;
+        buckets++;
+        if (buckets == bounds.length) {
+          buckets = mergeBuckets(bounds, counts, buckets);
+          depth *= 2;
+        }
+      }
+    }
+
+    if (lastKey != null && (buckets == 0 || bounds[buckets - 1] != lastKey)) {
+      // the largest key closes the last bucket
+      bounds[buckets] = lastKey;
+      counts[buckets] = cumulative;
+      buckets++;
+    }
+
+    if (buckets > HISTOGRAM_BUCKETS) {
+      buckets = mergeBuckets(bounds, counts, buckets);
+    }
+
+    IndexStatistics statistics = new IndexStatistics();
+    statistics.entryCount = entryCount;
+    statistics.distinctKeyCount = distinctKeyCount;
+    statistics.bucketBounds = new ArrayList<>(Arrays.asList(bounds).subList(0, buckets));
+    statistics.bucketCounts = Arrays.copyOf(counts, buckets);
+    return statistics;
+  }
+
+  /**
+   * Records a modification of the index. A batch counts as one modification per entry.
+   *
+   * @param delta the change in the number of entries
+   * @param keyDelta the change in the number of distinct keys
+   */
+  public synchronized void recordModification(long delta, long keyDelta) {
+    entryCount = Math.max(0, entryCount + delta);
+    distinctKeyCount = Math.max(0, distinctKeyCount + keyDelta);
+    modificationCount += Math.max(1, Math.abs(delta));
+  }
+
+  /**
+   * Indicates if enough modifications happened since the last analysis to analyze the index again.
+   *
+   * @return the boolean
+   */
+  public synchronized boolean isStale() {
+    return modificationCount >= Math.max(MIN_STALE_MODIFICATIONS, entryCount * STALE_RATIO);
+  }
+
+  /**
+   * Estimates the fraction of the entries with a key equal to the value.
+   *
+   * @param value the value
+   * @return the estimated selectivity
+   */
+  public synchronized double estimateEquals(Object value) {
+    if (entryCount == 0) {
+      return 0;
+    }
+
+    if (value instanceof Comparable && isExactHistogram()) {
+      // every key has its own bucket, so the count is known
+      try {
+        int index = findBucket(new DBValue((Comparable<?>) value));
+        if (index < bucketBounds.size()
+            && bucketBounds.get(index).compareTo(new DBValue((Comparable<?>) value)) == 0) {
+          long previous = index == 0 ? 0 : bucketCounts[index - 1];
+          return (double) (bucketCounts[index] - previous) / total();
+        }
+      } catch (ClassCastException e) {
+        // value of a different type than the keys
+        return 0;
+      }
+    }
+
+    return distinctKeyCount == 0 ? 1.0 : 1.0 / distinctKeyCount;
+  }
+
+  /**
+   * Estimates the fraction of the entries with a key within a range. A <code>null</code> bound
+   * leaves that end of the range open.
+   *
+   * @param from the lower bound
+   * @param to the upper bound
+   * @return the estimated selectivity
+   */
+  public synchronized double estimateRange(Comparable<?> from, Comparable<?> to) {
+    if (entryCount == 0 || bucketBounds == null || bucketBounds.isEmpty()) {
+      return entryCount == 0 ? 0 : 1.0;
+    }
+
+    try {
+      // entries before the bucket holding the lower bound
+      long lower = 0;
+      if (from != null) {
+        int index = findBucket(new DBValue(from));
+        lower = index == 0 ? 0 : bucketCounts[index - 1];
+      }
+
+      // entries up to the end of the bucket holding the upper bound
+      long upper = bucketCounts[bucketCounts.length - 1];
+      if (to != null) {
+        int index = findBucket(new DBValue(to));
+        upper = index >= bucketCounts.length ? upper : bucketCounts[index];
+      }
+      return Math.max(0, upper - lower) / (double) total();
+    } catch (ClassCastException e) {
+      // bounds of a different type than the keys
+      return 0;
+    }
+  }
+
+  private boolean isExactHistogram() {
+    // every key has its own bucket only if there were less keys than buckets
+    return bucketBounds != null
+        && !bucketBounds.isEmpty()
+        && bucketBounds.size() < HISTOGRAM_BUCKETS
+        && bucketBounds.size() >= distinctKeyCount - 1;
+  }
+
+  private long total() {
+    long total = bucketCounts.length == 0 ? 0 : bucketCounts[bucketCounts.length - 1];
+    return Math.max(1, total);
+  }
+
+  private static boolean isNullKey(DBValue key) {
+    return key == null || key instanceof DBNull;
+  }
+
+  // finds the first bucket whose upper bound is not less than the key
+  private int findBucket(DBValue key) {
+    int low = 0;
+    int high = bucketBounds.size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (bucketBounds.get(mid).compareTo(key) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  // merges each pair of adjacent buckets into the upper one, returns the new number of buckets
+  private static int mergeBuckets(DBValue[] bounds, long[] counts, int buckets) {
+    int merged = 0;
+    for (int i = 1; i < buckets; i += 2) {
+      bounds[merged] = bounds[i];
+      counts[merged] = counts[i];
+      merged++;
+    }
+
+    if (buckets % 2 == 1) {
+      bounds[merged] = bounds[buckets - 1];
+      counts[merged] = counts[buckets - 1];
+      merged++;
+    }
+    Arrays.fill(bounds, merged, buckets, null);
+    return merged;
+  }
+
+  private static long countEntries(Object value) {
+    if (value instanceof Collection) {
+      return ((Collection<?>) value).size();
+    } else if (value instanceof Long) {
+      return (Long) value;
+    }
+    return value == null ? 0 : 1;
+  }
+
+  private void writeObject(ObjectOutputStream stream) throws IOException {
+    stream.writeLong(entryCount);
+    stream.writeLong(distinctKeyCount);
+    stream.writeLong(modificationCount);
+    int buckets = bucketBounds == null ? 0 : bucketBounds.size();
+    stream.writeInt(buckets);
+    for (int i = 0; i < buckets; i++) {
+      stream.writeObject(bucketBounds.get(i));
+      stream.writeLong(bucketCounts[i]);
+    }
+  }
+
+  private void readObject(ObjectInputStream stream) throws IOException, ClassNotFoundException {
+    entryCount = stream.readLong();
+    distinctKeyCount = stream.readLong();
+    modificationCount = stream.readLong();
+    int buckets = stream.readInt();
+    bucketBounds = new ArrayList<>(buckets);
+    bucketCounts = new long[buckets];
+    for (int i = 0; i < buckets; i++) {
+      bucketBounds.add((DBValue) stream.readObject());
+      bucketCounts[i] = stream.readLong();
+    }
+  }
+}
@@ -29,9 +29,16 @@ import xyz.vopen.framework.cropdb.store.CropStore;
 import xyz.vopen.framework.cropdb.common.util.IndexUtils;
 import xyz.vopen.framework.cropdb.common.util.ObjectUtils;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Represents a crop index on a single field.
@@ -42,6 +49,7 @@ import java.util.concurrent.CopyOnWriteArrayList;
 public class SingleFieldIndex implements CropIndex {
   @Getter private final IndexDescriptor indexDescriptor;
   private final CropStore<?> cropStore;
+  private final AtomicLong keyCountChange;
 
   /**
    * Instantiates a new {@link SingleFieldIndex}.
@@ -52,6 +60,7 @@ public class SingleFieldIndex implements CropIndex {
   public SingleFieldIndex(IndexDescriptor indexDescriptor, CropStore<?> cropStore) {
     this.indexDescriptor = indexDescriptor;
     this.cropStore = cropStore;
+    this.keyCountChange = new AtomicLong();
   }
 
   @Override
@@ -62,7 +71,7 @@ public class SingleFieldIndex implements CropIndex {
     String firstField = fieldNames.get(0);
     Object element = fieldValues.get(firstField);
 
-    CropMap<DBValue, List<?>> indexMap = findIndexMap();
+    CropMap<DBValue, Collection<CropId>> indexMap = findIndexMap();
 
     if (element == null) {
       addIndexElement(indexMap, fieldValues, DBNull.getInstance());
@@ -89,6 +98,47 @@ public class SingleFieldIndex implements CropIndex {
     }
   }
 
+  @Override
+  public void writeAll(List<FieldValues> fieldValuesList) {
+    // group the batch by key, so that every posting list is read and written once
+    NavigableMap<DBValue, List<FieldValues>> batch = new TreeMap<>();
+    for (FieldValues fieldValues : fieldValuesList) {
+      String firstField = fieldValues.getFields().getFieldNames().get(0);
+      Object element = fieldValues.get(firstField);
+
+      if (element == null) {
+        batch.computeIfAbsent(DBNull.getInstance(), k -> new ArrayList<>()).add(fieldValues);
+      } else if (element instanceof Comparable) {
+        DBValue dbValue = new DBValue((Comparable<?>) element);
+        batch.computeIfAbsent(dbValue, k -> new ArrayList<>()).add(fieldValues);
+      } else if (element.getClass().isArray() || element instanceof Iterable) {
+        Iterable<?> iterable =
+            element instanceof Iterable
+                ? (Iterable<?>) element
+                : Arrays.asList(ObjectUtils.convertToObjectArray(element));
+
+        for (Object item : iterable) {
+          DBValue dbValue = item == null ? DBNull.getInstance() : new DBValue((Comparable<?>) item);
+          batch.computeIfAbsent(dbValue, k -> new ArrayList<>()).add(fieldValues);
+        }
+      }
+    }
+
+    CropMap<DBValue, Collection<CropId>> indexMap = findIndexMap();
+    Map<DBValue, Collection<CropId>> entries = new LinkedHashMap<>();
+    for (Map.Entry<DBValue, List<FieldValues>> entry : batch.entrySet()) {
+      CropIdBitmap cropIds = CropIdBitmap.valueOf(indexMap.get(entry.getKey()));
+      if (cropIds == null) {
+        keyCountChange.incrementAndGet();
+      }
+      for (FieldValues fieldValues : entry.getValue()) {
+        cropIds = addCropIds(cropIds, fieldValues);
+      }
+      entries.put(entry.getKey(), cropIds);
+    }
+    indexMap.putAll(entries);
+  }
+
   @Override
   public void remove(FieldValues fieldValues) {
     Fields fields = fieldValues.getFields();
@@ -97,7 +147,7 @@ public class SingleFieldIndex implements CropIndex {
     String firstField = fieldNames.get(0);
     Object element = fieldValues.get(firstField);
 
-    CropMap<DBValue, List<?>> indexMap = findIndexMap();
+    CropMap<DBValue, Collection<CropId>> indexMap = findIndexMap();
     if (element == null) {
       removeIndexElement(indexMap, fieldValues, DBNull.getInstance());
     } else if (element instanceof Comparable) {
@@ -125,7 +175,7 @@ public class SingleFieldIndex implements CropIndex {
 
   @Override
   public void drop() {
-    CropMap<DBValue, List<?>> indexMap = findIndexMap();
+    CropMap<DBValue, Collection<CropId>> indexMap = findIndexMap();
     indexMap.clear();
     indexMap.drop();
   }
@@ -134,38 +184,67 @@ public class SingleFieldIndex implements CropIndex {
   public LinkedHashSet<CropId> findCropIds(FindPlan findPlan) {
     if (findPlan.getIndexScanFilter() == null) return new LinkedHashSet<>();
 
-    CropMap<DBValue, List<?>> indexMap = findIndexMap();
+    CropMap<DBValue, Collection<CropId>> indexMap = findIndexMap();
     return scanIndex(findPlan, indexMap);
   }
 
-  @SuppressWarnings("unchecked")
+  @Override
+  public long countCropIds(FindPlan findPlan) {
+    if (findPlan.getIndexScanFilter() == null) return 0;
+
+    CropMap<DBValue, Collection<CropId>> indexMap = findIndexMap();
+    IndexScanner indexScanner = new IndexScanner(new IndexMap(indexMap));
+    return indexScanner.doCount(findPlan.getIndexScanFilter().getFilters());
+  }
+
+  @Override
+  public IndexStatistics computeStatistics() {
+    CropMap<DBValue, Collection<CropId>> indexMap = findIndexMap();
+    return IndexStatistics.analyze(indexMap.entries());
+  }
+
+  @Override
+  public long takeKeyCountChange() {
+    return keyCountChange.getAndSet(0);
+  }
+
   private void addIndexElement(
-      CropMap<DBValue, List<?>> indexMap, FieldValues fieldValues, DBValue element) {
-    List<CropId> cropIds = (List<CropId>) indexMap.get(element);
+      CropMap<DBValue, Collection<CropId>> indexMap, FieldValues fieldValues, DBValue element) {
+    Collection<CropId> indexValue = indexMap.get(element);
+    CropIdBitmap cropIds = CropIdBitmap.valueOf(indexValue);
+    if (cropIds == indexValue && cropIds != null && cropIds.contains(fieldValues.getCropId())) {
+      // already stored, the posting list is not written again
+      return;
+    }
+
+    if (cropIds == null) {
+      keyCountChange.incrementAndGet();
+    }
+
     cropIds = addCropIds(cropIds, fieldValues);
     indexMap.put(element, cropIds);
   }
 
-  @SuppressWarnings("unchecked")
   private void removeIndexElement(
-      CropMap<DBValue, List<?>> indexMap, FieldValues fieldValues, DBValue element) {
-    List<CropId> cropIds = (List<CropId>) indexMap.get(element);
-    if (cropIds != null && !cropIds.isEmpty()) {
-      cropIds.remove(fieldValues.getCropId());
+      CropMap<DBValue, Collection<CropId>> indexMap, FieldValues fieldValues, DBValue element) {
+    CropIdBitmap cropIds = CropIdBitmap.valueOf(indexMap.get(element));
+    // the posting list is written only if the id was in it
+    if (cropIds != null && cropIds.remove(fieldValues.getCropId())) {
       if (cropIds.size() == 0) {
         indexMap.remove(element);
+        keyCountChange.decrementAndGet();
       } else {
         indexMap.put(element, cropIds);
       }
     }
   }
 
-  private CropMap<DBValue, List<?>> findIndexMap() {
+  private CropMap<DBValue, Collection<CropId>> findIndexMap() {
     String mapName = IndexUtils.deriveIndexMapName(indexDescriptor);
-    return cropStore.openMap(mapName, DBValue.class, CopyOnWriteArrayList.class);
+    return cropStore.openMap(mapName, DBValue.class, CropIdBitmap.class);
   }
 
-  private LinkedHashSet<CropId> scanIndex(FindPlan findPlan, CropMap<DBValue, List<?>> indexMap) {
+  private LinkedHashSet<CropId> scanIndex(FindPlan findPlan, CropMap<DBValue, Collection<CropId>> indexMap) {
     List<ComparableFilter> filters = findPlan.getIndexScanFilter().getFilters();
     IndexMap iMap = new IndexMap(indexMap);
     IndexScanner indexScanner = new IndexScanner(iMap);
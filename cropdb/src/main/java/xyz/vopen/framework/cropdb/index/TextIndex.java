@@ -33,11 +33,11 @@ import xyz.vopen.framework.cropdb.common.util.IndexUtils;
 import xyz.vopen.framework.cropdb.common.util.ObjectUtils;
 import xyz.vopen.framework.cropdb.common.util.ValidationUtils;
 
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Represents a crop full-text index.
@@ -72,7 +72,7 @@ public class TextIndex implements CropIndex {
     String firstField = fieldNames.get(0);
     Object element = fieldValues.get(firstField);
 
-    CropMap<String, List<?>> indexMap = findIndexMap();
+    CropMap<String, Collection<CropId>> indexMap = findIndexMap();
 
     if (element == null) {
       addIndexElement(indexMap, fieldValues, null);
@@ -105,7 +105,7 @@ public class TextIndex implements CropIndex {
     String firstField = fieldNames.get(0);
     Object element = fieldValues.get(firstField);
 
-    CropMap<String, List<?>> indexMap = findIndexMap();
+    CropMap<String, Collection<CropId>> indexMap = findIndexMap();
     if (element == null) {
       removeIndexElement(indexMap, fieldValues, null);
     } else if (element instanceof String) {
@@ -131,7 +131,7 @@ public class TextIndex implements CropIndex {
 
   @Override
   public void drop() {
-    CropMap<String, List<?>> indexMap = findIndexMap();
+    CropMap<String, Collection<CropId>> indexMap = findIndexMap();
     indexMap.clear();
     indexMap.drop();
   }
@@ -140,7 +140,7 @@ public class TextIndex implements CropIndex {
   public LinkedHashSet<CropId> findCropIds(FindPlan findPlan) {
     if (findPlan.getIndexScanFilter() == null) return new LinkedHashSet<>();
 
-    CropMap<String, List<?>> indexMap = findIndexMap();
+    CropMap<String, Collection<CropId>> indexMap = findIndexMap();
     List<ComparableFilter> filters = findPlan.getIndexScanFilter().getFilters();
 
     if (filters.size() == 1 && filters.get(0) instanceof TextFilter) {
@@ -151,21 +151,21 @@ public class TextIndex implements CropIndex {
     throw new FilterException("invalid filter found for full-text index");
   }
 
-  private CropMap<String, List<?>> findIndexMap() {
+  private CropMap<String, Collection<CropId>> findIndexMap() {
     String mapName = IndexUtils.deriveIndexMapName(indexDescriptor);
-    return cropStore.openMap(mapName, String.class, CopyOnWriteArrayList.class);
+    return cropStore.openMap(mapName, String.class, CropIdBitmap.class);
   }
 
-  @SuppressWarnings("unchecked")
   private void addIndexElement(
-      CropMap<String, List<?>> indexMap, FieldValues fieldValues, String value) {
+      CropMap<String, Collection<CropId>> indexMap, FieldValues fieldValues, String value) {
     Set<String> words = decompose(value);
 
     for (String word : words) {
-      List<CropId> cropIds = (List<CropId>) indexMap.get(word);
-
-      if (cropIds == null) {
-        cropIds = new CopyOnWriteArrayList<>();
+      Collection<CropId> indexValue = indexMap.get(word);
+      CropIdBitmap cropIds = CropIdBitmap.valueOf(indexValue);
+      if (cropIds == indexValue && cropIds != null && cropIds.contains(fieldValues.getCropId())) {
+        // already stored, the posting list is not written again
+        continue;
       }
 
       cropIds = addCropIds(cropIds, fieldValues);
@@ -173,14 +173,13 @@ public class TextIndex implements CropIndex {
     }
   }
 
-  @SuppressWarnings("unchecked")
   private void removeIndexElement(
-      CropMap<String, List<?>> indexMap, FieldValues fieldValues, String value) {
+      CropMap<String, Collection<CropId>> indexMap, FieldValues fieldValues, String value) {
     Set<String> words = decompose(value);
     for (String word : words) {
-      List<CropId> cropIds = (List<CropId>) indexMap.get(word);
-      if (cropIds != null && !cropIds.isEmpty()) {
-        cropIds.remove(fieldValues.getCropId());
+      CropIdBitmap cropIds = CropIdBitmap.valueOf(indexMap.get(word));
+      // the posting list is written only if the id was in it
+      if (cropIds != null && cropIds.remove(fieldValues.getCropId())) {
         if (cropIds.isEmpty()) {
           indexMap.remove(word);
         } else {
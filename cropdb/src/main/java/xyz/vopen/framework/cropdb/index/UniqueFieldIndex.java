@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2021-2022. CropDB author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.vopen.framework.cropdb.index;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import xyz.vopen.framework.cropdb.collection.CropId;
+import xyz.vopen.framework.cropdb.collection.FindPlan;
+import xyz.vopen.framework.cropdb.common.DBNull;
+import xyz.vopen.framework.cropdb.common.FieldValues;
+import xyz.vopen.framework.cropdb.common.tuples.Pair;
+import xyz.vopen.framework.cropdb.exceptions.UniqueConstraintException;
+import xyz.vopen.framework.cropdb.filters.ComparableFilter;
+import xyz.vopen.framework.cropdb.store.CropMap;
+import xyz.vopen.framework.cropdb.store.CropStore;
+import xyz.vopen.framework.cropdb.common.util.IndexUtils;
+import xyz.vopen.framework.cropdb.common.util.ObjectUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Represents a crop unique index on a single field.
+ *
+ * <p>A key of a unique index is never mapped to more than one document, so the index maps each key
+ * to the id of its document instead of a posting list. A write claims its keys with a
+ * put-if-absent of the store, which is a read and a write for some stores. The uniqueness is kept
+ * by the collection, which locks the keys of a write, either with its write lock or with the
+ * stripe locks of the index entries, so no other write claims them in between.
+ *
+ * @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a>
+ * @since 4.0
+ */
+@Slf4j
+public class UniqueFieldIndex implements CropIndex {
+  private static final int MIGRATION_BATCH_SIZE = 10000;
+
+  @Getter private final IndexDescriptor indexDescriptor;
+  private final CropStore<?> cropStore;
+  private final AtomicLong keyCountChange;
+  private volatile boolean migrated;
+
+  /**
+   * Instantiates a new {@link UniqueFieldIndex}.
+   *
+   * @param indexDescriptor the index descriptor
+   * @param cropStore the crop store
+   */
+  public UniqueFieldIndex(IndexDescriptor indexDescriptor, CropStore<?> cropStore) {
+    this.indexDescriptor = indexDescriptor;
+    this.cropStore = cropStore;
+    this.keyCountChange = new AtomicLong();
+  }
+
+  @Override
+  public void write(FieldValues fieldValues) {
+    CropMap<DBValue, CropId> indexMap = findIndexMap();
+    CropId cropId = fieldValues.getCropId();
+
+    // the keys are locked by the writer, the put-if-absent alone is not atomic on every store
+    for (DBValue key : createKeys(fieldValues)) {
+      CropId existing = indexMap.putIfAbsent(key, cropId);
+      if (existing == null) {
+        keyCountChange.incrementAndGet();
+      } else if (!existing.equals(cropId)) {
+        // if key is already exists for unique type, throw error
+        throw new UniqueConstraintException(
+            "unique key constraint violation for " + fieldValues.getFields());
+      }
+    }
+  }
+
+  @Override
+  public void writeAll(List<FieldValues> fieldValuesList) {
+    // the entries are checked and written in key order
+    NavigableMap<DBValue, CropId> batch = new TreeMap<>();
+    for (FieldValues fieldValues : fieldValuesList) {
+      CropId cropId = fieldValues.getCropId();
+      for (DBValue key : createKeys(fieldValues)) {
+        CropId existing = batch.putIfAbsent(key, cropId);
+        if (existing != null && !existing.equals(cropId)) {
+          throw new UniqueConstraintException(
+              "unique key constraint violation for " + fieldValues.getFields());
+        }
+      }
+    }
+
+    // the keys of the batch are locked by the writer, so none is claimed between the check
+    // and the write
+    CropMap<DBValue, CropId> indexMap = findIndexMap();
+    long newKeys = 0;
+    for (Map.Entry<DBValue, CropId> entry : batch.entrySet()) {
+      CropId existing = indexMap.get(entry.getKey());
+      if (existing == null) {
+        newKeys++;
+      } else if (!existing.equals(entry.getValue())) {
+        throw new UniqueConstraintException(
+            "unique key constraint violation for " + indexDescriptor.getIndexFields());
+      }
+    }
+    indexMap.putAll(batch);
+    keyCountChange.addAndGet(newKeys);
+  }
+
+  @Override
+  public void remove(FieldValues fieldValues) {
+    CropMap<DBValue, CropId> indexMap = findIndexMap();
+    CropId cropId = fieldValues.getCropId();
+
+    for (DBValue key : createKeys(fieldValues)) {
+      // a key claimed by another document is left alone
+      if (cropId.equals(indexMap.get(key))) {
+        indexMap.remove(key);
+        keyCountChange.decrementAndGet();
+      }
+    }
+  }
+
+  @Override
+  public void drop() {
+    CropMap<DBValue, CropId> indexMap = findIndexMap();
+    indexMap.clear();
+    indexMap.drop();
+  }
+
+  @Override
+  public LinkedHashSet<CropId> findCropIds(FindPlan findPlan) {
+    if (findPlan.getIndexScanFilter() == null) return new LinkedHashSet<>();
+
+    CropMap<DBValue, CropId> indexMap = findIndexMap();
+    List<ComparableFilter> filters = findPlan.getIndexScanFilter().getFilters();
+    IndexScanner indexScanner = new IndexScanner(new IndexMap(indexMap));
+    return indexScanner.doScan(filters, findPlan.getIndexScanOrder());
+  }
+
+  @Override
+  public long countCropIds(FindPlan findPlan) {
+    if (findPlan.getIndexScanFilter() == null) return 0;
+
+    CropMap<DBValue, CropId> indexMap = findIndexMap();
+    IndexScanner indexScanner = new IndexScanner(new IndexMap(indexMap));
+    return indexScanner.doCount(findPlan.getIndexScanFilter().getFilters());
+  }
+
+  @Override
+  public IndexStatistics computeStatistics() {
+    CropMap<DBValue, CropId> indexMap = findIndexMap();
+    return IndexStatistics.analyze(indexMap.entries());
+  }
+
+  @Override
+  public long takeKeyCountChange() {
+    return keyCountChange.getAndSet(0);
+  }
+
+  private Collection<DBValue> createKeys(FieldValues fieldValues) {
+    String firstField = fieldValues.getFields().getFieldNames().get(0);
+    Object element = fieldValues.get(firstField);
+
+    if (element == null) {
+      return Collections.singletonList(DBNull.getInstance());
+    } else if (element instanceof Comparable) {
+      // wrap around db value
+      return Collections.singletonList(new DBValue((Comparable<?>) element));
+    }
+
+    Iterable<?> iterable;
+    if (element.getClass().isArray()) {
+      iterable = Arrays.asList(ObjectUtils.convertToObjectArray(element));
+    } else if (element instanceof Iterable) {
+      iterable = (Iterable<?>) element;
+    } else {
+      return Collections.emptyList();
+    }
+
+    List<DBValue> keys = new ArrayList<>();
+    for (Object item : iterable) {
+      // wrap around db value
+      keys.add(item == null ? DBNull.getInstance() : new DBValue((Comparable<?>) item));
+    }
+    return keys;
+  }
+
+  private CropMap<DBValue, CropId> findIndexMap() {
+    String mapName = IndexUtils.deriveIndexMapName(indexDescriptor);
+    CropMap<DBValue, CropId> indexMap = cropStore.openMap(mapName, DBValue.class, CropId.class);
+    if (!migrated) {
+      migratePostingLists(indexMap);
+    }
+    return indexMap;
+  }
+
+  // older versions stored a posting list for each key of a unique index
+  private synchronized void migratePostingLists(CropMap<DBValue, CropId> indexMap) {
+    if (migrated) return;
+
+    String legacyMapName = IndexUtils.deriveLegacyIndexMapName(indexDescriptor);
+    if (cropStore.hasMap(legacyMapName)) {
+      log.info("Converting the unique index " + legacyMapName + " written by an older version");
+      CropMap<DBValue, Collection<CropId>> legacyMap =
+          cropStore.openMap(legacyMapName, DBValue.class, CropIdBitmap.class);
+
+      Map<DBValue, CropId> entries = new LinkedHashMap<>();
+      for (Pair<DBValue, Collection<CropId>> entry : legacyMap.entries()) {
+        Collection<CropId> cropIds = entry.getSecond();
+        if (cropIds == null || cropIds.isEmpty()) continue;
+
+        entries.put(entry.getFirst(), cropIds.iterator().next());
+        if (entries.size() >= MIGRATION_BATCH_SIZE) {
+          indexMap.putAll(entries);
+          entries.clear();
+        }
+      }
+      indexMap.putAll(entries);
+      legacyMap.drop();
+    }
+    migrated = true;
+  }
+}
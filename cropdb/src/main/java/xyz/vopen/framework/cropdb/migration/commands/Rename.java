@@ -10,6 +10,7 @@ import xyz.vopen.framework.cropdb.collection.operation.IndexManager;
 import xyz.vopen.framework.cropdb.common.Fields;
 import xyz.vopen.framework.cropdb.common.tuples.Pair;
 import xyz.vopen.framework.cropdb.index.IndexDescriptor;
+import xyz.vopen.framework.cropdb.index.IndexOptions;
 import xyz.vopen.framework.cropdb.store.CropMap;
 
 import java.util.Collection;
@@ -41,8 +42,7 @@ public class Rename extends BaseCommand implements Command {
         Collection<IndexDescriptor> indexEntries = indexManager.getIndexDescriptors();
         for (IndexDescriptor indexDescriptor : indexEntries) {
           Fields field = indexDescriptor.getIndexFields();
-          String indexType = indexDescriptor.getIndexType();
-          newOperations.createIndex(field, indexType);
+          newOperations.createIndex(field, IndexOptions.indexOptions(indexDescriptor));
         }
       }
     }
@@ -19,9 +19,11 @@ package xyz.vopen.framework.cropdb.repository;
 
 import lombok.Getter;
 import xyz.vopen.framework.cropdb.collection.CropCollection;
+import xyz.vopen.framework.cropdb.common.Fields;
 import xyz.vopen.framework.cropdb.common.mapper.CropMapper;
 import xyz.vopen.framework.cropdb.common.util.StringUtils;
 import xyz.vopen.framework.cropdb.exceptions.NotIdentifiableException;
+import xyz.vopen.framework.cropdb.index.IndexOptions;
 import xyz.vopen.framework.cropdb.repository.annotations.*;
 
 import java.lang.reflect.Field;
@@ -50,12 +52,18 @@ class AnnotationScanner {
   }
 
   public void createIndices() {
+    // the missing indexes are built together, in one pass over the collection
+    Map<Fields, IndexOptions> missingIndices = new LinkedHashMap<>();
     for (Index index : indices) {
       String[] fields = index.value();
       if (!collection.hasIndex(fields)) {
-        collection.createIndex(indexOptions(index.type()), fields);
+        missingIndices.putIfAbsent(Fields.withNames(fields), indexOptions(index.type()));
       }
     }
+
+    if (!missingIndices.isEmpty()) {
+      collection.createIndexes(missingIndices);
+    }
   }
 
   public void createIdIndex() {
@@ -27,7 +27,7 @@ import xyz.vopen.framework.cropdb.common.RecordStream;
  * @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a>
  * @since 1.0
  */
-public interface Cursor<T> extends RecordStream<T> {
+public interface Cursor<T> extends RecordStream<T>, AutoCloseable {
   /**
    * Gets a filter plan for the query.
    *
@@ -61,4 +61,11 @@ public interface Cursor<T> extends RecordStream<T> {
    */
   <Foreign, Joined> RecordStream<Joined> join(
       Cursor<Foreign> foreignCursor, Lookup lookup, Class<Joined> type);
+
+  /**
+   * Closes the cursor. The iterators of the cursor which are not read to the end release what
+   * they hold, e.g. the temporary files of a sort which does not fit in memory.
+   */
+  @Override
+  default void close() {}
 }
@@ -22,6 +22,7 @@ import xyz.vopen.framework.cropdb.collection.FindOptions;
 import xyz.vopen.framework.cropdb.collection.CropCollection;
 import xyz.vopen.framework.cropdb.collection.events.CollectionEventListener;
 import xyz.vopen.framework.cropdb.collection.meta.Attributes;
+import xyz.vopen.framework.cropdb.common.Fields;
 import xyz.vopen.framework.cropdb.common.WriteResult;
 import xyz.vopen.framework.cropdb.filters.Filter;
 import xyz.vopen.framework.cropdb.index.IndexDescriptor;
@@ -31,6 +32,7 @@ import xyz.vopen.framework.cropdb.common.processors.Processor;
 import xyz.vopen.framework.cropdb.store.CropStore;
 
 import java.util.Collection;
+import java.util.Map;
 
 import static xyz.vopen.framework.cropdb.collection.UpdateOptions.updateOptions;
 import static xyz.vopen.framework.cropdb.common.util.ValidationUtils.containsNull;
@@ -67,6 +69,11 @@ class DefaultObjectRepository<T> implements ObjectRepository<T> {
     collection.createIndex(indexOptions, fields);
   }
 
+  @Override
+  public void createIndexes(Map<Fields, IndexOptions> indexes) {
+    collection.createIndexes(indexes);
+  }
+
   @Override
   public void rebuildIndex(String... fields) {
     collection.rebuildIndex(fields);
@@ -151,6 +158,11 @@ class DefaultObjectRepository<T> implements ObjectRepository<T> {
     return operations.find(filter, findOptions, type);
   }
 
+  @Override
+  public long count(Filter filter) {
+    return operations.count(filter);
+  }
+
   @Override
   public <I> T getById(I id) {
     Filter idFilter = operations.createIdFilter(id);
@@ -73,6 +73,11 @@ class ObjectCursor<T> implements Cursor<T> {
     return new ObjectCursorIterator(cursor.iterator());
   }
 
+  @Override
+  public void close() {
+    cursor.close();
+  }
+
   private <D> Document emptyDocument(CropMapper cropMapper, Class<D> type) {
     if (type.isPrimitive()) {
       throw new ValidationException("cannot project to primitive type");
@@ -280,6 +280,21 @@ public interface ObjectRepository<T> extends PersistentCollection<T> {
    */
   Cursor<T> find(Filter filter, FindOptions findOptions);
 
+  /**
+   * Counts the objects selected by a filter.
+   *
+   * <p>NOTE: If the filter can be answered by the indexes alone, the objects are not read. The
+   * default implementation counts the objects of a cursor.
+   *
+   * @param filter the filter to apply to select objects from collection.
+   * @return the number of selected objects.
+   */
+  default long count(Filter filter) {
+    try (Cursor<T> cursor = find(filter)) {
+      return cursor.size();
+    }
+  }
+
   /**
    * Gets a single element from the repository by its id. If no element is found, it will return
    * {@code null}. The object must have a field annotated with {@link Id}, otherwise this call will
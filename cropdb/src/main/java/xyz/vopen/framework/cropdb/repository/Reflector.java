@@ -18,12 +18,12 @@
 package xyz.vopen.framework.cropdb.repository;
 
 import xyz.vopen.framework.cropdb.CropConfig;
+import xyz.vopen.framework.cropdb.common.FieldPath;
 import xyz.vopen.framework.cropdb.exceptions.ValidationException;
 import xyz.vopen.framework.cropdb.repository.annotations.InheritIndices;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
-import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -60,28 +60,28 @@ class Reflector {
   }
 
   public <T> Field getEmbeddedField(Class<T> startingClass, String embeddedField) {
-    String regex = MessageFormat.format("\\{0}", CropConfig.getFieldSeparator());
-    String[] split = embeddedField.split(regex, 2);
-    String key = split[0];
-    String remaining = split.length == 2 ? split[1] : "";
-
-    if (isNullOrEmpty(key)) {
+    FieldPath path = FieldPath.of(embeddedField);
+    if (path.length() == 0) {
       throw new ValidationException("invalid embedded field provided");
     }
 
-    Field field;
-    try {
-      field = startingClass.getDeclaredField(key);
-    } catch (NoSuchFieldException e) {
-      throw new ValidationException(
-          "no such field '" + key + "' for type " + startingClass.getName(), e);
-    }
+    // walk down the field types one level at a time
+    Class<?> type = startingClass;
+    Field field = null;
+    for (int level = 0; level < path.length(); level++) {
+      String key = path.getSegment(level);
+      if (isNullOrEmpty(key)) {
+        throw new ValidationException("invalid embedded field provided");
+      }
 
-    if (!isNullOrEmpty(remaining) || remaining.contains(CropConfig.getFieldSeparator())) {
-      return getEmbeddedField(field.getType(), remaining);
-    } else {
-      return field;
+      try {
+        field = type.getDeclaredField(key);
+      } catch (NoSuchFieldException e) {
+        throw new ValidationException("no such field '" + key + "' for type " + type.getName(), e);
+      }
+      type = field.getType();
     }
+    return field;
   }
 
   public List<Field> getFieldsUpto(Class<?> startClass, Class<?> exclusiveParent) {
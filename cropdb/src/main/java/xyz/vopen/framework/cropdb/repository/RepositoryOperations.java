@@ -233,6 +233,16 @@ public class RepositoryOperations {
     return new ObjectCursor<>(cropMapper, documentCursor, type);
   }
 
+  /**
+   * Counts the objects selected by a filter.
+   *
+   * @param filter the filter
+   * @return the number of objects
+   */
+  public long count(Filter filter) {
+    return collection.count(asObjectFilter(filter));
+  }
+
   private void validateCollection() {
     if (collection == null) {
       throw new ValidationException("repository has not been initialized properly");
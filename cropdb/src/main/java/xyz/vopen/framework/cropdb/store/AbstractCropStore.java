@@ -4,6 +4,8 @@ import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import xyz.vopen.framework.cropdb.CropConfig;
+import xyz.vopen.framework.cropdb.collection.meta.Attributes;
+import xyz.vopen.framework.cropdb.common.Constants;
 import xyz.vopen.framework.cropdb.common.event.CropEventBus;
 import xyz.vopen.framework.cropdb.store.events.EventInfo;
 import xyz.vopen.framework.cropdb.store.events.StoreEventBus;
@@ -12,6 +14,7 @@ import xyz.vopen.framework.cropdb.store.events.StoreEvents;
 
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * An abstract {@link CropStore} implementation.
@@ -33,9 +36,13 @@ public abstract class AbstractCropStore<Config extends StoreConfig> implements C
 
   private StoreCatalog storeCatalog;
 
+  // last modified times not yet written to the map attributes
+  private final Map<String, Long> lastModifiedTimes;
+
   /** Instantiates a new {@link AbstractCropStore}. */
   protected AbstractCropStore() {
     eventBus = new StoreEventBus();
+    lastModifiedTimes = new ConcurrentHashMap<>();
   }
 
   /**
@@ -63,8 +70,40 @@ public abstract class AbstractCropStore<Config extends StoreConfig> implements C
     return getCatalog().getKeyedRepositoryNames();
   }
 
+  @Override
+  public void updateLastModifiedTime(String mapName) {
+    // kept in memory, so that a write to a map does not write its attributes as well
+    lastModifiedTimes.put(mapName, System.currentTimeMillis());
+  }
+
+  @Override
+  public void flushLastModifiedTimes() {
+    if (lastModifiedTimes.isEmpty() || isClosed()) return;
+
+    CropMap<String, Attributes> metaMap =
+        openMap(Constants.META_MAP_NAME, String.class, Attributes.class);
+    for (Map.Entry<String, Long> entry : lastModifiedTimes.entrySet()) {
+      String mapName = entry.getKey();
+      Long time = entry.getValue();
+
+      // the map might be removed since
+      if (hasMap(mapName)) {
+        Attributes attributes = metaMap.get(mapName);
+        if (attributes == null) {
+          attributes = new Attributes(mapName);
+        }
+        attributes.set(Attributes.LAST_MODIFIED_TIME, Long.toString(time));
+        metaMap.put(mapName, attributes);
+      }
+
+      // keep a newer time recorded meanwhile
+      lastModifiedTimes.remove(mapName, time);
+    }
+  }
+
   @Override
   public void beforeClose() {
+    flushLastModifiedTimes();
     alert(StoreEvents.Closing);
   }
 
@@ -23,6 +23,8 @@ import xyz.vopen.framework.cropdb.common.RecordStream;
 import xyz.vopen.framework.cropdb.common.tuples.Pair;
 import xyz.vopen.framework.cropdb.common.util.StringUtils;
 
+import java.util.Map;
+
 /**
  * Represents a Crop key-value pair map. Every piece of data in a Crop database is stored in {@link
  * CropMap}.
@@ -86,6 +88,18 @@ public interface CropMap<Key, Value> extends MetadataAware, AutoCloseable {
    */
   void put(Key key, Value value);
 
+  /**
+   * Associates all the key-value pairs with this map, replacing the values of existing keys. The
+   * store may write the pairs together instead of one by one.
+   *
+   * @param entries the key-value pairs (the values may not be null).
+   */
+  default void putAll(Map<Key, Value> entries) {
+    for (Map.Entry<Key, Value> entry : entries.entrySet()) {
+      put(entry.getKey(), entry.getValue());
+    }
+  }
+
   /**
    * Get the number of entries, as a integer. Integer.MAX_VALUE is returned if there are more than
    * this entries.
@@ -94,6 +108,16 @@ public interface CropMap<Key, Value> extends MetadataAware, AutoCloseable {
    */
   long size();
 
+  /**
+   * Gets an estimate of the number of entries, for stores which can estimate it faster than they
+   * can count it.
+   *
+   * @return the estimated number of entries.
+   */
+  default long estimateSize() {
+    return size();
+  }
+
   /**
    * Add a key-value pair if it does not yet exist.
    *
@@ -170,11 +194,40 @@ public interface CropMap<Key, Value> extends MetadataAware, AutoCloseable {
    */
   RecordStream<Pair<Key, Value>> reversedEntries();
 
+  /**
+   * Gets a {@link RecordStream} view of the mappings whose keys lie within a range. A
+   * <code>null</code> bound leaves that end of the range open.
+   *
+   * <p>The default implementation walks the ordered entries of the whole map, skipping the keys
+   * before the range and stopping after it. Stores which can seek to a key should override it.
+   *
+   * @param from the lower bound of the range
+   * @param fromInclusive `true` if the lower bound is to be included
+   * @param to the upper bound of the range
+   * @param toInclusive `true` if the upper bound is to be included
+   * @param reverse `true` to iterate from the upper bound down to the lower bound
+   * @return the record stream
+   */
+  default RecordStream<Pair<Key, Value>> entries(
+      Key from, boolean fromInclusive, Key to, boolean toInclusive, boolean reverse) {
+    if (!reverse) {
+      return () ->
+          new KeyRangeIterator<>(
+              entries().iterator(), from, fromInclusive, to, toInclusive, false);
+    }
+    return () ->
+        new KeyRangeIterator<>(
+            reversedEntries().iterator(), to, toInclusive, from, fromInclusive, true);
+  }
+
   /** Deletes the map from the store. */
   void drop();
 
   /** Gets the attributes of this map. */
   default Attributes getAttributes() {
+    // write the pending modification times first
+    getStore().flushLastModifiedTimes();
+
     CropMap<String, Attributes> metaMap =
         getStore().openMap(Constants.META_MAP_NAME, String.class, Attributes.class);
     if (metaMap != null && !getName().contentEquals(Constants.META_MAP_NAME)) {
@@ -195,16 +248,6 @@ public interface CropMap<Key, Value> extends MetadataAware, AutoCloseable {
   /** Update last modified time of the map. */
   default void updateLastModifiedTime() {
     if (StringUtils.isNullOrEmpty(getName()) || Constants.META_MAP_NAME.equals(getName())) return;
-
-    CropMap<String, Attributes> metaMap =
-        getStore().openMap(Constants.META_MAP_NAME, String.class, Attributes.class);
-    if (metaMap != null) {
-      Attributes attributes = metaMap.get(getName());
-      if (attributes == null) {
-        attributes = new Attributes(getName());
-        metaMap.put(getName(), attributes);
-      }
-      attributes.set(Attributes.LAST_MODIFIED_TIME, Long.toString(System.currentTimeMillis()));
-    }
+    getStore().updateLastModifiedTime(getName());
   }
 }
@@ -17,6 +17,8 @@
 package xyz.vopen.framework.cropdb.store;
 
 import xyz.vopen.framework.cropdb.collection.CropCollection;
+import xyz.vopen.framework.cropdb.collection.meta.Attributes;
+import xyz.vopen.framework.cropdb.common.Constants;
 import xyz.vopen.framework.cropdb.index.BoundingBox;
 import xyz.vopen.framework.cropdb.common.module.CropPlugin;
 import xyz.vopen.framework.cropdb.repository.ObjectRepository;
@@ -24,6 +26,7 @@ import xyz.vopen.framework.cropdb.store.events.StoreEventListener;
 
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Supplier;
 
 /**
  * Represents a storage for Crop database.
@@ -85,6 +88,46 @@ public interface CropStore<Config extends StoreConfig> extends CropPlugin {
    */
   void commit();
 
+  /**
+   * Runs a unit of work, writing all the changes it makes to the maps of this store as one atomic
+   * batch. If the unit of work fails none of its changes are written. A unit of work started
+   * while another one is running on the same thread becomes part of the running one.
+   *
+   * <p>Within the unit of work, reads by key see its own changes, scans see only the changes
+   * already written. A store which can not write batches writes the changes as they are made.
+   *
+   * @param <T> the result type
+   * @param unitOfWork the unit of work
+   * @return the result of the unit of work
+   */
+  default <T> T runInBatch(Supplier<T> unitOfWork) {
+    return unitOfWork.get();
+  }
+
+  /**
+   * Updates the last modified time of a map in its {@link Attributes}.
+   *
+   * @param mapName the map name
+   */
+  default void updateLastModifiedTime(String mapName) {
+    CropMap<String, Attributes> metaMap =
+        openMap(Constants.META_MAP_NAME, String.class, Attributes.class);
+    if (metaMap != null) {
+      Attributes attributes = metaMap.get(mapName);
+      if (attributes == null) {
+        attributes = new Attributes(mapName);
+      }
+      attributes.set(Attributes.LAST_MODIFIED_TIME, Long.toString(System.currentTimeMillis()));
+      metaMap.put(mapName, attributes);
+    }
+  }
+
+  /**
+   * Writes the last modified times of the maps which are not written yet to their {@link
+   * Attributes}.
+   */
+  default void flushLastModifiedTimes() {}
+
   /** This method runs before store {@link #close()}, to run cleanup routines. */
   void beforeClose();
 
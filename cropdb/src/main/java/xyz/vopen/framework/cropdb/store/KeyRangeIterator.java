@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2021-2022. CropDB author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.vopen.framework.cropdb.store;
+
+import xyz.vopen.framework.cropdb.common.tuples.Pair;
+import xyz.vopen.framework.cropdb.common.util.Comparables;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates the entries of a key range out of the ordered entries of a whole {@link CropMap}. The
+ * entries before the range are skipped and the iteration stops at the first entry after it.
+ *
+ * @param <Key> the key type
+ * @param <Value> the value type
+ * @author <a href="mailto:iskp.me@gmail.com">Elve.Xu</a>
+ * @since 4.0
+ */
+class KeyRangeIterator<Key, Value> implements Iterator<Pair<Key, Value>> {
+  private final Iterator<Pair<Key, Value>> iterator;
+  private final Key start;
+  private final boolean startInclusive;
+  private final Key end;
+  private final boolean endInclusive;
+  private final int direction;
+
+  private Pair<Key, Value> nextEntry;
+  private boolean done;
+
+  /**
+   * Instantiates a new {@link KeyRangeIterator}.
+   *
+   * @param iterator the entries of the map, in ascending or descending key order
+   * @param start the first bound met by the iteration, or <code>null</code>
+   * @param startInclusive if the first bound is included
+   * @param end the last bound met by the iteration, or <code>null</code>
+   * @param endInclusive if the last bound is included
+   * @param reverse if the entries are in descending key order
+   */
+  KeyRangeIterator(
+      Iterator<Pair<Key, Value>> iterator,
+      Key start,
+      boolean startInclusive,
+      Key end,
+      boolean endInclusive,
+      boolean reverse) {
+    this.iterator = iterator;
+    this.start = start;
+    this.startInclusive = startInclusive;
+    this.end = end;
+    this.endInclusive = endInclusive;
+    this.direction = reverse ? -1 : 1;
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (nextEntry == null && !done && iterator.hasNext()) {
+      Pair<Key, Value> entry = iterator.next();
+      if (start != null) {
+        int result = compare(entry.getFirst(), start);
+        if (result < 0 || (result == 0 && !startInclusive)) {
+          continue;
+        }
+      }
+
+      if (end != null) {
+        int result = compare(entry.getFirst(), end);
+        if (result > 0 || (result == 0 && !endInclusive)) {
+          done = true;
+          break;
+        }
+      }
+      nextEntry = entry;
+    }
+    return nextEntry != null;
+  }
+
+  @Override
+  public Pair<Key, Value> next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    Pair<Key, Value> result = nextEntry;
+    nextEntry = null;
+    return result;
+  }
+
+  // the order of the keys in the direction of the iteration
+  private int compare(Key key, Key bound) {
+    return direction * Comparables.compare((Comparable<?>) key, (Comparable<?>) bound);
+  }
+}
@@ -95,6 +95,15 @@ public class InMemoryMap<Key, Value> implements CropMap<Key, Value> {
     updateLastModifiedTime();
   }
 
+  @Override
+  public void putAll(Map<Key, Value> entries) {
+    for (Value value : entries.values()) {
+      ValidationUtils.notNull(value, "value cannot be null");
+    }
+    backingMap.putAll(entries);
+    updateLastModifiedTime();
+  }
+
   @Override
   public long size() {
     return backingMap.size();
@@ -104,10 +113,7 @@ public class InMemoryMap<Key, Value> implements CropMap<Key, Value> {
   public Value putIfAbsent(Key key, Value value) {
     ValidationUtils.notNull(value, "value cannot be null");
 
-    Value v = get(key);
-    if (v == null) {
-      put(key, value);
-    }
+    Value v = backingMap.putIfAbsent(key, value);
     updateLastModifiedTime();
     return v;
   }
@@ -122,6 +128,25 @@ public class InMemoryMap<Key, Value> implements CropMap<Key, Value> {
     return getStream(backingMap.descendingMap());
   }
 
+  @Override
+  public RecordStream<Pair<Key, Value>> entries(
+      Key from, boolean fromInclusive, Key to, boolean toInclusive, boolean reverse) {
+    NavigableMap<Key, Value> rangeMap;
+    if (from != null && to != null) {
+      if (backingMap.comparator().compare(from, to) > 0) {
+        return RecordStream.empty();
+      }
+      rangeMap = backingMap.subMap(from, fromInclusive, to, toInclusive);
+    } else if (from != null) {
+      rangeMap = backingMap.tailMap(from, fromInclusive);
+    } else if (to != null) {
+      rangeMap = backingMap.headMap(to, toInclusive);
+    } else {
+      rangeMap = backingMap;
+    }
+    return getStream(reverse ? rangeMap.descendingMap() : rangeMap);
+  }
+
   @Override
   public Key higherKey(Key key) {
     if (key == null) {
@@ -29,16 +29,16 @@ public class InMemoryRTree<Key extends BoundingBox, Value> implements CropRTree<
 
   @Override
   public void add(Key key, CropId cropId) {
-    if (cropId != null && cropId.getIdValue() != null) {
-      SpatialKey spatialKey = getKey(key, Long.parseLong(cropId.getIdValue()));
+    if (cropId != null) {
+      SpatialKey spatialKey = getKey(key, cropId.getLongValue());
       backingMap.put(spatialKey, key);
     }
   }
 
   @Override
   public void remove(Key key, CropId cropId) {
-    if (cropId != null && cropId.getIdValue() != null) {
-      SpatialKey spatialKey = getKey(key, Long.parseLong(cropId.getIdValue()));
+    if (cropId != null) {
+      SpatialKey spatialKey = getKey(key, cropId.getLongValue());
       backingMap.remove(spatialKey);
     }
   }
@@ -50,7 +50,7 @@ public class InMemoryRTree<Key extends BoundingBox, Value> implements CropRTree<
 
     for (SpatialKey sk : backingMap.keySet()) {
       if (isOverlap(sk, spatialKey)) {
-        set.add(CropId.createId(Long.toString(sk.getId())));
+        set.add(CropId.createId(sk.getId()));
       }
     }
 
@@ -64,7 +64,7 @@ public class InMemoryRTree<Key extends BoundingBox, Value> implements CropRTree<
 
     for (SpatialKey sk : backingMap.keySet()) {
       if (isInside(sk, spatialKey)) {
-        set.add(CropId.createId(Long.toString(sk.getId())));
+        set.add(CropId.createId(sk.getId()));
       }
     }
 
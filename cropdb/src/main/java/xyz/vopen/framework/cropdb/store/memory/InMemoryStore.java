@@ -52,6 +52,7 @@ public final class InMemoryStore extends AbstractCropStore<InMemoryConfig> {
 
   @Override
   public void commit() {
+    flushLastModifiedTimes();
     alert(StoreEvents.Commit);
   }
 
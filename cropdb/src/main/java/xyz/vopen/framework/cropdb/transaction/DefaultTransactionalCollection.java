@@ -260,6 +260,17 @@ class DefaultTransactionalCollection implements CropCollection {
     }
   }
 
+  @Override
+  public long count(Filter filter) {
+    try {
+      readLock.lock();
+      checkOpened();
+      return collectionOperations.count(filter);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
   @Override
   public Document getById(CropId cropId) {
     notNull(cropId, "cropId cannot be null");
@@ -326,7 +337,7 @@ class DefaultTransactionalCollection implements CropCollection {
       if (indexOptions == null) {
         collectionOperations.createIndex(fields, IndexType.UNIQUE);
       } else {
-        collectionOperations.createIndex(fields, indexOptions.getIndexType());
+        collectionOperations.createIndex(fields, indexOptions);
       }
     } finally {
       writeLock.unlock();
@@ -443,7 +454,7 @@ class DefaultTransactionalCollection implements CropCollection {
     journalEntry.setRollback(
         () -> {
           if (indexEntry.get() != null) {
-            primary.createIndex(indexOptions(indexEntry.get().getIndexType()), fieldNames);
+            primary.createIndex(indexOptions(indexEntry.get()), fieldNames);
           }
         });
     transactionContext.getJournal().add(journalEntry);
@@ -473,7 +484,7 @@ class DefaultTransactionalCollection implements CropCollection {
           for (IndexDescriptor indexDescriptor : indexEntries) {
             String[] fieldNames =
                 indexDescriptor.getIndexFields().getFieldNames().toArray(new String[0]);
-            primary.createIndex(indexOptions(indexDescriptor.getIndexType()), fieldNames);
+            primary.createIndex(indexOptions(indexDescriptor), fieldNames);
           }
         });
     transactionContext.getJournal().add(journalEntry);
@@ -536,7 +547,7 @@ class DefaultTransactionalCollection implements CropCollection {
           for (IndexDescriptor indexDescriptor : indexEntries) {
             String[] fieldNames =
                 indexDescriptor.getIndexFields().getFieldNames().toArray(new String[0]);
-            collection.createIndex(indexOptions(indexDescriptor.getIndexType()), fieldNames);
+            collection.createIndex(indexOptions(indexDescriptor), fieldNames);
           }
 
           for (Document document : documentList) {
@@ -149,6 +149,11 @@ class DefaultTransactionalRepository<T> implements ObjectRepository<T> {
     return operations.find(filter, findOptions, type);
   }
 
+  @Override
+  public long count(Filter filter) {
+    return operations.count(filter);
+  }
+
   @Override
   public <I> T getById(I id) {
     T item = primary == null ? null : primary.getById(id);
@@ -2,6 +2,8 @@ package xyz.vopen.framework.cropdb.transaction;
 
 import xyz.vopen.framework.cropdb.common.RecordStream;
 import xyz.vopen.framework.cropdb.common.tuples.Pair;
+import xyz.vopen.framework.cropdb.common.util.Comparables;
+import xyz.vopen.framework.cropdb.index.CropIdBitmap;
 import xyz.vopen.framework.cropdb.store.CropMap;
 import xyz.vopen.framework.cropdb.store.CropStore;
 import xyz.vopen.framework.cropdb.store.memory.InMemoryMap;
@@ -68,6 +70,11 @@ class TransactionalMap<K, V> implements CropMap<K, V> {
         List<?> list = deepCopy((CopyOnWriteArrayList<?>) result);
         backingMap.put(k, (V) list);
         result = (V) list;
+      } else if (result instanceof CropIdBitmap) {
+        // create a copy of the posting list so that it does not effect the original one
+        CropIdBitmap bitmap = new CropIdBitmap((CropIdBitmap) result);
+        backingMap.put(k, (V) bitmap);
+        result = (V) bitmap;
       }
     }
 
@@ -175,6 +182,72 @@ class TransactionalMap<K, V> implements CropMap<K, V> {
     return getStream(primary.reversedEntries(), backingMap.reversedEntries());
   }
 
+  @Override
+  public RecordStream<Pair<K, V>> entries(
+      K from, boolean fromInclusive, K to, boolean toInclusive, boolean reverse) {
+    if (cleared) {
+      return RecordStream.empty();
+    }
+
+    RecordStream<Pair<K, V>> primaryStream =
+        primary.entries(from, fromInclusive, to, toInclusive, reverse);
+    RecordStream<Pair<K, V>> backingStream =
+        backingMap.entries(from, fromInclusive, to, toInclusive, reverse);
+
+    // merge both ordered streams, entries of the backing map take precedence
+    return () ->
+        new Iterator<Pair<K, V>>() {
+          private final Iterator<Pair<K, V>> primaryIterator = primaryStream.iterator();
+          private final Iterator<Pair<K, V>> iterator = backingStream.iterator();
+          private Pair<K, V> primaryPair = nextPrimary();
+          private Pair<K, V> backingPair = iterator.hasNext() ? iterator.next() : null;
+
+          @Override
+          public boolean hasNext() {
+            return primaryPair != null || backingPair != null;
+          }
+
+          @Override
+          public Pair<K, V> next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+
+            Pair<K, V> result;
+            int cmp = primaryPair == null ? 1 : backingPair == null ? -1 : compareKeys();
+            if (cmp < 0) {
+              result = primaryPair;
+              primaryPair = nextPrimary();
+            } else {
+              if (cmp == 0) {
+                primaryPair = nextPrimary();
+              }
+              result = backingPair;
+              backingPair = iterator.hasNext() ? iterator.next() : null;
+            }
+            return result;
+          }
+
+          @SuppressWarnings("rawtypes")
+          private int compareKeys() {
+            int cmp =
+                Comparables.compare(
+                    (Comparable) primaryPair.getFirst(), (Comparable) backingPair.getFirst());
+            return reverse ? -cmp : cmp;
+          }
+
+          private Pair<K, V> nextPrimary() {
+            while (primaryIterator.hasNext()) {
+              Pair<K, V> pair = primaryIterator.next();
+              if (!tombstones.contains(pair.getFirst())) {
+                return pair;
+              }
+            }
+            return null;
+          }
+        };
+  }
+
   @Override
   public K higherKey(K k) {
     if (cleared) {
@@ -22,16 +22,16 @@ class TransactionalRTree<Key extends BoundingBox, Value> implements CropRTree<Ke
 
   @Override
   public void add(Key key, CropId cropId) {
-    if (cropId != null && cropId.getIdValue() != null) {
-      SpatialKey spatialKey = getKey(key, Long.parseLong(cropId.getIdValue()));
+    if (cropId != null) {
+      SpatialKey spatialKey = getKey(key, cropId.getLongValue());
       map.put(spatialKey, key);
     }
   }
 
   @Override
   public void remove(Key key, CropId cropId) {
-    if (cropId != null && cropId.getIdValue() != null) {
-      SpatialKey spatialKey = getKey(key, Long.parseLong(cropId.getIdValue()));
+    if (cropId != null) {
+      SpatialKey spatialKey = getKey(key, cropId.getLongValue());
       map.remove(spatialKey);
     }
   }
@@ -43,7 +43,7 @@ class TransactionalRTree<Key extends BoundingBox, Value> implements CropRTree<Ke
 
     for (SpatialKey sk : map.keySet()) {
       if (isOverlap(sk, spatialKey)) {
-        set.add(CropId.createId(Long.toString(sk.getId())));
+        set.add(CropId.createId(sk.getId()));
       }
     }
 
@@ -58,7 +58,7 @@ class TransactionalRTree<Key extends BoundingBox, Value> implements CropRTree<Ke
 
     for (SpatialKey sk : map.keySet()) {
       if (isInside(sk, spatialKey)) {
-        set.add(CropId.createId(Long.toString(sk.getId())));
+        set.add(CropId.createId(sk.getId()));
       }
     }
 